@@ -1,6 +1,9 @@
 package com.domhauton.wanbot;
 
 import com.domhauton.wanbot.bot.BotController;
+import com.domhauton.wanbot.bot.moderation.ModerationSubscriber;
+import com.domhauton.wanbot.chat.listener.BackpressuredMessagePublisher;
+import com.domhauton.wanbot.chat.listener.OverflowPolicy;
 import com.domhauton.wanbot.chat.listener.TwitchChannelListener;
 import com.domhauton.wanbot.chat.sender.TwitchMessageRouter;
 import com.domhauton.wanbot.config.BotConfig;
@@ -11,11 +14,17 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 public final class Main {
   private static final Logger LOGGER = LogManager.getLogger();
+  private static final String BLACKLIST_JOURNAL_NAME = "blacklist.journal";
+  private static final String CHAT_ARCHIVE_NAME = "archive";
+  private static final int MODERATION_MAX_IN_FLIGHT = 256;
+  private static final int MODERATION_BUFFER_SIZE = 4096;
+  private static final int MODERATION_MAX_DEGRADED_PER_SHARD = 1024;
   private static final String DEFAULT_CONFIG_LOCATION = System.getProperty("user.home") + File.separator + "wanbot" + File.separator + "config.yml";
 
   public static void main(String[] args) {
@@ -28,13 +37,17 @@ public final class Main {
       CommandLine cmd = parser.parse(options, args);
       Path configLocation = Paths.get(cmd.getOptionValue("config", DEFAULT_CONFIG_LOCATION));
       BotConfig botConfig = getBotConfig(configLocation);
-      startBot(botConfig);
+      startBot(botConfig, configLocation.resolveSibling(BLACKLIST_JOURNAL_NAME),
+          configLocation.resolveSibling(CHAT_ARCHIVE_NAME));
     } catch (ParseException e) {
       LOGGER.error("Argument parsing failed. Reason: {}", e.getMessage());
       System.exit(1);
     } catch (ConfigException e) {
       LOGGER.error("Config loading failed. Reason: {}", e.getMessage());
       System.exit(2);
+    } catch (IOException e) {
+      LOGGER.error("Blacklist or chat archive loading failed. Reason: {}", e.getMessage());
+      System.exit(3);
     }
   }
 
@@ -49,13 +62,26 @@ public final class Main {
     }
   }
 
-  private static void startBot(BotConfig botConfig) {
+  private static void startBot(BotConfig botConfig, Path blacklistJournalPath, Path chatArchiveDirectory)
+      throws IOException {
     TwitchMessageRouter twitchMessageRouter = new TwitchMessageRouter(botConfig.getTwitch());
 
-    BotController bot = new BotController(twitchMessageRouter::sendMessage, botConfig.getTwitch().getChannel().getChannel());
+    BotController bot = new BotController(twitchMessageRouter::sendMessage, botConfig.getTwitch().getChannel().getChannel(),
+        blacklistJournalPath, chatArchiveDirectory);
+    ModerationSubscriber moderationSubscriber = new ModerationSubscriber(bot::processMessage,
+        bot::processMessageDegraded, Runtime.getRuntime().availableProcessors(), MODERATION_MAX_IN_FLIGHT,
+        MODERATION_MAX_DEGRADED_PER_SHARD);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      moderationSubscriber.close();
+      bot.close();
+    }));
 
     TwitchChannelListener twitchChannelListener = new TwitchChannelListener(botConfig.getTwitch());
-    twitchChannelListener.listen();
-    twitchChannelListener.addOutput(bot::processMessage);
+    BackpressuredMessagePublisher messagePublisher = new BackpressuredMessagePublisher(twitchChannelListener);
+    // Past the buffer, the oldest messages only get the cheap checks, on their shard, until moderation
+    // catches up. Each shard queues a bounded number of those and drops the rest.
+    messagePublisher.subscribe(moderationSubscriber,
+        OverflowPolicy.degradeTo(MODERATION_BUFFER_SIZE, moderationSubscriber::acceptDegraded));
+    messagePublisher.listen();
   }
 }
@@ -1,12 +1,20 @@
 package com.domhauton.wanbot.bot;
 
+import com.domhauton.wanbot.bot.archive.ChatArchiveWriter;
 import com.domhauton.wanbot.bot.channel.ChannelManager;
 import com.domhauton.wanbot.bot.channel.ChannelOperationException;
 import com.domhauton.wanbot.bot.channel.TwitchUser;
-import com.domhauton.wanbot.bot.channel.message.ImmutableTwitchMessageList;
+import com.domhauton.wanbot.bot.channel.blacklist.BlacklistManager;
+import com.domhauton.wanbot.bot.channel.blacklist.BlacklistType;
 import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
 import com.domhauton.wanbot.bot.channel.permissions.UserPermission;
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingBoolean;
 import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.domhauton.wanbot.bot.moderation.ModerationAction;
+import com.domhauton.wanbot.bot.moderation.ModerationContext;
+import com.domhauton.wanbot.bot.moderation.ModerationEngine;
+import com.domhauton.wanbot.bot.moderation.ModerationRules;
+import com.domhauton.wanbot.bot.moderation.ModerationVerdict;
 import com.domhauton.wanbot.bot.util.DateTimeUtil;
 import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
 import com.domhauton.wanbot.chat.data.OutboundTwitchMessage;
@@ -15,7 +23,7 @@ import com.domhauton.wanbot.chat.data.OutboundTwitchWhisper;
 import com.domhauton.wanbot.url.URLConverter;
 import com.domhauton.wanbot.url.URLConverterImpl;
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joda.time.DateTime;
@@ -24,6 +32,9 @@ import org.joda.time.Duration;
 import org.joda.time.Period;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -31,37 +42,71 @@ import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class BotController implements Runnable, Closeable {
+  private static final ImmutableList<String> DEFAULT_BLOCKED_WORDS = ImmutableList.of("nigger", "nigga", "nazi", "strawpoll.me", "bit.do", "t.co", "lnkd.in", "db.tt", "qr.ae", "adf.ly", "goo.gl", "bitly.com", "cur.lv", "tinyurl.com", "ow.ly", "bit.ly", "adcrun.ch", "ity.im", "q.gs", "viralurl.com", "is.gd", "vur.me", "bc.vc", "twitthis.com", "u.to", "j.mp", "buzurl.com", "cutt.us", "u.bb", "yourls.org", "crisco.com", "x.co", "adcraft.co");
+  // Permissions, blacklist, symbols, message rate and exact repeats. All cheap per message.
+  private static final int DEGRADED_RULE_COST = 3;
   private final Logger log = LogManager.getLogger();
-  private final Logger messageLog = LogManager.getLogger("Message Log");
   private final Logger actionLog = LogManager.getLogger("Action Log");
   private final MessageRepeater messageRepeater;
   private final Consumer<OutboundTwitchMessage> twitchMessageConsumer;
 
   private ChannelManager channelManager;
-  private Set<String> blockedWords;
-  private Set<String> blockedMessages;
+  private final BlacklistManager blacklistManager;
+  private final ChatArchiveWriter chatArchiveWriter;
+  private final ModerationEngine moderationEngine;
 
   private String lastHostLink;
 
   private int maximumMessagesToAverageTime = 20;
   private int linkRepeatCountHost = 7;
   private int linkRepeatCountMod = 5;
-  private float messagesPerSecond = 2.5f;
-  private int repetitionSearch = 4;
 
   private DateTime showStartTime = new DateTime(2016, 3, 11, 16, 30, DateTimeZone.forTimeZone(TimeZone.getTimeZone("America/Vancouver"))); //The set time the show should run every week.
   private DateTime commandTimeTTL, commandTimeLLL, commandTimeHelp, streamStartTime;
-  private ImmutableSet<Character> permittedChars;
 
   private List<String> commandWords = new ArrayList<>(Arrays.asList("!ttl", "!lll", "!help", "!ttt"));
 
   private URLConverter urlConverter = new URLConverterImpl();
 
   public BotController(Consumer<OutboundTwitchMessage> twitchMessageConsumer, String channelName) {
-    channelManager = new ChannelManager(channelName);
-    permittedChars = ImmutableSet.copyOf("abcdefghijklmnopqrstuvwxyz.!@$%123454567890".chars().mapToObj(a -> (char) a).collect(Collectors.toList()));
-    this.blockedMessages = new HashSet<>();
-    this.blockedWords = new HashSet<>();
+    this(twitchMessageConsumer, channelName, addDefaultBlockedWords(new BlacklistManager()), null);
+  }
+
+  /**
+   * @param blacklistJournalPath Blacklist changes are persisted here and replayed on startup.
+   */
+  public BotController(
+      Consumer<OutboundTwitchMessage> twitchMessageConsumer,
+      String channelName,
+      Path blacklistJournalPath) throws IOException {
+    this(twitchMessageConsumer, channelName, openBlacklist(blacklistJournalPath), null);
+  }
+
+  /**
+   * @param blacklistJournalPath Blacklist changes are persisted here and replayed on startup.
+   * @param chatArchiveDirectory Every channel message is archived here.
+   */
+  public BotController(
+      Consumer<OutboundTwitchMessage> twitchMessageConsumer,
+      String channelName,
+      Path blacklistJournalPath,
+      Path chatArchiveDirectory) throws IOException {
+    this(twitchMessageConsumer, channelName, openBlacklist(blacklistJournalPath),
+        ChatArchiveWriter.open(chatArchiveDirectory));
+  }
+
+  /**
+   * @param chatArchiveWriter null to not archive messages.
+   */
+  private BotController(
+      Consumer<OutboundTwitchMessage> twitchMessageConsumer,
+      String channelName,
+      BlacklistManager blacklistManager,
+      ChatArchiveWriter chatArchiveWriter) {
+    this.blacklistManager = blacklistManager;
+    this.chatArchiveWriter = chatArchiveWriter;
+    channelManager = new ChannelManager(channelName, blacklistManager);
+    moderationEngine = new ModerationEngine(ModerationRules.defaults(commandWords));
     this.urlConverter = urlConverter;
     this.twitchMessageConsumer = twitchMessageConsumer;
 
@@ -76,15 +121,32 @@ public class BotController implements Runnable, Closeable {
    * Processes the given twitchMessage as required for the channel.
    */
   public void processMessage(InboundTwitchMessage inboundTwitchMessage) {
-    TwitchMessage twitchMessage = (TwitchMessage) inboundTwitchMessage;
+    processMessage(inboundTwitchMessage, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Processes the given twitchMessage with only the cheap moderation rules. Used to keep up while
+   * moderation is behind. Like processMessage, calls for one user must be serialised, e.g. on the
+   * user's moderation shard.
+   */
+  public void processMessageDegraded(InboundTwitchMessage inboundTwitchMessage) {
+    processMessage(inboundTwitchMessage, DEGRADED_RULE_COST);
+  }
+
+  private void processMessage(InboundTwitchMessage inboundTwitchMessage, int maxRuleCost) {
+    TwitchMessage twitchMessage = inboundTwitchMessage instanceof TwitchMessage
+        ? (TwitchMessage) inboundTwitchMessage
+        : channelManager.toTwitchMessage(inboundTwitchMessage, DateTime.now());
     try {
-      channelManager.addChannelMessage(twitchMessage);
-      //TODO Blacklist check!
+      channelManager.recordChannelMessage(twitchMessage);
     } catch (ChannelOperationException e) {
       //TODO Panic?
     }
+    moderateMessage(twitchMessage, maxRuleCost);
 
-    messageLog.info(twitchMessage::toString); //Stores the MESSAGE in the chat log.
+    if (chatArchiveWriter != null) {
+      chatArchiveWriter.append(twitchMessage); //Stores the MESSAGE in the chat archive.
+    }
     //TODO Direct some to Bot Command Executor.
   }
 
@@ -238,24 +300,23 @@ public class BotController implements Runnable, Closeable {
   }
 
   /**
-   * Checks if a MESSAGE is in the blacklist
+   * Opens the persisted blacklist. A new journal is seeded with the default blocked words.
    */
-  private void isMessagePermitted(TwitchMessage twitchMessage, Set<String> blockedWords, Set<String> blockedMessages) {
-    boolean containsBlacklistedWord = blockedWords.stream().anyMatch(twitchMessage::containsString);
-    boolean isBlacklistedMessage = blockedMessages.stream().anyMatch(twitchMessage::equalsSimplePayload);
-    boolean messagePermitted = containsBlacklistedWord || isBlacklistedMessage;
-    if (messagePermitted) {
-      timeoutUser(twitchMessage.getTwitchUser(),
-          twitchMessage.getTwitchChannel(),
-          TimeoutReason.BLACKLISTED_WORD);
-    }
+  private static BlacklistManager openBlacklist(Path blacklistJournalPath) throws IOException {
+    boolean newJournal = !Files.exists(blacklistJournalPath);
+    BlacklistManager blacklistManager = BlacklistManager.open(blacklistJournalPath);
+    return newJournal ? addDefaultBlockedWords(blacklistManager) : blacklistManager;
+  }
+
+  private static BlacklistManager addDefaultBlockedWords(BlacklistManager blacklistManager) {
+    blacklistManager.addAllToBlacklist(DEFAULT_BLOCKED_WORDS, BlacklistType.WORD);
+    return blacklistManager;
   }
 
   /**
-   * Generates the blacklist
+   * Sets up default permissions. The blacklist is loaded from its journal.
    */
   private void loadSettings() {
-    blockedWords.addAll(Stream.of("nigger", "nigga", "nazi", "strawpoll.me", "bit.do", "t.co", "lnkd.in", "db.tt", "qr.ae", "adf.ly", "goo.gl", "bitly.com", "cur.lv", "tinyurl.com", "ow.ly", "bit.ly", "adcrun.ch", "ity.im", "q.gs", "viralurl.com", "is.gd", "vur.me", "bc.vc", "twitthis.com", "u.to", "j.mp", "buzurl.com", "cutt.us", "u.bb", "yourls.org", "crisco.com", "x.co", "adcraft.co").collect(Collectors.toList()));
     Stream.of("slick_pc", "linustech", "luke_lafr")
         .map(TwitchUser::new)
         .forEach(user -> channelManager.setPermission(user, UserPermission.ChannelOwner));
@@ -268,33 +329,24 @@ public class BotController implements Runnable, Closeable {
   }
 
   /**
-   * If a senderOrChannel sends the same MESSAGE 3 times in a row they are timed out.
+   * Runs the moderation rules over the MESSAGE. At most one timeout is given per MESSAGE.
    */
-  private void spamDetector(TwitchMessage twitchMessage) {
-    ImmutableTwitchMessageList userMessages = channelManager
-        .getMessageSnapshot(twitchMessage.getTwitchUser());
-
-    if (twitchMessage.getMessage().length() > 5 && twitchMessage.getLegalCharRatio(permittedChars) < 0.1)
-      timeoutUser(twitchMessage.getTwitchUser(),
-          twitchMessage.getTwitchChannel(),
-          TimeoutReason.EXCESSIVE_SYMBOLS);
-
-    if (userMessages.size() > 2 && (float) userMessages.size() / (float) userMessages.getMessageTimePeriod().toStandardSeconds().getSeconds() > messagesPerSecond) {
-      timeoutUser(twitchMessage.getTwitchUser(),
-          twitchMessage.getTwitchChannel(),
-          TimeoutReason.MESSAGE_RATE);
-      return;
-    }
-
-    if (commandWords.contains(twitchMessage.getMessage())) return;
-    if (channelManager.getMessageSnapshot().containsSimplePayload(twitchMessage.getSimpleMessagePayload()) >= repetitionSearch)
-      timeoutUser(twitchMessage.getTwitchUser(),
-          twitchMessage.getTwitchChannel(),
-          TimeoutReason.CHAT_REPETITION);
-    else if (userMessages.containsSimplePayload(twitchMessage.getSimpleMessagePayload()) >= 2) {
-      timeoutUser(twitchMessage.getTwitchUser(),
-          twitchMessage.getTwitchChannel(),
-          TimeoutReason.MESSAGE_REPETITION);
+  /**
+   * Timeouts are only sent if the channel has turned on MODERATION_TIMEOUTS. Otherwise the verdict
+   * is logged, so the rules can be tuned on live chat before they act on it.
+   */
+  private void moderateMessage(TwitchMessage twitchMessage, int maxRuleCost) {
+    ModerationVerdict verdict = moderationEngine.moderate(new ModerationContext(twitchMessage, channelManager),
+        maxRuleCost);
+    if (verdict.getAction() == ModerationAction.TIMEOUT) {
+      if (channelManager.getChannelSetting(ChannelSettingBoolean.MODERATION_TIMEOUTS)) {
+        timeoutUser(twitchMessage.getTwitchUser(),
+            twitchMessage.getTwitchChannel(),
+            verdict.getTimeoutReason());
+      } else {
+        log.info("Moderation timeouts off. Would have timed out {}. Message: {}", twitchMessage::getUsername,
+            twitchMessage::getMessage);
+      }
     }
   }
 
@@ -329,7 +381,18 @@ public class BotController implements Runnable, Closeable {
 
   @Override
   public void close() {
-
+    try {
+      blacklistManager.close();
+    } catch (IOException e) {
+      log.error("Failed to close blacklist journal. {}", e.getMessage());
+    }
+    if (chatArchiveWriter != null) {
+      try {
+        chatArchiveWriter.close();
+      } catch (IOException e) {
+        log.error("Failed to close chat archive. {}", e.getMessage());
+      }
+    }
   }
 
   @Override
@@ -0,0 +1,74 @@
+package com.domhauton.wanbot.bot.archive;
+
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Exports a chat archive as tab separated text, one message per line:
+ * [ISO time][channel][username][message]. Tabs and line breaks in messages are escaped.
+ */
+public class ChatArchiveExporter {
+  private static final Logger log = LogManager.getLogger();
+  private static final DateTimeFormatter TIME_FORMAT = ISODateTimeFormat.dateTime();
+
+  private ChatArchiveExporter() {
+  }
+
+  /**
+   * Exports the whole archive to a UTF-8 text file, replacing it if it exists.
+   *
+   * @return number of messages exported.
+   */
+  public static long export(Path archiveDirectory, Path exportPath) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(exportPath, StandardCharsets.UTF_8)) {
+      long messageCount = export(archiveDirectory, writer);
+      log.info("Exported {} messages from chat archive {} to {}", messageCount, archiveDirectory, exportPath);
+      return messageCount;
+    }
+  }
+
+  /**
+   * @return number of messages exported.
+   */
+  public static long export(Path archiveDirectory, Writer writer) throws IOException {
+    long messageCount = 0L;
+    try (Stream<TwitchMessage> twitchMessages = ChatArchiveReader.read(archiveDirectory)) {
+      Iterator<TwitchMessage> messageIterator = twitchMessages.iterator();
+      while (messageIterator.hasNext()) {
+        writer.write(toLine(messageIterator.next()));
+        messageCount++;
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    writer.flush();
+    return messageCount;
+  }
+
+  static String toLine(TwitchMessage twitchMessage) {
+    return TIME_FORMAT.print(twitchMessage.getMessageDateTime()) + '\t'
+        + escape(twitchMessage.getTwitchChannel()) + '\t'
+        + escape(twitchMessage.getUsername()) + '\t'
+        + escape(twitchMessage.getMessage()) + '\n';
+  }
+
+  private static String escape(String field) {
+    return field.replace("\\", "\\\\")
+        .replace("\t", "\\t")
+        .replace("\n", "\\n")
+        .replace("\r", "\\r");
+  }
+}
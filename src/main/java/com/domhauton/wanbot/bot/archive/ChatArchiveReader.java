@@ -0,0 +1,140 @@
+package com.domhauton.wanbot.bot.archive;
+
+import com.domhauton.wanbot.bot.channel.TwitchUser;
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the messages of a chat archive back, oldest first, for analysis or replay. Segments are
+ * mapped read only one at a time. Reading a segment stops at its terminator or at the first record
+ * that fails its CRC, which is where a crash would have torn the archive.
+ */
+public class ChatArchiveReader {
+  private static final Logger log = LogManager.getLogger();
+
+  private ChatArchiveReader() {
+  }
+
+  /**
+   * Streams every archived message, e.g. into the bot's message handler for a replay. Segments are
+   * only read as the stream reaches them.
+   *
+   * @throws UncheckedIOException from the stream if a segment cannot be read.
+   */
+  public static Stream<TwitchMessage> read(Path archiveDirectory) throws IOException {
+    List<Path> segments = ChatArchiveSegment.listSegments(archiveDirectory);
+    Iterator<TwitchMessage> messageIterator = new MessageIterator(segments);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(messageIterator,
+        Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  private static class MessageIterator implements Iterator<TwitchMessage> {
+    private final Iterator<Path> segments;
+    // Messages from one user share a TwitchUser, rather than each allocating one.
+    private final Map<String, TwitchUser> twitchUsers;
+    private Path segmentPath;
+    private MappedByteBuffer buffer;
+    private TwitchMessage nextMessage;
+
+    MessageIterator(List<Path> segments) {
+      this.segments = segments.iterator();
+      twitchUsers = new HashMap<>();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (nextMessage == null) {
+        if (buffer != null) {
+          nextMessage = readRecord();
+        }
+        if (nextMessage == null) {
+          if (!segments.hasNext()) {
+            return false;
+          }
+          openSegment(segments.next());
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public TwitchMessage next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      TwitchMessage twitchMessage = nextMessage;
+      nextMessage = null;
+      return twitchMessage;
+    }
+
+    private void openSegment(Path nextSegmentPath) {
+      segmentPath = nextSegmentPath;
+      try (FileChannel fileChannel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+        buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to read chat archive segment " + segmentPath, e);
+      }
+      if (buffer.remaining() < ChatArchiveSegment.SEGMENT_HEADER_SIZE
+          || buffer.getInt() != ChatArchiveSegment.MAGIC
+          || buffer.getInt() != ChatArchiveSegment.VERSION) {
+        log.warn("Skipping {}. Not a chat archive segment.", segmentPath);
+        buffer = null;
+      }
+    }
+
+    /**
+     * @return next intact record of the segment, or null once there are none left.
+     */
+    private TwitchMessage readRecord() {
+      if (buffer.remaining() < ChatArchiveSegment.RECORD_HEADER_SIZE) {
+        buffer = null;
+        return null;
+      }
+      int recordOffset = buffer.position();
+      int payloadLength = buffer.getInt();
+      int crc = buffer.getInt();
+      int payloadOffset = buffer.position();
+      if (payloadLength < ChatArchiveSegment.PAYLOAD_HEADER_SIZE || payloadLength > buffer.remaining()
+          || crc != ChatArchiveSegment.checksum(buffer, payloadOffset, payloadOffset + payloadLength)) {
+        if (payloadLength != 0) {
+          log.warn("Chat archive segment {} is torn at offset {}. Skipping the rest.", segmentPath, recordOffset);
+        }
+        buffer = null;
+        return null;
+      }
+      long epochMillis = buffer.getLong();
+      int channelLength = buffer.getShort() & 0xFFFF;
+      int usernameLength = buffer.getShort() & 0xFFFF;
+      String channel = readString(channelLength);
+      String username = readString(usernameLength);
+      String message = readString(payloadOffset + payloadLength - buffer.position());
+      TwitchUser twitchUser = twitchUsers.computeIfAbsent(username, TwitchUser::new);
+      return new TwitchMessage(message, twitchUser, new DateTime(epochMillis), channel);
+    }
+
+    private String readString(int length) {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+}
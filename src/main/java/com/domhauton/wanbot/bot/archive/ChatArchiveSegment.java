@@ -0,0 +1,76 @@
+package com.domhauton.wanbot.bot.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Layout shared by the chat archive writer and reader. An archive is a directory of numbered
+ * segment files, each a fixed size and memory mapped. A segment starts with a magic number and
+ * version, followed by length prefixed records and a zero length terminator.
+ * <p>
+ * Record layout: [int payload length][int crc][long epoch millis][short channel length]
+ * [short username length][utf-8 channel][utf-8 username][utf-8 message]
+ */
+final class ChatArchiveSegment {
+  static final int MAGIC = 0x57434841;
+  static final int VERSION = 1;
+  static final int SEGMENT_HEADER_SIZE = 8;
+  static final int RECORD_HEADER_SIZE = 8;
+  static final int PAYLOAD_HEADER_SIZE = 12;
+  private static final String SEGMENT_PREFIX = "chat-";
+  private static final String SEGMENT_SUFFIX = ".archive";
+
+  private ChatArchiveSegment() {
+  }
+
+  static Path segmentPath(Path archiveDirectory, long segmentIndex) {
+    return archiveDirectory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+  }
+
+  /**
+   * @return segment files of the archive, oldest first. Empty if the directory does not exist.
+   */
+  static List<Path> listSegments(Path archiveDirectory) throws IOException {
+    if (!Files.isDirectory(archiveDirectory)) {
+      return Collections.emptyList();
+    }
+    List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> directoryStream =
+             Files.newDirectoryStream(archiveDirectory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      directoryStream.forEach(segments::add);
+    }
+    // Indexes are zero padded, so name order is segment order.
+    Collections.sort(segments);
+    return segments;
+  }
+
+  /**
+   * @return index of the segment file, or -1 if the name is not a segment name.
+   */
+  static long segmentIndex(Path segmentPath) {
+    String fileName = segmentPath.getFileName().toString();
+    try {
+      return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * @return CRC of the buffer between the offsets. Does not move the buffer.
+   */
+  static int checksum(ByteBuffer buffer, int fromOffset, int toOffset) {
+    ByteBuffer payload = buffer.duplicate();
+    payload.limit(toOffset).position(fromOffset);
+    CRC32 crc32 = new CRC32();
+    crc32.update(payload);
+    return (int) crc32.getValue();
+  }
+}
@@ -0,0 +1,185 @@
+package com.domhauton.wanbot.bot.archive;
+
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends chat messages to a binary archive of rolling, memory mapped segment files. Messages are
+ * queued and encoded by a background thread, so the message handler only pays for an offer. If the
+ * queue is full the message is dropped and counted rather than blocking chat handling. Records
+ * reach the page cache as they are written; segments are forced to disk when rolled and on close.
+ */
+public class ChatArchiveWriter implements Closeable {
+  private static final Logger log = LogManager.getLogger();
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+  static final int DEFAULT_QUEUE_SIZE = 16 * 1024;
+  private static final long POLL_MILLIS = 100L;
+
+  private final Path archiveDirectory;
+  private final int segmentSize;
+  private final BlockingQueue<TwitchMessage> pendingMessages;
+  private final AtomicLong droppedMessages;
+  private final Thread writerThread;
+  private volatile boolean closed;
+  private long segmentIndex;
+  private MappedByteBuffer buffer;
+  private IOException writeFailure;
+
+  private ChatArchiveWriter(Path archiveDirectory, int segmentSize, int queueSize, long firstSegmentIndex) {
+    this.archiveDirectory = archiveDirectory;
+    this.segmentSize = segmentSize;
+    pendingMessages = new ArrayBlockingQueue<>(queueSize);
+    droppedMessages = new AtomicLong();
+    writerThread = new Thread(this::drainMessages, "chat-archive-writer");
+    writerThread.setDaemon(true);
+    closed = false;
+    segmentIndex = firstSegmentIndex;
+  }
+
+  /**
+   * Opens the archive, creating the directory if needed. Existing segments are kept and new
+   * messages go to a new segment after them.
+   */
+  public static ChatArchiveWriter open(Path archiveDirectory) throws IOException {
+    return open(archiveDirectory, DEFAULT_SEGMENT_SIZE, DEFAULT_QUEUE_SIZE);
+  }
+
+  static ChatArchiveWriter open(Path archiveDirectory, int segmentSize, int queueSize) throws IOException {
+    if (segmentSize <= ChatArchiveSegment.SEGMENT_HEADER_SIZE + ChatArchiveSegment.RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+    }
+    Files.createDirectories(archiveDirectory);
+    List<Path> segments = ChatArchiveSegment.listSegments(archiveDirectory);
+    long firstSegmentIndex = segments.isEmpty()
+        ? 0L
+        : ChatArchiveSegment.segmentIndex(segments.get(segments.size() - 1)) + 1;
+    ChatArchiveWriter chatArchiveWriter = new ChatArchiveWriter(archiveDirectory, segmentSize, queueSize,
+        firstSegmentIndex);
+    chatArchiveWriter.rollSegment();
+    chatArchiveWriter.writerThread.start();
+    log.info("Opened chat archive {} at segment {}", archiveDirectory, firstSegmentIndex);
+    return chatArchiveWriter;
+  }
+
+  /**
+   * Queues the message for archiving. Never blocks.
+   *
+   * @return false if the message was dropped because the archive is closed or behind.
+   */
+  public boolean append(TwitchMessage twitchMessage) {
+    if (!closed && pendingMessages.offer(twitchMessage)) {
+      return true;
+    }
+    long dropped = droppedMessages.incrementAndGet();
+    if (Long.bitCount(dropped) == 1) {
+      log.warn("Chat archive dropped {} messages so far.", dropped);
+    }
+    return false;
+  }
+
+  public long getDroppedMessages() {
+    return droppedMessages.get();
+  }
+
+  private void drainMessages() {
+    try {
+      while (!closed || !pendingMessages.isEmpty()) {
+        TwitchMessage twitchMessage = pendingMessages.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (twitchMessage != null) {
+          writeRecord(twitchMessage);
+        }
+      }
+      buffer.force();
+    } catch (IOException e) {
+      log.error("Chat archive writing failed. {}", e.getMessage());
+      writeFailure = e;
+      closed = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeRecord(TwitchMessage twitchMessage) throws IOException {
+    byte[] channel = twitchMessage.getTwitchChannel().getBytes(StandardCharsets.UTF_8);
+    byte[] username = twitchMessage.getUsername().getBytes(StandardCharsets.UTF_8);
+    byte[] message = twitchMessage.getMessage().getBytes(StandardCharsets.UTF_8);
+    int payloadLength = ChatArchiveSegment.PAYLOAD_HEADER_SIZE + channel.length + username.length + message.length;
+    // Keep room for a zero length terminator after the record.
+    int requiredSpace = ChatArchiveSegment.RECORD_HEADER_SIZE + payloadLength + 4;
+    if (requiredSpace > segmentSize - ChatArchiveSegment.SEGMENT_HEADER_SIZE
+        || channel.length > 0xFFFF || username.length > 0xFFFF) {
+      log.warn("Message too large to archive: {}", twitchMessage);
+      droppedMessages.incrementAndGet();
+      return;
+    }
+    if (buffer.remaining() < requiredSpace) {
+      rollSegment();
+    }
+    int recordOffset = buffer.position();
+    int payloadOffset = recordOffset + ChatArchiveSegment.RECORD_HEADER_SIZE;
+    buffer.position(payloadOffset);
+    buffer.putLong(twitchMessage.getMessageDateTime().getMillis())
+        .putShort((short) channel.length)
+        .putShort((short) username.length)
+        .put(channel)
+        .put(username)
+        .put(message);
+    int recordEnd = buffer.position();
+    buffer.putInt(recordOffset, payloadLength);
+    buffer.putInt(recordOffset + 4, ChatArchiveSegment.checksum(buffer, payloadOffset, recordEnd));
+    buffer.putInt(recordEnd, 0);
+  }
+
+  /**
+   * Forces the current segment, if any, and maps the next one.
+   */
+  private void rollSegment() throws IOException {
+    if (buffer != null) {
+      buffer.force();
+      segmentIndex++;
+    }
+    Path segmentPath = ChatArchiveSegment.segmentPath(archiveDirectory, segmentIndex);
+    try (FileChannel fileChannel = FileChannel.open(segmentPath,
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // The mapping stays valid once the channel is closed.
+      buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+    buffer.putInt(ChatArchiveSegment.MAGIC).putInt(ChatArchiveSegment.VERSION);
+    log.debug("Rolled chat archive to segment {}", segmentPath);
+  }
+
+  /**
+   * Writes all queued messages and forces them to disk.
+   *
+   * @throws IOException if any message could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing chat archive " + archiveDirectory, e);
+    }
+    if (writeFailure != null) {
+      throw writeFailure;
+    }
+    log.info("Closed chat archive {}. Dropped messages: {}", archiveDirectory, droppedMessages.get());
+  }
+}
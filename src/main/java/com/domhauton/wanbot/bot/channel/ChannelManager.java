@@ -2,6 +2,7 @@ package com.domhauton.wanbot.bot.channel;
 
 import com.domhauton.wanbot.bot.channel.blacklist.BlacklistEntry;
 import com.domhauton.wanbot.bot.channel.blacklist.BlacklistManager;
+import com.domhauton.wanbot.bot.channel.blacklist.BlacklistMetricsSnapshot;
 import com.domhauton.wanbot.bot.channel.blacklist.BlacklistOperationException;
 import com.domhauton.wanbot.bot.channel.blacklist.BlacklistType;
 import com.domhauton.wanbot.bot.channel.message.ImmutableTwitchMessageList;
@@ -12,21 +13,23 @@ import com.domhauton.wanbot.bot.channel.permissions.PermissionsManager;
 import com.domhauton.wanbot.bot.channel.permissions.UserPermission;
 import com.domhauton.wanbot.bot.channel.settings.ChannelSettingDAOHashMapImpl;
 import com.domhauton.wanbot.bot.channel.settings.ChannelSettingDao;
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingDouble;
 import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingInteger;
 import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingString;
 import com.domhauton.wanbot.bot.channel.settings.enums.IChannelSetting;
 import com.domhauton.wanbot.bot.channel.timeouts.TimeoutManager;
 import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
 import com.domhauton.wanbot.url.URLConverter;
 import com.domhauton.wanbot.url.URLConverterImpl;
 import com.domhauton.wanbot.url.URLInvalidException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.stream.Collectors;
 
 /**
  * Created by Dominic Hauton on 12/03/2016.
@@ -35,26 +38,47 @@ import java.util.stream.Collectors;
  */
 public class ChannelManager {
   private static final Logger log = LogManager.getLogger();
+  // A bucket smaller than one token could never pay for a message.
+  private static final int MIN_USER_MESSAGE_BURST = 1;
+  // A bucket refilling any slower would in effect ban the user, and a negative rate drains it.
+  private static final double MIN_USER_MESSAGE_RATE = 0.01d;
+  // A REGEX budget below one step or millisecond would quarantine every entry.
+  private static final int MIN_REGEX_BUDGET = 1;
   private final String channelName;
+  private final UserStateTable userStateTable;
   private final PermissionsManager permissionsManager;
   private final MessageManager messageManager;
   private final TimeoutManager timeoutManager;
   private final BlacklistManager blacklistManager;
   private final ChannelSettingDao channelSettingDao;
   private final URLConverter urlConverter;
+  private final StripedTokenBucketTable messageTokenBuckets;
 
   public ChannelManager(String channelName) {
+    this(channelName, new BlacklistManager());
+  }
+
+  /**
+   * @param blacklistManager Pre-loaded blacklist, e.g. one replayed from a journal.
+   */
+  public ChannelManager(String channelName, BlacklistManager blacklistManager) {
+    this(channelName, new UserStateTable(), blacklistManager);
+  }
+
+  private ChannelManager(String channelName, UserStateTable userStateTable, BlacklistManager blacklistManager) {
     this(channelName,
-        new PermissionsManager(),
-        new MessageManager(),
-        new TimeoutManager(),
-        new BlacklistManager(),
+        userStateTable,
+        new PermissionsManager(userStateTable),
+        new MessageManager(userStateTable),
+        new TimeoutManager(userStateTable),
+        blacklistManager,
         new ChannelSettingDAOHashMapImpl(),
         new URLConverterImpl());
   }
 
   ChannelManager(
       String channelName,
+      UserStateTable userStateTable,
       PermissionsManager permissionsManager,
       MessageManager messageManager,
       TimeoutManager timeoutManager,
@@ -62,12 +86,15 @@ public class ChannelManager {
       ChannelSettingDao channelSettingDao,
       URLConverter urlConverter) {
     this.channelName = channelName;
+    this.userStateTable = userStateTable;
     this.permissionsManager = permissionsManager;
     this.messageManager = messageManager;
     this.timeoutManager = timeoutManager;
     this.blacklistManager = blacklistManager;
     this.channelSettingDao = channelSettingDao;
     this.urlConverter = urlConverter;
+    messageTokenBuckets = new StripedTokenBucketTable();
+    userStateTable.addEvictionListener(userState -> messageTokenBuckets.release(userState.getUserId()));
   }
 
   /**
@@ -98,6 +125,24 @@ public class ChannelManager {
     permissionsManager.changeUserPermission(twitchUser, newPermission);
   }
 
+  /**
+   * @return state of the user, created if the user is new. One lookup gives everything tracked about them.
+   */
+  public UserState getUserState(TwitchUser twitchUser) {
+    return userStateTable.getOrCreate(twitchUser);
+  }
+
+  /**
+   * Converts an inbound message, reusing the channel's TwitchUser for the sender.
+   */
+  public TwitchMessage toTwitchMessage(InboundTwitchMessage inboundTwitchMessage, DateTime receivedTime) {
+    return new TwitchMessage(
+        inboundTwitchMessage.getMessage(),
+        userStateTable.getTwitchUser(inboundTwitchMessage.getUsername()),
+        receivedTime,
+        inboundTwitchMessage.getTwitchChannel());
+  }
+
   /**
    * Adds a message to the channel message manager.
    *
@@ -105,14 +150,26 @@ public class ChannelManager {
    * @throws ChannelOperationException insertion failed. Reason unknown.
    */
   public boolean addChannelMessage(TwitchMessage message) throws ChannelOperationException {
-    if (messageManager.addMessage(message)) {
-      // n.b. Inverted boolean!
-      return !blacklistManager.isMessageBlacklisted(message.getMessage());
-    } else {
+    recordChannelMessage(message);
+    return !isMessageBlacklisted(message);
+  }
+
+  /**
+   * Adds a message to the channel message manager without checking it.
+   *
+   * @throws ChannelOperationException insertion failed. Reason unknown.
+   */
+  public void recordChannelMessage(TwitchMessage message) throws ChannelOperationException {
+    if (!messageManager.addMessage(message, userStateTable.getOrCreate(message.getTwitchUser()))) {
       throw new ChannelOperationException("Failed to insert message into channel. Reason Unknown.");
     }
   }
 
+  public boolean isMessageBlacklisted(TwitchMessage message) {
+    applyRegexBudget();
+    return blacklistManager.isMessageBlacklisted(message.getMessage(), message.getWordFoldedMessagePayload());
+  }
+
   public ImmutableTwitchMessageList getMessageSnapshot() {
     return messageManager.getChannelSnapshot();
   }
@@ -121,6 +178,87 @@ public class ChannelManager {
     return messageManager.getUserSnapshot(username);
   }
 
+  /**
+   * @return recent channel messages that arrived at or after the time. A copy.
+   */
+  public ImmutableTwitchMessageList getMessageSnapshotSince(DateTime since) {
+    return messageManager.getChannelSnapshotSince(since);
+  }
+
+  /**
+   * @return recent channel messages that arrived from the first time up to, not including, the second.
+   */
+  public ImmutableTwitchMessageList getMessageSnapshotBetween(DateTime from, DateTime to) {
+    return messageManager.getChannelSnapshotBetween(from, to);
+  }
+
+  /**
+   * @return recent messages of the user that arrived at or after the time. A copy.
+   */
+  public ImmutableTwitchMessageList getMessageSnapshotSince(TwitchUser twitchUser, DateTime since) {
+    return messageManager.getUserSnapshotSince(twitchUser, since);
+  }
+
+
+  /**
+   * @return messages per second over the user's recent messages. 0 if too few to tell.
+   */
+  public double getUserMessageRate(TwitchUser twitchUser) {
+    return messageManager.getUserMessageRate(twitchUser);
+  }
+
+  /**
+   * Takes a token from the sender's message bucket. Buckets hold the channel's user message burst
+   * and refill at its user message rate per second. A burst below one is raised to one, else every
+   * message would be refused, and a rate below the minimum, or not a number, is raised to the minimum.
+   *
+   * @param userState state of the sender, already looked up by the caller.
+   * @return false if the user is posting faster than the channel allows.
+   */
+  public boolean tryAcquireMessageToken(TwitchMessage twitchMessage, UserState userState) {
+    int burst = channelSettingDao.getSettingOrDefault(channelName, ChannelSettingInteger.USER_MESSAGE_BURST);
+    if (burst < MIN_USER_MESSAGE_BURST) {
+      log.warn("Invalid user message burst {} for channel {}. Using {}.", burst, channelName, MIN_USER_MESSAGE_BURST);
+      burst = MIN_USER_MESSAGE_BURST;
+    }
+    double refillPerSecond = channelSettingDao.getSettingOrDefault(channelName, ChannelSettingDouble
+        .USER_MESSAGE_RATE);
+    if (!(refillPerSecond >= MIN_USER_MESSAGE_RATE)) {
+      log.warn("Invalid user message rate {} for channel {}. Using {}.", refillPerSecond, channelName,
+          MIN_USER_MESSAGE_RATE);
+      refillPerSecond = MIN_USER_MESSAGE_RATE;
+    }
+    return messageTokenBuckets.tryAcquire(userState.getUserId(), twitchMessage.getMessageDateTime().getMillis(),
+        burst, refillPerSecond);
+  }
+
+  /**
+   * @return number of recent channel messages repeating the message, once normalised.
+   */
+  public int getChannelRepetitionCount(TwitchMessage twitchMessage) {
+    return messageManager.getChannelPayloadCount(twitchMessage);
+  }
+
+  /**
+   * @return number of recent channel messages nearly repeating the message, within the channel's
+   * near duplicate distance. Includes exact repeats.
+   */
+  public int getChannelNearDuplicateCount(TwitchMessage twitchMessage) {
+    Integer maxDistance = channelSettingDao.getSettingOrDefault(channelName, ChannelSettingInteger
+        .NEAR_DUPLICATE_DISTANCE);
+    return messageManager.getChannelNearDuplicateCount(twitchMessage, maxDistance);
+  }
+
+  /**
+   * @return share of the message's long substrings recently posted by the channel's copypasta
+   * user count of distinct users.
+   */
+  public double getChannelCopypastaShare(TwitchMessage twitchMessage) {
+    Integer minUsers = channelSettingDao.getSettingOrDefault(channelName, ChannelSettingInteger
+        .COPYPASTA_USER_COUNT);
+    return messageManager.getChannelCopypastaShare(twitchMessage, minUsers);
+  }
+
   Duration getUserTimeout(TwitchUser twitchUser) {
     return timeoutManager.getUserTimeout(twitchUser.getUsername());
   }
@@ -138,7 +276,8 @@ public class ChannelManager {
   }
 
   /**
-   * @return List of messages breaching new item.
+   * @param messageLookBehind number of most recent channel messages to check against the new item.
+   * @return List of messages breaching new item, oldest first.
    */
   public Collection<TwitchMessage> blacklistItem(
       String input,
@@ -146,23 +285,37 @@ public class ChannelManager {
       int messageLookBehind) throws ChannelOperationException {
     log.info("Adding item {} to channel {} blacklist as {} with {} look behind", input, channelName,
         blacklistType, messageLookBehind);
-    ImmutableTwitchMessageList messageList = getMessageSnapshot();
     if (messageLookBehind <= 0) {
       blacklistManager.addToBlacklist(input, blacklistType);
       return Collections.emptyList();
     } else {
-      Collection<TwitchMessage> trimmedMessageList = messageList
-          .stream()
-          .limit(messageLookBehind)
-          .collect(Collectors.toList());
       BlacklistEntry blacklistEntry = blacklistManager.addToBlacklist(input, blacklistType);
-      return trimmedMessageList
-          .stream()
-          .filter(message -> blacklistEntry.matches(message.getMessage()))
-          .collect(Collectors.toList());
+      applyRegexBudget();
+      // MESSAGE entries only match messages containing their input, so the index narrows the search.
+      // WORD entries also match folded messages, which need not contain the input as sent.
+      String requiredPhrase = blacklistType == BlacklistType.MESSAGE ? input : null;
+      return messageManager.findRecentMessages(requiredPhrase, messageLookBehind,
+          payload -> blacklistManager.isMessageBlacklisted(blacklistEntry, payload)
+              || (blacklistType == BlacklistType.WORD
+              && blacklistManager.isMessageBlacklisted(blacklistEntry, TwitchMessage.foldWords(payload))));
     }
   }
 
+  /**
+   * Applies the channel's REGEX budget to the blacklist. Values below the minimum are raised to it.
+   */
+  private void applyRegexBudget() {
+    int maxSteps = channelSettingDao.getSettingOrDefault(channelName, ChannelSettingInteger.REGEX_BUDGET_STEPS);
+    int maxMillis = channelSettingDao.getSettingOrDefault(channelName, ChannelSettingInteger.REGEX_BUDGET_MILLIS);
+    if (maxSteps < MIN_REGEX_BUDGET || maxMillis < MIN_REGEX_BUDGET) {
+      log.warn("Invalid REGEX budget of {} steps and {}ms for channel {}. Using at least {}.", maxSteps, maxMillis,
+          channelName, MIN_REGEX_BUDGET);
+      maxSteps = Math.max(maxSteps, MIN_REGEX_BUDGET);
+      maxMillis = Math.max(maxMillis, MIN_REGEX_BUDGET);
+    }
+    blacklistManager.setRegexBudget(maxSteps, maxMillis);
+  }
+
   /**
    * Remove exact blacklist entry
    *
@@ -178,6 +331,17 @@ public class ChannelManager {
     }
   }
 
+  /**
+   * Adds all items to the blacklist in a single change, skipping existing entries and REGEX entries
+   * too expensive to evaluate. No look behind.
+   *
+   * @return Blacklist entries that have been added.
+   */
+  public Collection<BlacklistEntry> blacklistItems(Collection<String> inputs, BlacklistType blacklistType) {
+    log.info("Adding {} items to channel {} blacklist as {}", inputs.size(), channelName, blacklistType);
+    return blacklistManager.addAllToBlacklist(inputs, blacklistType);
+  }
+
   /**
    * Fuzzy removal of blacklist entry. Will first search exact, then any matching entry
    *
@@ -188,6 +352,10 @@ public class ChannelManager {
     return blacklistManager.removeFromBlacklist(input);
   }
 
+  public BlacklistMetricsSnapshot getBlacklistMetrics() {
+    return blacklistManager.getMetricsSnapshot();
+  }
+
   public String getChannelName() {
     return channelName;
   }
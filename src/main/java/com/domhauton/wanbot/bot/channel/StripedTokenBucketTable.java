@@ -0,0 +1,71 @@
+package com.domhauton.wanbot.bot.channel;
+
+/**
+ * Per-user message token buckets split over independently locked {@link TokenBucketTable}
+ * stripes, so moderation shards checking different users rarely wait on each other. Users are
+ * assigned a stripe by the top bits of their Fibonacci hashed id, leaving the low bits each stripe
+ * probes with evenly spread.
+ */
+class StripedTokenBucketTable {
+  static final int DEFAULT_STRIPE_COUNT = 16;
+
+  private final TokenBucketTable[] stripes;
+  private final int stripeShift;
+
+  StripedTokenBucketTable() {
+    this(DEFAULT_STRIPE_COUNT);
+  }
+
+  /**
+   * @param stripeCount number of stripes. Rounded up to a power of two.
+   */
+  StripedTokenBucketTable(int stripeCount) {
+    if (stripeCount <= 0) {
+      throw new IllegalArgumentException("Stripe count must be positive: " + stripeCount);
+    }
+    int roundedStripeCount = Integer.highestOneBit(stripeCount * 2 - 1);
+    stripes = new TokenBucketTable[roundedStripeCount];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new TokenBucketTable();
+    }
+    stripeShift = Integer.SIZE - Integer.numberOfTrailingZeros(roundedStripeCount);
+  }
+
+  /**
+   * @see TokenBucketTable#tryAcquire
+   */
+  boolean tryAcquire(int userId, long epochMillis, double burst, double refillPerSecond) {
+    return stripeFor(userId).tryAcquire(userId, epochMillis, burst, refillPerSecond);
+  }
+
+  /**
+   * @see TokenBucketTable#release
+   */
+  void release(int userId) {
+    stripeFor(userId).release(userId);
+  }
+
+  /**
+   * @return slots in use over all stripes, including idle buckets not yet reclaimed.
+   */
+  int size() {
+    int size = 0;
+    for (TokenBucketTable stripe : stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  int getStripeCount() {
+    return stripes.length;
+  }
+
+  int stripeIndex(int userId) {
+    // A shift by 32 is a shift by 0 in Java, so a single stripe is special cased.
+    return stripes.length == 1 ? 0 : (userId * 0x9E3779B9) >>> stripeShift;
+  }
+
+  private TokenBucketTable stripeFor(int userId) {
+    return stripes[stripeIndex(userId)];
+  }
+}
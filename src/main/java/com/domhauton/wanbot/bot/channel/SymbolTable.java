@@ -0,0 +1,86 @@
+package com.domhauton.wanbot.bot.channel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns strings such as usernames and channels as dense int ids, so stored messages can refer to
+ * them in four bytes. Each intern holds a reference to the symbol until it is released. Once all
+ * are released the symbol is forgotten and its id reused, so the table only holds symbols in use.
+ */
+public class SymbolTable {
+  private final Map<String, Integer> symbolIds;
+  private final List<String> symbols;
+  private int[] referenceCounts;
+  private int[] freeIds;
+  private int freeIdCount;
+
+  public SymbolTable() {
+    symbolIds = new HashMap<>();
+    symbols = new ArrayList<>();
+    referenceCounts = new int[16];
+    freeIds = new int[16];
+    freeIdCount = 0;
+  }
+
+  /**
+   * Takes a reference to the symbol, to be given back through {@link #release}.
+   *
+   * @return id of the symbol, assigning a free id if it is new.
+   */
+  public synchronized int intern(String symbol) {
+    Integer symbolId = symbolIds.get(symbol);
+    if (symbolId == null) {
+      symbolId = freeIdCount > 0 ? freeIds[--freeIdCount] : symbols.size();
+      if (symbolId == symbols.size()) {
+        symbols.add(symbol);
+        if (symbolId == referenceCounts.length) {
+          referenceCounts = Arrays.copyOf(referenceCounts, referenceCounts.length * 2);
+        }
+      } else {
+        symbols.set(symbolId, symbol);
+      }
+      symbolIds.put(symbol, symbolId);
+    }
+    referenceCounts[symbolId]++;
+    return symbolId;
+  }
+
+  /**
+   * Gives back a reference taken by {@link #intern}. The symbol is forgotten with its last reference.
+   *
+   * @throws IndexOutOfBoundsException if the id is not assigned.
+   */
+  public synchronized void release(int symbolId) {
+    String symbol = lookup(symbolId);
+    if (--referenceCounts[symbolId] == 0) {
+      symbolIds.remove(symbol);
+      symbols.set(symbolId, null);
+      if (freeIdCount == freeIds.length) {
+        freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+      }
+      freeIds[freeIdCount++] = symbolId;
+    }
+  }
+
+  /**
+   * @throws IndexOutOfBoundsException if the id was never assigned or has been released.
+   */
+  public synchronized String lookup(int symbolId) {
+    String symbol = symbols.get(symbolId);
+    if (symbol == null) {
+      throw new IndexOutOfBoundsException("Symbol id has been released: " + symbolId);
+    }
+    return symbol;
+  }
+
+  /**
+   * @return number of symbols in use.
+   */
+  public synchronized int size() {
+    return symbolIds.size();
+  }
+}
@@ -0,0 +1,160 @@
+package com.domhauton.wanbot.bot.channel;
+
+import java.util.Arrays;
+
+/**
+ * Per-user message token buckets in parallel primitive arrays, open addressed by user id. Each
+ * message takes a token, and buckets refill continuously up to the burst size, so a user may post
+ * a burst at once but no faster than the refill rate for long.
+ * <p>
+ * A bucket that has refilled to full is no different to a new one, so idle buckets are reclaimed
+ * lazily: new users take over idle slots while probing, and only buckets still refilling survive
+ * a resize. Memory follows the users active within a refill period rather than every user seen.
+ * Checks are O(1) and allocate nothing except when resizing.
+ */
+class TokenBucketTable {
+  private static final int EMPTY = -1;
+  private static final int MIN_CAPACITY = 16;
+
+  private int[] userIds;
+  private double[] tokens;
+  private long[] refillMillis;
+  private int mask;
+  private int occupied;
+
+  TokenBucketTable() {
+    allocate(MIN_CAPACITY);
+  }
+
+  /**
+   * Refills the user's bucket to the given time, then takes a token if there is one.
+   *
+   * @param burst           most tokens a bucket holds. New users start full.
+   * @param refillPerSecond tokens added to a bucket each second.
+   * @return true if a token was taken. False if the user is posting too fast.
+   */
+  synchronized boolean tryAcquire(int userId, long epochMillis, double burst, double refillPerSecond) {
+    if ((occupied + 1) * 2 > userIds.length) {
+      resize(epochMillis, burst, refillPerSecond);
+    }
+    int slot = findSlot(userId, epochMillis, burst, refillPerSecond);
+    if (userIds[slot] == userId) {
+      tokens[slot] = refilledTokens(slot, epochMillis, burst, refillPerSecond);
+      refillMillis[slot] = Math.max(refillMillis[slot], epochMillis);
+    } else {
+      if (userIds[slot] == EMPTY) {
+        occupied++;
+      }
+      userIds[slot] = userId;
+      tokens[slot] = burst;
+      refillMillis[slot] = epochMillis;
+    }
+    if (tokens[slot] < 1d) {
+      return false;
+    }
+    tokens[slot] -= 1d;
+    return true;
+  }
+
+  /**
+   * Marks the user's bucket full, so it is idle and can be reclaimed. Called when the user id is
+   * released and may be reused by a new user, who then starts with a full bucket.
+   */
+  synchronized void release(int userId) {
+    int slot = homeSlot(userId);
+    while (userIds[slot] != EMPTY) {
+      if (userIds[slot] == userId) {
+        tokens[slot] = Double.POSITIVE_INFINITY;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * @return slots in use, including idle buckets not yet reclaimed.
+   */
+  synchronized int size() {
+    return occupied;
+  }
+
+  synchronized int capacity() {
+    return userIds.length;
+  }
+
+  /**
+   * @return slot holding the user, else the first idle slot on its probe path, else the empty slot
+   * ending it. Idle slots are only taken over, never emptied, so probe paths stay unbroken.
+   */
+  private int findSlot(int userId, long epochMillis, double burst, double refillPerSecond) {
+    int idleSlot = EMPTY;
+    int slot = homeSlot(userId);
+    while (userIds[slot] != EMPTY) {
+      if (userIds[slot] == userId) {
+        return slot;
+      }
+      if (idleSlot == EMPTY && isIdle(slot, epochMillis, burst, refillPerSecond)) {
+        idleSlot = slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return idleSlot == EMPTY ? slot : idleSlot;
+  }
+
+  /**
+   * Rebuilds the table with only the buckets still refilling, sized to keep it at most a quarter full.
+   */
+  private void resize(long epochMillis, double burst, double refillPerSecond) {
+    int[] oldUserIds = userIds;
+    double[] oldTokens = tokens;
+    long[] oldRefillMillis = refillMillis;
+    boolean[] live = new boolean[oldUserIds.length];
+    int liveBuckets = 0;
+    for (int slot = 0; slot < oldUserIds.length; slot++) {
+      live[slot] = oldUserIds[slot] != EMPTY && !isIdle(slot, epochMillis, burst, refillPerSecond);
+      liveBuckets += live[slot] ? 1 : 0;
+    }
+    int capacity = MIN_CAPACITY;
+    while (capacity < (liveBuckets + 1) * 4) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+    for (int oldSlot = 0; oldSlot < oldUserIds.length; oldSlot++) {
+      if (live[oldSlot]) {
+        int slot = homeSlot(oldUserIds[oldSlot]);
+        while (userIds[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        userIds[slot] = oldUserIds[oldSlot];
+        tokens[slot] = oldTokens[oldSlot];
+        refillMillis[slot] = oldRefillMillis[oldSlot];
+        occupied++;
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    userIds = new int[capacity];
+    Arrays.fill(userIds, EMPTY);
+    tokens = new double[capacity];
+    refillMillis = new long[capacity];
+    mask = capacity - 1;
+    occupied = 0;
+  }
+
+  private boolean isIdle(int slot, long epochMillis, double burst, double refillPerSecond) {
+    return refilledTokens(slot, epochMillis, burst, refillPerSecond) >= burst;
+  }
+
+  private double refilledTokens(int slot, long epochMillis, double burst, double refillPerSecond) {
+    long elapsedMillis = Math.max(0L, epochMillis - refillMillis[slot]);
+    return Math.min(burst, tokens[slot] + elapsedMillis * refillPerSecond / 1000d);
+  }
+
+  /**
+   * Fibonacci hashing, so runs of dense ids spread over the table instead of clustering.
+   */
+  private int homeSlot(int userId) {
+    return (userId * 0x9E3779B9) & mask;
+  }
+}
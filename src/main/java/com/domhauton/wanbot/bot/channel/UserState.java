@@ -0,0 +1,204 @@
+package com.domhauton.wanbot.bot.channel;
+
+import com.domhauton.wanbot.bot.channel.message.ImmutableTwitchMessageList;
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import com.domhauton.wanbot.bot.channel.message.UserMessageHistory;
+import com.domhauton.wanbot.bot.channel.permissions.UserPermission;
+import org.joda.time.Duration;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything the channel tracks about a single user: permission, timeout escalation, recent
+ * messages and counters. Shared by the permission, timeout and message managers.
+ */
+public class UserState {
+  // Enough to catch a user repeating themselves while they have no message history.
+  static final int RECENT_PAYLOAD_HASHES = 8;
+  // How long after a timeout ends the escalation is kept, so users returning within it escalate.
+  static final long TIMEOUT_ESCALATION_RETENTION_MILLIS = Duration.standardHours(24).getMillis();
+
+  private final int userId;
+  private final TwitchUser twitchUser;
+  private final AtomicInteger messageCount;
+  private final AtomicInteger timeoutCount;
+  private volatile UserPermission permission;
+  private volatile Duration timeout;
+  private volatile long timeoutEndMillis;
+  private volatile UserMessageHistory messageHistory;
+  private volatile boolean referenced;
+  private long[] recentPayloadHashes;
+  private int recentPayloadHashCount;
+
+  UserState(int userId, TwitchUser twitchUser) {
+    this.userId = userId;
+    this.twitchUser = twitchUser;
+    messageCount = new AtomicInteger();
+    timeoutCount = new AtomicInteger();
+    permission = null;
+    timeout = Duration.ZERO;
+    timeoutEndMillis = 0L;
+    messageHistory = null;
+    referenced = true;
+    recentPayloadHashes = null;
+    recentPayloadHashCount = 0;
+  }
+
+  /**
+   * @return dense id of the user, unique within the channel.
+   */
+  public int getUserId() {
+    return userId;
+  }
+
+  public TwitchUser getTwitchUser() {
+    return twitchUser;
+  }
+
+  public String getUsername() {
+    return twitchUser.getUsername();
+  }
+
+  /**
+   * @return permission set for the user, or null if the channel default applies.
+   */
+  public UserPermission getPermission() {
+    return permission;
+  }
+
+  public void setPermission(UserPermission permission) {
+    this.permission = permission;
+  }
+
+  /**
+   * @return most recent timeout given to the user. Zero if never timed out.
+   */
+  public Duration getTimeout() {
+    return timeout;
+  }
+
+  public int getTimeoutCount() {
+    return timeoutCount.get();
+  }
+
+  /**
+   * Records a timeout. The caller computes the escalation, so updates must be serialised.
+   */
+  public void recordTimeout(Duration newTimeout) {
+    timeout = newTimeout;
+    timeoutEndMillis = System.currentTimeMillis() + newTimeout.getMillis();
+    timeoutCount.incrementAndGet();
+  }
+
+  /**
+   * @return true if the user has been timed out and the escalation has not yet expired, so evicting
+   * them would reset their next timeout.
+   */
+  boolean isTimeoutEscalationHeld(long nowMillis) {
+    return timeoutCount.get() > 0 && nowMillis < timeoutEndMillis + TIMEOUT_ESCALATION_RETENTION_MILLIS;
+  }
+
+  public int getMessageCount() {
+    return messageCount.get();
+  }
+
+  public void recordMessage() {
+    messageCount.incrementAndGet();
+  }
+
+  /**
+   * @return recent messages of the user, or null if the user was not admitted to the message history.
+   */
+  public UserMessageHistory getMessageHistory() {
+    return messageHistory;
+  }
+
+  /**
+   * Set by the message manager when the user is admitted to, or evicted from, the message history.
+   * Admission drops the recent payload hashes, as the history supersedes them.
+   */
+  public void setMessageHistory(UserMessageHistory messageHistory) {
+    this.messageHistory = messageHistory;
+    if (messageHistory != null) {
+      recentPayloadHashes = null;
+      recentPayloadHashCount = 0;
+    }
+  }
+
+  /**
+   * Records the normalised payload hash of a message from a user without a message history. The
+   * hashes are allocated on first use, so admitted users never pay for them. Only the thread adding
+   * the user's messages may call this.
+   */
+  public void recordPayloadHash(long payloadHash) {
+    if (recentPayloadHashes == null) {
+      recentPayloadHashes = new long[RECENT_PAYLOAD_HASHES];
+    }
+    recentPayloadHashes[recentPayloadHashCount++ % RECENT_PAYLOAD_HASHES] = payloadHash;
+  }
+
+  /**
+   * Only the thread adding the user's messages may call this.
+   *
+   * @return number of the user's recorded payload hashes that match. 0 if none are recorded.
+   */
+  public int countPayloadHash(long payloadHash) {
+    long[] currentHashes = recentPayloadHashes;
+    if (currentHashes == null) {
+      return 0;
+    }
+    int count = 0;
+    for (int i = Math.min(recentPayloadHashCount, RECENT_PAYLOAD_HASHES) - 1; i >= 0; i--) {
+      count += currentHashes[i] == payloadHash ? 1 : 0;
+    }
+    return count;
+  }
+
+  /**
+   * @return Copy of the recent user messages, taken without locking. Empty if none are kept.
+   */
+  public ImmutableTwitchMessageList getRecentMessages() {
+    UserMessageHistory currentHistory = messageHistory;
+    return currentHistory == null ? ImmutableTwitchMessageList.empty() : currentHistory.getMessageSnapshot();
+  }
+
+  /**
+   * @return number of the recent user messages with the same normalised payload, counted without
+   * copying them. 0 if none are kept.
+   */
+  public int countRecentPayload(TwitchMessage twitchMessage) {
+    UserMessageHistory currentHistory = messageHistory;
+    return currentHistory == null ? 0 : currentHistory.countNormalisedPayload(twitchMessage);
+  }
+
+  /**
+   * @return messages per second over the user's recent messages. 0 if too few to tell.
+   */
+  public double getMessagesPerSecond() {
+    UserMessageHistory currentHistory = messageHistory;
+    return currentHistory == null ? 0d : currentHistory.getMessagesPerSecond();
+  }
+
+  /**
+   * Marks the user as looked up since the last eviction sweep. Only writes if not already marked.
+   */
+  void markReferenced() {
+    if (!referenced) {
+      referenced = true;
+    }
+  }
+
+  /**
+   * @return true if the user was looked up since the last eviction sweep.
+   */
+  boolean clearReferenced() {
+    boolean wasReferenced = referenced;
+    referenced = false;
+    return wasReferenced;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("UserState{%d %s %s}", userId, twitchUser, permission);
+  }
+}
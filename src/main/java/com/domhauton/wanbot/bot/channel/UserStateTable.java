@@ -0,0 +1,165 @@
+package com.domhauton.wanbot.bot.channel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Interns the users of a channel. Each username gets a dense int id from a {@link SymbolTable},
+ * a single canonical {@link TwitchUser} and a {@link UserState}, so one lookup per message finds
+ * everything moderation needs.
+ * <p>
+ * The number of users is bounded. Past the bound, users are swept in creation order and the first
+ * that has not been looked up since the last sweep is evicted, like a CLOCK cache. Users with a
+ * permission, or a timeout escalation that has not expired, are never evicted. Users can also be evicted directly, e.g. when their message history is. An evicted user's
+ * id is released, and they get a fresh state if they return.
+ */
+public class UserStateTable {
+  public static final int DEFAULT_MAX_USERS = 200_000;
+
+  private final SymbolTable usernames;
+  private final int maxUsers;
+  private final ConcurrentHashMap<String, UserState> userStates;
+  private final List<UserState> userStatesById;
+  private final Queue<UserState> sweepOrder;
+  private final List<Consumer<UserState>> evictionListeners;
+
+  public UserStateTable() {
+    this(new SymbolTable(), DEFAULT_MAX_USERS);
+  }
+
+  /**
+   * @param usernames symbol table user ids are interned in. May be shared, e.g. with a message index.
+   * @param maxUsers  most users kept, other than those that are never evicted.
+   */
+  public UserStateTable(SymbolTable usernames, int maxUsers) {
+    this.usernames = usernames;
+    this.maxUsers = maxUsers;
+    userStates = new ConcurrentHashMap<>();
+    userStatesById = new ArrayList<>();
+    sweepOrder = new ConcurrentLinkedQueue<>();
+    evictionListeners = new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * @return state of the user, or null if the user has never been seen.
+   */
+  public UserState find(String username) {
+    return userStates.get(username);
+  }
+
+  /**
+   * @return state of the user, created if the user is new. Lock free for known users.
+   */
+  public UserState getOrCreate(String username) {
+    UserState userState = userStates.get(username);
+    if (userState == null) {
+      return create(username);
+    }
+    userState.markReferenced();
+    return userState;
+  }
+
+  public UserState getOrCreate(TwitchUser twitchUser) {
+    return getOrCreate(twitchUser.getUsername());
+  }
+
+  /**
+   * @return canonical TwitchUser for the username, so messages do not each allocate one.
+   */
+  public TwitchUser getTwitchUser(String username) {
+    return getOrCreate(username).getTwitchUser();
+  }
+
+  /**
+   * @throws IndexOutOfBoundsException if the id is not assigned to a user.
+   */
+  public synchronized UserState get(int userId) {
+    UserState userState = userId < userStatesById.size() ? userStatesById.get(userId) : null;
+    if (userState == null) {
+      throw new IndexOutOfBoundsException("No user with id: " + userId);
+    }
+    return userState;
+  }
+
+  /**
+   * Evicts the user unless they have a permission set or a timeout escalation that has not expired.
+   *
+   * @return true if the user was evicted.
+   */
+  public synchronized boolean evict(UserState userState) {
+    if (isKept(userState, System.currentTimeMillis()) || userStates.get(userState.getUsername()) != userState) {
+      return false;
+    }
+    userStates.remove(userState.getUsername());
+    userStatesById.set(userState.getUserId(), null);
+    usernames.release(userState.getUserId());
+    evictionListeners.forEach(evictionListener -> evictionListener.accept(userState));
+    return true;
+  }
+
+  /**
+   * @param evictionListener called with each evicted user, e.g. to drop state kept elsewhere by id.
+   */
+  public void addEvictionListener(Consumer<UserState> evictionListener) {
+    evictionListeners.add(evictionListener);
+  }
+
+  /**
+   * @return symbol table the user ids are interned in, to be shared with anything else that interns.
+   */
+  public SymbolTable getSymbolTable() {
+    return usernames;
+  }
+
+  public int size() {
+    return userStates.size();
+  }
+
+  private synchronized UserState create(String username) {
+    UserState userState = userStates.get(username);
+    if (userState == null) {
+      int userId = usernames.intern(username);
+      userState = new UserState(userId, new TwitchUser(username));
+      while (userStatesById.size() <= userId) {
+        userStatesById.add(null);
+      }
+      userStatesById.set(userId, userState);
+      userStates.put(username, userState);
+      sweepOrder.add(userState);
+      evictIdleUsers(userState);
+    }
+    return userState;
+  }
+
+  /**
+   * Evicts users until back within the bound, giving each swept user looked up since the last sweep
+   * a second chance. Users already evicted are dropped from the sweep here. Gives up after two laps,
+   * e.g. if every user is kept.
+   *
+   * @param newUser user just created, who is never evicted by their own creation.
+   */
+  private void evictIdleUsers(UserState newUser) {
+    long nowMillis = System.currentTimeMillis();
+    for (int swept = sweepOrder.size() * 2; swept > 0 && userStates.size() > maxUsers; swept--) {
+      UserState candidate = sweepOrder.poll();
+      if (candidate == null) {
+        return;
+      } else if (userStates.get(candidate.getUsername()) != candidate) {
+        continue;
+      } else if (candidate == newUser || isKept(candidate, nowMillis) || candidate.clearReferenced()) {
+        sweepOrder.add(candidate);
+      } else {
+        evict(candidate);
+      }
+    }
+  }
+
+  private static boolean isKept(UserState userState, long nowMillis) {
+    return userState.getPermission() != null || userState.isTimeoutEscalationHeld(nowMillis);
+  }
+}
@@ -0,0 +1,143 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over a fixed set of keywords. Finds whether any keyword occurs in a
+ * message with a single pass over its chars, regardless of keyword count. Matching is ASCII case
+ * insensitive to mirror the CASE_INSENSITIVE flag used by {@link BlacklistType}.
+ */
+class AhoCorasickMatcher<T> {
+  private static final int NO_OUTPUT = -1;
+
+  private final List<T> values;
+  private final char[][] transitionChars;
+  private final int[][] transitionTargets;
+  private final int[] failure;
+  private final int[] output;
+
+  /**
+   * @param keywords keyword to the value returned when that keyword is found.
+   */
+  AhoCorasickMatcher(Map<String, T> keywords) {
+    values = new ArrayList<>(keywords.size());
+    List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+    List<Integer> trieOutput = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    trieOutput.add(NO_OUTPUT);
+
+    for (Map.Entry<String, T> keyword : keywords.entrySet()) {
+      int state = 0;
+      for (char c : keyword.getKey().toCharArray()) {
+        Integer next = trie.get(state).get(foldCase(c));
+        if (next == null) {
+          next = trie.size();
+          trie.add(new TreeMap<>());
+          trieOutput.add(NO_OUTPUT);
+          trie.get(state).put(foldCase(c), next);
+        }
+        state = next;
+      }
+      if (trieOutput.get(state) == NO_OUTPUT) {
+        trieOutput.set(state, values.size());
+        values.add(keyword.getValue());
+      }
+    }
+
+    int stateCount = trie.size();
+    transitionChars = new char[stateCount][];
+    transitionTargets = new int[stateCount][];
+    failure = new int[stateCount];
+    output = new int[stateCount];
+    for (int state = 0; state < stateCount; state++) {
+      TreeMap<Character, Integer> transitions = trie.get(state);
+      transitionChars[state] = new char[transitions.size()];
+      transitionTargets[state] = new int[transitions.size()];
+      int i = 0;
+      for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+        transitionChars[state][i] = transition.getKey();
+        transitionTargets[state][i++] = transition.getValue();
+      }
+      output[state] = trieOutput.get(state);
+    }
+    buildFailureLinks();
+  }
+
+  /**
+   * Breadth first traversal so every failure target is resolved before it is used. Outputs are
+   * inherited along failure links so a single check per char detects keyword suffixes.
+   */
+  private void buildFailureLinks() {
+    Queue<Integer> queue = new ArrayDeque<>();
+    for (int child : transitionTargets[0]) {
+      failure[child] = 0;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      if (output[state] == NO_OUTPUT) {
+        output[state] = output[failure[state]];
+      }
+      for (int i = 0; i < transitionChars[state].length; i++) {
+        char c = transitionChars[state][i];
+        int child = transitionTargets[state][i];
+        int fallback = failure[state];
+        while (fallback != 0 && transition(fallback, c) < 0) {
+          fallback = failure[fallback];
+        }
+        int fallbackTarget = transition(fallback, c);
+        failure[child] = fallbackTarget < 0 ? 0 : fallbackTarget;
+        queue.add(child);
+      }
+    }
+  }
+
+  private int transition(int state, char c) {
+    int index = Arrays.binarySearch(transitionChars[state], c);
+    return index < 0 ? -1 : transitionTargets[state][index];
+  }
+
+  /**
+   * Scans the message once, stopping at the first keyword found.
+   *
+   * @return value of a keyword contained in the message. Empty if none matched.
+   */
+  Optional<T> findFirst(CharSequence message) {
+    if (output[0] != NO_OUTPUT) {
+      return Optional.of(values.get(output[0]));
+    }
+    int state = 0;
+    for (int i = 0; i < message.length(); i++) {
+      char c = foldCase(message.charAt(i));
+      int next = transition(state, c);
+      while (next < 0 && state != 0) {
+        state = failure[state];
+        next = transition(state, c);
+      }
+      state = next < 0 ? 0 : next;
+      if (output[state] != NO_OUTPUT) {
+        return Optional.of(values.get(output[state]));
+      }
+    }
+    return Optional.empty();
+  }
+
+  boolean matches(CharSequence message) {
+    return findFirst(message).isPresent();
+  }
+
+  int size() {
+    return values.size();
+  }
+
+  private static char foldCase(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+}
@@ -8,20 +8,63 @@ import java.util.regex.Pattern;
  * Stores a blacklist pattern.
  */
 public class BlacklistEntry {
+  private final String input;
   private final Pattern pattern;
   private final BlacklistType blacklistType;
+  private final String messageKey;
 
   BlacklistEntry(Pattern pattern) {
     this(pattern, BlacklistType.REGEX);
   }
 
   BlacklistEntry(Pattern pattern, BlacklistType blacklistType) {
+    this(pattern.pattern(), pattern, blacklistType, null);
+  }
+
+  BlacklistEntry(String input, BlacklistType blacklistType) {
+    this(input, blacklistType.stringToPattern(input), blacklistType,
+        blacklistType == BlacklistType.MESSAGE ? normaliseMessage(input) : null);
+  }
+
+  private BlacklistEntry(String input, Pattern pattern, BlacklistType blacklistType, String messageKey) {
+    this.input = input;
     this.pattern = pattern;
     this.blacklistType = blacklistType;
+    this.messageKey = messageKey;
   }
 
+  /**
+   * MESSAGE entries are compared by normalised key instead of running their pattern.
+   */
   public boolean matches(String inputString) {
-    return pattern.matcher(inputString).matches();
+    return messageKey != null
+        ? messageKey.equals(normaliseMessage(inputString))
+        : pattern.matcher(inputString).matches();
+  }
+
+  /**
+   * Normalises a whole message for exact matching. Equivalent to matching the quoted MESSAGE
+   * pattern, which is ASCII case insensitive.
+   */
+  static String normaliseMessage(String message) {
+    int firstUpper = 0;
+    while (firstUpper < message.length() && !isAsciiUpper(message.charAt(firstUpper))) {
+      firstUpper++;
+    }
+    if (firstUpper == message.length()) {
+      return message;
+    }
+    char[] chars = message.toCharArray();
+    for (int i = firstUpper; i < chars.length; i++) {
+      if (isAsciiUpper(chars[i])) {
+        chars[i] = (char) (chars[i] + ('a' - 'A'));
+      }
+    }
+    return new String(chars);
+  }
+
+  private static boolean isAsciiUpper(char c) {
+    return c >= 'A' && c <= 'Z';
   }
 
   @Override
@@ -47,4 +90,22 @@ public class BlacklistEntry {
   BlacklistType getBlacklistType() {
     return blacklistType;
   }
+
+  Pattern getPattern() {
+    return pattern;
+  }
+
+  /**
+   * The raw input this entry was created from, before conversion to a pattern.
+   */
+  String getInput() {
+    return input;
+  }
+
+  /**
+   * @return normalised message for MESSAGE entries. Null for other types.
+   */
+  String getMessageKey() {
+    return messageKey;
+  }
 }
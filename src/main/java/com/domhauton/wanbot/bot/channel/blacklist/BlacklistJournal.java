@@ -0,0 +1,221 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory mapped journal of blacklist additions and removals. Every record carries a
+ * CRC so a record torn by a crash is detected on replay and overwritten by the next append. Once
+ * the journal holds too many records for the live entries it is compacted into a fresh journal.
+ * <p>
+ * Record layout: [int payload length][int crc][byte operation][byte blacklist type][utf-8 input]
+ */
+class BlacklistJournal implements Closeable {
+  private static final Logger log = LogManager.getLogger();
+  private static final int MAGIC = 0x57424C4A;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int RECORD_HEADER_SIZE = 10;
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+  private static final byte ADD = 1;
+  private static final byte REMOVE = 2;
+  static final int COMPACTION_MIN_RECORDS = 1024;
+  static final int COMPACTION_RATIO = 2;
+
+  private final Path journalPath;
+  private FileChannel fileChannel;
+  private MappedByteBuffer buffer;
+  private int recordCount;
+
+  private BlacklistJournal(Path journalPath, FileChannel fileChannel, MappedByteBuffer buffer) {
+    this.journalPath = journalPath;
+    this.fileChannel = fileChannel;
+    this.buffer = buffer;
+    this.recordCount = 0;
+  }
+
+  /**
+   * Opens the journal, creating it if it does not exist. Call {@link #replay()} before appending.
+   */
+  static BlacklistJournal open(Path journalPath) throws IOException {
+    Path parent = journalPath.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    FileChannel fileChannel = FileChannel.open(journalPath,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long capacity = Math.max(fileChannel.size(), INITIAL_CAPACITY);
+    MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    int magic = buffer.getInt(0);
+    if (magic == 0) {
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, VERSION);
+    } else if (magic != MAGIC || buffer.getInt(4) != VERSION) {
+      fileChannel.close();
+      throw new IOException("Not a blacklist journal: " + journalPath);
+    }
+    buffer.position(HEADER_SIZE);
+    return new BlacklistJournal(journalPath, fileChannel, buffer);
+  }
+
+  /**
+   * Reads every intact record and leaves the journal positioned after the last one.
+   *
+   * @return blacklist entries present once all records are applied, in the order they were added.
+   */
+  Collection<BlacklistEntry> replay() {
+    Set<BlacklistEntry> entries = new LinkedHashSet<>();
+    buffer.position(HEADER_SIZE);
+    recordCount = 0;
+    while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+      int start = buffer.position();
+      int payloadLength = buffer.getInt();
+      int crc = buffer.getInt();
+      if (payloadLength < 0 || payloadLength > buffer.remaining() - 2) {
+        buffer.position(start);
+        break;
+      }
+      byte operation = buffer.get();
+      byte type = buffer.get();
+      byte[] payload = new byte[payloadLength];
+      buffer.get(payload);
+      if ((operation != ADD && operation != REMOVE) || crc != checksum(operation, type, payload)) {
+        buffer.position(start);
+        break;
+      }
+      recordCount++;
+      applyRecord(entries, operation, type, new String(payload, StandardCharsets.UTF_8));
+    }
+    log.info("Replayed {} blacklist journal records from {}. Entries: {}", recordCount, journalPath,
+        entries.size());
+    return entries;
+  }
+
+  private static void applyRecord(Set<BlacklistEntry> entries, byte operation, byte type, String input) {
+    BlacklistType[] blacklistTypes = BlacklistType.values();
+    if (type < 0 || type >= blacklistTypes.length) {
+      log.warn("Skipping blacklist journal record with unknown type {}: {}", type, input);
+      return;
+    }
+    try {
+      BlacklistEntry blacklistEntry = new BlacklistEntry(input, blacklistTypes[type]);
+      if (operation == ADD) {
+        entries.add(blacklistEntry);
+      } else {
+        entries.remove(blacklistEntry);
+      }
+    } catch (PatternSyntaxException e) {
+      log.warn("Skipping blacklist journal record with invalid pattern: {}", input);
+    }
+  }
+
+  /**
+   * Appends all changes and forces them to disk.
+   */
+  void append(Collection<BlacklistEntry> addedEntries, Collection<BlacklistEntry> removedEntries)
+      throws IOException {
+    for (BlacklistEntry blacklistEntry : removedEntries) {
+      writeRecord(REMOVE, blacklistEntry);
+    }
+    for (BlacklistEntry blacklistEntry : addedEntries) {
+      writeRecord(ADD, blacklistEntry);
+    }
+    buffer.force();
+  }
+
+  private void writeRecord(byte operation, BlacklistEntry blacklistEntry) throws IOException {
+    byte type = (byte) blacklistEntry.getBlacklistType().ordinal();
+    byte[] payload = blacklistEntry.getInput().getBytes(StandardCharsets.UTF_8);
+    int recordSize = RECORD_HEADER_SIZE + payload.length;
+    // Keep room for a zero length terminator after the record.
+    ensureCapacity(recordSize + 4);
+    buffer.putInt(payload.length)
+        .putInt(checksum(operation, type, payload))
+        .put(operation)
+        .put(type)
+        .put(payload);
+    buffer.putInt(buffer.position(), 0);
+    recordCount++;
+  }
+
+  private void ensureCapacity(int required) throws IOException {
+    if (buffer.remaining() < required) {
+      int position = buffer.position();
+      long capacity = Math.max((long) buffer.capacity() * 2, (long) position + required);
+      if (capacity > Integer.MAX_VALUE) {
+        throw new IOException("Blacklist journal full: " + journalPath);
+      }
+      buffer.force();
+      buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      buffer.position(position);
+    }
+  }
+
+  private static int checksum(byte operation, byte type, byte[] payload) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(operation);
+    crc32.update(type);
+    crc32.update(payload);
+    return (int) crc32.getValue();
+  }
+
+  /**
+   * @return true if the journal holds enough superseded records to be worth compacting.
+   */
+  boolean needsCompaction(int liveEntryCount) {
+    return recordCount >= COMPACTION_MIN_RECORDS && recordCount > liveEntryCount * COMPACTION_RATIO;
+  }
+
+  /**
+   * Replaces the journal with one holding a single add record per live entry. The new journal is
+   * written to a temporary file and moved into place, so a crash leaves one journal or the other.
+   */
+  void compact(Collection<BlacklistEntry> liveEntries) throws IOException {
+    Path compactedPath = journalPath.resolveSibling(journalPath.getFileName() + ".compact");
+    Files.deleteIfExists(compactedPath);
+    try (BlacklistJournal compactedJournal = open(compactedPath)) {
+      compactedJournal.append(liveEntries, Collections.emptyList());
+    }
+    int previousRecordCount = recordCount;
+    fileChannel.close();
+    try {
+      Files.move(compactedPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      // Reopens the compacted journal, or the original one if the move failed.
+      BlacklistJournal reopenedJournal = open(journalPath);
+      reopenedJournal.replay();
+      fileChannel = reopenedJournal.fileChannel;
+      buffer = reopenedJournal.buffer;
+      recordCount = reopenedJournal.recordCount;
+    }
+    log.info("Compacted blacklist journal {} from {} to {} records.", journalPath, previousRecordCount, recordCount);
+  }
+
+  int getRecordCount() {
+    return recordCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (fileChannel.isOpen()) {
+      buffer.force();
+      fileChannel.close();
+    }
+  }
+}
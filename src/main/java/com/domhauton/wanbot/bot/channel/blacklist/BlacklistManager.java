@@ -1,12 +1,25 @@
 package com.domhauton.wanbot.bot.channel.blacklist;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -14,59 +27,301 @@ import java.util.stream.Stream;
 /**
  * Created by Dominic Hauton on 03/05/2016.
  * <p>
- * Stores the channel blacklists
+ * Stores the channel blacklists. Readers use the current immutable {@link CompiledBlacklist}
+ * without locking. Writers are serialised, copy the entries, and publish exactly one new snapshot
+ * per change. Changes can be persisted to a {@link BlacklistJournal}.
  */
-public class BlacklistManager {
+public class BlacklistManager implements Closeable {
   private static final Logger log = LogManager.getLogger();
-  private final Set<BlacklistEntry> blacklistEntries;
+  private static final int SLOWEST_ENTRY_COUNT = 5;
+  private final AtomicReference<CompiledBlacklist> compiledBlacklist;
+  private final RegexEvaluationGuard regexEvaluationGuard;
+  private final VerdictCache verdictCache;
+  private final BlacklistJournal blacklistJournal;
+  private final BlacklistMetrics blacklistMetrics;
 
   public BlacklistManager() {
-    blacklistEntries = new HashSet<>();
+    this(new RegexEvaluationGuard());
+  }
+
+  BlacklistManager(RegexEvaluationGuard regexEvaluationGuard) {
+    this(regexEvaluationGuard, new VerdictCache());
+  }
+
+  BlacklistManager(RegexEvaluationGuard regexEvaluationGuard, VerdictCache verdictCache) {
+    this(regexEvaluationGuard, verdictCache, null, Collections.emptyList());
+  }
+
+  /**
+   * @param blacklistJournal journal to record changes in. Null if changes are not persisted.
+   * @param initialEntries   entries replayed from the journal. Compiled once.
+   */
+  private BlacklistManager(
+      RegexEvaluationGuard regexEvaluationGuard,
+      VerdictCache verdictCache,
+      BlacklistJournal blacklistJournal,
+      Collection<BlacklistEntry> initialEntries) {
+    this.regexEvaluationGuard = regexEvaluationGuard;
+    this.verdictCache = verdictCache;
+    this.blacklistJournal = blacklistJournal;
+    this.blacklistMetrics = new BlacklistMetrics();
+    compiledBlacklist = new AtomicReference<>(initialEntries.isEmpty()
+        ? CompiledBlacklist.empty()
+        : CompiledBlacklist.compile(initialEntries, 0L, regexEvaluationGuard));
+    regexEvaluationGuard.setQuarantineListener(verdictCache::invalidate);
   }
 
   /**
-   * Attempts to add pattern to blacklist. Rejected if already blacklisted.
+   * Creates a blacklist manager that persists every change to the journal at the given path. Any
+   * entries already in the journal are replayed and compiled once.
+   */
+  public static BlacklistManager open(Path journalPath) throws IOException {
+    BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath);
+    Collection<BlacklistEntry> replayedEntries = blacklistJournal.replay();
+    return new BlacklistManager(new RegexEvaluationGuard(), new VerdictCache(), blacklistJournal, replayedEntries);
+  }
+
+  /**
+   * Attempts to add pattern to blacklist. Rejected if already blacklisted. MESSAGE entries are also
+   * rejected if another entry has the same normalised message. REGEX entries that cannot be compiled
+   * into an automaton are rejected if they could backtrack catastrophically.
    */
   public BlacklistEntry addToBlacklist(String input, BlacklistType blacklistType) throws BlacklistOperationException {
-    Pattern convertedPatten = blacklistType.stringToPattern(input);
-    BlacklistEntry blacklistEntry = new BlacklistEntry(convertedPatten, blacklistType);
-    if (blacklistEntries.contains(blacklistEntry)) {
-      log.warn("Failed to add pattern. Already existed: {}", convertedPatten);
-      throw new BlacklistOperationException("Failed to add pattern. Already existed: " +
+    BlacklistEntry blacklistEntry = new BlacklistEntry(input, blacklistType);
+    Pattern convertedPatten = blacklistEntry.getPattern();
+    Optional<String> hazard = findHazard(blacklistEntry);
+    if (hazard.isPresent()) {
+      log.warn("Rejected REGEX pattern {}. {}", convertedPatten, hazard.get());
+      throw new BlacklistOperationException("Failed to add pattern. Too expensive to evaluate: " +
           convertedPatten.toString());
-    } else {
-      blacklistEntries.add(blacklistEntry);
-      log.info("Added blacklist pattern: {} as: {}", convertedPatten, blacklistType);
-      return blacklistEntry;
     }
+    return updateBlacklist((snapshot, entries) -> {
+      if (snapshot.contains(blacklistEntry)) {
+        log.warn("Failed to add pattern. Already existed: {}", convertedPatten);
+        throw new BlacklistOperationException("Failed to add pattern. Already existed: " +
+            convertedPatten.toString());
+      } else {
+        entries.add(blacklistEntry);
+        log.info("Added blacklist pattern: {} as: {}", convertedPatten, blacklistType);
+        return blacklistEntry;
+      }
+    });
   }
 
   /**
-   * Check message against all blacklist entries.
+   * Adds all inputs that are not already blacklisted as a single change. REGEX entries that could
+   * backtrack catastrophically are skipped, as {@link #addToBlacklist} would reject them.
+   *
+   * @return entries that were added.
+   */
+  public Collection<BlacklistEntry> addAllToBlacklist(Collection<String> inputs, BlacklistType blacklistType) {
+    Collection<BlacklistEntry> newEntries = inputs.stream()
+        .map(input -> new BlacklistEntry(input, blacklistType))
+        .collect(Collectors.toList());
+    return addAllToBlacklist(newEntries);
+  }
+
+  Collection<BlacklistEntry> addAllToBlacklist(Collection<BlacklistEntry> newEntries) {
+    // Checked before taking the writer lock, as converting REGEX entries may take a while.
+    Collection<BlacklistEntry> safeEntries = newEntries.stream()
+        .filter(blacklistEntry -> {
+          Optional<String> hazard = findHazard(blacklistEntry);
+          hazard.ifPresent(reason -> log.warn("Skipped REGEX pattern {}. {}", blacklistEntry.getPattern(), reason));
+          return !hazard.isPresent();
+        })
+        .collect(Collectors.toList());
+    return updateBlacklistUnchecked((snapshot, entries) -> {
+      Set<String> addedMessageKeys = new HashSet<>();
+      Collection<BlacklistEntry> addedEntries = new LinkedList<>();
+      for (BlacklistEntry blacklistEntry : safeEntries) {
+        boolean duplicateMessage = blacklistEntry.getMessageKey() != null
+            && !addedMessageKeys.add(blacklistEntry.getMessageKey());
+        if (!snapshot.contains(blacklistEntry) && !duplicateMessage && entries.add(blacklistEntry)) {
+          addedEntries.add(blacklistEntry);
+        }
+      }
+      log.info("Added {} of {} blacklist entries in bulk.", addedEntries.size(), newEntries.size());
+      return addedEntries;
+    });
+  }
+
+  /**
+   * REGEX entries that compile into an automaton run in linear time, so only the others are checked.
+   *
+   * @return why the entry could backtrack catastrophically, if it could.
+   */
+  private static Optional<String> findHazard(BlacklistEntry blacklistEntry) {
+    if (blacklistEntry.getBlacklistType() != BlacklistType.REGEX
+        || RegexAutomatonConverter.convert(blacklistEntry.getInput()).isPresent()) {
+      return Optional.empty();
+    }
+    return RegexComplexityChecker.findHazard(blacklistEntry.getInput());
+  }
+
+  /**
+   * Check message against all blacklist entries. Repeated messages are answered from the verdict
+   * cache until the blacklist changes.
    */
   public boolean isMessageBlacklisted(String twitchMessage) {
+    return isMessageBlacklisted(twitchMessage, twitchMessage);
+  }
+
+  /**
+   * Checks the message as sent and, if it passes, its folded form against WORD entries, so
+   * obfuscated copies of blacklisted words are caught. Recorded as a single check.
+   *
+   * @param foldedMessage message with case, accents and leetspeak folded. Word separators must be
+   *                      kept, else WORD entries would match across words.
+   */
+  public boolean isMessageBlacklisted(String twitchMessage, String foldedMessage) {
     log.debug("Checking if message is blacklisted: {}", twitchMessage);
-    return blacklistEntries.stream()
-        .filter(blacklistEntry -> blacklistEntry.matches(twitchMessage))
-        .findAny()
-        .isPresent();
+    long startNanos = System.nanoTime();
+    BlacklistEntry matchedEntry = findMatch(twitchMessage);
+    if (matchedEntry == null && !foldedMessage.equals(twitchMessage)) {
+      matchedEntry = compiledBlacklist.get().findWordMatch(foldedMessage).orElse(null);
+    }
+    blacklistMetrics.recordCheck(matchedEntry, System.nanoTime() - startNanos);
+    return matchedEntry != null;
+  }
+
+  private BlacklistEntry findMatch(String twitchMessage) {
+    VerdictCache.Verdict cachedVerdict = verdictCache.get(twitchMessage);
+    if (cachedVerdict != null) {
+      return cachedVerdict.getMatchedEntry();
+    } else {
+      long verdictGeneration = verdictCache.getGeneration();
+      BlacklistEntry matchedEntry = compiledBlacklist.get().findMatch(twitchMessage).orElse(null);
+      verdictCache.put(twitchMessage, verdictGeneration, matchedEntry);
+      return matchedEntry;
+    }
+  }
+
+  /**
+   * @return Hit counts, latency of the blacklist stage, slowest and dead entries.
+   */
+  public BlacklistMetricsSnapshot getMetricsSnapshot() {
+    ImmutableSet<BlacklistEntry> entries = compiledBlacklist.get().getEntries();
+    Map<BlacklistEntry, Long> entryHits = entries.stream()
+        .collect(Collectors.toMap(Function.identity(), blacklistMetrics::getHits));
+    ImmutableMap<BlacklistEntry, Long> sortedEntryHits = entryHits.entrySet().stream()
+        .sorted(Map.Entry.<BlacklistEntry, Long>comparingByValue().reversed()
+            .thenComparing(entry -> entry.getKey().toString()))
+        .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
+    ImmutableMap<BlacklistEntry, Long> slowestEntries = regexEvaluationGuard.getEntryCosts().entrySet().stream()
+        .filter(entry -> entry.getValue().getEvaluations() > 0)
+        .collect(Collectors.toMap(Map.Entry::getKey,
+            entry -> entry.getValue().getTotalNanos() / entry.getValue().getEvaluations()))
+        .entrySet().stream()
+        .sorted(Map.Entry.<BlacklistEntry, Long>comparingByValue().reversed())
+        .limit(SLOWEST_ENTRY_COUNT)
+        .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
+    ImmutableList<BlacklistEntry> deadEntries = sortedEntryHits.entrySet().stream()
+        .filter(entry -> entry.getValue() == 0L)
+        .map(Map.Entry::getKey)
+        .collect(ImmutableList.toImmutableList());
+    LatencyHistogram latencyHistogram = blacklistMetrics.getLatencyHistogram();
+    return new BlacklistMetricsSnapshot(
+        latencyHistogram.getCount(),
+        blacklistMetrics.getBlacklistedCount(),
+        latencyHistogram.getPercentileNanos(0.5d),
+        latencyHistogram.getPercentileNanos(0.99d),
+        latencyHistogram.getMaxNanos(),
+        verdictCache.getHitRate(),
+        sortedEntryHits,
+        slowestEntries,
+        deadEntries,
+        regexEvaluationGuard.getQuarantinedEntries());
+  }
+
+  /**
+   * Check message against a single entry. REGEX entries are evaluated within the regex budget.
+   */
+  public boolean isMessageBlacklisted(BlacklistEntry blacklistEntry, String twitchMessage) {
+    return blacklistEntry.getBlacklistType() == BlacklistType.REGEX
+        ? regexEvaluationGuard.matches(blacklistEntry, twitchMessage)
+        : blacklistEntry.matches(twitchMessage);
+  }
+
+  /**
+   * Sets the budget each REGEX entry is evaluated within. Changing it releases quarantined entries.
+   *
+   * @param maxSteps  maximum characters the regex engine may read for a single evaluation.
+   * @param maxMillis maximum wall time for a single evaluation.
+   */
+  public void setRegexBudget(long maxSteps, long maxMillis) {
+    regexEvaluationGuard.setBudget(maxSteps, maxMillis);
+  }
+
+  /**
+   * @return REGEX entries that exceeded the evaluation budget and are no longer evaluated.
+   */
+  public Collection<BlacklistEntry> getQuarantinedEntries() {
+    return regexEvaluationGuard.getQuarantinedEntries();
+  }
+
+  /**
+   * @return Evaluation cost of each REGEX entry run with java.util.regex.
+   */
+  Map<BlacklistEntry, RegexEvaluationGuard.EntryCost> getRegexEntryCosts() {
+    return regexEvaluationGuard.getEntryCosts();
+  }
+
+  /**
+   * @return Fraction of blacklist checks answered from the verdict cache.
+   */
+  public double getVerdictCacheHitRate() {
+    return verdictCache.getHitRate();
+  }
+
+  VerdictCache getVerdictCache() {
+    return verdictCache;
+  }
+
+  /**
+   * @return The currently published blacklist snapshot.
+   */
+  CompiledBlacklist getSnapshot() {
+    return compiledBlacklist.get();
+  }
+
+  /**
+   * @return Number of REGEX entries compiled into the union automaton.
+   */
+  int getRegexAutomatonEntryCount() {
+    return compiledBlacklist.get().getRegexAutomatonEntryCount();
+  }
+
+  /**
+   * @return Number of REGEX entries evaluated with java.util.regex.
+   */
+  int getRegexResidualEntryCount() {
+    return compiledBlacklist.get().getRegexResidualEntryCount();
   }
 
+  /**
+   * Removes the entry created from the given input. MESSAGE entries are found by normalised message.
+   */
   public BlacklistEntry removeFromBlacklist(String input, BlacklistType blacklistType) throws BlacklistOperationException {
-    Pattern convertedPatten = blacklistType.stringToPattern(input);
-    BlacklistEntry blacklistEntry = new BlacklistEntry(convertedPatten);
-    return removeFromBlacklist(blacklistEntry);
+    BlacklistEntry blacklistEntry = new BlacklistEntry(input, blacklistType);
+    return updateBlacklist((snapshot, entries) -> {
+      BlacklistEntry storedEntry = snapshot.find(input, blacklistType);
+      return removeEntry(entries, storedEntry == null ? blacklistEntry : storedEntry);
+    });
   }
 
   BlacklistEntry removeFromBlacklist(BlacklistEntry blacklistEntry) throws BlacklistOperationException {
-    if (blacklistEntries.contains(blacklistEntry)) {
+    return updateBlacklist((snapshot, entries) -> removeEntry(entries, blacklistEntry));
+  }
+
+  private BlacklistEntry removeEntry(Set<BlacklistEntry> entries, BlacklistEntry blacklistEntry)
+      throws BlacklistOperationException {
+    if (entries.remove(blacklistEntry)) {
       log.info("Removing blacklist pattern {} which is a {}", blacklistEntry.toString(), blacklistEntry.getBlacklistType()
           .toString());
-      blacklistEntries.remove(blacklistEntry);
       return blacklistEntry;
     } else {
       log.info("Attempted to remove non-existent blacklist entry {} . Current entries: {}", () ->
-          blacklistEntry, () -> blacklistEntries
+          blacklistEntry, () -> entries
           .stream()
           .map(BlacklistEntry::toString)
           .collect(Collectors.toList())
@@ -77,58 +332,99 @@ public class BlacklistManager {
   }
 
   /**
-   * An unsafe way to remove from blacklist, will return null instead of throwing exception. For
-   * streams.
-   *
-   * @return null if remove failed. Otherwise item removed.
+   * Removes exact matches of any type. If there are none, removes every entry containing the input.
+   * All removals are published as a single change.
    */
-  private BlacklistEntry removeFromBlacklistUnsafe(String input, BlacklistType blacklistType) {
-    try {
-      return removeFromBlacklist(input, blacklistType);
-    } catch (BlacklistOperationException e) {
-      return null;
+  public Collection<BlacklistEntry> removeFromBlacklist(String input) {
+    log.info("Attempting assisted blacklist removal of: {}.", input);
+    return updateBlacklistUnchecked((snapshot, entries) -> {
+      Collection<BlacklistEntry> removedBlacklistEntries = Stream.of(BlacklistType.values())
+          .map(blacklistType -> snapshot.find(input, blacklistType))
+          .filter(Objects::nonNull)
+          .collect(Collectors.toSet());
+      if (removedBlacklistEntries.isEmpty()) {
+        log.info("Attempting assisted blacklist removal of: {}. No exact match found, searching...", input);
+        removedBlacklistEntries = searchBlacklist(snapshot, input);
+      } else {
+        log.info("Attempting assisted blacklist removal of: {}. Found exact match/es.", input);
+      }
+      entries.removeAll(removedBlacklistEntries);
+      return removedBlacklistEntries;
+    });
+  }
+
+  public Collection<BlacklistEntry> searchBlacklist(String searchTerm) {
+    log.info("Searching blacklist for: {}", searchTerm);
+    return searchBlacklist(compiledBlacklist.get(), searchTerm);
+  }
+
+  private static Collection<BlacklistEntry> searchBlacklist(CompiledBlacklist snapshot, String searchTerm) {
+    return snapshot.getEntries().stream()
+        .filter(blacklistEntry -> blacklistEntry.toString().contains(searchTerm))
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Applies the update to a copy of the current entries and publishes a new snapshot if they
+   * changed. Writers are serialised so no update is lost. Readers are never blocked.
+   */
+  private synchronized <T> T updateBlacklist(BlacklistUpdate<T> update) throws BlacklistOperationException {
+    CompiledBlacklist snapshot = compiledBlacklist.get();
+    Set<BlacklistEntry> entries = new HashSet<>(snapshot.getEntries());
+    T result = update.apply(snapshot, entries);
+    if (!entries.equals(snapshot.getEntries())) {
+      persistChange(snapshot.getEntries(), entries);
+      regexEvaluationGuard.retainAll(entries);
+      blacklistMetrics.retainAll(entries);
+      compiledBlacklist.set(CompiledBlacklist.compile(entries, snapshot.getGeneration() + 1, regexEvaluationGuard));
+      verdictCache.invalidate();
     }
+    return result;
   }
 
   /**
-   * An unsafe way to remove from blacklist, will return null instead of throwing exception. For
-   * streams.
-   *
-   * @return null if remove failed. Otherwise item removed.
+   * Journals the change before it is published, so a change is only visible once durable.
    */
-  private BlacklistEntry removeFromBlacklistUnsafe(BlacklistEntry blacklistEntry) {
+  private void persistChange(Set<BlacklistEntry> previousEntries, Set<BlacklistEntry> entries)
+      throws BlacklistOperationException {
+    if (blacklistJournal == null) {
+      return;
+    }
     try {
-      return removeFromBlacklist(blacklistEntry);
-    } catch (BlacklistOperationException e) {
-      // Race condition precaution
-      return null;
+      blacklistJournal.append(Sets.difference(entries, previousEntries), Sets.difference(previousEntries, entries));
+    } catch (IOException e) {
+      log.error("Failed to write blacklist journal. {}", e.getMessage());
+      throw new BlacklistOperationException("Failed to persist blacklist change.");
+    }
+    if (blacklistJournal.needsCompaction(entries.size())) {
+      try {
+        blacklistJournal.compact(entries);
+      } catch (IOException e) {
+        log.warn("Failed to compact blacklist journal. {}", e.getMessage());
+      }
     }
   }
 
-  public Collection<BlacklistEntry> removeFromBlacklist(String input) {
-    log.info("Attempting assisted blacklist removal of: {}.", input);
-    Collection<BlacklistEntry> removedBlacklistEntries = Stream.of(BlacklistType.values())
-        .map(blacklistType -> removeFromBlacklistUnsafe(input, blacklistType))
-        .filter(Objects::nonNull)
-        .collect(Collectors.toSet());
-    if (removedBlacklistEntries.isEmpty()) {
-      log.info("Attempting assisted blacklist removal of: {}. No exact match found, searching...", input);
-      Collection<BlacklistEntry> matchingEntries = searchBlacklist(input);
-      Collection<BlacklistEntry> removedSearchEntries = matchingEntries.stream()
-          .map(this::removeFromBlacklistUnsafe)
-          .filter(Objects::nonNull)
-          .collect(Collectors.toSet());
-      return removedSearchEntries;
-    } else {
-      log.info("Attempting assisted blacklist removal of: {}. Found exact match/es.", input);
-      return removedBlacklistEntries;
+  /**
+   * Flushes and closes the journal, if any.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (blacklistJournal != null) {
+      blacklistJournal.close();
     }
   }
 
-  public Collection<BlacklistEntry> searchBlacklist(String searchTerm) {
-    log.info("Searching blacklist for: {}", searchTerm);
-    return blacklistEntries.stream()
-        .filter(blacklistEntry -> blacklistEntry.toString().contains(searchTerm))
-        .collect(Collectors.toSet());
+  private <T> T updateBlacklistUnchecked(BlacklistUpdate<T> update) {
+    try {
+      return updateBlacklist(update);
+    } catch (BlacklistOperationException e) {
+      throw new IllegalStateException("Unchecked blacklist update failed", e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface BlacklistUpdate<T> {
+    T apply(CompiledBlacklist snapshot, Set<BlacklistEntry> entries) throws BlacklistOperationException;
   }
 }
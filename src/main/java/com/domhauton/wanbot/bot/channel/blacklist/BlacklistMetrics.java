@@ -0,0 +1,57 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low overhead counters for the blacklist stage. Per entry hit counts and the latency histogram are
+ * updated without locking from every message check.
+ */
+class BlacklistMetrics {
+  private final Map<BlacklistEntry, LongAdder> entryHits;
+  private final LatencyHistogram latencyHistogram;
+  private final LongAdder blacklistedCount;
+
+  BlacklistMetrics() {
+    entryHits = new ConcurrentHashMap<>();
+    latencyHistogram = new LatencyHistogram();
+    blacklistedCount = new LongAdder();
+  }
+
+  /**
+   * @param matchedEntry entry that blacklisted the message, or null if none did.
+   */
+  void recordCheck(BlacklistEntry matchedEntry, long nanos) {
+    latencyHistogram.record(nanos);
+    if (matchedEntry != null) {
+      blacklistedCount.increment();
+      LongAdder hits = entryHits.get(matchedEntry);
+      if (hits == null) {
+        hits = entryHits.computeIfAbsent(matchedEntry, key -> new LongAdder());
+      }
+      hits.increment();
+    }
+  }
+
+  long getHits(BlacklistEntry blacklistEntry) {
+    LongAdder hits = entryHits.get(blacklistEntry);
+    return hits == null ? 0L : hits.sum();
+  }
+
+  long getBlacklistedCount() {
+    return blacklistedCount.sum();
+  }
+
+  LatencyHistogram getLatencyHistogram() {
+    return latencyHistogram;
+  }
+
+  /**
+   * Drops hit counts of entries no longer in the blacklist.
+   */
+  void retainAll(Collection<BlacklistEntry> blacklistEntries) {
+    entryHits.keySet().retainAll(blacklistEntries);
+  }
+}
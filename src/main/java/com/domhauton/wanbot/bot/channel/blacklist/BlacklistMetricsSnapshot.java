@@ -0,0 +1,97 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Point in time view of the blacklist metrics. Hit counts are since startup or since the entry was
+ * added, whichever is later.
+ */
+public class BlacklistMetricsSnapshot {
+  private final long checkCount;
+  private final long blacklistedCount;
+  private final long medianNanos;
+  private final long p99Nanos;
+  private final long maxNanos;
+  private final double verdictCacheHitRate;
+  private final ImmutableMap<BlacklistEntry, Long> entryHits;
+  private final ImmutableMap<BlacklistEntry, Long> slowestEntries;
+  private final ImmutableList<BlacklistEntry> deadEntries;
+  private final ImmutableSet<BlacklistEntry> quarantinedEntries;
+
+  BlacklistMetricsSnapshot(
+      long checkCount,
+      long blacklistedCount,
+      long medianNanos,
+      long p99Nanos,
+      long maxNanos,
+      double verdictCacheHitRate,
+      ImmutableMap<BlacklistEntry, Long> entryHits,
+      ImmutableMap<BlacklistEntry, Long> slowestEntries,
+      ImmutableList<BlacklistEntry> deadEntries,
+      ImmutableSet<BlacklistEntry> quarantinedEntries) {
+    this.checkCount = checkCount;
+    this.blacklistedCount = blacklistedCount;
+    this.medianNanos = medianNanos;
+    this.p99Nanos = p99Nanos;
+    this.maxNanos = maxNanos;
+    this.verdictCacheHitRate = verdictCacheHitRate;
+    this.entryHits = entryHits;
+    this.slowestEntries = slowestEntries;
+    this.deadEntries = deadEntries;
+    this.quarantinedEntries = quarantinedEntries;
+  }
+
+  /**
+   * @return Number of messages checked against the blacklist.
+   */
+  public long getCheckCount() {
+    return checkCount;
+  }
+
+  public long getBlacklistedCount() {
+    return blacklistedCount;
+  }
+
+  public long getMedianNanos() {
+    return medianNanos;
+  }
+
+  public long getP99Nanos() {
+    return p99Nanos;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  public double getVerdictCacheHitRate() {
+    return verdictCacheHitRate;
+  }
+
+  /**
+   * @return Hit count of every entry, most hit first.
+   */
+  public ImmutableMap<BlacklistEntry, Long> getEntryHits() {
+    return entryHits;
+  }
+
+  /**
+   * @return Mean evaluation time of the slowest java.util.regex entries, slowest first.
+   */
+  public ImmutableMap<BlacklistEntry, Long> getSlowestEntries() {
+    return slowestEntries;
+  }
+
+  /**
+   * @return Entries that have never matched a message. Candidates for pruning.
+   */
+  public ImmutableList<BlacklistEntry> getDeadEntries() {
+    return deadEntries;
+  }
+
+  public ImmutableSet<BlacklistEntry> getQuarantinedEntries() {
+    return quarantinedEntries;
+  }
+}
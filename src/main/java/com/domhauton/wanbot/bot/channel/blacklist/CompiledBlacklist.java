@@ -0,0 +1,153 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Immutable snapshot of a blacklist and the matchers compiled from it. Safe to read from any number
+ * of threads without locking. Changes are made by compiling a new snapshot.
+ */
+final class CompiledBlacklist {
+  private static final CompiledBlacklist EMPTY = compile(ImmutableSet.of(), 0L);
+
+  private final long generation;
+  private final ImmutableSet<BlacklistEntry> entries;
+  private final ImmutableMap<String, BlacklistEntry> messageIndex;
+  private final AhoCorasickMatcher<BlacklistEntry> wordMatcher;
+  private final RegexUnionMatcher regexMatcher;
+
+  private CompiledBlacklist(
+      long generation,
+      ImmutableSet<BlacklistEntry> entries,
+      ImmutableMap<String, BlacklistEntry> messageIndex,
+      AhoCorasickMatcher<BlacklistEntry> wordMatcher,
+      RegexUnionMatcher regexMatcher) {
+    this.generation = generation;
+    this.entries = entries;
+    this.messageIndex = messageIndex;
+    this.wordMatcher = wordMatcher;
+    this.regexMatcher = regexMatcher;
+  }
+
+  static CompiledBlacklist empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Builds the MESSAGE index and the WORD and REGEX automata for the given entries.
+   *
+   * @param generation incremented for every published snapshot.
+   */
+  static CompiledBlacklist compile(Collection<BlacklistEntry> blacklistEntries, long generation) {
+    return compile(blacklistEntries, generation, new RegexEvaluationGuard());
+  }
+
+  /**
+   * @param evaluationGuard shared between snapshots so quarantine and cost records survive changes.
+   */
+  static CompiledBlacklist compile(
+      Collection<BlacklistEntry> blacklistEntries,
+      long generation,
+      RegexEvaluationGuard evaluationGuard) {
+    Map<String, BlacklistEntry> messages = new HashMap<>();
+    Map<String, BlacklistEntry> words = new HashMap<>();
+    Collection<BlacklistEntry> regexes = new ArrayList<>();
+    for (BlacklistEntry blacklistEntry : blacklistEntries) {
+      switch (blacklistEntry.getBlacklistType()) {
+        case MESSAGE:
+          messages.putIfAbsent(blacklistEntry.getMessageKey(), blacklistEntry);
+          break;
+        case WORD:
+          words.putIfAbsent(blacklistEntry.getInput(), blacklistEntry);
+          break;
+        default:
+          regexes.add(blacklistEntry);
+      }
+    }
+    return new CompiledBlacklist(
+        generation,
+        ImmutableSet.copyOf(blacklistEntries),
+        ImmutableMap.copyOf(messages),
+        new AhoCorasickMatcher<>(words),
+        new RegexUnionMatcher(regexes, evaluationGuard));
+  }
+
+  /**
+   * MESSAGE entries are a single hash lookup, WORD and REGEX entries are each checked together in a
+   * single pass.
+   */
+  boolean matches(String message) {
+    return messageIndex.containsKey(BlacklistEntry.normaliseMessage(message))
+        || wordMatcher.matches(message)
+        || regexMatcher.matches(message);
+  }
+
+  /**
+   * Same order as {@link #matches(String)}, but reports which entry matched.
+   */
+  Optional<BlacklistEntry> findMatch(String message) {
+    BlacklistEntry messageEntry = messageIndex.get(BlacklistEntry.normaliseMessage(message));
+    if (messageEntry != null) {
+      return Optional.of(messageEntry);
+    }
+    Optional<BlacklistEntry> wordEntry = wordMatcher.findFirst(message);
+    return wordEntry.isPresent() ? wordEntry : regexMatcher.findMatch(message);
+  }
+
+  /**
+   * Checks WORD entries only. MESSAGE and REGEX entries are written against the message as sent.
+   */
+  Optional<BlacklistEntry> findWordMatch(String message) {
+    return wordMatcher.findFirst(message);
+  }
+
+  /**
+   * True if the entry, or a MESSAGE entry with the same normalised message, is present.
+   */
+  boolean contains(BlacklistEntry blacklistEntry) {
+    return entries.contains(blacklistEntry)
+        || (blacklistEntry.getMessageKey() != null && messageIndex.containsKey(blacklistEntry.getMessageKey()));
+  }
+
+  /**
+   * Finds the stored entry created from the given input.
+   *
+   * @return stored entry or null if not present.
+   */
+  BlacklistEntry find(String input, BlacklistType blacklistType) {
+    BlacklistEntry blacklistEntry;
+    try {
+      blacklistEntry = new BlacklistEntry(input, blacklistType);
+    } catch (PatternSyntaxException e) {
+      return null;
+    }
+    if (blacklistType == BlacklistType.MESSAGE) {
+      return messageIndex.get(blacklistEntry.getMessageKey());
+    } else {
+      return entries.contains(blacklistEntry) ? blacklistEntry : null;
+    }
+  }
+
+  long getGeneration() {
+    return generation;
+  }
+
+  ImmutableSet<BlacklistEntry> getEntries() {
+    return entries;
+  }
+
+  int getRegexAutomatonEntryCount() {
+    return regexMatcher.getAutomatonEntryCount();
+  }
+
+  int getRegexResidualEntryCount() {
+    return regexMatcher.getResidualEntryCount();
+  }
+}
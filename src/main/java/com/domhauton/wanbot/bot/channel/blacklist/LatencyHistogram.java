@@ -0,0 +1,72 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of two buckets. Recording is a single LongAdder
+ * increment, so it can be called for every message. Percentiles are accurate to within a factor
+ * of two.
+ */
+class LatencyHistogram {
+  private static final int BUCKET_COUNT = 64;
+
+  private final LongAdder[] buckets;
+  private final LongAccumulator maxNanos;
+
+  LatencyHistogram() {
+    buckets = new LongAdder[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = new LongAdder();
+    }
+    maxNanos = new LongAccumulator(Math::max, 0L);
+  }
+
+  void record(long nanos) {
+    long boundedNanos = Math.max(0L, nanos);
+    buckets[bucket(boundedNanos)].increment();
+    maxNanos.accumulate(boundedNanos);
+  }
+
+  /**
+   * Bucket 0 holds 0. Bucket i holds values in [2^(i-1), 2^i - 1].
+   */
+  private static int bucket(long nanos) {
+    return Math.min(BUCKET_COUNT - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos));
+  }
+
+  long getCount() {
+    long count = 0L;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * @param quantile between 0 and 1.
+   * @return upper bound of the bucket holding the quantile, capped at the max. 0 if empty.
+   */
+  long getPercentileNanos(double quantile) {
+    long[] counts = new long[BUCKET_COUNT];
+    long total = 0L;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+    long target = Math.max(1L, (long) Math.ceil(quantile * total));
+    long cumulative = 0L;
+    for (int i = 0; i < BUCKET_COUNT && total > 0; i++) {
+      cumulative += counts[i];
+      if (cumulative >= target) {
+        long upperBound = i == 0 ? 0L : (i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+        return Math.min(upperBound, maxNanos.get());
+      }
+    }
+    return 0L;
+  }
+}
@@ -0,0 +1,355 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import java.util.Optional;
+
+/**
+ * Converts java.util.regex patterns into the Lucene RegExp syntax so they can be compiled into an
+ * automaton. Only the regular subset of the java syntax is converted. Anything that would change
+ * meaning between the two engines (backreferences, lookaround, inline flags, boundaries,
+ * possessive quantifiers, etc.) is rejected so it can be handled by java.util.regex instead.
+ * <p>
+ * Bounded repetitions are expanded into one copy of the repeated atom per repeat when the automaton
+ * is built, so patterns repeating any part more than {@link #MAX_REPETITION_COPIES} times, counting
+ * nested repetitions together, are rejected too. They would take seconds to compile.
+ * <p>
+ * Output mirrors the CASE_INSENSITIVE flag used by {@link BlacklistType}. ASCII letters are
+ * expanded to both cases, so the automaton can run directly against the raw message.
+ */
+final class RegexAutomatonConverter {
+  private static final String LINE_TERMINATORS = "\n\r\u0085\u2028\u2029";
+  private static final String WHITESPACE = " \t\n\u000B\f\r";
+  static final int MAX_REPETITION_COPIES = 256;
+
+  private final String source;
+  private int position;
+  // Copies of the most nested part of the last converted atom, group or quantifier.
+  private int copies;
+
+  private RegexAutomatonConverter(String source) {
+    this.source = source;
+    this.position = 0;
+  }
+
+  /**
+   * @return The equivalent Lucene RegExp, or empty if the pattern uses unsupported features.
+   */
+  static Optional<String> convert(String javaRegex) {
+    try {
+      return Optional.of(new RegexAutomatonConverter(javaRegex).convertPattern());
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  private String convertPattern() {
+    // Anchors at the ends are implicit as blacklist patterns must match the whole message.
+    if (peek('^')) {
+      position++;
+    }
+    String converted = convertAlternation();
+    if (peek('$')) {
+      position++;
+    }
+    if (position != source.length()) {
+      throw unsupported("Unexpected character");
+    }
+    return converted;
+  }
+
+  private String convertAlternation() {
+    StringBuilder converted = new StringBuilder(convertSequence());
+    int alternationCopies = copies;
+    while (peek('|')) {
+      position++;
+      converted.append('|').append(convertSequence());
+      alternationCopies = Math.max(alternationCopies, copies);
+    }
+    copies = alternationCopies;
+    return converted.toString();
+  }
+
+  private String convertSequence() {
+    StringBuilder converted = new StringBuilder();
+    int sequenceCopies = 1;
+    while (position < source.length() && !peek('|') && !peek(')') && !isTrailingAnchor()) {
+      String atom = convertAtom();
+      int atomCopies = copies;
+      converted.append(atom).append(convertQuantifier());
+      // Both are at most MAX_REPETITION_COPIES, so the product cannot overflow.
+      if (atomCopies * copies > MAX_REPETITION_COPIES) {
+        throw unsupported("Repetition expands to more than " + MAX_REPETITION_COPIES + " copies");
+      }
+      sequenceCopies = Math.max(sequenceCopies, atomCopies * copies);
+    }
+    copies = sequenceCopies;
+    return converted.length() == 0 ? "()" : converted.toString();
+  }
+
+  private boolean isTrailingAnchor() {
+    return peek('$') && position == source.length() - 1;
+  }
+
+  /**
+   * Sets {@link #copies} to those of the most nested part of a group, otherwise one.
+   */
+  private String convertAtom() {
+    char c = source.charAt(position++);
+    copies = 1;
+    switch (c) {
+      case '(':
+        if (peek('?')) {
+          if (position + 1 < source.length() && source.charAt(position + 1) == ':') {
+            position += 2;
+          } else {
+            throw unsupported("Lookaround, named groups and inline flags");
+          }
+        }
+        String group = convertAlternation();
+        if (!peek(')')) {
+          throw unsupported("Unclosed group");
+        }
+        position++;
+        return "(" + group + ")";
+      case '[':
+        return convertCharClass();
+      case '.':
+        return negatedClass(LINE_TERMINATORS);
+      case '\\':
+        return convertEscape();
+      case '^':
+      case '$':
+        throw unsupported("Anchors inside pattern");
+      case '*':
+      case '+':
+      case '?':
+      case '{':
+        throw unsupported("Dangling quantifier");
+      default:
+        if (Character.isSurrogate(c)) {
+          throw unsupported("Supplementary characters");
+        }
+        return literal(c);
+    }
+  }
+
+  private String convertEscape() {
+    if (position >= source.length()) {
+      throw unsupported("Trailing escape");
+    }
+    char c = source.charAt(position++);
+    switch (c) {
+      case 'd':
+        return "[0-9]";
+      case 'D':
+        return "[^0-9]";
+      case 'w':
+        return "[a-zA-Z_0-9]";
+      case 'W':
+        return "[^a-zA-Z_0-9]";
+      case 's':
+        return "[" + escapeAll(WHITESPACE) + "]";
+      case 'S':
+        return negatedClass(WHITESPACE);
+      case 't':
+        return literal('\t');
+      case 'n':
+        return literal('\n');
+      case 'r':
+        return literal('\r');
+      case 'f':
+        return literal('\f');
+      case 'Q':
+        return convertQuotation();
+      default:
+        if (Character.isLetterOrDigit(c)) {
+          throw unsupported("Escape \\" + c);
+        }
+        return literal(c);
+    }
+  }
+
+  private String convertQuotation() {
+    int end = source.indexOf("\\E", position);
+    String quoted = end < 0 ? source.substring(position) : source.substring(position, end);
+    position = end < 0 ? source.length() : end + 2;
+    if (quoted.isEmpty()) {
+      return "()";
+    } else if (quoted.chars().anyMatch(c -> Character.isSurrogate((char) c))) {
+      throw unsupported("Supplementary characters");
+    }
+    StringBuilder converted = new StringBuilder("(");
+    quoted.chars().forEach(c -> converted.append(literal((char) c)));
+    return converted.append(')').toString();
+  }
+
+  private String convertCharClass() {
+    StringBuilder converted = new StringBuilder("[");
+    if (peek('^')) {
+      position++;
+      converted.append('^');
+    }
+    if (peek(']')) {
+      throw unsupported("Leading ] in class");
+    }
+    while (!peek(']')) {
+      if (position >= source.length()) {
+        throw unsupported("Unclosed class");
+      }
+      char start = classChar();
+      if (peek('-') && position + 1 < source.length() && source.charAt(position + 1) != ']') {
+        position++;
+        char end = classChar();
+        converted.append(classRange(start, end));
+      } else {
+        converted.append(classMember(start));
+      }
+    }
+    position++;
+    return converted.append(']').toString();
+  }
+
+  /**
+   * Reads a single char from within a class. Shorthand classes are only accepted when they can be
+   * expanded in place.
+   */
+  private char classChar() {
+    char c = source.charAt(position++);
+    if (c == '[' || (c == '&' && peek('&'))) {
+      throw unsupported("Nested classes and intersections");
+    }
+    if (Character.isSurrogate(c)) {
+      throw unsupported("Supplementary characters");
+    } else if (c != '\\') {
+      return c;
+    }
+    if (position >= source.length()) {
+      throw unsupported("Trailing escape");
+    }
+    char escaped = source.charAt(position++);
+    switch (escaped) {
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 'f':
+        return '\f';
+      default:
+        if (Character.isLetterOrDigit(escaped)) {
+          throw unsupported("Escape \\" + escaped + " in class");
+        }
+        return escaped;
+    }
+  }
+
+  private String classRange(char start, char end) {
+    if (start > end) {
+      throw unsupported("Illegal range");
+    }
+    boolean lowerRange = isLower(start) && isLower(end);
+    boolean upperRange = isUpper(start) && isUpper(end);
+    if (lowerRange || upperRange) {
+      return escape(start) + "-" + escape(end) + escape(swapCase(start)) + "-" + escape(swapCase(end));
+    } else if (overlaps(start, end, 'a', 'z') || overlaps(start, end, 'A', 'Z')) {
+      throw unsupported("Range partially covering letters");
+    } else {
+      return escape(start) + "-" + escape(end);
+    }
+  }
+
+  private String classMember(char c) {
+    return isLower(c) || isUpper(c) ? escape(c) + escape(swapCase(c)) : escape(c);
+  }
+
+  private String convertQuantifier() {
+    String quantifier;
+    if (peek('*') || peek('+') || peek('?')) {
+      quantifier = String.valueOf(source.charAt(position++));
+    } else if (peek('{')) {
+      int end = source.indexOf('}', position);
+      if (end < 0) {
+        throw unsupported("Unclosed repetition");
+      }
+      quantifier = source.substring(position, end + 1);
+      if (!quantifier.matches("\\{\\d{1,9}(,\\d{0,9})?}")) {
+        throw unsupported("Repetition " + quantifier);
+      }
+      position = end + 1;
+    } else {
+      copies = 1;
+      return "";
+    }
+    copies = repetitionCopies(quantifier);
+    if (peek('+')) {
+      throw unsupported("Possessive quantifier");
+    } else if (peek('?')) {
+      // Lazy quantifiers do not change whether the whole message matches.
+      position++;
+    }
+    return quantifier;
+  }
+
+  /**
+   * @return copies of the atom an automaton needs for the quantifier. {n,m} needs m, {n,} needs n
+   * followed by a loop. Rejects repetitions needing more than {@link #MAX_REPETITION_COPIES}.
+   */
+  private int repetitionCopies(String quantifier) {
+    if (quantifier.charAt(0) != '{') {
+      return 1;
+    }
+    String[] bounds = quantifier.substring(1, quantifier.length() - 1).split(",", -1);
+    int repetitionCopies = bounds.length == 1 || bounds[1].isEmpty()
+        ? Integer.parseInt(bounds[0]) + (bounds.length == 1 ? 0 : 1)
+        : Integer.parseInt(bounds[1]);
+    if (repetitionCopies > MAX_REPETITION_COPIES) {
+      throw unsupported("Repetition " + quantifier + " expands to more than " + MAX_REPETITION_COPIES + " copies");
+    }
+    return Math.max(1, repetitionCopies);
+  }
+
+  private boolean peek(char c) {
+    return position < source.length() && source.charAt(position) == c;
+  }
+
+  private static String literal(char c) {
+    return isLower(c) || isUpper(c) ? "[" + c + swapCase(c) + "]" : escape(c);
+  }
+
+  private static String negatedClass(String chars) {
+    return "[^" + escapeAll(chars) + "]";
+  }
+
+  private static String escapeAll(String chars) {
+    StringBuilder escaped = new StringBuilder();
+    chars.chars().forEach(c -> escaped.append(escape((char) c)));
+    return escaped.toString();
+  }
+
+  /**
+   * Lucene treats a backslash followed by any char as that literal char.
+   */
+  private static String escape(char c) {
+    return Character.isLetterOrDigit(c) ? String.valueOf(c) : "\\" + c;
+  }
+
+  private static boolean overlaps(char start, char end, char rangeStart, char rangeEnd) {
+    return start <= rangeEnd && end >= rangeStart;
+  }
+
+  private static boolean isLower(char c) {
+    return c >= 'a' && c <= 'z';
+  }
+
+  private static boolean isUpper(char c) {
+    return c >= 'A' && c <= 'Z';
+  }
+
+  private static char swapCase(char c) {
+    return isLower(c) ? (char) (c - ('a' - 'A')) : (char) (c + ('a' - 'A'));
+  }
+
+  private IllegalArgumentException unsupported(String reason) {
+    return new IllegalArgumentException(reason + " at index " + position + " of " + source);
+  }
+}
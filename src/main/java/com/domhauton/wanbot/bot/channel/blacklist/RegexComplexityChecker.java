@@ -0,0 +1,133 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+
+/**
+ * Static check for java.util.regex patterns that can backtrack catastrophically. Flags unbounded
+ * quantifiers applied to groups that already contain an unbounded quantifier, e.g. (a+)+ or (.*x)*.
+ */
+final class RegexComplexityChecker {
+  private final String source;
+  private int position;
+
+  private RegexComplexityChecker(String source) {
+    this.source = source;
+    this.position = 0;
+  }
+
+  /**
+   * @return Description of the hazard, or empty if none was found.
+   */
+  static Optional<String> findHazard(String javaRegex) {
+    return new RegexComplexityChecker(javaRegex).scan();
+  }
+
+  private Optional<String> scan() {
+    // Each open group records whether it contains an unbounded quantifier.
+    Deque<boolean[]> groups = new ArrayDeque<>();
+    groups.push(new boolean[1]);
+    while (position < source.length()) {
+      char c = source.charAt(position++);
+      switch (c) {
+        case '\\':
+          skipEscape();
+          markUnbounded(groups, readQuantifier());
+          break;
+        case '[':
+          skipCharClass();
+          markUnbounded(groups, readQuantifier());
+          break;
+        case '(':
+          groups.push(new boolean[1]);
+          break;
+        case ')':
+          if (groups.size() == 1) {
+            return Optional.empty();
+          }
+          boolean innerUnbounded = groups.pop()[0];
+          int groupEnd = position;
+          boolean outerUnbounded = readQuantifier();
+          if (innerUnbounded && outerUnbounded) {
+            return Optional.of("Nested unbounded quantifier ending at index " + groupEnd);
+          }
+          markUnbounded(groups, innerUnbounded || outerUnbounded);
+          break;
+        default:
+          markUnbounded(groups, readQuantifier());
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static void markUnbounded(Deque<boolean[]> groups, boolean unbounded) {
+    groups.peek()[0] |= unbounded;
+  }
+
+  /**
+   * Consumes a quantifier if present.
+   *
+   * @return true if the quantifier has no upper bound.
+   */
+  private boolean readQuantifier() {
+    if (position >= source.length()) {
+      return false;
+    }
+    boolean unbounded;
+    char c = source.charAt(position);
+    if (c == '*' || c == '+') {
+      position++;
+      unbounded = true;
+    } else if (c == '?') {
+      position++;
+      unbounded = false;
+    } else if (c == '{') {
+      int end = source.indexOf('}', position);
+      if (end < 0) {
+        return false;
+      }
+      String repetition = source.substring(position + 1, end);
+      position = end + 1;
+      unbounded = repetition.endsWith(",");
+    } else {
+      return false;
+    }
+    if (position < source.length() && (source.charAt(position) == '?' || source.charAt(position) == '+')) {
+      position++;
+    }
+    return unbounded;
+  }
+
+  private void skipEscape() {
+    if (position >= source.length()) {
+      return;
+    }
+    if (source.charAt(position) == 'Q') {
+      int end = source.indexOf("\\E", position);
+      position = end < 0 ? source.length() : end + 2;
+    } else {
+      position++;
+    }
+  }
+
+  private void skipCharClass() {
+    int depth = 1;
+    if (position < source.length() && source.charAt(position) == '^') {
+      position++;
+    }
+    if (position < source.length() && source.charAt(position) == ']') {
+      position++;
+    }
+    while (position < source.length() && depth > 0) {
+      char c = source.charAt(position++);
+      if (c == '\\') {
+        skipEscape();
+      } else if (c == '[') {
+        depth++;
+      } else if (c == ']') {
+        depth--;
+      }
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs java.util.regex blacklist entries within a step and time budget. Entries that exceed the
+ * budget are quarantined and no longer evaluated. The step count does not depend on the machine, so
+ * one step overrun quarantines the entry. Wall time also counts GC pauses and preemption, so an
+ * entry is only quarantined after several time overruns in a row. The cost of every evaluation is
+ * recorded per entry.
+ */
+class RegexEvaluationGuard {
+  private static final Logger log = LogManager.getLogger();
+  static final long DEFAULT_MAX_STEPS = 1_000_000L;
+  static final long DEFAULT_MAX_MILLIS = 20L;
+  static final int QUARANTINE_TIME_OVERRUNS = 3;
+  private static final int TIME_CHECK_INTERVAL = 1024;
+
+  private volatile long maxSteps;
+  private volatile long maxNanos;
+  private final Set<BlacklistEntry> quarantinedEntries;
+  private final Map<BlacklistEntry, EntryCost> entryCosts;
+  private volatile Runnable quarantineListener;
+
+  RegexEvaluationGuard() {
+    this(DEFAULT_MAX_STEPS, DEFAULT_MAX_MILLIS);
+  }
+
+  /**
+   * @param maxSteps  maximum characters the regex engine may read for a single evaluation.
+   * @param maxMillis maximum wall time for a single evaluation.
+   */
+  RegexEvaluationGuard(long maxSteps, long maxMillis) {
+    this.maxSteps = maxSteps;
+    this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    quarantinedEntries = ConcurrentHashMap.newKeySet();
+    entryCosts = new ConcurrentHashMap<>();
+    quarantineListener = () -> {};
+  }
+
+  /**
+   * Replaces the budget. Quarantined entries are released, as they may fit the new budget.
+   *
+   * @param maxSteps  maximum characters the regex engine may read for a single evaluation.
+   * @param maxMillis maximum wall time for a single evaluation.
+   */
+  void setBudget(long maxSteps, long maxMillis) {
+    long newMaxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    if (maxSteps == this.maxSteps && newMaxNanos == this.maxNanos) {
+      return;
+    }
+    this.maxSteps = maxSteps;
+    this.maxNanos = newMaxNanos;
+    entryCosts.values().forEach(EntryCost::resetTimeOverruns);
+    if (!quarantinedEntries.isEmpty()) {
+      quarantinedEntries.clear();
+      quarantineListener.run();
+    }
+    log.info("Set REGEX blacklist budget to {} steps and {}ms.", maxSteps, maxMillis);
+  }
+
+  /**
+   * Called whenever an entry is quarantined, as that changes the outcome of future evaluations.
+   */
+  void setQuarantineListener(Runnable quarantineListener) {
+    this.quarantineListener = quarantineListener;
+  }
+
+  /**
+   * Evaluates the entry against the message. Quarantined entries never match.
+   */
+  boolean matches(BlacklistEntry blacklistEntry, String message) {
+    if (quarantinedEntries.contains(blacklistEntry)) {
+      return false;
+    }
+    EntryCost entryCost = entryCosts.computeIfAbsent(blacklistEntry, key -> new EntryCost());
+    BudgetedCharSequence budgetedMessage = new BudgetedCharSequence(message, maxSteps, maxNanos);
+    try {
+      boolean matches = blacklistEntry.getPattern().matcher(budgetedMessage).matches();
+      entryCost.resetTimeOverruns();
+      return matches;
+    } catch (BudgetExceededException e) {
+      int timeOverruns = e.isTimeOverrun() ? entryCost.recordTimeOverrun() : 0;
+      if (e.isTimeOverrun() && timeOverruns < QUARANTINE_TIME_OVERRUNS) {
+        log.warn("REGEX blacklist entry {} overran. {} after {} steps. Overrun {} of {} before quarantine.",
+            blacklistEntry, e.getMessage(), budgetedMessage.steps, timeOverruns, QUARANTINE_TIME_OVERRUNS);
+        return false;
+      }
+      if (quarantinedEntries.add(blacklistEntry)) {
+        quarantineListener.run();
+      }
+      log.warn("Quarantined REGEX blacklist entry {}. {} after {} steps.", blacklistEntry, e.getMessage(),
+          budgetedMessage.steps);
+      return false;
+    } finally {
+      entryCost.record(budgetedMessage.steps, System.nanoTime() - budgetedMessage.startNanos);
+    }
+  }
+
+  boolean isQuarantined(BlacklistEntry blacklistEntry) {
+    return quarantinedEntries.contains(blacklistEntry);
+  }
+
+  ImmutableSet<BlacklistEntry> getQuarantinedEntries() {
+    return ImmutableSet.copyOf(quarantinedEntries);
+  }
+
+  ImmutableMap<BlacklistEntry, EntryCost> getEntryCosts() {
+    return ImmutableMap.copyOf(entryCosts);
+  }
+
+  /**
+   * Drops quarantine and cost state for entries no longer in the blacklist.
+   */
+  void retainAll(Collection<BlacklistEntry> blacklistEntries) {
+    quarantinedEntries.retainAll(blacklistEntries);
+    entryCosts.keySet().retainAll(blacklistEntries);
+  }
+
+  /**
+   * Accumulated evaluation cost of a single entry.
+   */
+  static class EntryCost {
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder totalSteps = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+    private final AtomicInteger consecutiveTimeOverruns = new AtomicInteger();
+
+    private void record(long steps, long nanos) {
+      evaluations.increment();
+      totalSteps.add(steps);
+      totalNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+    }
+
+    private int recordTimeOverrun() {
+      return consecutiveTimeOverruns.incrementAndGet();
+    }
+
+    private void resetTimeOverruns() {
+      consecutiveTimeOverruns.set(0);
+    }
+
+    /**
+     * @return time overruns since the last evaluation that finished within the budget.
+     */
+    int getConsecutiveTimeOverruns() {
+      return consecutiveTimeOverruns.get();
+    }
+
+    long getEvaluations() {
+      return evaluations.sum();
+    }
+
+    long getTotalSteps() {
+      return totalSteps.sum();
+    }
+
+    long getTotalNanos() {
+      return totalNanos.sum();
+    }
+
+    long getMaxNanos() {
+      return maxNanos.get();
+    }
+  }
+
+  /**
+   * Counts every character read by the regex engine and aborts once the budget is spent.
+   */
+  private static class BudgetedCharSequence implements CharSequence {
+    private final String message;
+    private final long maxSteps;
+    private final long deadlineNanos;
+    private final long startNanos;
+    private long steps;
+
+    BudgetedCharSequence(String message, long maxSteps, long maxNanos) {
+      this.message = message;
+      this.maxSteps = maxSteps;
+      this.startNanos = System.nanoTime();
+      this.deadlineNanos = startNanos + maxNanos;
+      this.steps = 0L;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (++steps > maxSteps) {
+        throw new BudgetExceededException("Step budget of " + maxSteps + " exceeded", false);
+      } else if (steps % TIME_CHECK_INTERVAL == 0 && System.nanoTime() - deadlineNanos > 0) {
+        throw new BudgetExceededException("Time budget exceeded", true);
+      }
+      return message.charAt(index);
+    }
+
+    @Override
+    public int length() {
+      return message.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return message.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return message;
+    }
+  }
+
+  private static class BudgetExceededException extends RuntimeException {
+    private final boolean timeOverrun;
+
+    BudgetExceededException(String message, boolean timeOverrun) {
+      super(message, null, false, false);
+      this.timeOverrun = timeOverrun;
+    }
+
+    boolean isTimeOverrun() {
+      return timeOverrun;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.Operations;
+import org.apache.lucene.util.automaton.RegExp;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Compiles REGEX blacklist entries into a determinized union automaton using Lucene, so a message
+ * is checked against all of them in linear time. Entries that cannot be converted, or that are too
+ * complex to determinize, are kept as residual java.util.regex patterns and evaluated within the
+ * budget of a {@link RegexEvaluationGuard}.
+ */
+class RegexUnionMatcher {
+  private static final Logger log = LogManager.getLogger();
+
+  private final List<AutomatonGroup> automatonGroups;
+  private final List<BlacklistEntry> residualEntries;
+  private final int automatonEntryCount;
+  private final int maxDeterminizedStates;
+  private final RegexEvaluationGuard evaluationGuard;
+
+  RegexUnionMatcher(Collection<BlacklistEntry> regexEntries) {
+    this(regexEntries, new RegexEvaluationGuard());
+  }
+
+  RegexUnionMatcher(Collection<BlacklistEntry> regexEntries, RegexEvaluationGuard evaluationGuard) {
+    this(regexEntries, evaluationGuard, Operations.DEFAULT_MAX_DETERMINIZED_STATES);
+  }
+
+  RegexUnionMatcher(
+      Collection<BlacklistEntry> regexEntries,
+      RegexEvaluationGuard evaluationGuard,
+      int maxDeterminizedStates) {
+    this.maxDeterminizedStates = maxDeterminizedStates;
+    this.evaluationGuard = evaluationGuard;
+    automatonGroups = new ArrayList<>();
+    residualEntries = new ArrayList<>();
+
+    List<BlacklistEntry> convertedEntries = new ArrayList<>();
+    List<Automaton> convertedAutomata = new ArrayList<>();
+    for (BlacklistEntry regexEntry : regexEntries) {
+      Optional<Automaton> automaton = toAutomaton(regexEntry);
+      if (automaton.isPresent()) {
+        convertedEntries.add(regexEntry);
+        convertedAutomata.add(automaton.get());
+      } else {
+        residualEntries.add(regexEntry);
+      }
+    }
+    if (!convertedAutomata.isEmpty()) {
+      compileUnion(convertedEntries, convertedAutomata);
+    }
+    automatonEntryCount = regexEntries.size() - residualEntries.size();
+    log.info("Compiled REGEX blacklist. Automaton entries: {} in {} automata. Residual entries: {}",
+        automatonEntryCount, automatonGroups.size(), residualEntries.size());
+  }
+
+  private Optional<Automaton> toAutomaton(BlacklistEntry regexEntry) {
+    Optional<String> luceneRegex = RegexAutomatonConverter.convert(regexEntry.getInput());
+    if (!luceneRegex.isPresent()) {
+      log.debug("REGEX entry {} uses unsupported syntax. Using java.util.regex.", regexEntry);
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(new RegExp(luceneRegex.get(), RegExp.NONE).toAutomaton(maxDeterminizedStates));
+    } catch (IllegalArgumentException | TooComplexToDeterminizeException e) {
+      log.debug("Failed to build automaton for REGEX entry {}. Using java.util.regex. {}", regexEntry, e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Unions all automata. If the union determinizes into too many states it is split in half and
+   * each half tried again. Single entries that still fail fall back to java.util.regex.
+   */
+  private void compileUnion(List<BlacklistEntry> entries, List<Automaton> entryAutomata) {
+    try {
+      Automaton union = Operations.union(entryAutomata);
+      CharacterRunAutomaton unionRunAutomaton = new CharacterRunAutomaton(union, maxDeterminizedStates);
+      automatonGroups.add(new AutomatonGroup(unionRunAutomaton, entries, entryAutomata, maxDeterminizedStates));
+    } catch (TooComplexToDeterminizeException e) {
+      if (entries.size() == 1) {
+        log.debug("REGEX entry {} too complex to determinize. Using java.util.regex.", entries.get(0));
+        residualEntries.add(entries.get(0));
+      } else {
+        int mid = entries.size() / 2;
+        compileUnion(entries.subList(0, mid), entryAutomata.subList(0, mid));
+        compileUnion(entries.subList(mid, entries.size()), entryAutomata.subList(mid, entries.size()));
+      }
+    }
+  }
+
+  boolean matches(String message) {
+    return findMatch(message).isPresent();
+  }
+
+  /**
+   * @return An entry matching the message. Only runs individual entry automata after a union hit.
+   */
+  Optional<BlacklistEntry> findMatch(String message) {
+    for (AutomatonGroup automatonGroup : automatonGroups) {
+      if (automatonGroup.unionAutomaton.run(message)) {
+        return Optional.of(automatonGroup.findEntry(message));
+      }
+    }
+    return residualEntries.stream()
+        .filter(blacklistEntry -> evaluationGuard.matches(blacklistEntry, message))
+        .findFirst();
+  }
+
+  int getAutomatonEntryCount() {
+    return automatonEntryCount;
+  }
+
+  int getResidualEntryCount() {
+    return residualEntries.size();
+  }
+
+  /**
+   * Union automaton for a set of entries, with each entry's own automaton to find which one fired.
+   */
+  private static class AutomatonGroup {
+    private final CharacterRunAutomaton unionAutomaton;
+    private final List<BlacklistEntry> entries;
+    private final List<CharacterRunAutomaton> entryAutomata;
+
+    AutomatonGroup(
+        CharacterRunAutomaton unionAutomaton,
+        List<BlacklistEntry> entries,
+        List<Automaton> entryAutomata,
+        int maxDeterminizedStates) {
+      this.unionAutomaton = unionAutomaton;
+      this.entries = new ArrayList<>(entries);
+      this.entryAutomata = new ArrayList<>(entryAutomata.size());
+      for (Automaton entryAutomaton : entryAutomata) {
+        this.entryAutomata.add(new CharacterRunAutomaton(entryAutomaton, maxDeterminizedStates));
+      }
+    }
+
+    BlacklistEntry findEntry(String message) {
+      for (int i = 0; i < entries.size(); i++) {
+        if (entryAutomata.get(i).run(message)) {
+          return entries.get(i);
+        }
+      }
+      throw new IllegalStateException("Union automaton matched but no entry did: " + message);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size cache of blacklist verdicts keyed by message. Each slot is chosen by the message hash
+ * and a new verdict replaces whatever was in its slot. Verdicts are tagged with the generation they
+ * were computed in, so bumping the generation invalidates all of them at once.
+ */
+class VerdictCache {
+  static final int DEFAULT_CAPACITY = 4096;
+
+  private final AtomicReferenceArray<Verdict> slots;
+  private final int mask;
+  private final AtomicLong generation;
+  private final LongAdder hits;
+  private final LongAdder misses;
+
+  VerdictCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity rounded up to the next power of two.
+   */
+  VerdictCache(int capacity) {
+    int slotCount = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    slots = new AtomicReferenceArray<>(slotCount);
+    mask = slotCount - 1;
+    generation = new AtomicLong();
+    hits = new LongAdder();
+    misses = new LongAdder();
+  }
+
+  /**
+   * Read before evaluating a message, so a verdict computed against an outdated blacklist is stored
+   * with an outdated generation.
+   */
+  long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * @return cached verdict, or null if absent or computed in an older generation.
+   */
+  Verdict get(String message) {
+    Verdict verdict = slots.get(slot(message));
+    if (verdict != null && verdict.generation == generation.get() && verdict.message.equals(message)) {
+      hits.increment();
+      return verdict;
+    } else {
+      misses.increment();
+      return null;
+    }
+  }
+
+  /**
+   * @param matchedEntry entry that blacklisted the message, or null if it is not blacklisted.
+   */
+  void put(String message, long verdictGeneration, BlacklistEntry matchedEntry) {
+    slots.lazySet(slot(message), new Verdict(message, verdictGeneration, matchedEntry));
+  }
+
+  /**
+   * Invalidates every cached verdict. Call after the blacklist changes.
+   */
+  void invalidate() {
+    generation.incrementAndGet();
+  }
+
+  int capacity() {
+    return slots.length();
+  }
+
+  long getHitCount() {
+    return hits.sum();
+  }
+
+  long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * @return fraction of lookups that were hits. 0 if there were no lookups.
+   */
+  double getHitRate() {
+    long hitCount = hits.sum();
+    long total = hitCount + misses.sum();
+    return total == 0 ? 0d : (double) hitCount / total;
+  }
+
+  private int slot(String message) {
+    int hash = message.hashCode();
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  static class Verdict {
+    private final String message;
+    private final long generation;
+    private final BlacklistEntry matchedEntry;
+
+    private Verdict(String message, long generation, BlacklistEntry matchedEntry) {
+      this.message = message;
+      this.generation = generation;
+      this.matchedEntry = matchedEntry;
+    }
+
+    boolean isBlacklisted() {
+      return matchedEntry != null;
+    }
+
+    /**
+     * @return entry that blacklisted the message, or null if it is not blacklisted.
+     */
+    BlacklistEntry getMatchedEntry() {
+      return matchedEntry;
+    }
+  }
+}
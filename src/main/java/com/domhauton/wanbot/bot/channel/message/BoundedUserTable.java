@@ -0,0 +1,121 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Concurrent table of per-user state with a bounded number of users. Once full, a new user is
+ * only admitted if they have been seen more often recently than the oldest stored user, as
+ * estimated by a {@link FrequencySketch}. Otherwise the oldest user gets a second chance and the
+ * newcomer is turned away, so a flood of one-off chatters cannot push out regulars. There is no
+ * global lock; the bound may be exceeded briefly while users are admitted concurrently.
+ */
+class BoundedUserTable<K, V> {
+  // Rejected users are counted too, so small tables still need a reasonably wide sketch.
+  private static final int MIN_SKETCH_KEYS = 1024;
+
+  private final int maximumSize;
+  private final ConcurrentHashMap<K, V> entries;
+  private final Queue<K> admissionOrder;
+  private final AtomicInteger size;
+  private final FrequencySketch frequencySketch;
+  private final BiConsumer<K, V> evictionListener;
+
+  BoundedUserTable(int maximumSize) {
+    this(maximumSize, (key, state) -> {
+    });
+  }
+
+  /**
+   * @param evictionListener called with each evicted user and their state.
+   */
+  BoundedUserTable(int maximumSize, BiConsumer<K, V> evictionListener) {
+    this.maximumSize = maximumSize;
+    this.evictionListener = evictionListener;
+    entries = new ConcurrentHashMap<>();
+    admissionOrder = new ConcurrentLinkedQueue<>();
+    size = new AtomicInteger();
+    frequencySketch = new FrequencySketch(Math.max(maximumSize, MIN_SKETCH_KEYS));
+  }
+
+  /**
+   * @return stored state, or null if absent. Does not count as an access.
+   */
+  V get(K key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Records an access and returns the stored state, creating it if the user is admitted.
+   *
+   * @return stored state, or null if the user was not admitted.
+   */
+  V getOrAdmit(K key, Function<K, V> stateFactory) {
+    frequencySketch.increment(key);
+    V state = entries.get(key);
+    if (state != null) {
+      return state;
+    }
+    if (size.get() >= maximumSize && !evictFor(key)) {
+      return null;
+    }
+    boolean[] created = new boolean[1];
+    state = entries.computeIfAbsent(key, newKey -> {
+      created[0] = true;
+      return stateFactory.apply(newKey);
+    });
+    if (created[0]) {
+      size.incrementAndGet();
+      admissionOrder.add(key);
+    }
+    return state;
+  }
+
+  /**
+   * Removes the user without calling the eviction listener. Their place in the admission order is
+   * dropped lazily, when it reaches the head.
+   *
+   * @return removed state, or null if absent.
+   */
+  V remove(K key) {
+    V state = entries.remove(key);
+    if (state != null) {
+      size.decrementAndGet();
+    }
+    return state;
+  }
+
+  /**
+   * Evicts the oldest user if the candidate is seen more often, otherwise rotates them to the back.
+   *
+   * @return true if a user was evicted.
+   */
+  private boolean evictFor(K candidateKey) {
+    K victimKey = admissionOrder.poll();
+    if (victimKey == null || !entries.containsKey(victimKey)) {
+      return true;
+    } else if (frequencySketch.frequency(candidateKey) > frequencySketch.frequency(victimKey)) {
+      V victimState = entries.remove(victimKey);
+      if (victimState != null) {
+        size.decrementAndGet();
+        evictionListener.accept(victimKey, victimState);
+      }
+      return true;
+    } else {
+      admissionOrder.add(victimKey);
+      return false;
+    }
+  }
+
+  int size() {
+    return size.get();
+  }
+
+  int getMaximumSize() {
+    return maximumSize;
+  }
+}
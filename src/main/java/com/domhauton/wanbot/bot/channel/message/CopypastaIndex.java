@@ -0,0 +1,139 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+/**
+ * Time decayed count of the distinct users recently posting each winnowed fingerprint. Users are
+ * tracked per fingerprint in a 64 bit mask keyed by user id, so counts are approximate and cap at
+ * 64. Counts halve every half life, and a fingerprint's users are forgotten once its count decays
+ * below one half.
+ * <p>
+ * Memory is bounded by a fixed table. A fingerprint may sit in any of a few slots from its home
+ * slot. If none is free, the slot with the lowest decayed count is given up to the new fingerprint.
+ * Adding and querying a fingerprint are O(1). Not thread safe.
+ */
+class CopypastaIndex {
+  static final long DEFAULT_HALF_LIFE_MILLIS = 60_000L;
+  private static final int PROBE_LENGTH = 8;
+  private static final double FORGET_BELOW = 0.5d;
+  private static final long EMPTY = 0L;
+
+  private final long[] fingerprints;
+  private final long[] userMasks;
+  private final double[] userCounts;
+  private final long[] updatedMillis;
+  private final int mask;
+  private final double decayPerMilli;
+
+  /**
+   * @param capacity most fingerprints tracked at once. Rounded up to a power of two.
+   */
+  CopypastaIndex(int capacity, long halfLifeMillis) {
+    if (halfLifeMillis <= 0L) {
+      throw new IllegalArgumentException("Half life must be positive: " + halfLifeMillis);
+    }
+    int slotCount = Math.max(PROBE_LENGTH, Integer.highestOneBit(Math.max(1, capacity) * 2 - 1));
+    fingerprints = new long[slotCount];
+    userMasks = new long[slotCount];
+    userCounts = new double[slotCount];
+    updatedMillis = new long[slotCount];
+    mask = slotCount - 1;
+    decayPerMilli = Math.log(2d) / halfLifeMillis;
+  }
+
+  /**
+   * Records that the user posted the fingerprints at the given time.
+   */
+  void add(long[] messageFingerprints, int userId, long epochMillis) {
+    long userBit = 1L << (userId & (Long.SIZE - 1));
+    for (long fingerprint : messageFingerprints) {
+      int slot = findOrClaimSlot(key(fingerprint), epochMillis);
+      decay(slot, epochMillis);
+      if ((userMasks[slot] & userBit) == 0L) {
+        userMasks[slot] |= userBit;
+        userCounts[slot] += 1d;
+      }
+    }
+  }
+
+  /**
+   * @param minUsers distinct users a fingerprint needs to count as shared, after rounding its
+   *                 decayed count.
+   * @return share of the fingerprints posted recently by at least the given number of users. 0 if
+   * there are no fingerprints.
+   */
+  double sharedFraction(long[] messageFingerprints, int minUsers, long epochMillis) {
+    if (messageFingerprints.length == 0) {
+      return 0d;
+    }
+    int sharedCount = 0;
+    for (long fingerprint : messageFingerprints) {
+      if (Math.round(userCount(fingerprint, epochMillis)) >= minUsers) {
+        sharedCount++;
+      }
+    }
+    return (double) sharedCount / messageFingerprints.length;
+  }
+
+  /**
+   * @return decayed number of distinct users that posted the fingerprint.
+   */
+  double userCount(long fingerprint, long epochMillis) {
+    int slot = findSlot(key(fingerprint));
+    return slot < 0 ? 0d : userCounts[slot] * decayFactor(slot, epochMillis);
+  }
+
+  private int findSlot(long key) {
+    int homeSlot = homeSlot(key);
+    for (int probe = 0; probe < PROBE_LENGTH; probe++) {
+      int slot = (homeSlot + probe) & mask;
+      if (fingerprints[slot] == key) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private int findOrClaimSlot(long key, long epochMillis) {
+    int slot = findSlot(key);
+    if (slot >= 0) {
+      return slot;
+    }
+    int homeSlot = homeSlot(key);
+    int weakestSlot = homeSlot;
+    double weakestCount = Double.MAX_VALUE;
+    for (int probe = 0; probe < PROBE_LENGTH; probe++) {
+      slot = (homeSlot + probe) & mask;
+      double count = fingerprints[slot] == EMPTY ? -1d : userCounts[slot] * decayFactor(slot, epochMillis);
+      if (count < weakestCount) {
+        weakestSlot = slot;
+        weakestCount = count;
+      }
+    }
+    fingerprints[weakestSlot] = key;
+    userMasks[weakestSlot] = 0L;
+    userCounts[weakestSlot] = 0d;
+    updatedMillis[weakestSlot] = epochMillis;
+    return weakestSlot;
+  }
+
+  private void decay(int slot, long epochMillis) {
+    userCounts[slot] *= decayFactor(slot, epochMillis);
+    updatedMillis[slot] = Math.max(updatedMillis[slot], epochMillis);
+    if (userCounts[slot] < FORGET_BELOW) {
+      userMasks[slot] = 0L;
+      userCounts[slot] = 0d;
+    }
+  }
+
+  private double decayFactor(int slot, long epochMillis) {
+    long elapsedMillis = epochMillis - updatedMillis[slot];
+    return elapsedMillis <= 0L ? 1d : Math.exp(-decayPerMilli * elapsedMillis);
+  }
+
+  private int homeSlot(long key) {
+    return (int) (key ^ (key >>> 32)) & mask;
+  }
+
+  private static long key(long fingerprint) {
+    return fingerprint == EMPTY ? 1L : fingerprint;
+  }
+}
@@ -0,0 +1,79 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count-min sketch estimating how often each key has been seen recently. All counters are halved
+ * once enough keys have been recorded, so old popularity fades. Updates are lock-free; a halving
+ * racing an increment may lose that increment, which only makes an estimate slightly low.
+ */
+class FrequencySketch {
+  private static final int DEPTH = 4;
+  private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+  private static final int RESET_MULTIPLIER = 10;
+
+  private final AtomicIntegerArray counters;
+  private final int widthMask;
+  private final int resetThreshold;
+  private final LongAdder recordedSinceReset;
+  private final AtomicBoolean resetting;
+
+  /**
+   * @param expectedKeys number of keys the sketch should tell apart.
+   */
+  FrequencySketch(int expectedKeys) {
+    int width = Integer.highestOneBit(Math.max(2, expectedKeys) - 1) << 1;
+    counters = new AtomicIntegerArray(width * DEPTH);
+    widthMask = width - 1;
+    resetThreshold = width * RESET_MULTIPLIER;
+    recordedSinceReset = new LongAdder();
+    resetting = new AtomicBoolean(false);
+  }
+
+  void increment(Object key) {
+    int hash = spread(key.hashCode());
+    for (int row = 0; row < DEPTH; row++) {
+      counters.incrementAndGet(index(hash, row));
+    }
+    recordedSinceReset.increment();
+    if (recordedSinceReset.sum() >= resetThreshold && resetting.compareAndSet(false, true)) {
+      try {
+        halveCounters();
+      } finally {
+        resetting.set(false);
+      }
+    }
+  }
+
+  /**
+   * @return estimated recent frequency. Never lower than the true count since the last halving.
+   */
+  int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int frequency = Integer.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      frequency = Math.min(frequency, counters.get(index(hash, row)));
+    }
+    return frequency;
+  }
+
+  private void halveCounters() {
+    recordedSinceReset.reset();
+    for (int i = 0; i < counters.length(); i++) {
+      counters.set(i, counters.get(i) >>> 1);
+    }
+  }
+
+  private int index(int hash, int row) {
+    int rowHash = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+    return row * (widthMask + 1) + ((rowHash ^ (rowHash >>> 16)) & widthMask);
+  }
+
+  private static int spread(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x7FEB352D;
+    return hash ^ (hash >>> 15);
+  }
+}
@@ -16,7 +16,8 @@ import java.util.stream.Stream;
  * Decorator for ImmutableList providing some extra functionality
  */
 public class ImmutableTwitchMessageList {
-  private ImmutableList<TwitchMessage> twitchMessages;
+  private static final ImmutableTwitchMessageList EMPTY = new ImmutableTwitchMessageList(ImmutableList.of());
+  private final ImmutableList<TwitchMessage> twitchMessages;
 
   ImmutableTwitchMessageList(Collection<TwitchMessage> twitchMessages) {
     if (twitchMessages == null) {
@@ -26,6 +27,10 @@ public class ImmutableTwitchMessageList {
     }
   }
 
+  public static ImmutableTwitchMessageList empty() {
+    return EMPTY;
+  }
+
   public Stream<TwitchMessage> stream() {
     return twitchMessages.stream();
   }
@@ -42,7 +47,22 @@ public class ImmutableTwitchMessageList {
    * @return message count that matches.
    */
   public long containsSimplePayload(String payload) {
-    return stream().filter(twitchMessage -> twitchMessage.equalsSimplePayload(payload)).count();
+    return countNormalisedPayload(MessageNormaliser.normalise(payload));
+  }
+
+  /**
+   * Finds the number of messages with the same payload as the given message, once normalised.
+   *
+   * @return message count that matches.
+   */
+  public long containsSimplePayload(TwitchMessage twitchMessage) {
+    return countNormalisedPayload(twitchMessage.getNormalisedMessagePayload());
+  }
+
+  private long countNormalisedPayload(String normalisedPayload) {
+    return stream()
+        .filter(twitchMessage -> twitchMessage.getNormalisedMessagePayload().equals(normalisedPayload))
+        .count();
   }
 
   public int size() {
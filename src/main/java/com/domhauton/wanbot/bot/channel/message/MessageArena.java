@@ -0,0 +1,242 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap circular log of recent messages in a direct ByteBuffer. Each message is encoded as
+ * [int user id][int channel id][long epoch millis][long payload hash][int payload length][utf-8 payload]
+ * and addressed by sequence number. The oldest messages are overwritten once either the buffer or
+ * the message limit is full. Messages are read through a reusable {@link Flyweight}. Single
+ * writer; readers must not run concurrently with {@link #append}.
+ */
+class MessageArena {
+  static final int RECORD_HEADER_SIZE = 28;
+  private static final int USER_ID_OFFSET = 0;
+  private static final int CHANNEL_ID_OFFSET = 4;
+  private static final int EPOCH_MILLIS_OFFSET = 8;
+  private static final int PAYLOAD_HASH_OFFSET = 16;
+  private static final int PAYLOAD_LENGTH_OFFSET = 24;
+
+  private final ByteBuffer buffer;
+  private final int[] recordOffsets;
+  private long firstSequence;
+  private long nextSequence;
+  private int tailOffset;
+
+  /**
+   * @param capacityBytes size of the direct buffer.
+   * @param maxMessages   most messages held at once.
+   */
+  MessageArena(int capacityBytes, int maxMessages) {
+    buffer = ByteBuffer.allocateDirect(capacityBytes);
+    recordOffsets = new int[Math.max(1, maxMessages)];
+    firstSequence = 0L;
+    nextSequence = 0L;
+    tailOffset = 0;
+  }
+
+  /**
+   * Appends the message, first evicting as many of the oldest messages as needed.
+   *
+   * @param evictionListener called with each evicted sequence while it can still be read.
+   * @return sequence number of the appended message.
+   */
+  long append(int userId, int channelId, long epochMillis, long payloadHash, String payload,
+              EvictionListener evictionListener) {
+    int payloadLength = Math.min(utf8Length(payload), buffer.capacity() - RECORD_HEADER_SIZE);
+    int recordSize = RECORD_HEADER_SIZE + payloadLength;
+    if (nextSequence - firstSequence == recordOffsets.length) {
+      evictOldest(evictionListener);
+    }
+    if (tailOffset + recordSize > buffer.capacity()) {
+      // Records past the tail are from the previous lap. Evict them before wrapping.
+      while (firstSequence < nextSequence && offsetOf(firstSequence) >= tailOffset) {
+        evictOldest(evictionListener);
+      }
+      tailOffset = 0;
+    }
+    while (firstSequence < nextSequence && offsetOf(firstSequence) >= tailOffset
+        && offsetOf(firstSequence) < tailOffset + recordSize) {
+      evictOldest(evictionListener);
+    }
+    int recordOffset = tailOffset;
+    buffer.putInt(recordOffset + USER_ID_OFFSET, userId);
+    buffer.putInt(recordOffset + CHANNEL_ID_OFFSET, channelId);
+    buffer.putLong(recordOffset + EPOCH_MILLIS_OFFSET, epochMillis);
+    buffer.putLong(recordOffset + PAYLOAD_HASH_OFFSET, payloadHash);
+    int encodedLength = encodeUtf8(payload, recordOffset + RECORD_HEADER_SIZE, payloadLength);
+    buffer.putInt(recordOffset + PAYLOAD_LENGTH_OFFSET, encodedLength);
+    long sequence = nextSequence++;
+    recordOffsets[slot(sequence)] = recordOffset;
+    tailOffset = recordOffset + RECORD_HEADER_SIZE + encodedLength;
+    return sequence;
+  }
+
+  private void evictOldest(EvictionListener evictionListener) {
+    evictionListener.onEvict(firstSequence);
+    firstSequence++;
+  }
+
+  long getFirstSequence() {
+    return firstSequence;
+  }
+
+  long getNextSequence() {
+    return nextSequence;
+  }
+
+  int size() {
+    return (int) (nextSequence - firstSequence);
+  }
+
+  Flyweight newFlyweight() {
+    return new Flyweight();
+  }
+
+  private int offsetOf(long sequence) {
+    return recordOffsets[slot(sequence)];
+  }
+
+  private int slot(long sequence) {
+    return (int) (sequence % recordOffsets.length);
+  }
+
+  static int utf8Length(String payload) {
+    int length = 0;
+    for (int i = 0; i < payload.length(); i++) {
+      char c = payload.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < payload.length()
+          && Character.isLowSurrogate(payload.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Encodes without allocating. Stops before a character that would not fit in maxLength bytes.
+   *
+   * @return number of bytes written.
+   */
+  private int encodeUtf8(String payload, int offset, int maxLength) {
+    int position = offset;
+    int limit = offset + maxLength;
+    for (int i = 0; i < payload.length(); i++) {
+      char c = payload.charAt(i);
+      if (c < 0x80) {
+        if (position + 1 > limit) break;
+        buffer.put(position++, (byte) c);
+      } else if (c < 0x800) {
+        if (position + 2 > limit) break;
+        buffer.put(position++, (byte) (0xC0 | (c >> 6)));
+        buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < payload.length()
+          && Character.isLowSurrogate(payload.charAt(i + 1))) {
+        if (position + 4 > limit) break;
+        int codePoint = Character.toCodePoint(c, payload.charAt(++i));
+        buffer.put(position++, (byte) (0xF0 | (codePoint >> 18)));
+        buffer.put(position++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        buffer.put(position++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        buffer.put(position++, (byte) (0x80 | (codePoint & 0x3F)));
+      } else {
+        if (position + 3 > limit) break;
+        buffer.put(position++, (byte) (0xE0 | (c >> 12)));
+        buffer.put(position++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+        buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+      }
+    }
+    return position - offset;
+  }
+
+  interface EvictionListener {
+    void onEvict(long sequence);
+  }
+
+  /**
+   * Reusable cursor over one message. Reading it creates no objects, except for
+   * {@link #getPayload()}.
+   */
+  final class Flyweight {
+    private long sequence = -1L;
+    private int recordOffset;
+
+    private Flyweight() {
+    }
+
+    /**
+     * @return false if the sequence has been evicted or not yet written.
+     */
+    boolean moveTo(long sequence) {
+      if (sequence < firstSequence || sequence >= nextSequence) {
+        return false;
+      }
+      this.sequence = sequence;
+      this.recordOffset = offsetOf(sequence);
+      return true;
+    }
+
+    long getSequence() {
+      return sequence;
+    }
+
+    int getUserId() {
+      return buffer.getInt(recordOffset + USER_ID_OFFSET);
+    }
+
+    int getChannelId() {
+      return buffer.getInt(recordOffset + CHANNEL_ID_OFFSET);
+    }
+
+    long getEpochMillis() {
+      return buffer.getLong(recordOffset + EPOCH_MILLIS_OFFSET);
+    }
+
+    long getPayloadHash() {
+      return buffer.getLong(recordOffset + PAYLOAD_HASH_OFFSET);
+    }
+
+    int getPayloadByteLength() {
+      return buffer.getInt(recordOffset + PAYLOAD_LENGTH_OFFSET);
+    }
+
+    /**
+     * Decodes the payload into the array, which needs at least {@link #getPayloadByteLength()} chars.
+     *
+     * @return number of chars written.
+     */
+    int readPayload(char[] destination) {
+      int position = recordOffset + RECORD_HEADER_SIZE;
+      int limit = position + getPayloadByteLength();
+      int length = 0;
+      while (position < limit) {
+        int b = buffer.get(position++) & 0xFF;
+        if (b < 0x80) {
+          destination[length++] = (char) b;
+        } else if (b < 0xE0) {
+          destination[length++] = (char) (((b & 0x1F) << 6) | (buffer.get(position++) & 0x3F));
+        } else if (b < 0xF0) {
+          destination[length++] = (char) (((b & 0x0F) << 12) | ((buffer.get(position++) & 0x3F) << 6)
+              | (buffer.get(position++) & 0x3F));
+        } else {
+          int codePoint = ((b & 0x07) << 18) | ((buffer.get(position++) & 0x3F) << 12)
+              | ((buffer.get(position++) & 0x3F) << 6) | (buffer.get(position++) & 0x3F);
+          destination[length++] = Character.highSurrogate(codePoint);
+          destination[length++] = Character.lowSurrogate(codePoint);
+        }
+      }
+      return length;
+    }
+
+    String getPayload() {
+      char[] payloadChars = new char[getPayloadByteLength()];
+      return new String(payloadChars, 0, readPayload(payloadChars));
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+/**
+ * Facts about a message payload, extracted once in a single pass when first needed. Ratios are
+ * kept as counts and only divided when asked for.
+ */
+public final class MessageFeatures {
+  private final String simplePayload;
+  private final String normalisedPayload;
+  private final long payloadHash;
+  private final int length;
+  private final int legalCharCount;
+  private final int symbolCount;
+  private final int letterCount;
+  private final int capitalCount;
+  private final int nonAsciiCount;
+
+  MessageFeatures(String simplePayload, String normalisedPayload, long payloadHash, int length,
+                  int legalCharCount, int symbolCount, int letterCount, int capitalCount, int nonAsciiCount) {
+    this.simplePayload = simplePayload;
+    this.normalisedPayload = normalisedPayload;
+    this.payloadHash = payloadHash;
+    this.length = length;
+    this.legalCharCount = legalCharCount;
+    this.symbolCount = symbolCount;
+    this.letterCount = letterCount;
+    this.capitalCount = capitalCount;
+    this.nonAsciiCount = nonAsciiCount;
+  }
+
+  public String getSimplePayload() {
+    return simplePayload;
+  }
+
+  public String getNormalisedPayload() {
+    return normalisedPayload;
+  }
+
+  /**
+   * @return 64 bit hash of the normalised payload. Never 0.
+   */
+  public long getPayloadHash() {
+    return payloadHash;
+  }
+
+  /**
+   * @return length of the raw payload.
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return share of the simple payload made of letters, digits and common punctuation. 1 if the
+   * simple payload is empty.
+   */
+  public double getLegalCharRatio() {
+    return simplePayload.isEmpty() ? 1d : (double) legalCharCount / simplePayload.length();
+  }
+
+  /**
+   * @return share of the simple payload that is neither a letter nor a digit.
+   */
+  public double getSymbolRatio() {
+    return simplePayload.isEmpty() ? 0d : (double) symbolCount / simplePayload.length();
+  }
+
+  /**
+   * @return share of the letters in the raw payload that are capitals.
+   */
+  public double getCapitalRatio() {
+    return letterCount == 0 ? 0d : (double) capitalCount / letterCount;
+  }
+
+  /**
+   * @return share of the raw payload outside ASCII.
+   */
+  public double getNonAsciiRatio() {
+    return length == 0 ? 0d : (double) nonAsciiCount / length;
+  }
+}
@@ -0,0 +1,231 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import com.domhauton.wanbot.bot.channel.SymbolTable;
+import com.domhauton.wanbot.bot.channel.TwitchUser;
+import org.joda.time.DateTime;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Trigram index over the most recent channel messages. Finds the messages that may contain a
+ * phrase without scanning the whole history. Trigrams are ASCII lower case, to match the case
+ * insensitivity of the blacklist. The messages themselves are kept off-heap in a
+ * {@link MessageArena} and only turned back into objects when they match. Usernames and channels
+ * are interned while their messages are stored and released when they are evicted. Not thread safe.
+ */
+class MessageHistoryIndex {
+  static final int TRIGRAM_LENGTH = 3;
+  static final int DEFAULT_ARENA_BYTES = 8 * 1024 * 1024;
+  static final int PARALLEL_SCAN_THRESHOLD = 1024;
+
+  private final MessageArena messageArena;
+  private final MessageArena.Flyweight evictionCursor;
+  private final SymbolTable symbolTable;
+  private final Map<Long, PostingList> postings;
+  private char[] evictionChars;
+
+  MessageHistoryIndex(int capacity) {
+    this(capacity, DEFAULT_ARENA_BYTES);
+  }
+
+  MessageHistoryIndex(int capacity, int arenaBytes) {
+    this(capacity, arenaBytes, new SymbolTable());
+  }
+
+  /**
+   * @param symbolTable table to intern usernames and channels in. May be shared, e.g. with the users.
+   */
+  MessageHistoryIndex(int capacity, int arenaBytes, SymbolTable symbolTable) {
+    messageArena = new MessageArena(arenaBytes, capacity);
+    evictionCursor = messageArena.newFlyweight();
+    this.symbolTable = symbolTable;
+    postings = new HashMap<>();
+    evictionChars = new char[256];
+  }
+
+  void addMessage(TwitchMessage twitchMessage) {
+    long sequence = messageArena.append(
+        symbolTable.intern(twitchMessage.getUsername()),
+        symbolTable.intern(twitchMessage.getTwitchChannel()),
+        twitchMessage.getMessageDateTime().getMillis(),
+        twitchMessage.getFeatures().getPayloadHash(),
+        twitchMessage.getMessage(),
+        this::removePostings);
+    for (long trigram : trigrams(twitchMessage.getMessage())) {
+      postings.computeIfAbsent(trigram, key -> new PostingList()).add(sequence);
+    }
+  }
+
+  /**
+   * Called before the arena overwrites a message. The evicted message is the oldest, so it is at the
+   * head of all of its posting lists.
+   */
+  private void removePostings(long sequence) {
+    evictionCursor.moveTo(sequence);
+    symbolTable.release(evictionCursor.getUserId());
+    symbolTable.release(evictionCursor.getChannelId());
+    if (evictionChars.length < evictionCursor.getPayloadByteLength()) {
+      evictionChars = new char[evictionCursor.getPayloadByteLength()];
+    }
+    int payloadLength = evictionCursor.readPayload(evictionChars);
+    for (long trigram : trigrams(CharBuffer.wrap(evictionChars, 0, payloadLength))) {
+      PostingList postingList = postings.get(trigram);
+      if (postingList != null) {
+        // Also drops postings of any longer payload the arena had to truncate.
+        while (!postingList.isEmpty() && postingList.get(0) <= sequence) {
+          postingList.removeHead();
+        }
+        if (postingList.isEmpty()) {
+          postings.remove(trigram);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds messages among the most recent that contain the phrase, ignoring ASCII case, and pass the
+   * filter. Phrases shorter than a trigram check all recent messages. Large candidate sets are
+   * filtered in parallel.
+   *
+   * @param phrase        phrase to search for. Null to check all recent messages.
+   * @param lookBehind    number of most recent messages to search.
+   * @param payloadFilter check run on the payload of each candidate.
+   * @return Matching messages, oldest first.
+   */
+  List<TwitchMessage> findMatches(String phrase, int lookBehind, Predicate<String> payloadFilter) {
+    long[] candidates = findCandidates(phrase, lookBehind);
+    LongStream candidateStream = candidates.length >= PARALLEL_SCAN_THRESHOLD
+        ? Arrays.stream(candidates).parallel()
+        : Arrays.stream(candidates);
+    return candidateStream
+        .mapToObj(sequence -> {
+          MessageArena.Flyweight cursor = messageArena.newFlyweight();
+          cursor.moveTo(sequence);
+          String payload = cursor.getPayload();
+          return payloadFilter.test(payload) ? toTwitchMessage(cursor, payload) : null;
+        })
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * @return sequence numbers of the messages that may contain the phrase, oldest first. Every
+   * message that does contain it is included.
+   */
+  long[] findCandidates(String phrase, int lookBehind) {
+    long nextSequence = messageArena.getNextSequence();
+    long firstSequence = Math.max(messageArena.getFirstSequence(), nextSequence - Math.max(0, lookBehind));
+    if (phrase == null || phrase.length() < TRIGRAM_LENGTH) {
+      return LongStream.range(firstSequence, nextSequence).toArray();
+    }
+    PostingList rarestPostingList = null;
+    for (long trigram : trigrams(phrase)) {
+      PostingList postingList = postings.get(trigram);
+      if (postingList == null) {
+        return new long[0];
+      } else if (rarestPostingList == null || postingList.size() < rarestPostingList.size()) {
+        rarestPostingList = postingList;
+      }
+    }
+    int firstIndex = rarestPostingList.size();
+    while (firstIndex > 0 && rarestPostingList.get(firstIndex - 1) >= firstSequence) {
+      firstIndex--;
+    }
+    long[] candidates = new long[rarestPostingList.size() - firstIndex];
+    for (int i = 0; i < candidates.length; i++) {
+      candidates[i] = rarestPostingList.get(firstIndex + i);
+    }
+    return candidates;
+  }
+
+  private TwitchMessage toTwitchMessage(MessageArena.Flyweight cursor, String payload) {
+    return new TwitchMessage(
+        payload,
+        new TwitchUser(symbolTable.lookup(cursor.getUserId())),
+        new DateTime(cursor.getEpochMillis()),
+        symbolTable.lookup(cursor.getChannelId()));
+  }
+
+  int size() {
+    return messageArena.size();
+  }
+
+  int trigramCount() {
+    return postings.size();
+  }
+
+  /**
+   * @return Distinct trigrams of the text, each packed into a long.
+   */
+  static long[] trigrams(CharSequence text) {
+    int trigramCount = text.length() - TRIGRAM_LENGTH + 1;
+    if (trigramCount <= 0) {
+      return new long[0];
+    }
+    long[] trigrams = new long[trigramCount];
+    for (int i = 0; i < trigramCount; i++) {
+      trigrams[i] = ((long) toLowerAscii(text.charAt(i)) << 32)
+          | ((long) toLowerAscii(text.charAt(i + 1)) << 16)
+          | toLowerAscii(text.charAt(i + 2));
+    }
+    Arrays.sort(trigrams);
+    int distinctCount = 1;
+    for (int i = 1; i < trigrams.length; i++) {
+      if (trigrams[i] != trigrams[distinctCount - 1]) {
+        trigrams[distinctCount++] = trigrams[i];
+      }
+    }
+    return Arrays.copyOf(trigrams, distinctCount);
+  }
+
+  private static char toLowerAscii(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  /**
+   * Ascending message sequence numbers. Added at the tail, evicted from the head.
+   */
+  private static class PostingList {
+    private long[] sequences = new long[2];
+    private int head = 0;
+    private int size = 0;
+
+    void add(long sequence) {
+      if (size == sequences.length) {
+        long[] grown = new long[sequences.length * 2];
+        for (int i = 0; i < size; i++) {
+          grown[i] = get(i);
+        }
+        sequences = grown;
+        head = 0;
+      }
+      sequences[(head + size) % sequences.length] = sequence;
+      size++;
+    }
+
+    long get(int index) {
+      return sequences[(head + index) % sequences.length];
+    }
+
+    void removeHead() {
+      head = (head + 1) % sequences.length;
+      size--;
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+  }
+}
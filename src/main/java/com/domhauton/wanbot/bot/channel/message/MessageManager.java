@@ -1,59 +1,353 @@
 package com.domhauton.wanbot.bot.channel.message;
 
 import com.domhauton.wanbot.bot.channel.TwitchUser;
+import com.domhauton.wanbot.bot.channel.UserState;
+import com.domhauton.wanbot.bot.channel.UserStateTable;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.lucene.facet.taxonomy.LRUHashMap;
+import org.joda.time.DateTime;
 
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
 
 /**
  * Created by Dominic Hauton on 12/03/2016.
  * <p>
  * A rolling log of messages with snapshot retrieval.
+ * <p>
+ * Per-user histories are written by the sender's thread. The channel window structures have a
+ * single writer: each update is queued and applied by whichever thread finds no other thread
+ * applying updates, so adding never waits on a lock. Channel window queries read optimistically and
+ * retry if an update was applied meanwhile. Retrospective searches, too long to retry, read lock the
+ * window on the calling thread instead, holding off the writer until they finish. A message may not
+ * yet be in the channel window when its sender queries it, if another thread is still applying
+ * updates.
  */
 public class MessageManager {
   private static final Logger log = LogManager.getLogger();
-  private static final int maxUserQueueSize = 256;
+  static final int DEFAULT_CHANNEL_QUEUE_SIZE = 5_000;
+  static final int DEFAULT_HISTORY_SIZE = 20_000;
+  static final int DEFAULT_MAX_USERS = 100_000;
+  // Repeats are only counted over this long, however many messages the window holds.
+  static final long DEFAULT_REPETITION_WINDOW_MILLIS = 30_000L;
+  private static final int COPYPASTA_FINGERPRINTS_PER_MESSAGE = 8;
+  private static final DateTime END_OF_TIME = new DateTime(Long.MAX_VALUE);
   private final int userQueueSize;
-  private TwitchMessageEvictingQueue channelEvictingQueue;
-  private LRUHashMap<TwitchUser, TwitchMessageEvictingQueue> userEvictingQueueMap;
+  private TwitchMessageRingBuffer channelRingBuffer;
+  private final MessageHistoryIndex messageHistoryIndex;
+  private final RepetitionWindow channelRepetitionWindow;
+  private final CopypastaIndex channelCopypastaIndex;
+  private final UserStateTable userStateTable;
+  private final BoundedUserTable<UserState, UserMessageHistory> userMessageHistories;
+  private final ConcurrentLinkedQueue<Runnable> channelWindowTasks;
+  private final AtomicInteger drainRequests;
+  // Write locked only by the single channel window writer, so optimistic readers can validate. Read
+  // locked by retrospective searches.
+  private final StampedLock channelWindowLock;
 
   public MessageManager() {
-    this(10, 100);
+    this(new UserStateTable());
+  }
+
+  /**
+   * @param userStateTable shared per-user state the user message histories are attached to.
+   */
+  public MessageManager(UserStateTable userStateTable) {
+    this(userStateTable, 10, DEFAULT_CHANNEL_QUEUE_SIZE, DEFAULT_HISTORY_SIZE, DEFAULT_MAX_USERS);
   }
 
   MessageManager(int userQueueSize, int channelQueueSize) {
+    this(userQueueSize, channelQueueSize, DEFAULT_HISTORY_SIZE, DEFAULT_MAX_USERS);
+  }
+
+  MessageManager(int userQueueSize, int channelQueueSize, int historySize, int maxUsers) {
+    this(new UserStateTable(), userQueueSize, channelQueueSize, historySize, maxUsers);
+  }
+
+  /**
+   * @param historySize number of recent channel messages indexed for retrospective searches.
+   * @param maxUsers    number of users whose recent messages are kept.
+   */
+  MessageManager(UserStateTable userStateTable, int userQueueSize, int channelQueueSize, int historySize,
+                 int maxUsers) {
+    if (channelQueueSize <= 0) {
+      throw new IllegalArgumentException("Channel queue size must be positive: " + channelQueueSize);
+    }
+    this.userStateTable = userStateTable;
     this.userQueueSize = userQueueSize;
 
-    channelEvictingQueue = new TwitchMessageEvictingQueue(channelQueueSize);
-    userEvictingQueueMap = new LRUHashMap<>(maxUserQueueSize);
+    channelRingBuffer = new TwitchMessageRingBuffer(channelQueueSize);
+    userMessageHistories = new BoundedUserTable<>(maxUsers, this::onMessageHistoryEvicted);
+    userStateTable.addEvictionListener(this::onUserEvicted);
+    messageHistoryIndex = new MessageHistoryIndex(historySize, MessageHistoryIndex.DEFAULT_ARENA_BYTES,
+        userStateTable.getSymbolTable());
+    channelRepetitionWindow = new RepetitionWindow(channelQueueSize, DEFAULT_REPETITION_WINDOW_MILLIS);
+    channelCopypastaIndex = new CopypastaIndex(channelQueueSize * COPYPASTA_FINGERPRINTS_PER_MESSAGE,
+        CopypastaIndex.DEFAULT_HALF_LIFE_MILLIS);
+    channelWindowTasks = new ConcurrentLinkedQueue<>();
+    drainRequests = new AtomicInteger();
+    channelWindowLock = new StampedLock();
 
-    log.info("Created MessageManager. User queue size: {}. Channel queue size: {}", userQueueSize, channelQueueSize);
+    log.info("Created MessageManager. User queue size: {}. Channel queue size: {}. History size: {}. Max users: {}",
+        userQueueSize, channelQueueSize, historySize, maxUsers);
   }
 
 
+  /**
+   * @return Copy of the recent channel messages, taken without locking.
+   */
   public ImmutableTwitchMessageList getChannelSnapshot() {
-    ImmutableTwitchMessageList messageBufferSnapshot = channelEvictingQueue.getMessageBufferSnapshot();
+    ImmutableTwitchMessageList messageBufferSnapshot = channelRingBuffer.getMessageSnapshot();
     log.debug("Retrieving channel snapshot. Current size: {}", messageBufferSnapshot::size);
     return messageBufferSnapshot;
   }
 
+  /**
+   * @return Copy of the recent channel messages that arrived at or after the time, taken without
+   * locking. Found by binary search over arrival times.
+   */
+  public ImmutableTwitchMessageList getChannelSnapshotSince(DateTime since) {
+    return getChannelSnapshotBetween(since, END_OF_TIME);
+  }
+
+  /**
+   * @param from earliest arrival time included.
+   * @param to   arrival time at which the range ends, exclusive.
+   * @return Copy of the recent channel messages that arrived in the range, taken without locking.
+   * Found by binary search over arrival times.
+   */
+  public ImmutableTwitchMessageList getChannelSnapshotBetween(DateTime from, DateTime to) {
+    ImmutableTwitchMessageList messageBufferSnapshot = channelRingBuffer.getMessageSnapshot(from.getMillis(), to.getMillis());
+    log.debug("Retrieving channel snapshot between {} and {}. Current size: {}", from::toString, to::toString,
+        messageBufferSnapshot::size);
+    return messageBufferSnapshot;
+  }
+
+  /**
+   * @return Copy of the recent user messages that arrived at or after the time, taken without locking.
+   */
+  public ImmutableTwitchMessageList getUserSnapshotSince(TwitchUser user, DateTime since) {
+    UserState userState = userStateTable.find(user.getUsername());
+    UserMessageHistory userMessageHistory = userState == null ? null : userState.getMessageHistory();
+    ImmutableTwitchMessageList messageBufferSnapshot = userMessageHistory == null
+        ? ImmutableTwitchMessageList.empty()
+        : userMessageHistory.getMessageSnapshot(since.getMillis(), END_OF_TIME.getMillis());
+    log.debug("Retrieving user {} snapshot since {}. Current size: {}", user::toString, since::toString,
+        messageBufferSnapshot::size);
+    return messageBufferSnapshot;
+  }
+
+  /**
+   * @return Copy of the recent user messages, taken without locking.
+   */
   public ImmutableTwitchMessageList getUserSnapshot(TwitchUser user) {
-    ImmutableTwitchMessageList messageBufferSnapshot = userEvictingQueueMap.getOrDefault(user, new TwitchMessageEvictingQueue(userQueueSize))
-        .getMessageBufferSnapshot();
+    UserState userState = userStateTable.find(user.getUsername());
+    ImmutableTwitchMessageList messageBufferSnapshot = userState == null
+        ? ImmutableTwitchMessageList.empty()
+        : userState.getRecentMessages();
     log.debug("Retrieving user {} snapshot. Current size: {}", user::toString, messageBufferSnapshot::size);
     return messageBufferSnapshot;
   }
 
   /**
-   * Inserts a MESSAGE into the MESSAGE manager
+   * @return messages per second over the user's recent messages, at millisecond resolution. 0 if
+   * the user has sent too few messages to tell. O(1).
+   */
+  public double getUserMessageRate(TwitchUser user) {
+    UserState userState = userStateTable.find(user.getUsername());
+    return userState == null ? 0d : userState.getMessagesPerSecond();
+  }
+
+  /**
+   * @return number of recent channel messages, within the repetition window, with the same
+   * normalised payload. Includes the message itself once added. O(1).
+   */
+  public int getChannelPayloadCount(TwitchMessage twitchMessage) {
+    long payloadHash = twitchMessage.getFeatures().getPayloadHash();
+    return readChannelWindow(() -> channelRepetitionWindow.countPayload(payloadHash));
+  }
+
+  /**
+   * @param maxDistance most bits the payload SimHashes may differ by.
+   * @return number of recent channel messages, within the repetition window, with a near duplicate
+   * payload, found through the LSH index. Exact repeats are included.
+   */
+  public int getChannelNearDuplicateCount(TwitchMessage twitchMessage, int maxDistance) {
+    long simHash = twitchMessage.getPayloadSimHash();
+    return readChannelWindow(() -> channelRepetitionWindow.countSimilar(simHash, maxDistance));
+  }
+
+  /**
+   * @param minUsers distinct users that must have recently posted a fingerprint for it to count.
+   * @return share of the message's winnowed fingerprints recently posted by at least that many
+   * users. High for copypasta, even with a different prefix or suffix. O(length).
+   */
+  public double getChannelCopypastaShare(TwitchMessage twitchMessage, int minUsers) {
+    long[] fingerprints = twitchMessage.getPayloadFingerprints();
+    long epochMillis = twitchMessage.getMessageDateTime().getMillis();
+    return readChannelWindowShare(() -> channelCopypastaIndex.sharedFraction(fingerprints, minUsers, epochMillis));
+  }
+
+  /**
+   * Finds recent channel messages that contain the phrase, ignoring ASCII case, and pass the filter.
+   * Only the matching messages are read back out of the history. Runs on the calling thread under
+   * the channel window read lock, so updates still queued are not seen, and the writer waits for
+   * the search to finish. Must not be called from within the filter.
+   *
+   * @param phrase        literal the messages must contain, or null to check every recent message.
+   * @param lookBehind    number of most recent messages to search.
+   * @param payloadFilter check run on the payload of each message containing the phrase.
+   * @return Matching messages, oldest first.
+   */
+  public List<TwitchMessage> findRecentMessages(String phrase, int lookBehind, Predicate<String> payloadFilter) {
+    List<TwitchMessage> matches;
+    long stamp = channelWindowLock.readLock();
+    try {
+      matches = messageHistoryIndex.findMatches(phrase, lookBehind, payloadFilter);
+    } finally {
+      channelWindowLock.unlockRead(stamp);
+    }
+    log.debug("Found {} matches for {} in last {} messages", matches::size, () -> phrase, () -> lookBehind);
+    return matches;
+  }
+
+  /**
+   * Inserts a MESSAGE into the MESSAGE manager.
    *
    * @return true if insertion was successful.
    */
-  public synchronized boolean addMessage(TwitchMessage twitchMessage) {
+  public boolean addMessage(TwitchMessage twitchMessage) {
+    return addMessage(twitchMessage, userStateTable.getOrCreate(twitchMessage.getTwitchUser()));
+  }
+
+  /**
+   * Inserts a MESSAGE into the MESSAGE manager. Messages of one user must be added by one thread at
+   * a time, e.g. the user's moderation shard. Never waits on a lock.
+   *
+   * @param userState state of the sender, already looked up by the caller.
+   * @return true if insertion into the user history was successful. The channel window update may
+   * be applied later, by another thread.
+   */
+  public boolean addMessage(TwitchMessage twitchMessage, UserState userState) {
     log.debug("Storing message in MessageManager. Message: {}", twitchMessage::toString);
-    userEvictingQueueMap.computeIfAbsent(twitchMessage.getTwitchUser(), key -> new TwitchMessageEvictingQueue(userQueueSize));
-    return channelEvictingQueue.addMessage(twitchMessage)
-        && userEvictingQueueMap.get(twitchMessage.getTwitchUser()).addMessage(twitchMessage);
+    userState.recordMessage();
+    UserMessageHistory userMessageHistory = userMessageHistories.getOrAdmit(userState, this::attachMessageHistory);
+    int userId = userState.getUserId();
+    channelWindowTasks.offer(() -> addChannelMessage(twitchMessage, userId));
+    drainChannelWindowTasks();
+    if (userMessageHistory == null) {
+      // Users not yet admitted keep only their recent payload hashes, so repeats are still caught.
+      userState.recordPayloadHash(twitchMessage.getFeatures().getPayloadHash());
+      return true;
+    }
+    return userMessageHistory.addMessage(twitchMessage);
+  }
+
+  /**
+   * Only called by the channel window writer.
+   */
+  private void addChannelMessage(TwitchMessage twitchMessage, int userId) {
+    long stamp = channelWindowLock.writeLock();
+    try {
+      messageHistoryIndex.addMessage(twitchMessage);
+      channelRepetitionWindow.add(twitchMessage.getFeatures().getPayloadHash(), twitchMessage.getPayloadSimHash(),
+          twitchMessage.getMessageDateTime().getMillis());
+      channelCopypastaIndex.add(twitchMessage.getPayloadFingerprints(), userId,
+          twitchMessage.getMessageDateTime().getMillis());
+      channelRingBuffer.addMessage(twitchMessage);
+    } finally {
+      channelWindowLock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Runs the queued channel window tasks. Only the thread that raises the drain count from zero
+   * runs them. Others leave their tasks for it, so there is only ever one writer.
+   */
+  private void drainChannelWindowTasks() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int missedRequests = 1;
+    do {
+      Runnable channelWindowTask;
+      while ((channelWindowTask = channelWindowTasks.poll()) != null) {
+        try {
+          channelWindowTask.run();
+        } catch (RuntimeException e) {
+          log.error("Failed to update channel window. {}", e.getMessage());
+        }
+      }
+      missedRequests = drainRequests.addAndGet(-missedRequests);
+    } while (missedRequests != 0);
+  }
+
+  /**
+   * Runs the query without locking, retrying if the writer updated the channel window meanwhile.
+   * The query may see a half applied update, so it must not loop forever on one; anything it
+   * throws is discarded along with its result.
+   */
+  private int readChannelWindow(IntSupplier channelWindowQuery) {
+    while (true) {
+      long stamp = channelWindowLock.tryOptimisticRead();
+      if (stamp == 0L) {
+        Thread.yield();
+        continue;
+      }
+      try {
+        int result = channelWindowQuery.getAsInt();
+        if (channelWindowLock.validate(stamp)) {
+          return result;
+        }
+      } catch (RuntimeException e) {
+        if (channelWindowLock.validate(stamp)) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private double readChannelWindowShare(DoubleSupplier channelWindowQuery) {
+    while (true) {
+      long stamp = channelWindowLock.tryOptimisticRead();
+      if (stamp == 0L) {
+        Thread.yield();
+        continue;
+      }
+      try {
+        double result = channelWindowQuery.getAsDouble();
+        if (channelWindowLock.validate(stamp)) {
+          return result;
+        }
+      } catch (RuntimeException e) {
+        if (channelWindowLock.validate(stamp)) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Users whose history is evicted are evicted from the user table too, unless they have a permission.
+   */
+  private void onMessageHistoryEvicted(UserState userState, UserMessageHistory userMessageHistory) {
+    userState.setMessageHistory(null);
+    userStateTable.evict(userState);
+  }
+
+  private void onUserEvicted(UserState userState) {
+    userMessageHistories.remove(userState);
+    userState.setMessageHistory(null);
+  }
+
+  private UserMessageHistory attachMessageHistory(UserState userState) {
+    UserMessageHistory userMessageHistory = new UserMessageHistory(userQueueSize);
+    userState.setMessageHistory(userMessageHistory);
+    return userMessageHistory;
   }
 }
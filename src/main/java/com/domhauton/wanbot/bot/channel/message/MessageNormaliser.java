@@ -0,0 +1,248 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import java.text.Normalizer;
+
+/**
+ * Table driven message normalisation. A single pass over a message produces both the simple
+ * payload, with spaces and invisible characters removed and case folded, and the normalised
+ * payload, which additionally folds accents, look-alike letters and leetspeak to plain ASCII.
+ * The same pass hashes the normalised payload and counts character classes for the message
+ * features. Word folding is the normalised mapping with word separators kept, for matching words.
+ * It only folds leetspeak inside words with a letter, so numbers and times are left as sent.
+ */
+final class MessageNormaliser {
+  private static final char STRIP = '\0';
+  private static final char WORD_SEPARATOR = ' ';
+  private static final String ZERO_WIDTH_CHARS = "\u00AD\u034F\u061C\u115F\u1160\u17B4\u17B5\u180E"
+      + "\u200B\u200C\u200D\u200E\u200F\u2060\u2061\u2062\u2063\u2064\u3164\uFEFF\uFFA0";
+  // Cyrillic then Greek letters that look like latin letters.
+  private static final String CONFUSABLE_CHARS = "\u0430\u0432\u0433\u0435\u0451\u043A\u043C\u043D\u043E\u0440\u0441"
+      + "\u0442\u0443\u0445\u044C\u0456\u0457\u0458\u0455\u0501\u051B\u051D\u04BB\u04CF"
+      + "\u03B1\u03B2\u03B3\u03B5\u03B9\u03BA\u03BD\u03BF\u03C1\u03C4\u03C5\u03C7\u03F2";
+  private static final String CONFUSABLE_FOLDS = "abreekmhopctyxbiijsdqwhl"
+      + "abyeikvoptuxc";
+  private static final String LEET_CHARS = "013456789@$!+|";
+  private static final String LEET_FOLDS = "oieasbtbgasitl";
+  // What normal chat is made of. Messages mostly without these are ASCII art.
+  private static final String LEGAL_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789.!@$%";
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private static final byte LEGAL = 1;
+  private static final byte SYMBOL = 1 << 1;
+  private static final byte LETTER = 1 << 2;
+  private static final byte CAPITAL = 1 << 3;
+  private static final byte NON_ASCII = 1 << 4;
+
+  /**
+   * Simple payload mapping: space, zero-width and combining characters removed, lower case.
+   */
+  private static final char[] SIMPLE_TABLE = new char[Character.MAX_VALUE + 1];
+  /**
+   * Normalised payload mapping: the simple mapping with accents, confusables and leetspeak folded.
+   */
+  private static final char[] FOLD_TABLE = new char[Character.MAX_VALUE + 1];
+  /**
+   * Word folded mapping: the normalised mapping with spaces mapped to a single separator instead.
+   */
+  private static final char[] WORD_TABLE = new char[Character.MAX_VALUE + 1];
+  /**
+   * Character class flags, so feature counting needs no Character lookups per message.
+   */
+  private static final byte[] CLASS_TABLE = new byte[Character.MAX_VALUE + 1];
+  /**
+   * Scratch space for the two payloads, reused by each thread's messages.
+   */
+  private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[512]);
+
+  static {
+    for (int c = 0; c <= Character.MAX_VALUE; c++) {
+      SIMPLE_TABLE[c] = isInvisible((char) c) ? STRIP : Character.toLowerCase((char) c);
+      FOLD_TABLE[c] = SIMPLE_TABLE[c];
+      CLASS_TABLE[c] = charClass((char) c);
+    }
+    mapFolds(CONFUSABLE_CHARS, CONFUSABLE_FOLDS);
+    mapFolds(LEET_CHARS, LEET_FOLDS);
+    // Accented latin letters fold to their base letter.
+    for (char c = '\u00C0'; c <= '\u024F'; c++) {
+      String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+      char baseChar = Character.toLowerCase(decomposed.charAt(0));
+      if (baseChar >= 'a' && baseChar <= 'z') {
+        FOLD_TABLE[c] = baseChar;
+      }
+    }
+    // Full width forms fold to ASCII.
+    for (char c = '\uFF01'; c <= '\uFF5E'; c++) {
+      FOLD_TABLE[c] = FOLD_TABLE[c - '\uFF01' + '!'];
+    }
+    for (int c = 0; c <= Character.MAX_VALUE; c++) {
+      boolean separator = Character.isSpaceChar((char) c) || Character.isWhitespace((char) c);
+      WORD_TABLE[c] = separator ? WORD_SEPARATOR : FOLD_TABLE[c];
+    }
+  }
+
+  private MessageNormaliser() {
+  }
+
+  private static boolean isInvisible(char c) {
+    int type = Character.getType(c);
+    return Character.isSpaceChar(c)
+        || type == Character.NON_SPACING_MARK
+        || type == Character.ENCLOSING_MARK
+        || type == Character.COMBINING_SPACING_MARK
+        || ZERO_WIDTH_CHARS.indexOf(c) >= 0;
+  }
+
+  private static byte charClass(char c) {
+    int charClass = 0;
+    if (LEGAL_CHARS.indexOf(c) >= 0) {
+      charClass |= LEGAL;
+    }
+    if (!Character.isLetterOrDigit(c)) {
+      charClass |= SYMBOL;
+    }
+    if (Character.isLetter(c)) {
+      charClass |= LETTER;
+    }
+    if (Character.isUpperCase(c)) {
+      charClass |= CAPITAL;
+    }
+    if (c > '\u007F') {
+      charClass |= NON_ASCII;
+    }
+    return (byte) charClass;
+  }
+
+  private static void mapFolds(String chars, String folds) {
+    for (int i = 0; i < chars.length(); i++) {
+      char foldedChar = FOLD_TABLE[folds.charAt(i)];
+      FOLD_TABLE[chars.charAt(i)] = foldedChar;
+      FOLD_TABLE[Character.toUpperCase(chars.charAt(i))] = foldedChar;
+    }
+  }
+
+  /**
+   * @return Simplified message with accents, confusables and leetspeak folded to ASCII.
+   */
+  static String normalise(String message) {
+    return map(message, FOLD_TABLE);
+  }
+
+  /**
+   * Folds like {@link #normalise} but keeps runs of spaces as a single separator, so words cannot
+   * run into each other. Words without a letter, e.g. "455" or "12:30", are only lower cased, so
+   * numbers are not read as leetspeak.
+   *
+   * @return Lower case message with accents, confusables and leetspeak folded to ASCII.
+   */
+  static String foldWords(String message) {
+    int length = message.length();
+    char[] foldedChars = new char[length];
+    int foldedLength = 0;
+    int wordStart = 0;
+    while (wordStart < length) {
+      int wordEnd = wordStart;
+      boolean hasLetter = false;
+      while (wordEnd < length && WORD_TABLE[message.charAt(wordEnd)] != WORD_SEPARATOR) {
+        hasLetter |= (CLASS_TABLE[message.charAt(wordEnd)] & LETTER) != 0;
+        wordEnd++;
+      }
+      char[] table = hasLetter ? WORD_TABLE : SIMPLE_TABLE;
+      for (int i = wordStart; i < wordEnd; i++) {
+        char foldedChar = table[message.charAt(i)];
+        if (foldedChar != STRIP) {
+          foldedChars[foldedLength++] = foldedChar;
+        }
+      }
+      if (wordEnd < length && foldedLength > 0 && foldedChars[foldedLength - 1] != WORD_SEPARATOR) {
+        foldedChars[foldedLength++] = WORD_SEPARATOR;
+      }
+      wordStart = wordEnd + 1;
+    }
+    return new String(foldedChars, 0, foldedLength);
+  }
+
+  /**
+   * Computes both forms in a single pass.
+   *
+   * @return simple payload at index 0, normalised payload at index 1.
+   */
+  static String[] simplifyAndNormalise(String message) {
+    MessageFeatures messageFeatures = extractFeatures(message);
+    return new String[]{messageFeatures.getSimplePayload(), messageFeatures.getNormalisedPayload()};
+  }
+
+  /**
+   * Computes both payloads, the payload hash and the character class counts in a single pass. Only
+   * the payloads and the features themselves are allocated.
+   */
+  static MessageFeatures extractFeatures(String message) {
+    int length = message.length();
+    char[] scratch = SCRATCH.get();
+    if (scratch.length < length * 2) {
+      scratch = new char[length * 2];
+      SCRATCH.set(scratch);
+    }
+    int simpleLength = 0;
+    int foldedLength = 0;
+    boolean folded = false;
+    long payloadHash = FNV_OFFSET_BASIS;
+    int legalCharCount = 0;
+    int symbolCount = 0;
+    int letterCount = 0;
+    int capitalCount = 0;
+    int nonAsciiCount = 0;
+    for (int i = 0; i < length; i++) {
+      char c = message.charAt(i);
+      byte charClass = CLASS_TABLE[c];
+      letterCount += (charClass & LETTER) >>> 2;
+      capitalCount += (charClass & CAPITAL) >>> 3;
+      nonAsciiCount += (charClass & NON_ASCII) >>> 4;
+      char simpleChar = SIMPLE_TABLE[c];
+      char foldedChar = FOLD_TABLE[c];
+      if (simpleChar != STRIP) {
+        scratch[simpleLength++] = simpleChar;
+        byte simpleClass = CLASS_TABLE[simpleChar];
+        legalCharCount += simpleClass & LEGAL;
+        symbolCount += (simpleClass & SYMBOL) >>> 1;
+      }
+      if (foldedChar != STRIP) {
+        scratch[length + foldedLength++] = foldedChar;
+        payloadHash = (payloadHash ^ foldedChar) * FNV_PRIME;
+      }
+      folded |= simpleChar != foldedChar;
+    }
+    String simplePayload = new String(scratch, 0, simpleLength);
+    String normalisedPayload = folded ? new String(scratch, length, foldedLength) : simplePayload;
+    return new MessageFeatures(simplePayload, normalisedPayload, finishHash(payloadHash), length,
+        legalCharCount, symbolCount, letterCount, capitalCount, nonAsciiCount);
+  }
+
+  /**
+   * @return hash of an already normalised payload, equal to the payload hash of its features.
+   */
+  static long hash(CharSequence normalisedPayload) {
+    long payloadHash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < normalisedPayload.length(); i++) {
+      payloadHash = (payloadHash ^ normalisedPayload.charAt(i)) * FNV_PRIME;
+    }
+    return finishHash(payloadHash);
+  }
+
+  private static long finishHash(long payloadHash) {
+    long mixedHash = SimHash.mix(payloadHash);
+    return mixedHash == 0L ? 1L : mixedHash;
+  }
+
+  private static String map(String message, char[] table) {
+    char[] mappedChars = new char[message.length()];
+    int mappedLength = 0;
+    for (int i = 0; i < message.length(); i++) {
+      char mappedChar = table[message.charAt(i)];
+      if (mappedChar != STRIP) {
+        mappedChars[mappedLength++] = mappedChar;
+      }
+    }
+    return new String(mappedChars, 0, mappedLength);
+  }
+}
@@ -0,0 +1,54 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+/**
+ * Ring of the epoch millisecond timestamps of a user's most recent messages. Gives the message
+ * rate over the ring in O(1) without boxing. Synchronised per user, so readers never see a
+ * half recorded message.
+ */
+class MessageRateTracker {
+  static final int MIN_RATE_SAMPLES = 3;
+
+  private final long[] timestamps;
+  private int nextIndex;
+  private int count;
+
+  MessageRateTracker(int windowSize) {
+    timestamps = new long[Math.max(1, windowSize)];
+    nextIndex = 0;
+    count = 0;
+  }
+
+  synchronized void record(long epochMillis) {
+    timestamps[nextIndex] = epochMillis;
+    nextIndex = (nextIndex + 1) % timestamps.length;
+    count = Math.min(count + 1, timestamps.length);
+  }
+
+  synchronized int getMessageCount() {
+    return count;
+  }
+
+  /**
+   * @return milliseconds between the oldest and newest message in the window.
+   */
+  synchronized long getWindowMillis() {
+    if (count == 0) {
+      return 0L;
+    }
+    long newest = timestamps[(nextIndex - 1 + timestamps.length) % timestamps.length];
+    long oldest = timestamps[(nextIndex - count + timestamps.length) % timestamps.length];
+    return Math.max(0L, newest - oldest);
+  }
+
+  /**
+   * Bursts within the same millisecond are treated as spanning one millisecond.
+   *
+   * @return messages per second over the window. 0 until {@link #MIN_RATE_SAMPLES} are recorded.
+   */
+  synchronized double getMessagesPerSecond() {
+    if (count < MIN_RATE_SAMPLES) {
+      return 0d;
+    }
+    return count * 1000d / Math.max(1L, getWindowMillis());
+  }
+}
@@ -0,0 +1,135 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import java.util.Arrays;
+
+/**
+ * Banded LSH index over the SimHashes of a window of messages. Each hash is split into eight 8 bit
+ * bands, and each band value keys a bucket of the window slots holding it. Hashes within 7 bits of
+ * each other must agree on at least one band, so a query only compares against the buckets of its
+ * own bands, about a 32nd of the window, rather than the whole window. Larger distances are found
+ * only if a band still agrees.
+ * <p>
+ * Buckets are doubly linked lists through primitive arrays, so adding and evicting are O(1) and
+ * allocate nothing. Single writer. A query racing the writer may miscount, but never walks a bucket
+ * for longer than the window, so a caller can validate afterwards and retry.
+ */
+class NearDuplicateIndex {
+  static final int BANDS = 8;
+  private static final int BAND_BITS = Long.SIZE / BANDS;
+  private static final int BAND_MASK = (1 << BAND_BITS) - 1;
+  private static final int NONE = -1;
+
+  private final long[] simHashes;
+  private final int[][] bucketHeads;
+  private final int[][] nextSlots;
+  private final int[][] previousSlots;
+  private long insertions;
+  private long removals;
+
+  /**
+   * @param windowSize most recent hashes kept. Older hashes are evicted as new ones are added.
+   */
+  NearDuplicateIndex(int windowSize) {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+    }
+    simHashes = new long[windowSize];
+    bucketHeads = new int[BANDS][1 << BAND_BITS];
+    nextSlots = new int[BANDS][windowSize];
+    previousSlots = new int[BANDS][windowSize];
+    for (int[] heads : bucketHeads) {
+      Arrays.fill(heads, NONE);
+    }
+    insertions = 0L;
+    removals = 0L;
+  }
+
+  /**
+   * Adds the hash, evicting the oldest hash if the window is full.
+   */
+  void add(long simHash) {
+    if (size() == simHashes.length) {
+      removeOldest();
+    }
+    int slot = (int) (insertions % simHashes.length);
+    simHashes[slot] = simHash;
+    for (int band = 0; band < BANDS; band++) {
+      int bucket = bandValue(simHash, band);
+      int head = bucketHeads[band][bucket];
+      nextSlots[band][slot] = head;
+      previousSlots[band][slot] = NONE;
+      if (head != NONE) {
+        previousSlots[band][head] = slot;
+      }
+      bucketHeads[band][bucket] = slot;
+    }
+    insertions++;
+  }
+
+  /**
+   * @param maxDistance most bits a hash may differ by to count as similar.
+   * @return number of hashes in the window within the distance of the given hash. Exact for
+   * distances up to 7.
+   */
+  int countSimilar(long simHash, int maxDistance) {
+    int similar = 0;
+    for (int band = 0; band < BANDS; band++) {
+      int slot = bucketHeads[band][bandValue(simHash, band)];
+      int steps = 0;
+      while (slot != NONE && steps++ < simHashes.length) {
+        long candidate = simHashes[slot];
+        if (!agreesOnEarlierBand(candidate, simHash, band) && SimHash.distance(candidate, simHash) <= maxDistance) {
+          similar++;
+        }
+        slot = nextSlots[band][slot];
+      }
+    }
+    return similar;
+  }
+
+  /**
+   * Removes the oldest hash, if there is one, e.g. once its message is too old to count.
+   */
+  void removeOldest() {
+    if (insertions > removals) {
+      unlink((int) (removals % simHashes.length));
+      removals++;
+    }
+  }
+
+  int size() {
+    return (int) (insertions - removals);
+  }
+
+  /**
+   * Candidates agreeing on an earlier band were already checked in that band's bucket.
+   */
+  private static boolean agreesOnEarlierBand(long candidate, long simHash, int band) {
+    for (int earlierBand = 0; earlierBand < band; earlierBand++) {
+      if (bandValue(candidate, earlierBand) == bandValue(simHash, earlierBand)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void unlink(int slot) {
+    long simHash = simHashes[slot];
+    for (int band = 0; band < BANDS; band++) {
+      int next = nextSlots[band][slot];
+      int previous = previousSlots[band][slot];
+      if (previous == NONE) {
+        bucketHeads[band][bandValue(simHash, band)] = next;
+      } else {
+        nextSlots[band][previous] = next;
+      }
+      if (next != NONE) {
+        previousSlots[band][next] = previous;
+      }
+    }
+  }
+
+  private static int bandValue(long simHash, int band) {
+    return (int) (simHash >>> (band * BAND_BITS)) & BAND_MASK;
+  }
+}
@@ -0,0 +1,114 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+/**
+ * Counts how many messages in a window share each normalised payload. Payloads are keyed by a
+ * 64 bit fingerprint in an open addressed table sized for the window, so counting is O(1) and
+ * never resizes. Not thread safe.
+ */
+class PayloadFrequencyCounter {
+  private static final long EMPTY = 0L;
+
+  private final long[] keys;
+  private final int[] counts;
+  private final int mask;
+  private int distinctPayloads;
+
+  /**
+   * @param maxDistinctPayloads most payloads counted at once, i.e. the window size.
+   */
+  PayloadFrequencyCounter(int maxDistinctPayloads) {
+    int slotCount = Integer.highestOneBit(Math.max(1, maxDistinctPayloads) * 2 - 1) << 1;
+    keys = new long[slotCount];
+    counts = new int[slotCount];
+    mask = slotCount - 1;
+    distinctPayloads = 0;
+  }
+
+  void add(String normalisedPayload) {
+    add(fingerprint(normalisedPayload));
+  }
+
+  /**
+   * @param key payload hash from the message features.
+   */
+  void add(long key) {
+    int slot = findSlot(key);
+    if (keys[slot] == EMPTY) {
+      if (distinctPayloads == keys.length - 1) {
+        throw new IllegalStateException("Payload frequency counter full. Evict before adding.");
+      }
+      keys[slot] = key;
+      distinctPayloads++;
+    }
+    counts[slot]++;
+  }
+
+  void remove(String normalisedPayload) {
+    remove(fingerprint(normalisedPayload));
+  }
+
+  void remove(long key) {
+    int slot = findSlot(key);
+    if (keys[slot] != EMPTY && --counts[slot] == 0) {
+      deleteSlot(slot);
+      distinctPayloads--;
+    }
+  }
+
+  /**
+   * @return number of counted messages with the payload.
+   */
+  int count(String normalisedPayload) {
+    return count(fingerprint(normalisedPayload));
+  }
+
+  int count(long key) {
+    int slot = findSlot(key);
+    return keys[slot] == EMPTY ? 0 : counts[slot];
+  }
+
+  int getDistinctPayloads() {
+    return distinctPayloads;
+  }
+
+  /**
+   * @return the payload hash its message features would have. Never empty.
+   */
+  static long fingerprint(String normalisedPayload) {
+    return MessageNormaliser.hash(normalisedPayload);
+  }
+
+  /**
+   * @return slot holding the key, or the empty slot it would be inserted into.
+   */
+  private int findSlot(long key) {
+    int slot = homeSlot(key);
+    while (keys[slot] != EMPTY && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private int homeSlot(long key) {
+    return (int) (key ^ (key >>> 32)) & mask;
+  }
+
+  /**
+   * Shifts later entries of the probe run back into the gap, so lookups need no tombstones.
+   */
+  private void deleteSlot(int slot) {
+    int gap = slot;
+    int next = (gap + 1) & mask;
+    while (keys[next] != EMPTY) {
+      int home = homeSlot(keys[next]);
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        keys[gap] = keys[next];
+        counts[gap] = counts[next];
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[gap] = EMPTY;
+    counts[gap] = 0;
+  }
+}
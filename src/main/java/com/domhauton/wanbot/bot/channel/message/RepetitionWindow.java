@@ -0,0 +1,83 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+/**
+ * Counts exact and near repeats among the channel messages of the last few seconds, capped at a
+ * message count. A message stops being counted once it is too old or the cap is reached, whichever
+ * comes first, so a repeat threshold means about the same in a quiet channel as in a raid. Messages
+ * are aged out as newer ones are added. Single writer.
+ */
+class RepetitionWindow {
+  private final long windowMillis;
+  private final PayloadFrequencyCounter payloadCounter;
+  private final NearDuplicateIndex nearDuplicateIndex;
+  private final long[] payloadHashes;
+  private final long[] arrivalMillis;
+  private int head;
+  private int size;
+
+  /**
+   * @param maxMessages  most messages counted at once.
+   * @param windowMillis age after which a message is no longer counted.
+   */
+  RepetitionWindow(int maxMessages, long windowMillis) {
+    if (maxMessages <= 0) {
+      throw new IllegalArgumentException("Max messages must be positive: " + maxMessages);
+    }
+    this.windowMillis = windowMillis;
+    payloadCounter = new PayloadFrequencyCounter(maxMessages);
+    nearDuplicateIndex = new NearDuplicateIndex(maxMessages);
+    payloadHashes = new long[maxMessages];
+    arrivalMillis = new long[maxMessages];
+    head = 0;
+    size = 0;
+  }
+
+  /**
+   * Ages out messages older than the window before the new one, then adds it, evicting the oldest
+   * message if full. Arrival times are clamped so they never decrease.
+   */
+  void add(long payloadHash, long simHash, long epochMillis) {
+    long messageMillis = size == 0 ? epochMillis : Math.max(epochMillis, arrivalMillis[slot(size - 1)]);
+    while (size > 0 && arrivalMillis[head] <= messageMillis - windowMillis) {
+      removeOldest();
+    }
+    if (size == payloadHashes.length) {
+      removeOldest();
+    }
+    int slot = slot(size);
+    payloadHashes[slot] = payloadHash;
+    arrivalMillis[slot] = messageMillis;
+    size++;
+    payloadCounter.add(payloadHash);
+    nearDuplicateIndex.add(simHash);
+  }
+
+  /**
+   * @return number of counted messages with the payload hash. O(1).
+   */
+  int countPayload(long payloadHash) {
+    return payloadCounter.count(payloadHash);
+  }
+
+  /**
+   * @return number of counted messages within the distance of the SimHash. Includes exact repeats.
+   */
+  int countSimilar(long simHash, int maxDistance) {
+    return nearDuplicateIndex.countSimilar(simHash, maxDistance);
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void removeOldest() {
+    payloadCounter.remove(payloadHashes[head]);
+    nearDuplicateIndex.removeOldest();
+    head = (head + 1) % payloadHashes.length;
+    size--;
+  }
+
+  private int slot(int index) {
+    return (head + index) % payloadHashes.length;
+  }
+}
@@ -0,0 +1,63 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+/**
+ * 64 bit SimHash of a normalised payload over its character trigrams. Payloads differing by a few
+ * characters share most trigrams, so their hashes differ in only a few bits.
+ */
+final class SimHash {
+  private static final int SHINGLE_LENGTH = 3;
+
+  private SimHash() {
+  }
+
+  /**
+   * @return SimHash of the payload. Payloads shorter than a trigram are hashed whole. 0 if empty.
+   */
+  static long of(CharSequence normalisedPayload) {
+    int length = normalisedPayload.length();
+    if (length == 0) {
+      return 0L;
+    }
+    if (length <= SHINGLE_LENGTH) {
+      return mix(pack(normalisedPayload, 0, length));
+    }
+    int[] votes = new int[Long.SIZE];
+    for (int i = 0; i + SHINGLE_LENGTH <= length; i++) {
+      long shingleHash = mix(pack(normalisedPayload, i, SHINGLE_LENGTH));
+      for (int bit = 0; bit < Long.SIZE; bit++) {
+        votes[bit] += ((shingleHash >>> bit) & 1L) == 0L ? -1 : 1;
+      }
+    }
+    long simHash = 0L;
+    for (int bit = 0; bit < Long.SIZE; bit++) {
+      if (votes[bit] > 0) {
+        simHash |= 1L << bit;
+      }
+    }
+    return simHash;
+  }
+
+  static int distance(long simHash, long otherSimHash) {
+    return Long.bitCount(simHash ^ otherSimHash);
+  }
+
+  private static long pack(CharSequence payload, int offset, int length) {
+    long packed = length;
+    for (int i = offset; i < offset + length; i++) {
+      packed = (packed << Character.SIZE) | payload.charAt(i);
+    }
+    return packed;
+  }
+
+  /**
+   * MurmurHash3 finaliser. Spreads each packed shingle over all 64 bits.
+   */
+  static long mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+  }
+}
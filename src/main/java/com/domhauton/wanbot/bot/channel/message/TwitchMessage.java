@@ -13,7 +13,10 @@ import java.util.Collection;
  * Holds required data for a TwitchMessage
  */
 public class TwitchMessage extends InboundTwitchMessage {
-  private String simpleMessagePayload;
+  private MessageFeatures messageFeatures;
+  private String wordFoldedPayload;
+  private Long payloadSimHash;
+  private long[] payloadFingerprints;
   private DateTime messageDateTime;
   private TwitchUser twitchUser;
 
@@ -28,23 +31,69 @@ public class TwitchMessage extends InboundTwitchMessage {
   }
 
   /**
-   * Simplifies MESSAGE for easier processing
-   *
-   * @param originalMessage payload of MESSAGE to simplify
-   * @return simplified MESSAGE
+   * Returns the MESSAGE payload with no spaces or invisible characters in lowercase
    */
-  private static String simplifyMessage(String originalMessage) {
-    return originalMessage.replaceAll(" ", "").toLowerCase();
+  public String getSimpleMessagePayload() {
+    return getFeatures().getSimplePayload();
   }
 
   /**
-   * Returns the MESSAGE payload with no spaces in lowercase
+   * Returns the simple MESSAGE payload with accents, look-alike letters and leetspeak folded to
+   * plain ASCII. Used to catch obfuscated repeats.
    */
-  public String getSimpleMessagePayload() {
-    if (simpleMessagePayload == null) {
-      simpleMessagePayload = simplifyMessage(super.getMessage());
+  public String getNormalisedMessagePayload() {
+    return getFeatures().getNormalisedPayload();
+  }
+
+  /**
+   * Returns the MESSAGE payload folded like the normalised payload, but with spaces kept as word
+   * separators. Used to catch obfuscated blacklisted words without matching across words.
+   */
+  /**
+   * @return the message folded like {@link #getWordFoldedMessagePayload()}, e.g. for a payload read
+   * back from the message history.
+   */
+  public static String foldWords(String message) {
+    return MessageNormaliser.foldWords(message);
+  }
+
+  public String getWordFoldedMessagePayload() {
+    if (wordFoldedPayload == null) {
+      wordFoldedPayload = MessageNormaliser.foldWords(super.getMessage());
+    }
+    return wordFoldedPayload;
+  }
+
+  /**
+   * Returns the payload features, extracted in one pass over the MESSAGE the first time any of
+   * them is needed.
+   */
+  public MessageFeatures getFeatures() {
+    if (messageFeatures == null) {
+      messageFeatures = MessageNormaliser.extractFeatures(super.getMessage());
+    }
+    return messageFeatures;
+  }
+
+  /**
+   * Returns the SimHash of the normalised MESSAGE payload. Near duplicate messages differ in few bits.
+   */
+  long getPayloadSimHash() {
+    if (payloadSimHash == null) {
+      payloadSimHash = SimHash.of(getNormalisedMessagePayload());
     }
-    return simpleMessagePayload;
+    return payloadSimHash;
+  }
+
+  /**
+   * Returns the winnowed fingerprints of the normalised MESSAGE payload. Messages sharing a long
+   * substring share fingerprints.
+   */
+  long[] getPayloadFingerprints() {
+    if (payloadFingerprints == null) {
+      payloadFingerprints = Winnowing.fingerprints(getNormalisedMessagePayload());
+    }
+    return payloadFingerprints;
   }
 
   @Override
@@ -76,24 +125,30 @@ public class TwitchMessage extends InboundTwitchMessage {
   }
 
   /**
-   * True if the given payload is the same as the MESSAGE once both are simplified.
+   * True if the given payload is the same as the MESSAGE once both are normalised.
    *
    * @param messagePayload payload to compare to this MESSAGE.
    * @return true if exactly the same.
    */
   public boolean equalsSimplePayload(String messagePayload) {
-    String simpleMessagePayload = simplifyMessage(messagePayload);
-    return getSimpleMessagePayload().equals(simpleMessagePayload);
+    return getNormalisedMessagePayload().equals(MessageNormaliser.normalise(messagePayload));
+  }
+
+  /**
+   * True if both messages are the same once normalised. Uses the cached payloads of both.
+   */
+  public boolean equalsSimplePayload(TwitchMessage twitchMessage) {
+    return getNormalisedMessagePayload().equals(twitchMessage.getNormalisedMessagePayload());
   }
 
   /**
-   * True if the MESSAGE contains the simplified given string.
+   * True if the MESSAGE contains the given string once both are normalised.
    *
-   * @param stringToMatch String to match. Spaces and case removed
+   * @param stringToMatch String to match. Spaces, case and obfuscation removed
    * @return true if match.
    */
   public boolean containsString(String stringToMatch) {
-    return getSimpleMessagePayload().contains(simplifyMessage(stringToMatch));
+    return getNormalisedMessagePayload().contains(MessageNormaliser.normalise(stringToMatch));
   }
 
   @Override
@@ -0,0 +1,189 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.Optional;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Created by Dominic Hauton on 13/03/2016.
+ * <p>
+ * Preallocated ring of the most recent messages with a single writer and lock-free readers.
+ * Readers scan a range bounded by message sequence numbers without locking. Snapshots copy the
+ * range, and counts scan it in place. The ring holds twice the window so the writer must lap a
+ * whole window before a reader reads an overwritten slot, in which case the read is retried.
+ * Arrival times are kept alongside the messages, never decreasing, so time ranges are found by
+ * binary search.
+ */
+class TwitchMessageRingBuffer {
+  private final int bufferLength;
+  private final AtomicReferenceArray<TwitchMessage> slots;
+  private final AtomicLongArray arrivalMillis;
+  private final int mask;
+  // Sequence of the next message written. Claimed before the slot is written.
+  private final AtomicLong claimedSequence;
+  // Sequence of the next message readable. Published after the slot is written.
+  private final AtomicLong publishedSequence;
+
+  TwitchMessageRingBuffer(int bufferLength) {
+    this.bufferLength = bufferLength;
+    int slotCount = Integer.highestOneBit(Math.max(1, bufferLength) * 2 - 1) << 1;
+    slots = new AtomicReferenceArray<>(slotCount);
+    arrivalMillis = new AtomicLongArray(slotCount);
+    mask = slotCount - 1;
+    claimedSequence = new AtomicLong();
+    publishedSequence = new AtomicLong();
+  }
+
+  /**
+   * @return Copy of the most recent messages, oldest first. Does not lock.
+   */
+  ImmutableTwitchMessageList getMessageSnapshot() {
+    while (true) {
+      try {
+        return new ImmutableTwitchMessageList(getWindow());
+      } catch (ConcurrentModificationException e) {
+        // Lapped while copying. Retried from the newer messages.
+      }
+    }
+  }
+
+  /**
+   * @param fromMillis earliest arrival time included.
+   * @param toMillis   arrival time at which the range ends, exclusive.
+   * @return Copy of the recent messages that arrived in the range, oldest first. Found by binary
+   * search. Does not lock.
+   */
+  ImmutableTwitchMessageList getMessageSnapshot(long fromMillis, long toMillis) {
+    while (true) {
+      long endSequence = publishedSequence.get();
+      long startSequence = Math.max(0L, endSequence - bufferLength);
+      long rangeStart = firstArrivedAtOrAfter(startSequence, endSequence, fromMillis);
+      long rangeEnd = firstArrivedAtOrAfter(rangeStart, endSequence, toMillis);
+      try {
+        if (claimedSequence.get() - slots.length() > startSequence) {
+          throw new ConcurrentModificationException("Messages were overwritten while searching.");
+        }
+        return new ImmutableTwitchMessageList(new View(rangeStart, Math.max(rangeStart, rangeEnd)));
+      } catch (ConcurrentModificationException e) {
+        // Lapped while searching or copying. Retried from the newer messages.
+      }
+    }
+  }
+
+  /**
+   * Counts in place, without copying the messages.
+   *
+   * @return number of the most recent messages with the normalised payload.
+   */
+  int countNormalisedPayload(String normalisedPayload) {
+    while (true) {
+      try {
+        int count = 0;
+        for (TwitchMessage twitchMessage : getWindow()) {
+          count += twitchMessage.getNormalisedMessagePayload().equals(normalisedPayload) ? 1 : 0;
+        }
+        return count;
+      } catch (ConcurrentModificationException e) {
+        // Lapped while counting. Retried from the newer messages.
+      }
+    }
+  }
+
+  private View getWindow() {
+    long endSequence = publishedSequence.get();
+    return new View(Math.max(0L, endSequence - bufferLength), endSequence);
+  }
+
+  /**
+   * @return first sequence in [startSequence, endSequence) that arrived at or after the time, or
+   * endSequence if none did.
+   */
+  private long firstArrivedAtOrAfter(long startSequence, long endSequence, long millis) {
+    long low = startSequence;
+    long high = endSequence;
+    while (low < high) {
+      long middle = (low + high) >>> 1;
+      if (arrivalMillis.get(slot(middle)) < millis) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Gets an optional containing the most recent message.
+   */
+  public Optional<TwitchMessage> getMostRecentMessage() {
+    long endSequence = publishedSequence.get();
+    return endSequence == 0L || bufferLength == 0
+        ? Optional.empty()
+        : Optional.of(read(endSequence - 1));
+  }
+
+  /**
+   * Adds the message, evicting the oldest once full. Only one thread may write at a time.
+   *
+   * @return true once the message is published.
+   */
+  public boolean addMessage(TwitchMessage message) {
+    long sequence = publishedSequence.get();
+    claimedSequence.lazySet(sequence + 1);
+    // Clamped so arrival times never decrease, even if the clock or the message timestamps do.
+    long messageMillis = message.getMessageDateTime().getMillis();
+    arrivalMillis.lazySet(slot(sequence), sequence == 0L
+        ? messageMillis
+        : Math.max(messageMillis, arrivalMillis.get(slot(sequence - 1))));
+    // Release store, so readers that see the message also see the claim and arrival time.
+    slots.lazySet(slot(sequence), message);
+    publishedSequence.lazySet(sequence + 1);
+    return true;
+  }
+
+  /**
+   * @throws ConcurrentModificationException if the writer has overwritten the message.
+   */
+  private TwitchMessage read(long sequence) {
+    TwitchMessage twitchMessage = slots.get(slot(sequence));
+    if (claimedSequence.get() - slots.length() > sequence) {
+      throw new ConcurrentModificationException("Message " + sequence + " was overwritten while reading.");
+    }
+    return twitchMessage;
+  }
+
+  private int slot(long sequence) {
+    return (int) sequence & mask;
+  }
+
+  /**
+   * Messages with sequence numbers in [startSequence, endSequence). Reads throw
+   * ConcurrentModificationException once the writer laps them, so views never leave this class.
+   */
+  private final class View extends AbstractList<TwitchMessage> implements RandomAccess {
+    private final long startSequence;
+    private final long endSequence;
+
+    private View(long startSequence, long endSequence) {
+      this.startSequence = startSequence;
+      this.endSequence = endSequence;
+    }
+
+    @Override
+    public TwitchMessage get(int index) {
+      if (index < 0 || index >= size()) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+      }
+      return read(startSequence + index);
+    }
+
+    @Override
+    public int size() {
+      return (int) (endSequence - startSequence);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+/**
+ * Recent messages and message rate of a single user.
+ */
+public class UserMessageHistory {
+  private final TwitchMessageRingBuffer messageRingBuffer;
+  private final MessageRateTracker messageRateTracker;
+
+  UserMessageHistory(int queueSize) {
+    messageRingBuffer = new TwitchMessageRingBuffer(queueSize);
+    messageRateTracker = new MessageRateTracker(queueSize);
+  }
+
+  /**
+   * Only one thread may add messages at a time.
+   */
+  boolean addMessage(TwitchMessage twitchMessage) {
+    messageRateTracker.record(twitchMessage.getMessageDateTime().getMillis());
+    return messageRingBuffer.addMessage(twitchMessage);
+  }
+
+  /**
+   * @return Copy of the recent messages, oldest first.
+   */
+  public ImmutableTwitchMessageList getMessageSnapshot() {
+    return messageRingBuffer.getMessageSnapshot();
+  }
+
+  ImmutableTwitchMessageList getMessageSnapshot(long fromMillis, long toMillis) {
+    return messageRingBuffer.getMessageSnapshot(fromMillis, toMillis);
+  }
+
+  /**
+   * @return number of the recent messages with the same normalised payload. Does not copy.
+   */
+  public int countNormalisedPayload(TwitchMessage twitchMessage) {
+    return messageRingBuffer.countNormalisedPayload(twitchMessage.getNormalisedMessagePayload());
+  }
+
+  public double getMessagesPerSecond() {
+    return messageRateTracker.getMessagesPerSecond();
+  }
+}
@@ -0,0 +1,78 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import java.util.Arrays;
+
+/**
+ * Winnowed fingerprints of a normalised payload. Every 10 character substring is rolling hashed and
+ * the smallest hash of each run of 6 consecutive hashes is kept. Payloads sharing a substring of at
+ * least 15 characters are guaranteed to share a fingerprint, wherever it sits in the payload.
+ */
+final class Winnowing {
+  static final int KGRAM_LENGTH = 10;
+  static final int WINDOW_SIZE = 6;
+  private static final long BASE = 0x100000001B3L;
+  private static final long BASE_POWER;
+
+  static {
+    long basePower = 1L;
+    for (int i = 1; i < KGRAM_LENGTH; i++) {
+      basePower *= BASE;
+    }
+    BASE_POWER = basePower;
+  }
+
+  private Winnowing() {
+  }
+
+  /**
+   * @return fingerprints in payload order, each selected k-gram once. Empty if the payload is
+   * shorter than a k-gram. O(length).
+   */
+  static long[] fingerprints(CharSequence normalisedPayload) {
+    int kgramCount = normalisedPayload.length() - KGRAM_LENGTH + 1;
+    if (kgramCount <= 0) {
+      return new long[0];
+    }
+    long[] kgramHashes = new long[kgramCount];
+    long rollingHash = 0L;
+    for (int i = 0; i < normalisedPayload.length(); i++) {
+      if (i >= KGRAM_LENGTH) {
+        rollingHash -= normalisedPayload.charAt(i - KGRAM_LENGTH) * BASE_POWER;
+      }
+      rollingHash = rollingHash * BASE + normalisedPayload.charAt(i);
+      if (i >= KGRAM_LENGTH - 1) {
+        // The polynomial hash has weak low bits, so mix before comparing.
+        kgramHashes[i - KGRAM_LENGTH + 1] = SimHash.mix(rollingHash);
+      }
+    }
+    return winnow(kgramHashes);
+  }
+
+  /**
+   * Keeps the rightmost minimum of each window, using a deque of candidate positions whose hashes
+   * increase from head to tail.
+   */
+  private static long[] winnow(long[] kgramHashes) {
+    int windowSize = Math.min(WINDOW_SIZE, kgramHashes.length);
+    long[] fingerprints = new long[kgramHashes.length];
+    int fingerprintCount = 0;
+    int[] candidates = new int[kgramHashes.length];
+    int head = 0;
+    int tail = 0;
+    int lastSelected = -1;
+    for (int i = 0; i < kgramHashes.length; i++) {
+      while (tail > head && kgramHashes[candidates[tail - 1]] >= kgramHashes[i]) {
+        tail--;
+      }
+      candidates[tail++] = i;
+      if (candidates[head] <= i - windowSize) {
+        head++;
+      }
+      if (i >= windowSize - 1 && candidates[head] != lastSelected) {
+        lastSelected = candidates[head];
+        fingerprints[fingerprintCount++] = kgramHashes[lastSelected];
+      }
+    }
+    return Arrays.copyOf(fingerprints, fingerprintCount);
+  }
+}
@@ -1,11 +1,12 @@
 package com.domhauton.wanbot.bot.channel.permissions;
 
 import com.domhauton.wanbot.bot.channel.TwitchUser;
+import com.domhauton.wanbot.bot.channel.UserState;
+import com.domhauton.wanbot.bot.channel.UserStateTable;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Dominic Hauton on 12/03/2016.
@@ -14,10 +15,17 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class PermissionsManager {
   private static final Logger log = LogManager.getLogger();
-  private ConcurrentHashMap<TwitchUser, UserPermission> userHashMap;
+  private final UserStateTable userStateTable;
 
   public PermissionsManager() {
-    userHashMap = new ConcurrentHashMap<>();
+    this(new UserStateTable());
+  }
+
+  /**
+   * @param userStateTable shared per-user state the permissions are stored in.
+   */
+  public PermissionsManager(UserStateTable userStateTable) {
+    this.userStateTable = userStateTable;
   }
 
   /**
@@ -28,7 +36,8 @@ public class PermissionsManager {
    */
   public UserPermission getUser(TwitchUser user) throws PermissionException {
     log.debug("Retrieving permissions for user {} from Permissions Manager.", user::getUsername);
-    UserPermission permission = userHashMap.get(user);
+    UserState userState = userStateTable.find(user.getUsername());
+    UserPermission permission = userState == null ? null : userState.getPermission();
     if (Objects.nonNull(permission)) {
       return permission;
     } else {
@@ -42,6 +51,6 @@ public class PermissionsManager {
    */
   public void changeUserPermission(TwitchUser user, UserPermission userPermission) {
     log.info("Changing permission of user {} to {}", user::getUsername, userPermission::toString);
-    userHashMap.put(user, userPermission);
+    userStateTable.getOrCreate(user).setPermission(userPermission);
   }
 }
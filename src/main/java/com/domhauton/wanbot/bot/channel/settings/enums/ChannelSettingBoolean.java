@@ -0,0 +1,25 @@
+package com.domhauton.wanbot.bot.channel.settings.enums;
+
+/**
+ * Stores a list of possible Boolean channel settings.
+ */
+public enum ChannelSettingBoolean implements IChannelSetting<Boolean> {
+  // Off until a channel opts in. Until then timeout verdicts are only logged.
+  MODERATION_TIMEOUTS(false);
+
+  private Boolean defaultValue;
+
+  ChannelSettingBoolean(Boolean defaultValue) {
+    this.defaultValue = defaultValue;
+  }
+
+  @Override
+  public Boolean getDefault() {
+    return defaultValue;
+  }
+
+  @Override
+  public Class<Boolean> getGenericInterfaceType() {
+    return Boolean.class;
+  }
+}
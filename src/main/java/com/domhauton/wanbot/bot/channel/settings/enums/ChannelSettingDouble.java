@@ -6,7 +6,10 @@ package com.domhauton.wanbot.bot.channel.settings.enums;
  * Double
  */
 public enum ChannelSettingDouble implements IChannelSetting<Double> {
-  MAX_MESSAGE_RATE(50d);
+  MAX_MESSAGE_RATE(50d),
+  COPYPASTA_SHARE(0.5d),
+  USER_MESSAGE_RATE(2.5d),
+  MIN_LEGAL_CHAR_RATIO(0.1d);
 
   private Double defaultValue;
 
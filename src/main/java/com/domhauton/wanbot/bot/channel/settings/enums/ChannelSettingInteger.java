@@ -7,7 +7,17 @@ package com.domhauton.wanbot.bot.channel.settings.enums;
  */
 public enum ChannelSettingInteger implements IChannelSetting<Integer> {
   CHANNEL_RETROSPECTIVE_LOOKBACK(50),
-  LINK_REPEAT_COUNT(5);
+  LINK_REPEAT_COUNT(5),
+  NEAR_DUPLICATE_DISTANCE(7),
+  NEAR_DUPLICATE_COUNT(4),
+  COPYPASTA_USER_COUNT(5),
+  CHANNEL_REPETITION_COUNT(4),
+  USER_REPETITION_COUNT(2),
+  SYMBOL_CHECK_MIN_LENGTH(6),
+  USER_MESSAGE_BURST(5),
+  MODERATION_BUDGET_MICROS(2_000),
+  REGEX_BUDGET_STEPS(1_000_000),
+  REGEX_BUDGET_MILLIS(20);
 
   private Integer defaultValue;
 
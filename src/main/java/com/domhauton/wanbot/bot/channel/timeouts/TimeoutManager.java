@@ -1,11 +1,11 @@
 package com.domhauton.wanbot.bot.channel.timeouts;
 
+import com.domhauton.wanbot.bot.channel.UserState;
+import com.domhauton.wanbot.bot.channel.UserStateTable;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joda.time.Duration;
 
-import java.util.HashMap;
-
 /**
  * Created by Dominic Hauton on 15/04/2016.
  *
@@ -14,14 +14,22 @@ import java.util.HashMap;
 public class TimeoutManager {
 
   private static final Logger log = LogManager.getLogger();
-  private HashMap<String, Duration> userTimeoutHistory;
+  private final UserStateTable userStateTable;
 
   public TimeoutManager() {
-    userTimeoutHistory = new HashMap<>();
+    this(new UserStateTable());
+  }
+
+  /**
+   * @param userStateTable shared per-user state the timeout history is stored in.
+   */
+  public TimeoutManager(UserStateTable userStateTable) {
+    this.userStateTable = userStateTable;
   }
 
   public Duration getUserTimeout(String twitchUser) {
-    Duration userTimeoutDuration = userTimeoutHistory.getOrDefault(twitchUser, Duration.ZERO);
+    UserState userState = userStateTable.find(twitchUser);
+    Duration userTimeoutDuration = userState == null ? Duration.ZERO : userState.getTimeout();
     log.debug("Retrieving timeout for user {} from TimeoutManager. Current: {}", twitchUser::toString,
         userTimeoutDuration::toString);
     return userTimeoutDuration;
@@ -39,7 +47,7 @@ public class TimeoutManager {
     Duration newTimeout = Duration.standardSeconds(newTimeoutSeconds);
     log.info("Adding user Timeout for {}. Previous was {} therefore new is {}", twitchUser::toString,
         previousTimeout::toString, newTimeout::toString);
-    userTimeoutHistory.put(twitchUser, newTimeout);
+    userStateTable.getOrCreate(twitchUser).recordTimeout(newTimeout);
     return newTimeout;
   }
 }
@@ -0,0 +1,28 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Times out messages matching the channel blacklist. The blacklist is a compiled automaton behind
+ * a verdict cache, so the rule is cheap and runs before anything a raid or a spent budget may skip.
+ */
+class BlacklistRule implements ModerationRule {
+
+  @Override
+  public int getCost() {
+    return 2;
+  }
+
+  @Override
+  public ImmutableSet<ModerationAction> getActions() {
+    return ImmutableSet.of(ModerationAction.TIMEOUT);
+  }
+
+  @Override
+  public ModerationVerdict evaluate(ModerationContext moderationContext) {
+    return moderationContext.getChannelManager().isMessageBlacklisted(moderationContext.getTwitchMessage())
+        ? ModerationVerdict.timeout(TimeoutReason.BLACKLISTED_WORD)
+        : ModerationVerdict.NONE;
+  }
+}
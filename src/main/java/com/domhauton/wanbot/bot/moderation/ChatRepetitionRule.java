@@ -0,0 +1,40 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingInteger;
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Times out messages already posted in the channel recently, once normalised.
+ */
+class ChatRepetitionRule implements ModerationRule {
+  private final ImmutableSet<String> exemptMessages;
+
+  /**
+   * @param exemptMessages messages anyone may repeat, e.g. bot commands.
+   */
+  ChatRepetitionRule(ImmutableSet<String> exemptMessages) {
+    this.exemptMessages = exemptMessages;
+  }
+
+  @Override
+  public int getCost() {
+    return 3;
+  }
+
+  @Override
+  public ImmutableSet<ModerationAction> getActions() {
+    return ImmutableSet.of(ModerationAction.TIMEOUT);
+  }
+
+  @Override
+  public ModerationVerdict evaluate(ModerationContext moderationContext) {
+    if (exemptMessages.contains(moderationContext.getTwitchMessage().getMessage())) {
+      return ModerationVerdict.NONE;
+    }
+    return moderationContext.getChannelManager().getChannelRepetitionCount(moderationContext.getTwitchMessage())
+        >= moderationContext.getSetting(ChannelSettingInteger.CHANNEL_REPETITION_COUNT)
+        ? ModerationVerdict.timeout(TimeoutReason.CHAT_REPETITION)
+        : ModerationVerdict.NONE;
+  }
+}
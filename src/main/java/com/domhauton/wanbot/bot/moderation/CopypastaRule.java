@@ -0,0 +1,29 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingDouble;
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Times out messages copying long blocks many other users have just posted.
+ */
+class CopypastaRule implements ModerationRule {
+
+  @Override
+  public int getCost() {
+    return 6;
+  }
+
+  @Override
+  public ImmutableSet<ModerationAction> getActions() {
+    return ImmutableSet.of(ModerationAction.TIMEOUT);
+  }
+
+  @Override
+  public ModerationVerdict evaluate(ModerationContext moderationContext) {
+    return moderationContext.getChannelManager().getChannelCopypastaShare(moderationContext.getTwitchMessage())
+        >= moderationContext.getSetting(ChannelSettingDouble.COPYPASTA_SHARE)
+        ? ModerationVerdict.timeout(TimeoutReason.CHAT_REPETITION)
+        : ModerationVerdict.NONE;
+  }
+}
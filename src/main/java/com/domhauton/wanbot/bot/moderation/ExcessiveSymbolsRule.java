@@ -0,0 +1,32 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.message.MessageFeatures;
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingDouble;
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingInteger;
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Times out ASCII art, i.e. messages mostly made of characters outside normal chat.
+ */
+class ExcessiveSymbolsRule implements ModerationRule {
+
+  @Override
+  public int getCost() {
+    return 2;
+  }
+
+  @Override
+  public ImmutableSet<ModerationAction> getActions() {
+    return ImmutableSet.of(ModerationAction.TIMEOUT);
+  }
+
+  @Override
+  public ModerationVerdict evaluate(ModerationContext moderationContext) {
+    MessageFeatures messageFeatures = moderationContext.getTwitchMessage().getFeatures();
+    return messageFeatures.getLength() >= moderationContext.getSetting(ChannelSettingInteger.SYMBOL_CHECK_MIN_LENGTH)
+        && messageFeatures.getLegalCharRatio() < moderationContext.getSetting(ChannelSettingDouble.MIN_LEGAL_CHAR_RATIO)
+        ? ModerationVerdict.timeout(TimeoutReason.EXCESSIVE_SYMBOLS)
+        : ModerationVerdict.NONE;
+  }
+}
@@ -0,0 +1,37 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.UserState;
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.collect.ImmutableSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Times out users posting faster than the channel allows, by the sender's message token bucket.
+ * Each evaluation takes a token, so the rule must only run once per message. The sender's measured
+ * message rate is logged with each timeout, read in O(1) from their rate tracker.
+ */
+class MessageRateRule implements ModerationRule {
+  private static final Logger log = LogManager.getLogger();
+
+  @Override
+  public int getCost() {
+    return 2;
+  }
+
+  @Override
+  public ImmutableSet<ModerationAction> getActions() {
+    return ImmutableSet.of(ModerationAction.TIMEOUT);
+  }
+
+  @Override
+  public ModerationVerdict evaluate(ModerationContext moderationContext) {
+    UserState userState = moderationContext.getUserState();
+    if (moderationContext.getChannelManager().tryAcquireMessageToken(moderationContext.getTwitchMessage(), userState)) {
+      return ModerationVerdict.NONE;
+    }
+    log.info("{} is out of message tokens. Posting at {} messages per second.", userState::getUsername,
+        userState::getMessagesPerSecond);
+    return ModerationVerdict.timeout(TimeoutReason.MESSAGE_RATE);
+  }
+}
@@ -0,0 +1,48 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.UserState;
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingInteger;
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Times out users repeating their own recent messages. Users without a message history, e.g. new
+ * accounts turned away by the history's admission policy, are checked against the payload hashes
+ * kept for them instead.
+ */
+class MessageRepetitionRule implements ModerationRule {
+  private final ImmutableSet<String> exemptMessages;
+
+  /**
+   * @param exemptMessages messages anyone may repeat, e.g. bot commands.
+   */
+  MessageRepetitionRule(ImmutableSet<String> exemptMessages) {
+    this.exemptMessages = exemptMessages;
+  }
+
+  @Override
+  public int getCost() {
+    return 4;
+  }
+
+  @Override
+  public ImmutableSet<ModerationAction> getActions() {
+    return ImmutableSet.of(ModerationAction.TIMEOUT);
+  }
+
+  @Override
+  public ModerationVerdict evaluate(ModerationContext moderationContext) {
+    TwitchMessage twitchMessage = moderationContext.getTwitchMessage();
+    if (exemptMessages.contains(twitchMessage.getMessage())) {
+      return ModerationVerdict.NONE;
+    }
+    UserState userState = moderationContext.getUserState();
+    long repeatCount = userState.getMessageHistory() == null
+        ? userState.countPayloadHash(twitchMessage.getFeatures().getPayloadHash())
+        : userState.countRecentPayload(twitchMessage);
+    return repeatCount >= moderationContext.getSetting(ChannelSettingInteger.USER_REPETITION_COUNT)
+        ? ModerationVerdict.timeout(TimeoutReason.MESSAGE_REPETITION)
+        : ModerationVerdict.NONE;
+  }
+}
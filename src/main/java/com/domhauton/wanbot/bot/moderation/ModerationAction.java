@@ -0,0 +1,9 @@
+package com.domhauton.wanbot.bot.moderation;
+
+/**
+ * Definitive outcomes a moderation rule can reach for a message.
+ */
+public enum ModerationAction {
+  PERMIT,
+  TIMEOUT
+}
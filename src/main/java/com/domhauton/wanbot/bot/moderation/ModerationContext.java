@@ -0,0 +1,41 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.ChannelManager;
+import com.domhauton.wanbot.bot.channel.UserState;
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import com.domhauton.wanbot.bot.channel.settings.enums.IChannelSetting;
+
+/**
+ * Everything a moderation rule may look at for one message. The sender's state is looked up once
+ * and shared by every rule.
+ */
+public final class ModerationContext {
+  private final TwitchMessage twitchMessage;
+  private final UserState userState;
+  private final ChannelManager channelManager;
+
+  public ModerationContext(TwitchMessage twitchMessage, ChannelManager channelManager) {
+    this.twitchMessage = twitchMessage;
+    this.channelManager = channelManager;
+    userState = channelManager.getUserState(twitchMessage.getTwitchUser());
+  }
+
+  public TwitchMessage getTwitchMessage() {
+    return twitchMessage;
+  }
+
+  public UserState getUserState() {
+    return userState;
+  }
+
+  public ChannelManager getChannelManager() {
+    return channelManager;
+  }
+
+  /**
+   * @return the channel's value of the setting from the channel setting DAO, or its default.
+   */
+  public <T> T getSetting(IChannelSetting<T> channelSetting) {
+    return channelManager.getChannelSetting(channelSetting);
+  }
+}
@@ -0,0 +1,126 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingInteger;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs moderation rules over a message, cheapest first, and stops at the first definitive verdict,
+ * so a message earns at most one timeout. If the channel's time budget runs out the remaining,
+ * more expensive, rules are skipped and the message is let through.
+ */
+public class ModerationEngine {
+  private static final Logger log = LogManager.getLogger();
+
+  private final ImmutableList<ModerationRule> rules;
+  private final ImmutableMap<String, ModerationRuleTiming> ruleTimings;
+  private final LongAdder budgetOverruns;
+  private final LongSupplier nanoClock;
+
+  /**
+   * @param rules rules to run. Rules of equal cost keep their given order.
+   */
+  public ModerationEngine(Collection<? extends ModerationRule> rules) {
+    this(rules, System::nanoTime);
+  }
+
+  ModerationEngine(Collection<? extends ModerationRule> rules, LongSupplier nanoClock) {
+    this.rules = rules.stream()
+        .sorted(Comparator.comparingInt(ModerationRule::getCost))
+        .collect(ImmutableList.toImmutableList());
+    ImmutableMap.Builder<String, ModerationRuleTiming> ruleTimingsBuilder = ImmutableMap.builder();
+    this.rules.forEach(rule -> ruleTimingsBuilder.put(rule.getName(), new ModerationRuleTiming()));
+    ruleTimings = ruleTimingsBuilder.build();
+    budgetOverruns = new LongAdder();
+    this.nanoClock = nanoClock;
+    log.info("Created ModerationEngine. Rules: {}", () -> this.rules.stream()
+        .map(ModerationRule::getName)
+        .collect(ImmutableList.toImmutableList()));
+  }
+
+  /**
+   * @return the first definitive verdict, or NONE if no rule reached one within the budget.
+   */
+  public ModerationVerdict moderate(ModerationContext moderationContext) {
+    return moderate(moderationContext, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Only runs the rules costing at most the given cost, e.g. to keep up with a raid.
+   *
+   * @return the first definitive verdict, or NONE if no rule reached one within the budget.
+   */
+  public ModerationVerdict moderate(ModerationContext moderationContext, int maxCost) {
+    long budgetNanos = TimeUnit.MICROSECONDS.toNanos(
+        moderationContext.getSetting(ChannelSettingInteger.MODERATION_BUDGET_MICROS));
+    long startNanos = nanoClock.getAsLong();
+    long ruleStartNanos = startNanos;
+    for (ModerationRule rule : rules) {
+      if (rule.getCost() > maxCost) {
+        break;
+      }
+      if (ruleStartNanos - startNanos > budgetNanos) {
+        budgetOverruns.increment();
+        log.debug("Moderation budget spent before {}. Message: {}", rule::getName,
+            moderationContext::getTwitchMessage);
+        return ModerationVerdict.NONE;
+      }
+      ModerationVerdict verdict = evaluate(rule, moderationContext);
+      long ruleEndNanos = nanoClock.getAsLong();
+      ruleTimings.get(rule.getName()).record(ruleEndNanos - ruleStartNanos, verdict.isDefinitive());
+      if (verdict.isDefinitive()) {
+        log.debug("{} reached {} for {}", rule::getName, verdict::toString, moderationContext::getTwitchMessage);
+        return verdict;
+      }
+      ruleStartNanos = ruleEndNanos;
+    }
+    return ModerationVerdict.NONE;
+  }
+
+  /**
+   * A failing rule, or one reaching an action it did not declare, is treated as having no opinion.
+   */
+  private ModerationVerdict evaluate(ModerationRule rule, ModerationContext moderationContext) {
+    ModerationVerdict verdict;
+    try {
+      verdict = rule.evaluate(moderationContext);
+    } catch (RuntimeException e) {
+      log.warn("Moderation rule {} failed. {}", rule.getName(), e.getMessage());
+      return ModerationVerdict.NONE;
+    }
+    if (verdict.isDefinitive() && !rule.getActions().contains(verdict.getAction())) {
+      log.warn("Moderation rule {} reached undeclared action {}. Ignoring.", rule.getName(), verdict.getAction());
+      return ModerationVerdict.NONE;
+    }
+    return verdict;
+  }
+
+  /**
+   * @return rules in evaluation order.
+   */
+  public ImmutableList<ModerationRule> getRules() {
+    return rules;
+  }
+
+  /**
+   * @return live timings of each rule, by rule name.
+   */
+  public ImmutableMap<String, ModerationRuleTiming> getRuleTimings() {
+    return ruleTimings;
+  }
+
+  /**
+   * @return number of messages whose later rules were skipped for running out of time.
+   */
+  public long getBudgetOverruns() {
+    return budgetOverruns.sum();
+  }
+}
@@ -0,0 +1,230 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Processes inbound messages on a fixed set of single threaded shards. Senders are hashed onto a
+ * shard, so each user's messages are handled one at a time and in arrival order, while different
+ * users are handled in parallel. Messages reach a shard through a lock-free queue and an idle
+ * shard parks until its next message. Degraded messages share the queue, so they are serialised
+ * with the sender's other messages, but are handed to the degraded consumer. Each shard only queues
+ * a bounded number of degraded messages. Past that they are dropped, so a sustained raid cannot
+ * grow the queues without limit.
+ */
+public class ModerationExecutor implements Consumer<InboundTwitchMessage>, Closeable {
+  private static final Logger log = LogManager.getLogger();
+  public static final int DEFAULT_MAX_DEGRADED_PER_SHARD = 1024;
+
+  private final Shard[] shards;
+  private final int maxDegradedPerShard;
+  private final AtomicLong droppedMessages;
+  private volatile boolean closed;
+
+  /**
+   * Uses a shard per available processor.
+   */
+  public ModerationExecutor(Consumer<InboundTwitchMessage> messageConsumer) {
+    this(messageConsumer, Runtime.getRuntime().availableProcessors());
+  }
+
+  public ModerationExecutor(Consumer<InboundTwitchMessage> messageConsumer, int shardCount) {
+    this(messageConsumer, messageConsumer, shardCount);
+  }
+
+  public ModerationExecutor(Consumer<InboundTwitchMessage> messageConsumer,
+                            Consumer<InboundTwitchMessage> degradedConsumer, int shardCount) {
+    this(messageConsumer, degradedConsumer, shardCount, DEFAULT_MAX_DEGRADED_PER_SHARD);
+  }
+
+  /**
+   * @param degradedConsumer    processes messages accepted through {@link #acceptDegraded}.
+   * @param maxDegradedPerShard degraded messages a shard queues before dropping more.
+   */
+  public ModerationExecutor(Consumer<InboundTwitchMessage> messageConsumer,
+                            Consumer<InboundTwitchMessage> degradedConsumer, int shardCount,
+                            int maxDegradedPerShard) {
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+    }
+    if (maxDegradedPerShard <= 0) {
+      throw new IllegalArgumentException("Max degraded per shard must be positive: " + maxDegradedPerShard);
+    }
+    this.maxDegradedPerShard = maxDegradedPerShard;
+    shards = new Shard[shardCount];
+    droppedMessages = new AtomicLong();
+    closed = false;
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard(messageConsumer, degradedConsumer, "moderation-shard-" + i);
+      shards[i].worker.start();
+    }
+    log.info("Created ModerationExecutor with {} shards", shardCount);
+  }
+
+  /**
+   * Queues the message on its sender's shard. Never blocks. Dropped once the executor is closed.
+   */
+  @Override
+  public void accept(InboundTwitchMessage inboundTwitchMessage) {
+    submit(inboundTwitchMessage, false);
+  }
+
+  /**
+   * Queues the message on its sender's shard for the degraded consumer, e.g. to only run cheap
+   * checks while moderation is behind. Never blocks. Dropped once the executor is closed, or if the
+   * shard already has its maximum of degraded messages queued.
+   */
+  public void acceptDegraded(InboundTwitchMessage inboundTwitchMessage) {
+    submit(inboundTwitchMessage, true);
+  }
+
+  private void submit(InboundTwitchMessage inboundTwitchMessage, boolean degraded) {
+    if (closed) {
+      droppedMessages.incrementAndGet();
+      log.warn("ModerationExecutor closed. Dropping message from {}", inboundTwitchMessage.getUsername());
+      return;
+    }
+    Shard shard = shards[shardFor(inboundTwitchMessage.getUsername())];
+    if (degraded && shard.queuedDegraded.incrementAndGet() > maxDegradedPerShard) {
+      shard.queuedDegraded.decrementAndGet();
+      droppedMessages.incrementAndGet();
+      log.debug("Degraded queue full. Dropping message from {}", inboundTwitchMessage.getUsername());
+      return;
+    }
+    shard.submit(new QueuedMessage(inboundTwitchMessage, degraded));
+  }
+
+  int shardFor(String username) {
+    int hash = username.hashCode();
+    // Spread the high bits, as usernames often differ only in their last characters.
+    hash ^= hash >>> 16;
+    return Math.floorMod(hash * 0x9E3779B9, shards.length);
+  }
+
+  int getShardCount() {
+    return shards.length;
+  }
+
+  /**
+   * @return messages dropped after closing or because a shard's degraded queue was full.
+   */
+  public long getDroppedMessages() {
+    return droppedMessages.get();
+  }
+
+  /**
+   * @return messages queued on or being processed by the shards.
+   */
+  public int getQueueDepth() {
+    int queueDepth = 0;
+    for (Shard shard : shards) {
+      queueDepth += shard.queuedMessages.get();
+    }
+    return queueDepth;
+  }
+
+  /**
+   * Stops accepting messages, then waits for every queued message to be processed. A message
+   * accepted while closing may be left unprocessed. When called from a shard, that shard is not
+   * waited for, as it finishes its queue once the call returns.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    for (Shard shard : shards) {
+      LockSupport.unpark(shard.worker);
+    }
+    for (Shard shard : shards) {
+      if (shard.worker == Thread.currentThread()) {
+        continue;
+      }
+      try {
+        shard.worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.warn("Interrupted while closing ModerationExecutor");
+        return;
+      }
+    }
+    log.info("Closed ModerationExecutor. Dropped messages: {}", droppedMessages.get());
+  }
+
+  private class Shard {
+    private final MpscQueue<QueuedMessage> queue;
+    private final AtomicInteger queuedMessages;
+    private final AtomicInteger queuedDegraded;
+    private final Consumer<InboundTwitchMessage> messageConsumer;
+    private final Consumer<InboundTwitchMessage> degradedConsumer;
+    private final Thread worker;
+    private volatile boolean parked;
+
+    Shard(Consumer<InboundTwitchMessage> messageConsumer, Consumer<InboundTwitchMessage> degradedConsumer,
+          String name) {
+      queue = new MpscQueue<>();
+      queuedMessages = new AtomicInteger();
+      queuedDegraded = new AtomicInteger();
+      this.messageConsumer = messageConsumer;
+      this.degradedConsumer = degradedConsumer;
+      worker = new Thread(this::run, name);
+      worker.setDaemon(true);
+      parked = false;
+    }
+
+    void submit(QueuedMessage queuedMessage) {
+      queuedMessages.incrementAndGet();
+      queue.offer(queuedMessage);
+      if (parked) {
+        LockSupport.unpark(worker);
+      }
+    }
+
+    private void run() {
+      while (true) {
+        QueuedMessage queuedMessage = queue.poll();
+        if (queuedMessage != null) {
+          process(queuedMessage);
+        } else if (closed) {
+          return;
+        } else {
+          // Parked is published before the queue is re-checked, so a submitter either sees it
+          // and unparks, or its message is seen here.
+          parked = true;
+          if (queue.isEmpty() && !closed) {
+            LockSupport.park(this);
+          }
+          parked = false;
+        }
+      }
+    }
+
+    private void process(QueuedMessage queuedMessage) {
+      try {
+        (queuedMessage.degraded ? degradedConsumer : messageConsumer).accept(queuedMessage.message);
+      } catch (RuntimeException e) {
+        log.error("Failed to process message from {}. {}", queuedMessage.message.getUsername(), e.getMessage());
+      } finally {
+        if (queuedMessage.degraded) {
+          queuedDegraded.decrementAndGet();
+        }
+        queuedMessages.decrementAndGet();
+      }
+    }
+  }
+
+  private static final class QueuedMessage {
+    private final InboundTwitchMessage message;
+    private final boolean degraded;
+
+    QueuedMessage(InboundTwitchMessage message, boolean degraded) {
+      this.message = message;
+      this.degraded = degraded;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A check run on every channel message by the moderation engine. Rules are run cheapest first
+ * until one reaches a definitive verdict, so a rule should only look at what it needs.
+ */
+public interface ModerationRule {
+
+  /**
+   * @return name the rule's timings are recorded under. Unique within an engine.
+   */
+  default String getName() {
+    return getClass().getSimpleName();
+  }
+
+  /**
+   * @return relative cost of evaluating the rule. Lower cost rules are evaluated first.
+   */
+  int getCost();
+
+  /**
+   * @return actions the rule's verdicts may carry. Verdicts with other actions are ignored.
+   */
+  ImmutableSet<ModerationAction> getActions();
+
+  /**
+   * @return a definitive verdict, or NONE to leave the message to later rules.
+   */
+  ModerationVerdict evaluate(ModerationContext moderationContext);
+}
@@ -0,0 +1,51 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free timing of one moderation rule. Updated on every evaluation.
+ */
+public class ModerationRuleTiming {
+  private final LongAdder evaluations;
+  private final LongAdder verdicts;
+  private final LongAdder totalNanos;
+  private final LongAccumulator maxNanos;
+
+  ModerationRuleTiming() {
+    evaluations = new LongAdder();
+    verdicts = new LongAdder();
+    totalNanos = new LongAdder();
+    maxNanos = new LongAccumulator(Math::max, 0L);
+  }
+
+  void record(long nanos, boolean definitive) {
+    long boundedNanos = Math.max(0L, nanos);
+    evaluations.increment();
+    totalNanos.add(boundedNanos);
+    maxNanos.accumulate(boundedNanos);
+    if (definitive) {
+      verdicts.increment();
+    }
+  }
+
+  public long getEvaluations() {
+    return evaluations.sum();
+  }
+
+  /**
+   * @return number of evaluations that reached a definitive verdict.
+   */
+  public long getVerdicts() {
+    return verdicts.sum();
+  }
+
+  public long getMeanNanos() {
+    long evaluationCount = evaluations.sum();
+    return evaluationCount == 0L ? 0L : totalNanos.sum() / evaluationCount;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+}
@@ -0,0 +1,31 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collection;
+
+/**
+ * The bot's built in moderation rules.
+ */
+public final class ModerationRules {
+
+  private ModerationRules() {
+  }
+
+  /**
+   * @param exemptMessages messages anyone may repeat, e.g. bot commands.
+   */
+  public static ImmutableList<ModerationRule> defaults(Collection<String> exemptMessages) {
+    ImmutableSet<String> exemptMessageSet = ImmutableSet.copyOf(exemptMessages);
+    return ImmutableList.of(
+        new PermittedUserRule(),
+        new BlacklistRule(),
+        new ExcessiveSymbolsRule(),
+        new MessageRateRule(),
+        new ChatRepetitionRule(exemptMessageSet),
+        new MessageRepetitionRule(exemptMessageSet),
+        new NearDuplicateRule(exemptMessageSet),
+        new CopypastaRule());
+  }
+}
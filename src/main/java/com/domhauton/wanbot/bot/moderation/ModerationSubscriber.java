@@ -0,0 +1,111 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
+import com.domhauton.wanbot.chat.listener.TwitchMessageSubscriber;
+import com.domhauton.wanbot.chat.listener.TwitchMessageSubscription;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+/**
+ * Feeds published messages into a ModerationExecutor, keeping a fixed number in flight. A message
+ * is only requested once an earlier one has been processed, so when moderation falls behind the
+ * backlog waits in the publisher, where its overflow policy applies. Overflow can be degraded
+ * through {@link #acceptDegraded}, which keeps it on the sender's shard.
+ */
+public class ModerationSubscriber implements TwitchMessageSubscriber, Closeable {
+  private static final Logger log = LogManager.getLogger();
+
+  private final ModerationExecutor moderationExecutor;
+  private final int maxInFlight;
+  private volatile TwitchMessageSubscription subscription;
+
+  public ModerationSubscriber(Consumer<InboundTwitchMessage> messageConsumer, int shardCount, int maxInFlight) {
+    this(messageConsumer, messageConsumer, shardCount, maxInFlight);
+  }
+
+  public ModerationSubscriber(Consumer<InboundTwitchMessage> messageConsumer,
+                              Consumer<InboundTwitchMessage> degradedConsumer, int shardCount, int maxInFlight) {
+    this(messageConsumer, degradedConsumer, shardCount, maxInFlight, ModerationExecutor.DEFAULT_MAX_DEGRADED_PER_SHARD);
+  }
+
+  /**
+   * @param degradedConsumer    processes messages passed to {@link #acceptDegraded}, on their shard.
+   * @param maxInFlight         messages queued on or being processed by the shards at once.
+   * @param maxDegradedPerShard degraded messages a shard queues before dropping more.
+   */
+  public ModerationSubscriber(Consumer<InboundTwitchMessage> messageConsumer,
+                              Consumer<InboundTwitchMessage> degradedConsumer, int shardCount, int maxInFlight,
+                              int maxDegradedPerShard) {
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException("Max in flight must be positive: " + maxInFlight);
+    }
+    this.maxInFlight = maxInFlight;
+    moderationExecutor = new ModerationExecutor(inboundTwitchMessage -> {
+      try {
+        messageConsumer.accept(inboundTwitchMessage);
+      } finally {
+        subscription.request(1L);
+      }
+    }, degradedConsumer, shardCount, maxDegradedPerShard);
+  }
+
+  @Override
+  public void onSubscribe(TwitchMessageSubscription subscription) {
+    this.subscription = subscription;
+    subscription.request(maxInFlight);
+  }
+
+  @Override
+  public void onNext(InboundTwitchMessage inboundTwitchMessage) {
+    moderationExecutor.accept(inboundTwitchMessage);
+  }
+
+  /**
+   * Queues an overflowing message for the degraded consumer. Degraded messages were never
+   * requested, so they do not count towards the messages in flight. Dropped if the sender's shard
+   * already has its maximum of degraded messages queued.
+   */
+  public void acceptDegraded(InboundTwitchMessage inboundTwitchMessage) {
+    moderationExecutor.acceptDegraded(inboundTwitchMessage);
+  }
+
+  /**
+   * @return messages queued on or being processed by the shards, degraded ones included.
+   */
+  @Override
+  public int getQueueDepth() {
+    return moderationExecutor.getQueueDepth();
+  }
+
+  /**
+   * @return degraded messages dropped because their shard was full, or messages dropped on close.
+   */
+  public long getDroppedMessages() {
+    return moderationExecutor.getDroppedMessages();
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    log.error("Moderation subscription failed. {}", throwable.getMessage());
+    moderationExecutor.close();
+  }
+
+  @Override
+  public void onComplete() {
+    moderationExecutor.close();
+  }
+
+  /**
+   * Stops requesting messages and processes those already received.
+   */
+  @Override
+  public void close() {
+    if (subscription != null) {
+      subscription.cancel();
+    }
+    moderationExecutor.close();
+  }
+}
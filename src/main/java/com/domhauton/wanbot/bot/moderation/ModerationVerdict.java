@@ -0,0 +1,66 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.base.Objects;
+
+/**
+ * Outcome of a moderation rule. NONE means the rule has no opinion and later rules are checked.
+ * Any other verdict is definitive and ends moderation of the message.
+ */
+public final class ModerationVerdict {
+  public static final ModerationVerdict NONE = new ModerationVerdict(null, null);
+  public static final ModerationVerdict PERMIT = new ModerationVerdict(ModerationAction.PERMIT, null);
+
+  private final ModerationAction action;
+  private final TimeoutReason timeoutReason;
+
+  private ModerationVerdict(ModerationAction action, TimeoutReason timeoutReason) {
+    this.action = action;
+    this.timeoutReason = timeoutReason;
+  }
+
+  public static ModerationVerdict timeout(TimeoutReason timeoutReason) {
+    return new ModerationVerdict(ModerationAction.TIMEOUT, timeoutReason);
+  }
+
+  public boolean isDefinitive() {
+    return action != null;
+  }
+
+  /**
+   * @return action to take, or null if the verdict is NONE.
+   */
+  public ModerationAction getAction() {
+    return action;
+  }
+
+  /**
+   * @return reason for a TIMEOUT, otherwise null.
+   */
+  public TimeoutReason getTimeoutReason() {
+    return timeoutReason;
+  }
+
+  @Override
+  public String toString() {
+    return isDefinitive() ? "ModerationVerdict{" + action + (timeoutReason == null ? "" : " " + timeoutReason) + "}"
+        : "ModerationVerdict{NONE}";
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ModerationVerdict)) {
+      return false;
+    }
+    ModerationVerdict that = (ModerationVerdict) o;
+    return action == that.action && timeoutReason == that.timeoutReason;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(action, timeoutReason);
+  }
+}
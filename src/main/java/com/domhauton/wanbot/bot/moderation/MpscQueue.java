@@ -0,0 +1,60 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free unbounded queue for many producers and a single consumer. Producers swap themselves in
+ * as the head with one atomic exchange, so offering never retries or blocks. Only one thread may
+ * poll.
+ */
+class MpscQueue<T> {
+  private final AtomicReference<Node<T>> head;
+  private Node<T> tail;
+
+  MpscQueue() {
+    Node<T> stub = new Node<>(null);
+    head = new AtomicReference<>(stub);
+    tail = stub;
+  }
+
+  /**
+   * Safe to call from any thread.
+   */
+  void offer(T item) {
+    Node<T> node = new Node<>(item);
+    Node<T> previous = head.getAndSet(node);
+    previous.next = node;
+  }
+
+  /**
+   * Consumer thread only.
+   *
+   * @return oldest item, or null if none is visible yet.
+   */
+  T poll() {
+    Node<T> next = tail.next;
+    if (next == null) {
+      return null;
+    }
+    T item = next.item;
+    next.item = null;
+    tail = next;
+    return item;
+  }
+
+  /**
+   * Consumer thread only.
+   */
+  boolean isEmpty() {
+    return tail.next == null;
+  }
+
+  private static class Node<T> {
+    private T item;
+    private volatile Node<T> next;
+
+    Node(T item) {
+      this.item = item;
+    }
+  }
+}
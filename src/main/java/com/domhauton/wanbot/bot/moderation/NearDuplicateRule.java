@@ -0,0 +1,40 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingInteger;
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Times out messages nearly repeating recent channel messages, e.g. with a character appended.
+ */
+class NearDuplicateRule implements ModerationRule {
+  private final ImmutableSet<String> exemptMessages;
+
+  /**
+   * @param exemptMessages messages anyone may repeat, e.g. bot commands.
+   */
+  NearDuplicateRule(ImmutableSet<String> exemptMessages) {
+    this.exemptMessages = exemptMessages;
+  }
+
+  @Override
+  public int getCost() {
+    return 5;
+  }
+
+  @Override
+  public ImmutableSet<ModerationAction> getActions() {
+    return ImmutableSet.of(ModerationAction.TIMEOUT);
+  }
+
+  @Override
+  public ModerationVerdict evaluate(ModerationContext moderationContext) {
+    if (exemptMessages.contains(moderationContext.getTwitchMessage().getMessage())) {
+      return ModerationVerdict.NONE;
+    }
+    return moderationContext.getChannelManager().getChannelNearDuplicateCount(moderationContext.getTwitchMessage())
+        >= moderationContext.getSetting(ChannelSettingInteger.NEAR_DUPLICATE_COUNT)
+        ? ModerationVerdict.timeout(TimeoutReason.CHAT_REPETITION)
+        : ModerationVerdict.NONE;
+  }
+}
@@ -0,0 +1,35 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.ChannelOperationException;
+import com.domhauton.wanbot.bot.channel.permissions.UserPermission;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Lets channel moderators and above say anything.
+ */
+class PermittedUserRule implements ModerationRule {
+  private static final UserPermission EXEMPT_PERMISSION = UserPermission.ChannelModerator;
+
+  @Override
+  public int getCost() {
+    return 1;
+  }
+
+  @Override
+  public ImmutableSet<ModerationAction> getActions() {
+    return ImmutableSet.of(ModerationAction.PERMIT);
+  }
+
+  @Override
+  public ModerationVerdict evaluate(ModerationContext moderationContext) {
+    try {
+      UserPermission permission = moderationContext.getChannelManager()
+          .getPermission(moderationContext.getTwitchMessage().getTwitchUser());
+      return permission.authorizedForActionOfPermissionLevel(EXEMPT_PERMISSION)
+          ? ModerationVerdict.PERMIT
+          : ModerationVerdict.NONE;
+    } catch (ChannelOperationException e) {
+      return ModerationVerdict.NONE;
+    }
+  }
+}
@@ -2,6 +2,7 @@ package com.domhauton.wanbot.bot.view.cli;
 
 import com.domhauton.wanbot.bot.channel.permissions.UserPermission;
 import com.domhauton.wanbot.bot.view.cli.executors.BlacklistModifier;
+import com.domhauton.wanbot.bot.view.cli.executors.BlacklistStatsReporter;
 import com.domhauton.wanbot.bot.view.cli.executors.CommandExecutor;
 import com.domhauton.wanbot.bot.view.cli.executors.LinkRepeater;
 import com.domhauton.wanbot.bot.view.cli.executors.UnknownCommandExecutor;
@@ -16,6 +17,7 @@ import java.util.stream.Stream;
  */
 enum BotCommandType {
   BLACKLIST(new BlacklistModifier(), UserPermission.BotModerator, new String[]{"blacklist", "bl"}),
+  BLACKLIST_STATS(new BlacklistStatsReporter(), UserPermission.BotModerator, new String[]{"blstats"}),
   LINK_REPEATER(new LinkRepeater(), UserPermission.BotAdmin, new String[]{"repeat", "rep", "r"}),
   UNKNOWN(new UnknownCommandExecutor(), UserPermission.ChannelModerator, new String[]{""});
 
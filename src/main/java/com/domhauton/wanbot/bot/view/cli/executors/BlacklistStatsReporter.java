@@ -0,0 +1,79 @@
+package com.domhauton.wanbot.bot.view.cli.executors;
+
+import com.domhauton.wanbot.bot.channel.ChannelManager;
+import com.domhauton.wanbot.bot.channel.blacklist.BlacklistEntry;
+import com.domhauton.wanbot.bot.channel.blacklist.BlacklistMetricsSnapshot;
+import com.domhauton.wanbot.bot.view.cli.BotCommandException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reports blacklist hit counts and latency. Flag d lists dead entries, flag s the slowest entries.
+ */
+public class BlacklistStatsReporter implements CommandExecutor {
+  private static final int LISTED_ENTRY_COUNT = 5;
+
+  @Override
+  public BotCommandResult executeCommand(
+      ImmutableSet<Character> flags,
+      ImmutableList<String> args,
+      ChannelManager channelManager) throws BotCommandException {
+    BlacklistMetricsSnapshot blacklistMetrics = channelManager.getBlacklistMetrics();
+    String report;
+    if (flags.contains('d')) {
+      report = reportDeadEntries(blacklistMetrics);
+    } else if (flags.contains('s')) {
+      report = reportSlowestEntries(blacklistMetrics);
+    } else {
+      report = reportSummary(blacklistMetrics);
+    }
+    return new BotCommandResult(Collections.emptyList(), report);
+  }
+
+  private static String reportSummary(BlacklistMetricsSnapshot blacklistMetrics) {
+    String topEntries = blacklistMetrics.getEntryHits().entrySet().stream()
+        .filter(entry -> entry.getValue() > 0L)
+        .limit(LISTED_ENTRY_COUNT)
+        .map(entry -> entry.getKey() + " (" + entry.getValue() + ")")
+        .collect(Collectors.joining(", "));
+    return String.format("Blacklist checked %d messages, blocked %d. Latency median %dus, p99 %dus, max %dus. "
+            + "Cache hit rate %.1f%%. Dead entries: %d. Quarantined: %d. Top entries: %s",
+        blacklistMetrics.getCheckCount(),
+        blacklistMetrics.getBlacklistedCount(),
+        toMicros(blacklistMetrics.getMedianNanos()),
+        toMicros(blacklistMetrics.getP99Nanos()),
+        toMicros(blacklistMetrics.getMaxNanos()),
+        blacklistMetrics.getVerdictCacheHitRate() * 100d,
+        blacklistMetrics.getDeadEntries().size(),
+        blacklistMetrics.getQuarantinedEntries().size(),
+        topEntries.isEmpty() ? "none" : topEntries);
+  }
+
+  private static String reportDeadEntries(BlacklistMetricsSnapshot blacklistMetrics) {
+    Collection<BlacklistEntry> deadEntries = blacklistMetrics.getDeadEntries();
+    return deadEntries.isEmpty()
+        ? "No dead blacklist entries."
+        : "Blacklist entries that never matched: " + deadEntries.stream()
+        .map(BlacklistEntry::toString)
+        .collect(Collectors.joining(", "));
+  }
+
+  private static String reportSlowestEntries(BlacklistMetricsSnapshot blacklistMetrics) {
+    Map<BlacklistEntry, Long> slowestEntries = blacklistMetrics.getSlowestEntries();
+    return slowestEntries.isEmpty()
+        ? "No slow blacklist entries."
+        : "Slowest blacklist entries: " + slowestEntries.entrySet().stream()
+        .map(entry -> entry.getKey() + " (" + toMicros(entry.getValue()) + "us)")
+        .collect(Collectors.joining(", "));
+  }
+
+  private static long toMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
@@ -0,0 +1,294 @@
+package com.domhauton.wanbot.chat.listener;
+
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the messages of a TwitchMessageSupplier to subscribers as they request them. Each
+ * subscription has its own bounded buffer and overflow policy, so a slow subscriber sheds load
+ * rather than growing without bound or slowing the connection.
+ * <p>
+ * Messages are delivered on whichever thread publishes a message or requests more, but only ever
+ * one thread at a time per subscription.
+ */
+public class BackpressuredMessagePublisher implements TwitchMessagePublisher, Closeable {
+  private static final Logger log = LogManager.getLogger();
+  static final int DEFAULT_CAPACITY = 1024;
+
+  private final TwitchMessageSupplier messageSupplier;
+  private final List<BufferedSubscription> subscriptions;
+  private final LongAdder droppedMessages;
+  private final LongAdder degradedMessages;
+  private volatile boolean completed;
+
+  public BackpressuredMessagePublisher(TwitchMessageSupplier messageSupplier) {
+    this.messageSupplier = messageSupplier;
+    subscriptions = new CopyOnWriteArrayList<>();
+    droppedMessages = new LongAdder();
+    degradedMessages = new LongAdder();
+    completed = false;
+    messageSupplier.addOutput(this::publish);
+  }
+
+  @Override
+  public void listen() {
+    messageSupplier.listen();
+  }
+
+  /**
+   * Receives every message, without backpressure. Slow outputs lose their oldest messages.
+   */
+  @Override
+  public void addOutput(Consumer<InboundTwitchMessage> twitchMessageConsumer) {
+    subscribe(new UnboundedSubscriber(twitchMessageConsumer), OverflowPolicy.dropOldest(DEFAULT_CAPACITY));
+  }
+
+  @Override
+  public void subscribe(TwitchMessageSubscriber subscriber, OverflowPolicy overflowPolicy) {
+    BufferedSubscription subscription = new BufferedSubscription(subscriber, overflowPolicy);
+    subscriptions.add(subscription);
+    subscriber.onSubscribe(subscription);
+    if (completed) {
+      subscription.drain();
+    }
+  }
+
+  void publish(InboundTwitchMessage inboundTwitchMessage) {
+    if (completed) {
+      log.warn("Publisher completed. Dropping message from {}", inboundTwitchMessage.getUsername());
+      droppedMessages.increment();
+      return;
+    }
+    for (BufferedSubscription subscription : subscriptions) {
+      subscription.offer(inboundTwitchMessage);
+    }
+  }
+
+  /**
+   * @return messages buffered across all subscriptions, waiting for demand, plus those the
+   * subscribers report as received but not yet processed.
+   */
+  public int getQueueDepth() {
+    return subscriptions.stream().mapToInt(BufferedSubscription::getQueueDepth).sum();
+  }
+
+  /**
+   * @return messages dropped by overflow policies or after completion.
+   */
+  public long getDroppedMessages() {
+    return droppedMessages.sum();
+  }
+
+  /**
+   * @return messages handed to a degraded consumer instead of being buffered.
+   */
+  public long getDegradedMessages() {
+    return degradedMessages.sum();
+  }
+
+  /**
+   * Completes every subscription once its buffered messages have been delivered.
+   */
+  @Override
+  public void close() {
+    completed = true;
+    subscriptions.forEach(BufferedSubscription::drain);
+  }
+
+  private class BufferedSubscription implements TwitchMessageSubscription {
+    private final TwitchMessageSubscriber subscriber;
+    private final OverflowPolicy overflowPolicy;
+    private final ArrayDeque<InboundTwitchMessage> buffer;
+    // Buffered message count per user. Only kept when sampling by user.
+    private final Map<String, Integer> bufferedPerUser;
+    private final AtomicInteger drainRequests;
+    private long demand;
+    private boolean terminated;
+
+    BufferedSubscription(TwitchMessageSubscriber subscriber, OverflowPolicy overflowPolicy) {
+      this.subscriber = subscriber;
+      this.overflowPolicy = overflowPolicy;
+      buffer = new ArrayDeque<>(overflowPolicy.getCapacity());
+      bufferedPerUser = new HashMap<>();
+      drainRequests = new AtomicInteger();
+      demand = 0L;
+      terminated = false;
+    }
+
+    void offer(InboundTwitchMessage inboundTwitchMessage) {
+      synchronized (this) {
+        if (terminated) {
+          return;
+        }
+        if (buffer.size() < overflowPolicy.getCapacity()) {
+          add(inboundTwitchMessage);
+        } else {
+          switch (overflowPolicy.getKind()) {
+            case DROP_OLDEST:
+              removeOldest();
+              add(inboundTwitchMessage);
+              droppedMessages.increment();
+              break;
+            case SAMPLE_BY_USER:
+              if (!bufferedPerUser.containsKey(inboundTwitchMessage.getUsername())) {
+                removeOldest();
+                add(inboundTwitchMessage);
+              }
+              droppedMessages.increment();
+              break;
+            case DEGRADE:
+              // The oldest is degraded, not the newest, so each user's messages keep their order.
+              // Handed over under the lock, so a drain cannot deliver the user's next message first.
+              overflowPolicy.getDegradedConsumer().accept(removeOldest());
+              add(inboundTwitchMessage);
+              degradedMessages.increment();
+              break;
+          }
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0L) {
+        fail(new IllegalArgumentException("Requested messages must be positive: " + n));
+        return;
+      }
+      synchronized (this) {
+        demand = demand + n < 0L ? Long.MAX_VALUE : demand + n;
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (this) {
+        terminated = true;
+        buffer.clear();
+        bufferedPerUser.clear();
+      }
+      subscriptions.remove(this);
+    }
+
+    int getQueueDepth() {
+      return getBufferedCount() + subscriber.getQueueDepth();
+    }
+
+    private synchronized int getBufferedCount() {
+      return buffer.size();
+    }
+
+    /**
+     * Delivers buffered messages while there is demand. Only the thread that raises the drain
+     * count from zero delivers. Others leave their request for it, so signals are never concurrent.
+     */
+    void drain() {
+      if (drainRequests.getAndIncrement() != 0) {
+        return;
+      }
+      int missedRequests = 1;
+      do {
+        InboundTwitchMessage nextMessage;
+        while ((nextMessage = nextDeliverable()) != null) {
+          try {
+            subscriber.onNext(nextMessage);
+          } catch (RuntimeException e) {
+            log.error("Subscriber failed on message from {}. Cancelling. {}", nextMessage.getUsername(),
+                e.getMessage());
+            cancel();
+          }
+        }
+        if (shouldComplete()) {
+          subscriber.onComplete();
+        }
+        missedRequests = drainRequests.addAndGet(-missedRequests);
+      } while (missedRequests != 0);
+    }
+
+    private synchronized InboundTwitchMessage nextDeliverable() {
+      if (terminated || demand == 0L || buffer.isEmpty()) {
+        return null;
+      }
+      if (demand != Long.MAX_VALUE) {
+        demand--;
+      }
+      return removeOldest();
+    }
+
+    private synchronized boolean shouldComplete() {
+      if (completed && !terminated && buffer.isEmpty()) {
+        terminated = true;
+        subscriptions.remove(this);
+        return true;
+      }
+      return false;
+    }
+
+    private void fail(Throwable throwable) {
+      synchronized (this) {
+        if (terminated) {
+          return;
+        }
+      }
+      cancel();
+      subscriber.onError(throwable);
+    }
+
+    private void add(InboundTwitchMessage inboundTwitchMessage) {
+      buffer.addLast(inboundTwitchMessage);
+      if (overflowPolicy.getKind() == OverflowPolicy.Kind.SAMPLE_BY_USER) {
+        bufferedPerUser.merge(inboundTwitchMessage.getUsername(), 1, Integer::sum);
+      }
+    }
+
+    private InboundTwitchMessage removeOldest() {
+      InboundTwitchMessage oldestMessage = buffer.pollFirst();
+      if (oldestMessage != null && overflowPolicy.getKind() == OverflowPolicy.Kind.SAMPLE_BY_USER) {
+        bufferedPerUser.computeIfPresent(oldestMessage.getUsername(), (username, count) -> count == 1 ? null : count - 1);
+      }
+      return oldestMessage;
+    }
+  }
+
+  /**
+   * Adapts a plain consumer, requesting everything up front.
+   */
+  private static class UnboundedSubscriber implements TwitchMessageSubscriber {
+    private final Consumer<InboundTwitchMessage> messageConsumer;
+
+    UnboundedSubscriber(Consumer<InboundTwitchMessage> messageConsumer) {
+      this.messageConsumer = messageConsumer;
+    }
+
+    @Override
+    public void onSubscribe(TwitchMessageSubscription subscription) {
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(InboundTwitchMessage inboundTwitchMessage) {
+      messageConsumer.accept(inboundTwitchMessage);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      log.error("Message output failed. {}", throwable.getMessage());
+    }
+
+    @Override
+    public void onComplete() {
+    }
+  }
+}
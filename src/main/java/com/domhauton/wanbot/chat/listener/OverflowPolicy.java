@@ -0,0 +1,66 @@
+package com.domhauton.wanbot.chat.listener;
+
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
+
+import java.util.function.Consumer;
+
+/**
+ * What a subscription does with a message arriving when its buffer is full.
+ */
+public final class OverflowPolicy {
+  enum Kind {
+    DROP_OLDEST,
+    SAMPLE_BY_USER,
+    DEGRADE
+  }
+
+  private final Kind kind;
+  private final int capacity;
+  private final Consumer<InboundTwitchMessage> degradedConsumer;
+
+  private OverflowPolicy(Kind kind, int capacity, Consumer<InboundTwitchMessage> degradedConsumer) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Buffer capacity must be positive: " + capacity);
+    }
+    this.kind = kind;
+    this.capacity = capacity;
+    this.degradedConsumer = degradedConsumer;
+  }
+
+  /**
+   * Drops the oldest buffered message to make room.
+   */
+  public static OverflowPolicy dropOldest(int capacity) {
+    return new OverflowPolicy(Kind.DROP_OLDEST, capacity, null);
+  }
+
+  /**
+   * Keeps one buffered message per user. A message from a user with a message already buffered is
+   * dropped. Otherwise the oldest buffered message makes room, so chatty users are shed first.
+   */
+  public static OverflowPolicy sampleByUser(int capacity) {
+    return new OverflowPolicy(Kind.SAMPLE_BY_USER, capacity, null);
+  }
+
+  /**
+   * Hands the oldest buffered message to the degraded consumer, on the publishing thread, and
+   * buffers the new one in its place, so each user's messages stay in order. The consumer is called
+   * while the buffer is locked, so it should return quickly, e.g. by queueing the message for cheap
+   * checks, and must bound what it queues.
+   */
+  public static OverflowPolicy degradeTo(int capacity, Consumer<InboundTwitchMessage> degradedConsumer) {
+    return new OverflowPolicy(Kind.DEGRADE, capacity, degradedConsumer);
+  }
+
+  Kind getKind() {
+    return kind;
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  Consumer<InboundTwitchMessage> getDegradedConsumer() {
+    return degradedConsumer;
+  }
+}
@@ -75,7 +75,11 @@ public class TwitchChannelListener implements TwitchMessageSupplier {
     messageConsumers.add(twitchMessageConsumer);
   }
 
+  /**
+   * Hands the message to each output in turn, on the listener thread, so outputs see messages in
+   * arrival order. Outputs doing real work should queue it, e.g. on a ModerationExecutor.
+   */
   private void onInboundTwitchMessage(InboundTwitchMessage inboundTwitchMessage) {
-    messageConsumers.parallelStream().forEach(messageConsumers -> messageConsumers.accept(inboundTwitchMessage));
+    messageConsumers.forEach(messageConsumer -> messageConsumer.accept(inboundTwitchMessage));
   }
 }
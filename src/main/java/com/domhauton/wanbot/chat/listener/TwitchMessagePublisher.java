@@ -0,0 +1,11 @@
+package com.domhauton.wanbot.chat.listener;
+
+/**
+ * A TwitchMessageSupplier with demand based backpressure, in the style of a Reactive Streams
+ * Publisher. Messages arriving faster than a subscriber requests them are buffered up to a bound,
+ * then handled by the subscription's overflow policy.
+ */
+public interface TwitchMessagePublisher extends TwitchMessageSupplier {
+
+  void subscribe(TwitchMessageSubscriber subscriber, OverflowPolicy overflowPolicy);
+}
@@ -0,0 +1,35 @@
+package com.domhauton.wanbot.chat.listener;
+
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
+
+/**
+ * Receives messages from a TwitchMessagePublisher, only as many as it has requested. Follows the
+ * Reactive Streams Subscriber contract. Signals arrive one at a time, never concurrently.
+ */
+public interface TwitchMessageSubscriber {
+
+  /**
+   * Called once, before any other signal. Nothing is sent until messages are requested.
+   */
+  void onSubscribe(TwitchMessageSubscription subscription);
+
+  void onNext(InboundTwitchMessage inboundTwitchMessage);
+
+  /**
+   * The subscription failed and no more signals will follow.
+   */
+  void onError(Throwable throwable);
+
+  /**
+   * The publisher has finished and no more signals will follow.
+   */
+  void onComplete();
+
+  /**
+   * @return messages received but not yet processed, e.g. queued downstream. Counted in the
+   * publisher's queue depth, so backlogs past the publisher stay visible.
+   */
+  default int getQueueDepth() {
+    return 0;
+  }
+}
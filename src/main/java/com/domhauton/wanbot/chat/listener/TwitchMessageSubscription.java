@@ -0,0 +1,20 @@
+package com.domhauton.wanbot.chat.listener;
+
+/**
+ * Demand signalling between a TwitchMessagePublisher and one subscriber. Follows the Reactive
+ * Streams Subscription contract.
+ */
+public interface TwitchMessageSubscription {
+
+  /**
+   * Allows the publisher to send up to n more messages. Demand adds up, capped at Long.MAX_VALUE.
+   *
+   * @param n must be positive, otherwise the subscription fails with IllegalArgumentException.
+   */
+  void request(long n);
+
+  /**
+   * Stops sending messages and drops any still buffered.
+   */
+  void cancel();
+}
@@ -10,7 +10,7 @@ import java.util.function.Consumer;
  * Standard interface for a Twitch Message Supplier. Listen is typically used for initialising a
  * connection.
  */
-interface TwitchMessageSupplier {
+public interface TwitchMessageSupplier {
   /**
    * com.domhauton.wanbot.bot.Start the supplier. May start a connection or start MESSAGE generation.
    */
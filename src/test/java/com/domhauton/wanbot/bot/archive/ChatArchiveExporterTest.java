@@ -0,0 +1,71 @@
+package com.domhauton.wanbot.bot.archive;
+
+import com.domhauton.wanbot.bot.channel.TwitchUser;
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tests the chat archive text export.
+ */
+class ChatArchiveExporterTest {
+  private Path archiveDirectory;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    archiveDirectory = Files.createTempDirectory("wanbot-testing").resolve("archive");
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    try (Stream<Path> paths = Files.walk(archiveDirectory.getParent())) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  @Test
+  void exportToWriterTest() throws Exception {
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory)) {
+      ChatArchiveWriterTest.generateTwitchMessages(0, 3).forEach(chatArchiveWriter::append);
+    }
+    StringWriter stringWriter = new StringWriter();
+    Assertions.assertEquals(3L, ChatArchiveExporter.export(archiveDirectory, stringWriter));
+    String[] lines = stringWriter.toString().split("\n");
+    Assertions.assertEquals(3, lines.length);
+    Assertions.assertTrue(lines[2].endsWith("\tfooChannel1\tfooUser1\tfoobar message 2"), lines[2]);
+  }
+
+  @Test
+  void exportToFileTest() throws Exception {
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory)) {
+      ChatArchiveWriterTest.generateTwitchMessages(0, 5).forEach(chatArchiveWriter::append);
+    }
+    Path exportPath = archiveDirectory.resolveSibling("export.tsv");
+    Assertions.assertEquals(5L, ChatArchiveExporter.export(archiveDirectory, exportPath));
+    List<String> lines = Files.readAllLines(exportPath, StandardCharsets.UTF_8);
+    Assertions.assertEquals(5, lines.size());
+  }
+
+  @Test
+  void lineEscapingTest() throws Exception {
+    TwitchMessage twitchMessage = new TwitchMessage("a\tb\nc\\d", new TwitchUser("fooUser1"),
+        new DateTime(0L, DateTimeZone.UTC), "fooChannel1");
+    Assertions.assertEquals("1970-01-01T00:00:00.000Z\tfooChannel1\tfooUser1\ta\\tb\\nc\\\\d\n",
+        ChatArchiveExporter.toLine(twitchMessage));
+  }
+}
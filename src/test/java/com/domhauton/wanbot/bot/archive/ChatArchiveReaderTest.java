@@ -0,0 +1,88 @@
+package com.domhauton.wanbot.bot.archive;
+
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tests reading survives missing, foreign and torn segments.
+ */
+class ChatArchiveReaderTest {
+  private Path archiveDirectory;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    archiveDirectory = Files.createTempDirectory("wanbot-testing").resolve("archive");
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    try (Stream<Path> paths = Files.walk(archiveDirectory.getParent())) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  @Test
+  void missingArchiveIsEmptyTest() throws Exception {
+    try (Stream<TwitchMessage> archivedMessages = ChatArchiveReader.read(archiveDirectory)) {
+      Assertions.assertEquals(0L, archivedMessages.count());
+    }
+  }
+
+  @Test
+  void tornRecordEndsSegmentTest() throws Exception {
+    List<TwitchMessage> twitchMessages = ChatArchiveWriterTest.generateTwitchMessages(0, 3);
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory)) {
+      twitchMessages.forEach(chatArchiveWriter::append);
+    }
+    Path segmentPath = ChatArchiveSegment.listSegments(archiveDirectory).get(0);
+    int recordSize = ChatArchiveSegment.RECORD_HEADER_SIZE + ChatArchiveSegment.PAYLOAD_HEADER_SIZE
+        + "fooChannel1".length() + "fooUser1".length() + "foobar message 0".length();
+    // Corrupt the last byte of the second message.
+    try (FileChannel fileChannel = FileChannel.open(segmentPath, StandardOpenOption.WRITE)) {
+      fileChannel.write(ByteBuffer.wrap(new byte[]{'X'}), ChatArchiveSegment.SEGMENT_HEADER_SIZE + recordSize * 2 - 1);
+    }
+    try (Stream<TwitchMessage> archivedMessages = ChatArchiveReader.read(archiveDirectory)) {
+      Assertions.assertEquals(twitchMessages.subList(0, 1), archivedMessages.collect(Collectors.toList()),
+          "Reading should stop at the torn record");
+    }
+  }
+
+  @Test
+  void foreignSegmentSkippedTest() throws Exception {
+    Files.createDirectories(archiveDirectory);
+    Files.write(ChatArchiveSegment.segmentPath(archiveDirectory, 0L), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory)) {
+      ChatArchiveWriterTest.generateTwitchMessages(0, 2).forEach(chatArchiveWriter::append);
+    }
+    try (Stream<TwitchMessage> archivedMessages = ChatArchiveReader.read(archiveDirectory)) {
+      Assertions.assertEquals(2L, archivedMessages.count(), "Foreign segment should be skipped");
+    }
+  }
+
+  @Test
+  void sharesTwitchUsersTest() throws Exception {
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory)) {
+      ChatArchiveWriterTest.generateTwitchMessages(0, 2).forEach(chatArchiveWriter::append);
+    }
+    try (Stream<TwitchMessage> archivedMessages = ChatArchiveReader.read(archiveDirectory)) {
+      List<TwitchMessage> twitchMessages = archivedMessages.collect(Collectors.toList());
+      Assertions.assertSame(twitchMessages.get(0).getTwitchUser(), twitchMessages.get(1).getTwitchUser(),
+          "Messages from one user should share a TwitchUser");
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package com.domhauton.wanbot.bot.archive;
+
+import com.domhauton.wanbot.bot.channel.TwitchUser;
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Tests messages written to the chat archive can be read back.
+ */
+class ChatArchiveWriterTest {
+  private static final TwitchUser twitchUser1 = new TwitchUser("fooUser1");
+  private static final String channel1 = "fooChannel1";
+
+  private Path archiveDirectory;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    archiveDirectory = Files.createTempDirectory("wanbot-testing").resolve("archive");
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    try (Stream<Path> paths = Files.walk(archiveDirectory.getParent())) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  @Test
+  void writeAndReadBackTest() throws Exception {
+    List<TwitchMessage> twitchMessages = generateTwitchMessages(0, 100);
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory)) {
+      twitchMessages.forEach(message -> Assertions.assertTrue(chatArchiveWriter.append(message)));
+    }
+    try (Stream<TwitchMessage> archivedMessages = ChatArchiveReader.read(archiveDirectory)) {
+      Assertions.assertEquals(twitchMessages, archivedMessages.collect(Collectors.toList()),
+          "Messages should be read back in order");
+    }
+  }
+
+  @Test
+  void unicodeMessageTest() throws Exception {
+    TwitchMessage twitchMessage = new TwitchMessage("h\u00E9llo \uD83D\uDE00", twitchUser1, new DateTime(1234L), channel1);
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory)) {
+      chatArchiveWriter.append(twitchMessage);
+    }
+    try (Stream<TwitchMessage> archivedMessages = ChatArchiveReader.read(archiveDirectory)) {
+      TwitchMessage archivedMessage = archivedMessages.findFirst().get();
+      Assertions.assertEquals(twitchMessage.getMessage(), archivedMessage.getMessage());
+      Assertions.assertEquals(channel1, archivedMessage.getTwitchChannel());
+      Assertions.assertEquals(1234L, archivedMessage.getMessageDateTime().getMillis());
+    }
+  }
+
+  @Test
+  void rollsSegmentsTest() throws Exception {
+    List<TwitchMessage> twitchMessages = generateTwitchMessages(0, 200);
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory, 1024, 1024)) {
+      twitchMessages.forEach(chatArchiveWriter::append);
+    }
+    Assertions.assertTrue(ChatArchiveSegment.listSegments(archiveDirectory).size() > 1,
+        "Small segments should roll");
+    try (Stream<TwitchMessage> archivedMessages = ChatArchiveReader.read(archiveDirectory)) {
+      Assertions.assertEquals(twitchMessages, archivedMessages.collect(Collectors.toList()),
+          "Messages should be read back across segments");
+    }
+  }
+
+  @Test
+  void reopenStartsNewSegmentTest() throws Exception {
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory)) {
+      generateTwitchMessages(0, 3).forEach(chatArchiveWriter::append);
+    }
+    try (ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory)) {
+      generateTwitchMessages(3, 5).forEach(chatArchiveWriter::append);
+    }
+    Assertions.assertEquals(2, ChatArchiveSegment.listSegments(archiveDirectory).size());
+    try (Stream<TwitchMessage> archivedMessages = ChatArchiveReader.read(archiveDirectory)) {
+      Assertions.assertEquals(generateTwitchMessages(0, 5), archivedMessages.collect(Collectors.toList()),
+          "Earlier sessions should be kept");
+    }
+  }
+
+  @Test
+  void appendAfterCloseDroppedTest() throws Exception {
+    ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory);
+    chatArchiveWriter.close();
+    Assertions.assertFalse(chatArchiveWriter.append(generateTwitchMessages(0, 1).get(0)));
+    Assertions.assertEquals(1L, chatArchiveWriter.getDroppedMessages());
+  }
+
+  @Test
+  void oversizedMessageDroppedTest() throws Exception {
+    String longPayload = IntStream.range(0, 2000).mapToObj(x -> "x").collect(Collectors.joining());
+    ChatArchiveWriter chatArchiveWriter = ChatArchiveWriter.open(archiveDirectory, 1024, 16);
+    chatArchiveWriter.append(new TwitchMessage(longPayload, twitchUser1, new DateTime(0L), channel1));
+    chatArchiveWriter.append(generateTwitchMessages(0, 1).get(0));
+    chatArchiveWriter.close();
+    Assertions.assertEquals(1L, chatArchiveWriter.getDroppedMessages());
+    try (Stream<TwitchMessage> archivedMessages = ChatArchiveReader.read(archiveDirectory)) {
+      Assertions.assertEquals(1L, archivedMessages.count(), "Messages after an oversized one should be kept");
+    }
+  }
+
+  static List<TwitchMessage> generateTwitchMessages(int start, int end) {
+    return IntStream.range(start, end)
+        .mapToObj(x -> new TwitchMessage("foobar message " + x, twitchUser1, new DateTime(1_000_000L + x), channel1))
+        .collect(Collectors.toList());
+  }
+}
@@ -8,9 +8,12 @@ import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
 import com.domhauton.wanbot.bot.channel.permissions.PermissionsManager;
 import com.domhauton.wanbot.bot.channel.permissions.UserPermission;
 import com.domhauton.wanbot.bot.channel.settings.ChannelSettingDAOHashMapImpl;
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingDouble;
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingInteger;
 import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingString;
 import com.domhauton.wanbot.bot.channel.timeouts.TimeoutManager;
 import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
 import com.domhauton.wanbot.url.URLConverter;
 import com.domhauton.wanbot.url.URLConverterImpl;
 import com.domhauton.wanbot.url.URLInvalidException;
@@ -84,6 +87,7 @@ class ChannelManagerTest {
         .thenReturn("thispermissionwillnotexist");
     ChannelManager tempChannelManager = new ChannelManager(
         channelName,
+        new UserStateTable(),
         new PermissionsManager(),
         new MessageManager(),
         new TimeoutManager(),
@@ -95,6 +99,81 @@ class ChannelManagerTest {
         () -> tempChannelManager.getPermission(twitchUser1));
   }
 
+  @Test
+  void messageBurstBelowOneTest() throws Exception {
+    ChannelSettingDAOHashMapImpl channelSettingDAO = new ChannelSettingDAOHashMapImpl();
+    channelSettingDAO.setSetting(channelName, ChannelSettingInteger.USER_MESSAGE_BURST, 0);
+    UserStateTable userStateTable = new UserStateTable();
+    ChannelManager tempChannelManager = new ChannelManager(
+        channelName,
+        userStateTable,
+        new PermissionsManager(userStateTable),
+        new MessageManager(userStateTable),
+        new TimeoutManager(userStateTable),
+        new BlacklistManager(),
+        channelSettingDAO,
+        new URLConverterImpl());
+    UserState userState = userStateTable.getOrCreate(twitchUser1);
+    Assertions.assertTrue(tempChannelManager.tryAcquireMessageToken(twitchMessage1, userState),
+        "A burst below one should be raised to one");
+    Assertions.assertFalse(tempChannelManager.tryAcquireMessageToken(twitchMessage1, userState));
+  }
+
+  @Test
+  void regexBudgetSettingTest() throws Exception {
+    ChannelSettingDAOHashMapImpl channelSettingDAO = new ChannelSettingDAOHashMapImpl();
+    channelSettingDAO.setSetting(channelName, ChannelSettingInteger.REGEX_BUDGET_STEPS, 10_000);
+    BlacklistManager blacklistManager = new BlacklistManager();
+    ChannelManager tempChannelManager = new ChannelManager(
+        channelName,
+        new UserStateTable(),
+        new PermissionsManager(),
+        new MessageManager(),
+        new TimeoutManager(),
+        blacklistManager,
+        channelSettingDAO,
+        new URLConverterImpl());
+    tempChannelManager.blacklistItem("(.*a){12}(?!x)b", BlacklistType.REGEX, 0);
+    TwitchMessage backtrackingMessage = new TwitchMessage("aaaaaaaaaaaaaaaaaaaaaaaaac", twitchUser1,
+        DateTime.now(), channelName);
+    Assertions.assertFalse(tempChannelManager.isMessageBlacklisted(backtrackingMessage));
+    Assertions.assertEquals(1, blacklistManager.getQuarantinedEntries().size(),
+        "Entry should be quarantined under the channel's step budget");
+
+    channelSettingDAO.setSetting(channelName, ChannelSettingInteger.REGEX_BUDGET_STEPS, 1_000_000);
+    tempChannelManager.isMessageBlacklisted(twitchMessage1);
+    Assertions.assertTrue(blacklistManager.getQuarantinedEntries().isEmpty(),
+        "A changed budget should release quarantined entries");
+  }
+
+  @Test
+  void messageRateBelowMinimumTest() throws Exception {
+    for (double invalidRate : new double[]{0d, -5d, Double.NaN}) {
+      ChannelSettingDAOHashMapImpl channelSettingDAO = new ChannelSettingDAOHashMapImpl();
+      channelSettingDAO.setSetting(channelName, ChannelSettingInteger.USER_MESSAGE_BURST, 1);
+      channelSettingDAO.setSetting(channelName, ChannelSettingDouble.USER_MESSAGE_RATE, invalidRate);
+      UserStateTable userStateTable = new UserStateTable();
+      ChannelManager tempChannelManager = new ChannelManager(
+          channelName,
+          userStateTable,
+          new PermissionsManager(userStateTable),
+          new MessageManager(userStateTable),
+          new TimeoutManager(userStateTable),
+          new BlacklistManager(),
+          channelSettingDAO,
+          new URLConverterImpl());
+      UserState userState = userStateTable.getOrCreate(twitchUser1);
+      DateTime sentDateTime = DateTime.now();
+      Assertions.assertTrue(tempChannelManager.tryAcquireMessageToken(
+          new TwitchMessage(payload1, twitchUser1, sentDateTime, channelName), userState));
+      Assertions.assertFalse(tempChannelManager.tryAcquireMessageToken(
+          new TwitchMessage(payload1, twitchUser1, sentDateTime.plusSeconds(1), channelName), userState));
+      Assertions.assertTrue(tempChannelManager.tryAcquireMessageToken(
+          new TwitchMessage(payload1, twitchUser1, sentDateTime.plusSeconds(100), channelName), userState),
+          "A rate of " + invalidRate + " should be raised to the minimum, so buckets still refill");
+    }
+  }
+
   @Test
   void messageManagerSimpleTest() throws Exception {
     channelManager.addChannelMessage(twitchMessage1);
@@ -104,23 +183,36 @@ class ChannelManagerTest {
         "Should detect new message");
   }
 
+  @Test
+  void messageSnapshotSinceTest() throws Exception {
+    DateTime startTime = twitchMessage1.getMessageDateTime();
+    channelManager.addChannelMessage(twitchMessage1);
+    Assertions.assertEquals(1, channelManager.getMessageSnapshotSince(startTime).size());
+    Assertions.assertEquals(0, channelManager.getMessageSnapshotSince(startTime.plusMillis(1)).size());
+    Assertions.assertEquals(1, channelManager.getMessageSnapshotBetween(startTime, startTime.plusMillis(1)).size());
+    Assertions.assertEquals(1, channelManager.getMessageSnapshotSince(twitchUser1, startTime).size());
+  }
+
   @Test
   void messageManagerOverflowTest() throws Exception {
     // Insert very high number of messages.
-    IntStream.range(1, 1000).boxed().forEach(x -> addChannelMessageUnsafe(twitchMessage1));
-    Assertions.assertEquals(100, channelManager.getMessageSnapshot().containsSimplePayload(payload1),
+    IntStream.range(1, 10000).boxed().forEach(x -> addChannelMessageUnsafe(twitchMessage1));
+    Assertions.assertEquals(5000, channelManager.getMessageSnapshot().containsSimplePayload(payload1),
         "Messages should be deleted after reaching cap. If fail, check cap has not changed!");
     Assertions.assertEquals(10, channelManager.getMessageSnapshot(twitchUser1).containsSimplePayload(payload1),
         "Messages should be deleted after reaching cap. If fail, check cap has not changed!");
+    Assertions.assertEquals(5000, channelManager.getChannelRepetitionCount(twitchMessage1),
+        "Repetition count should follow the channel window");
   }
 
   @Test
   void failMessageInsertTest() throws Exception {
     MessageManager mockMessageManager = Mockito.mock(MessageManager.class);
     TwitchMessage twitchMessage = new TwitchMessage("foobar", twitchUser1, DateTime.now(), channelName);
-    Mockito.when(mockMessageManager.addMessage(twitchMessage)).thenReturn(false);
+    Mockito.when(mockMessageManager.addMessage(Mockito.eq(twitchMessage), Mockito.any())).thenReturn(false);
     ChannelManager tempChannelManager = new ChannelManager(
         channelName,
+        new UserStateTable(),
         new PermissionsManager(),
         mockMessageManager,
         new TimeoutManager(),
@@ -153,6 +245,33 @@ class ChannelManagerTest {
     Assertions.assertEquals(actualTimeout2, actualTimeoutRetrieved, "Returned and retrieved timeouts should be identical");
   }
 
+  @Test
+  void userStateSharedTest() throws Exception {
+    channelManager.setPermission(twitchUser1, UserPermission.ChannelModerator);
+    Duration timeout = channelManager.addUserTimeout(twitchUser1.getUsername(), TimeoutReason.MESSAGE_RATE);
+    channelManager.addChannelMessage(twitchMessage1);
+    UserState userState = channelManager.getUserState(twitchUser1);
+    Assertions.assertEquals(UserPermission.ChannelModerator, userState.getPermission());
+    Assertions.assertEquals(timeout, userState.getTimeout());
+    Assertions.assertEquals(1, userState.getTimeoutCount());
+    Assertions.assertEquals(1, userState.getMessageCount());
+    Assertions.assertEquals(1, userState.getRecentMessages().containsSimplePayload(payload1),
+        "Recent messages should be reachable from the user state");
+  }
+
+  @Test
+  void toTwitchMessageReusesUserTest() throws Exception {
+    DateTime receivedTime = DateTime.now();
+    TwitchMessage message1 = channelManager.toTwitchMessage(
+        new InboundTwitchMessage(channelName, "fooUser2", payload1), receivedTime);
+    TwitchMessage message2 = channelManager.toTwitchMessage(
+        new InboundTwitchMessage(channelName, "fooUser2", "other"), receivedTime);
+    Assertions.assertSame(message1.getTwitchUser(), message2.getTwitchUser(), "Sender should not be reallocated");
+    Assertions.assertEquals(payload1, message1.getMessage());
+    Assertions.assertEquals(channelName, message1.getTwitchChannel());
+    Assertions.assertEquals(receivedTime, message1.getMessageDateTime());
+  }
+
   @Test
   void blackListItemSimpleTest() throws Exception {
     Collection<TwitchMessage> retroBannedMessages = channelManager.blacklistItem("foobar", BlacklistType.WORD);
@@ -180,6 +299,72 @@ class ChannelManagerTest {
     Assertions.assertTrue(retroBannedMessagesNeg.isEmpty(), "Ensure no retroactive bans.");
   }
 
+  @Test
+  void blackListWordRetroactiveLargeLookBehindTest() throws Exception {
+    int messagesToAdd = 2048;
+    TwitchMessage otherMessage = new TwitchMessage("something else", twitchUser1, DateTime.now(), channelName);
+    IntStream.range(0, messagesToAdd).boxed()
+        .forEach(x -> addChannelMessageUnsafe(x % 2 == 0 ? twitchMessage1 : otherMessage));
+    Collection<TwitchMessage> retroBannedMessages = channelManager.blacklistItem("SOMETHING", BlacklistType.WORD,
+        messagesToAdd);
+    Assertions.assertEquals(messagesToAdd / 2, retroBannedMessages.size(), "Half of the messages break the rule");
+    Assertions.assertTrue(retroBannedMessages.stream().allMatch(otherMessage::equals));
+    channelManager.removeBlacklistItem("SOMETHING", BlacklistType.WORD);
+    Collection<TwitchMessage> recentBannedMessages = channelManager.blacklistItem("SOMETHING", BlacklistType.WORD, 3);
+    Assertions.assertEquals(2, recentBannedMessages.size(), "Only the most recent messages should be searched");
+  }
+
+  @Test
+  void blackListMessageRetroactiveIgnoresCaseTest() throws Exception {
+    addChannelMessageUnsafe(twitchMessage1);
+    Collection<TwitchMessage> retroBannedMessages = channelManager.blacklistItem(payload1.toUpperCase(),
+        BlacklistType.MESSAGE);
+    Assertions.assertEquals(1, retroBannedMessages.size(), "Retrospective scan should use the same normalisation");
+  }
+
+  @Test
+  void blackListWordObfuscatedTest() throws Exception {
+    channelManager.blacklistItem("spam", BlacklistType.WORD);
+    TwitchMessage obfuscatedMessage = new TwitchMessage("buy 5P@M now", twitchUser1, DateTime.now(), channelName);
+    Assertions.assertFalse(channelManager.addChannelMessage(obfuscatedMessage), "Leetspeak should be caught");
+    Assertions.assertEquals(1L, channelManager.getBlacklistMetrics().getCheckCount(), "Should count as one check");
+  }
+
+  @Test
+  void blackListWordObfuscatedKeepsWordsApartTest() throws Exception {
+    channelManager.blacklistItem("nazi", BlacklistType.WORD);
+    channelManager.blacklistItem("t.co", BlacklistType.WORD);
+    Assertions.assertTrue(channelManager.addChannelMessage(
+        new TwitchMessage("Ban a ZIT. Cool", twitchUser1, DateTime.now(), channelName)),
+        "Words should not be matched across separators");
+    Assertions.assertFalse(channelManager.addChannelMessage(
+        new TwitchMessage("N@Z1 stuff", twitchUser1, DateTime.now(), channelName)));
+  }
+
+  @Test
+  void blackListWordObfuscatedIgnoresNumbersTest() throws Exception {
+    channelManager.blacklistItem("ass", BlacklistType.WORD);
+    channelManager.blacklistItem("eat", BlacklistType.WORD);
+    Assertions.assertTrue(channelManager.addChannelMessage(
+        new TwitchMessage("I scored 455 points", twitchUser1, DateTime.now(), channelName)),
+        "Numbers should not be read as leetspeak");
+    Assertions.assertTrue(channelManager.addChannelMessage(
+        new TwitchMessage("Live in room 347", twitchUser1, DateTime.now(), channelName)));
+    Assertions.assertFalse(channelManager.addChannelMessage(
+        new TwitchMessage("what an 4ss", twitchUser1, DateTime.now(), channelName)));
+  }
+
+  @Test
+  void blackListWordObfuscatedRetrospectiveTest() throws Exception {
+    TwitchMessage obfuscatedMessage = new TwitchMessage("buy 5P@M now", twitchUser1, DateTime.now(), channelName);
+    channelManager.addChannelMessage(obfuscatedMessage);
+    channelManager.addChannelMessage(new TwitchMessage("I sp 4 M 555", twitchUser1, DateTime.now(), channelName));
+    Collection<TwitchMessage> retroBannedMessages = channelManager.blacklistItem("spam", BlacklistType.WORD);
+    Assertions.assertEquals(1, retroBannedMessages.size(), "Only the obfuscated word should be found");
+    Assertions.assertEquals(obfuscatedMessage.getMessage(), retroBannedMessages.iterator().next().getMessage(),
+        "Obfuscated messages should be found by the look back");
+  }
+
   @Test
   void blackListRemoveItemTest() throws Exception {
     String finalTestMessage = "A final test for item 3";
@@ -226,6 +411,7 @@ class ChannelManagerTest {
     Mockito.when(urlConverter.convertLink(exampleString)).thenThrow(new URLInvalidException("foobar"));
     ChannelManager tempChannelManager = new ChannelManager(
         channelName,
+        new UserStateTable(),
         new PermissionsManager(),
         new MessageManager(),
         new TimeoutManager(),
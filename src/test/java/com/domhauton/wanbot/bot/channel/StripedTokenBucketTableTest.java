@@ -0,0 +1,51 @@
+package com.domhauton.wanbot.bot.channel;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests users are spread over the token bucket stripes and keep their own buckets.
+ */
+class StripedTokenBucketTableTest {
+  private static final long startMillis = 1_000_000L;
+
+  @Test
+  void stripeCountRoundedTest() throws Exception {
+    Assertions.assertEquals(8, new StripedTokenBucketTable(5).getStripeCount(), "Should round up to a power of two");
+    Assertions.assertEquals(1, new StripedTokenBucketTable(1).getStripeCount());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new StripedTokenBucketTable(0));
+  }
+
+  @Test
+  void denseIdsSpreadTest() throws Exception {
+    StripedTokenBucketTable stripedTokenBucketTable = new StripedTokenBucketTable(16);
+    Set<Integer> usedStripes = IntStream.range(0, 1_000)
+        .mapToObj(stripedTokenBucketTable::stripeIndex)
+        .collect(Collectors.toSet());
+    Assertions.assertEquals(16, usedStripes.size(), "Dense user ids should spread over every stripe");
+  }
+
+  @Test
+  void bucketsPerUserTest() throws Exception {
+    StripedTokenBucketTable stripedTokenBucketTable = new StripedTokenBucketTable(4);
+    for (int userId = 0; userId < 100; userId++) {
+      Assertions.assertTrue(stripedTokenBucketTable.tryAcquire(userId, startMillis, 1d, 1d));
+      Assertions.assertFalse(stripedTokenBucketTable.tryAcquire(userId, startMillis, 1d, 1d),
+          "Each user should have their own bucket");
+    }
+    Assertions.assertEquals(100, stripedTokenBucketTable.size());
+    stripedTokenBucketTable.release(7);
+    Assertions.assertTrue(stripedTokenBucketTable.tryAcquire(7, startMillis, 1d, 1d), "Released buckets should be full");
+  }
+
+  @Test
+  void singleStripeTest() throws Exception {
+    StripedTokenBucketTable stripedTokenBucketTable = new StripedTokenBucketTable(1);
+    Assertions.assertEquals(0, stripedTokenBucketTable.stripeIndex(12345));
+    Assertions.assertTrue(stripedTokenBucketTable.tryAcquire(12345, startMillis, 1d, 1d));
+  }
+}
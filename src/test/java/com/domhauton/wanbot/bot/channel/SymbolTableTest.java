@@ -0,0 +1,41 @@
+package com.domhauton.wanbot.bot.channel;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests string interning.
+ */
+class SymbolTableTest {
+
+  @Test
+  void internTest() throws Exception {
+    SymbolTable symbolTable = new SymbolTable();
+    int fooId = symbolTable.intern("foo");
+    int barId = symbolTable.intern("bar");
+    Assertions.assertNotEquals(fooId, barId);
+    Assertions.assertEquals(fooId, symbolTable.intern("foo"), "Interning again should reuse the id");
+    Assertions.assertEquals(2, symbolTable.size());
+    Assertions.assertEquals("foo", symbolTable.lookup(fooId));
+    Assertions.assertEquals("bar", symbolTable.lookup(barId));
+  }
+
+  @Test
+  void releaseReusesIdTest() throws Exception {
+    SymbolTable symbolTable = new SymbolTable();
+    int fooId = symbolTable.intern("foo");
+    symbolTable.intern("foo");
+    symbolTable.release(fooId);
+    Assertions.assertEquals("foo", symbolTable.lookup(fooId), "Symbol should be kept while referenced");
+    symbolTable.release(fooId);
+    Assertions.assertEquals(0, symbolTable.size());
+    Assertions.assertThrows(IndexOutOfBoundsException.class, () -> symbolTable.lookup(fooId));
+    Assertions.assertEquals(fooId, symbolTable.intern("bar"), "Released id should be reused");
+    Assertions.assertEquals("bar", symbolTable.lookup(fooId));
+  }
+
+  @Test
+  void unknownIdTest() throws Exception {
+    Assertions.assertThrows(IndexOutOfBoundsException.class, () -> new SymbolTable().lookup(0));
+  }
+}
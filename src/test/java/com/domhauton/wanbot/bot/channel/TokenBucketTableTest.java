@@ -0,0 +1,96 @@
+package com.domhauton.wanbot.bot.channel;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests bursts, refills and lazy reclamation of the per-user token buckets.
+ */
+class TokenBucketTableTest {
+  private static final long startMillis = 1_000_000L;
+
+  private TokenBucketTable tokenBucketTable;
+
+  @BeforeEach
+  void setUp() {
+    tokenBucketTable = new TokenBucketTable();
+  }
+
+  @Test
+  void burstTest() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      Assertions.assertTrue(tokenBucketTable.tryAcquire(1, startMillis, 3d, 1d), "Burst should be allowed");
+    }
+    Assertions.assertFalse(tokenBucketTable.tryAcquire(1, startMillis, 3d, 1d), "Bucket should be empty");
+  }
+
+  @Test
+  void refillTest() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      tokenBucketTable.tryAcquire(1, startMillis, 3d, 2d);
+    }
+    Assertions.assertFalse(tokenBucketTable.tryAcquire(1, startMillis + 400L, 3d, 2d), "0.8 tokens is not a token");
+    Assertions.assertTrue(tokenBucketTable.tryAcquire(1, startMillis + 500L, 3d, 2d));
+    Assertions.assertFalse(tokenBucketTable.tryAcquire(1, startMillis + 500L, 3d, 2d));
+  }
+
+  @Test
+  void refillCappedAtBurstTest() throws Exception {
+    tokenBucketTable.tryAcquire(1, startMillis, 2d, 1d);
+    long laterMillis = startMillis + 60_000L;
+    Assertions.assertTrue(tokenBucketTable.tryAcquire(1, laterMillis, 2d, 1d));
+    Assertions.assertTrue(tokenBucketTable.tryAcquire(1, laterMillis, 2d, 1d));
+    Assertions.assertFalse(tokenBucketTable.tryAcquire(1, laterMillis, 2d, 1d), "Idle time should not exceed burst");
+  }
+
+  @Test
+  void clockBackwardsTest() throws Exception {
+    tokenBucketTable.tryAcquire(1, startMillis, 1d, 1d);
+    Assertions.assertFalse(tokenBucketTable.tryAcquire(1, startMillis - 5_000L, 1d, 1d),
+        "Out of order messages should not refill");
+    Assertions.assertFalse(tokenBucketTable.tryAcquire(1, startMillis + 500L, 1d, 1d),
+        "Refill should continue from the latest message");
+  }
+
+  @Test
+  void usersIndependentTest() throws Exception {
+    tokenBucketTable.tryAcquire(1, startMillis, 1d, 1d);
+    Assertions.assertFalse(tokenBucketTable.tryAcquire(1, startMillis, 1d, 1d));
+    Assertions.assertTrue(tokenBucketTable.tryAcquire(2, startMillis, 1d, 1d), "Other users have their own buckets");
+  }
+
+  @Test
+  void releaseRefillsBucketTest() throws Exception {
+    tokenBucketTable.tryAcquire(1, startMillis, 1d, 1d);
+    tokenBucketTable.release(1);
+    tokenBucketTable.release(2);
+    Assertions.assertTrue(tokenBucketTable.tryAcquire(1, startMillis, 1d, 1d), "Reused id should start full");
+    Assertions.assertFalse(tokenBucketTable.tryAcquire(1, startMillis, 1d, 1d));
+  }
+
+  @Test
+  void idleBucketsReclaimedTest() throws Exception {
+    int usersPerRound = 1_000;
+    for (int round = 0; round < 20; round++) {
+      long roundMillis = startMillis + round * 1_000L;
+      for (int user = 0; user < usersPerRound; user++) {
+        Assertions.assertTrue(tokenBucketTable.tryAcquire(round * usersPerRound + user, roundMillis, 2d, 10d));
+      }
+    }
+    Assertions.assertTrue(tokenBucketTable.capacity() <= 4_096,
+        "Table should follow active users, not all users. Capacity: " + tokenBucketTable.capacity());
+    Assertions.assertTrue(tokenBucketTable.size() >= usersPerRound, "Active users should keep their buckets");
+  }
+
+  @Test
+  void activeBucketsSurviveResizeTest() throws Exception {
+    for (int user = 0; user < 100; user++) {
+      tokenBucketTable.tryAcquire(user, startMillis, 1d, 0.1d);
+    }
+    for (int user = 0; user < 100; user++) {
+      Assertions.assertFalse(tokenBucketTable.tryAcquire(user, startMillis + 1_000L, 1d, 0.1d),
+          "Bucket of user " + user + " should have been kept");
+    }
+  }
+}
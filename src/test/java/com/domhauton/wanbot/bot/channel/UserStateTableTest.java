@@ -0,0 +1,147 @@
+package com.domhauton.wanbot.bot.channel;
+
+import com.domhauton.wanbot.bot.channel.permissions.UserPermission;
+import org.joda.time.Duration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests interning of per-user state.
+ */
+class UserStateTableTest {
+  private UserStateTable userStateTable;
+
+  @BeforeEach
+  void setUp() {
+    userStateTable = new UserStateTable();
+  }
+
+  @Test
+  void findUnknownUserTest() throws Exception {
+    Assertions.assertNull(userStateTable.find("fooUser1"), "Find should not create users");
+    Assertions.assertEquals(0, userStateTable.size());
+  }
+
+  @Test
+  void internReusesStateTest() throws Exception {
+    UserState userState = userStateTable.getOrCreate("fooUser1");
+    Assertions.assertSame(userState, userStateTable.getOrCreate(new TwitchUser("fooUser1")),
+        "Same username should give the same state");
+    Assertions.assertSame(userState, userStateTable.find("fooUser1"));
+    Assertions.assertSame(userState.getTwitchUser(), userStateTable.getTwitchUser("fooUser1"),
+        "TwitchUser should be canonical");
+    Assertions.assertEquals(1, userStateTable.size());
+  }
+
+  @Test
+  void denseIdsTest() throws Exception {
+    UserState userState1 = userStateTable.getOrCreate("fooUser1");
+    UserState userState2 = userStateTable.getOrCreate("fooUser2");
+    Assertions.assertEquals(0, userState1.getUserId());
+    Assertions.assertEquals(1, userState2.getUserId());
+    Assertions.assertSame(userState2, userStateTable.get(1));
+    Assertions.assertEquals("fooUser2", userState2.getUsername());
+  }
+
+  @Test
+  void stateDefaultsTest() throws Exception {
+    UserState userState = userStateTable.getOrCreate("fooUser1");
+    Assertions.assertNull(userState.getPermission(), "Channel default should apply until set");
+    Assertions.assertEquals(Duration.ZERO, userState.getTimeout());
+    Assertions.assertEquals(0, userState.getMessageCount());
+    Assertions.assertEquals(0, userState.getRecentMessages().size());
+    Assertions.assertEquals(0d, userState.getMessagesPerSecond(), 0.001d);
+  }
+
+  @Test
+  void recentPayloadHashesTest() throws Exception {
+    UserState userState = userStateTable.getOrCreate("fooUser1");
+    Assertions.assertEquals(0, userState.countPayloadHash(1L));
+    userState.recordPayloadHash(1L);
+    userState.recordPayloadHash(2L);
+    userState.recordPayloadHash(1L);
+    Assertions.assertEquals(2, userState.countPayloadHash(1L));
+    for (int i = 0; i < UserState.RECENT_PAYLOAD_HASHES; i++) {
+      userState.recordPayloadHash(3L);
+    }
+    Assertions.assertEquals(0, userState.countPayloadHash(1L), "Oldest hashes should be overwritten");
+    Assertions.assertEquals(UserState.RECENT_PAYLOAD_HASHES, userState.countPayloadHash(3L));
+  }
+
+  @Test
+  void evictTest() throws Exception {
+    List<UserState> evictedUsers = new ArrayList<>();
+    userStateTable.addEvictionListener(evictedUsers::add);
+    UserState userState = userStateTable.getOrCreate("fooUser1");
+    Assertions.assertTrue(userStateTable.evict(userState));
+    Assertions.assertFalse(userStateTable.evict(userState), "Evicted user should only be evicted once");
+    Assertions.assertNull(userStateTable.find("fooUser1"));
+    Assertions.assertThrows(IndexOutOfBoundsException.class, () -> userStateTable.get(userState.getUserId()));
+    Assertions.assertEquals(0, userStateTable.getSymbolTable().size(), "Username should be released");
+    Assertions.assertEquals(1, evictedUsers.size());
+    Assertions.assertNotSame(userState, userStateTable.getOrCreate("fooUser1"), "Returning user should be new");
+  }
+
+  @Test
+  void evictKeepsPermissionTest() throws Exception {
+    UserState userState = userStateTable.getOrCreate("fooUser1");
+    userState.setPermission(UserPermission.ChannelModerator);
+    Assertions.assertFalse(userStateTable.evict(userState));
+    Assertions.assertSame(userState, userStateTable.find("fooUser1"));
+  }
+
+  @Test
+  void evictKeepsTimeoutEscalationTest() throws Exception {
+    UserState userState = userStateTable.getOrCreate("fooUser1");
+    userState.recordTimeout(Duration.standardSeconds(30));
+    Assertions.assertFalse(userStateTable.evict(userState), "Timed out users should keep their escalation");
+    Assertions.assertSame(userState, userStateTable.find("fooUser1"));
+    long expiredMillis = System.currentTimeMillis() + Duration.standardSeconds(30).getMillis() +
+        UserState.TIMEOUT_ESCALATION_RETENTION_MILLIS + 1L;
+    Assertions.assertTrue(userState.isTimeoutEscalationHeld(System.currentTimeMillis()));
+    Assertions.assertFalse(userState.isTimeoutEscalationHeld(expiredMillis), "Escalation should expire");
+  }
+
+  @Test
+  void boundedUsersKeepTimeoutEscalationTest() throws Exception {
+    userStateTable = new UserStateTable(new SymbolTable(), 3);
+    userStateTable.getOrCreate("fooUser1").recordTimeout(Duration.standardSeconds(30));
+    for (int i = 2; i < 100; i++) {
+      userStateTable.getOrCreate("fooUser" + i);
+    }
+    Assertions.assertEquals(Duration.standardSeconds(30), userStateTable.find("fooUser1").getTimeout(),
+        "Timed out users should survive eviction sweeps");
+  }
+
+  @Test
+  void boundedUsersTest() throws Exception {
+    userStateTable = new UserStateTable(new SymbolTable(), 3);
+    userStateTable.getOrCreate("fooUser1").setPermission(UserPermission.ChannelModerator);
+    userStateTable.getOrCreate("fooUser2");
+    userStateTable.getOrCreate("fooUser3");
+    for (int i = 4; i < 100; i++) {
+      userStateTable.getOrCreate("fooUser" + i);
+      Assertions.assertTrue(userStateTable.size() <= 3, "Users should be bounded");
+    }
+    Assertions.assertNotNull(userStateTable.find("fooUser1"), "Users with a permission should be kept");
+    Assertions.assertNotNull(userStateTable.find("fooUser99"), "Newest user should be kept");
+    Assertions.assertEquals(3, userStateTable.getSymbolTable().size(), "Evicted usernames should be released");
+  }
+
+  @Test
+  void stateUpdatesTest() throws Exception {
+    UserState userState = userStateTable.getOrCreate("fooUser1");
+    userState.setPermission(UserPermission.ChannelModerator);
+    userState.recordTimeout(Duration.standardSeconds(30));
+    userState.recordTimeout(Duration.standardSeconds(60));
+    userState.recordMessage();
+    Assertions.assertEquals(UserPermission.ChannelModerator, userStateTable.find("fooUser1").getPermission());
+    Assertions.assertEquals(Duration.standardSeconds(60), userState.getTimeout(), "Latest timeout should be kept");
+    Assertions.assertEquals(2, userState.getTimeoutCount());
+    Assertions.assertEquals(1, userState.getMessageCount());
+  }
+}
@@ -0,0 +1,74 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests the multi-keyword automaton used for WORD blacklist entries.
+ */
+class AhoCorasickMatcherTest {
+
+  @Test
+  void emptyMatcherTest() throws Exception {
+    AhoCorasickMatcher<String> matcher = new AhoCorasickMatcher<>(Collections.emptyMap());
+    Assertions.assertFalse(matcher.matches("foobar"), "Nothing should match an empty matcher");
+    Assertions.assertFalse(matcher.matches(""), "Nothing should match an empty matcher");
+  }
+
+  @Test
+  void matchesContainedKeywordTest() throws Exception {
+    AhoCorasickMatcher<String> matcher = new AhoCorasickMatcher<>(ImmutableMap.of("foo", "1", "bar", "2"));
+    Assertions.assertEquals(Optional.of("1"), matcher.findFirst("xxfooxx"));
+    Assertions.assertEquals(Optional.of("2"), matcher.findFirst("xxbar"));
+    Assertions.assertFalse(matcher.matches("fobaxx"), "Partial keywords should not match");
+  }
+
+  @Test
+  void matchesCaseInsensitiveTest() throws Exception {
+    AhoCorasickMatcher<String> matcher = new AhoCorasickMatcher<>(ImmutableMap.of("FooBar", "1"));
+    Assertions.assertTrue(matcher.matches("xFOOBARx"), "Should match regardless of case");
+    Assertions.assertTrue(matcher.matches("foobar"), "Should match regardless of case");
+  }
+
+  @Test
+  void matchesAcrossFailureLinksTest() throws Exception {
+    Map<String, String> keywords = ImmutableMap.of("he", "he", "she", "she", "hers", "hers", "abcd", "abcd", "bc",
+        "bc");
+    AhoCorasickMatcher<String> matcher = new AhoCorasickMatcher<>(keywords);
+    Assertions.assertEquals(Optional.of("she"), matcher.findFirst("ushers"));
+    Assertions.assertEquals(Optional.of("bc"), matcher.findFirst("abce"), "Should fall back to suffix keyword");
+    Assertions.assertFalse(matcher.matches("hxsxe"));
+  }
+
+  @Test
+  void matchesSpecialCharactersTest() throws Exception {
+    AhoCorasickMatcher<String> matcher = new AhoCorasickMatcher<>(ImmutableMap.of("bit.ly", "1", "$^*", "2"));
+    Assertions.assertTrue(matcher.matches("http://bit.ly/foo"));
+    Assertions.assertFalse(matcher.matches("bitxly"), "Dot should be literal");
+    Assertions.assertTrue(matcher.matches("a$^*b"));
+  }
+
+  @Test
+  void emptyKeywordMatchesEverythingTest() throws Exception {
+    AhoCorasickMatcher<String> matcher = new AhoCorasickMatcher<>(ImmutableMap.of("", "1"));
+    Assertions.assertTrue(matcher.matches(""));
+    Assertions.assertTrue(matcher.matches("foobar"));
+  }
+
+  @Test
+  void manyKeywordsTest() throws Exception {
+    Map<String, Integer> keywords = IntStream.range(0, 5000).boxed()
+        .collect(Collectors.toMap(i -> "word" + i + "x", i -> i));
+    AhoCorasickMatcher<Integer> matcher = new AhoCorasickMatcher<>(keywords);
+    Assertions.assertEquals(5000, matcher.size());
+    Assertions.assertEquals(Optional.of(4321), matcher.findFirst("some text WORD4321X more"));
+    Assertions.assertFalse(matcher.matches("word5000x"));
+  }
+}
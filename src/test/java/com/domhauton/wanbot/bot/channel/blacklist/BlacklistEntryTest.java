@@ -57,4 +57,21 @@ class BlacklistEntryTest {
     Assertions.assertTrue(blacklistEntryMatchAll.matches(exampleWord.substring(2)), "Should match missing char");
     Assertions.assertTrue(blacklistEntryMatchAll.matches(""), "Should match empty string");
   }
-}
\ No newline at end of file
+
+  @Test
+  void normaliseMessageTest() throws Exception {
+    Assertions.assertEquals("foo bar!", BlacklistEntry.normaliseMessage("FoO BAR!"));
+    Assertions.assertEquals("foo bar", BlacklistEntry.normaliseMessage("foo bar"));
+    Assertions.assertEquals("\u00c9t\u00c9", BlacklistEntry.normaliseMessage("\u00c9T\u00c9"),
+        "Only ASCII should be folded, as with the MESSAGE pattern");
+  }
+
+  @Test
+  void messageEntryMatchesNormalisedTest() throws Exception {
+    BlacklistEntry messageEntry = new BlacklistEntry("Foo.Bar", BlacklistType.MESSAGE);
+    Assertions.assertTrue(messageEntry.matches("foo.bar"));
+    Assertions.assertTrue(messageEntry.matches("FOO.BAR"));
+    Assertions.assertFalse(messageEntry.matches("fooxbar"), "Should not treat input as regex");
+    Assertions.assertFalse(messageEntry.matches("foo.bar "));
+  }
+}
@@ -0,0 +1,141 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Tests the blacklist journal survives reopening, torn writes and compaction.
+ */
+class BlacklistJournalTest {
+  private Path journalDirectory;
+  private Path journalPath;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    journalDirectory = Files.createTempDirectory("wanbot-testing");
+    journalPath = journalDirectory.resolve("blacklist.journal");
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    try (Stream<Path> paths = Files.list(journalDirectory)) {
+      for (Path path : paths.collect(Collectors.toList())) {
+        Files.deleteIfExists(path);
+      }
+    }
+    Files.deleteIfExists(journalDirectory);
+  }
+
+  @Test
+  void replayAddsAndRemovesTest() throws Exception {
+    BlacklistEntry wordEntry = new BlacklistEntry("foo", BlacklistType.WORD);
+    BlacklistEntry messageEntry = new BlacklistEntry("Hello World", BlacklistType.MESSAGE);
+    BlacklistEntry regexEntry = new BlacklistEntry("ba[rz]+", BlacklistType.REGEX);
+    try (BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath)) {
+      Assertions.assertTrue(blacklistJournal.replay().isEmpty(), "New journal should be empty");
+      blacklistJournal.append(ImmutableList.of(wordEntry, messageEntry, regexEntry), Collections.emptyList());
+      blacklistJournal.append(Collections.emptyList(), ImmutableList.of(wordEntry));
+    }
+    try (BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath)) {
+      List<BlacklistEntry> replayedEntries = new ArrayList<>(blacklistJournal.replay());
+      Assertions.assertEquals(ImmutableList.of(messageEntry, regexEntry), replayedEntries);
+      Assertions.assertEquals(BlacklistType.MESSAGE, replayedEntries.get(0).getBlacklistType());
+      Assertions.assertEquals("Hello World", replayedEntries.get(0).getInput());
+      Assertions.assertEquals(4, blacklistJournal.getRecordCount());
+    }
+  }
+
+  @Test
+  void growsBeyondInitialMappingTest() throws Exception {
+    Collection<BlacklistEntry> entries = IntStream.range(0, 5000)
+        .mapToObj(i -> new BlacklistEntry("some long blacklisted phrase number " + i, BlacklistType.WORD))
+        .collect(Collectors.toList());
+    try (BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath)) {
+      blacklistJournal.replay();
+      blacklistJournal.append(entries, Collections.emptyList());
+    }
+    try (BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath)) {
+      Assertions.assertEquals(5000, blacklistJournal.replay().size());
+    }
+  }
+
+  @Test
+  void tornRecordIgnoredTest() throws Exception {
+    BlacklistEntry firstEntry = new BlacklistEntry("foo", BlacklistType.WORD);
+    BlacklistEntry secondEntry = new BlacklistEntry("bar", BlacklistType.WORD);
+    try (BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath)) {
+      blacklistJournal.replay();
+      blacklistJournal.append(ImmutableList.of(firstEntry, secondEntry), Collections.emptyList());
+    }
+    // Corrupt the last byte of the second record, as if the write was interrupted.
+    corruptByte(8 + 13 + 12);
+
+    BlacklistEntry thirdEntry = new BlacklistEntry("baz", BlacklistType.WORD);
+    try (BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath)) {
+      Assertions.assertEquals(ImmutableList.of(firstEntry), new ArrayList<>(blacklistJournal.replay()));
+      blacklistJournal.append(ImmutableList.of(thirdEntry), Collections.emptyList());
+    }
+    try (BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath)) {
+      Assertions.assertEquals(ImmutableList.of(firstEntry, thirdEntry), new ArrayList<>(blacklistJournal.replay()),
+          "Append should overwrite the torn record");
+    }
+  }
+
+  @Test
+  void compactionTest() throws Exception {
+    BlacklistEntry keptEntry = new BlacklistEntry("kept", BlacklistType.WORD);
+    try (BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath)) {
+      blacklistJournal.replay();
+      blacklistJournal.append(ImmutableList.of(keptEntry), Collections.emptyList());
+      BlacklistEntry churnEntry = new BlacklistEntry("churn", BlacklistType.WORD);
+      for (int i = 0; i < BlacklistJournal.COMPACTION_MIN_RECORDS; i++) {
+        blacklistJournal.append(ImmutableList.of(churnEntry), Collections.emptyList());
+        blacklistJournal.append(Collections.emptyList(), ImmutableList.of(churnEntry));
+      }
+      Assertions.assertTrue(blacklistJournal.needsCompaction(1));
+      blacklistJournal.compact(ImmutableList.of(keptEntry));
+      Assertions.assertEquals(1, blacklistJournal.getRecordCount());
+      Assertions.assertFalse(blacklistJournal.needsCompaction(1));
+      blacklistJournal.append(ImmutableList.of(new BlacklistEntry("after", BlacklistType.WORD)),
+          Collections.emptyList());
+    }
+    try (BlacklistJournal blacklistJournal = BlacklistJournal.open(journalPath)) {
+      Assertions.assertEquals(2, blacklistJournal.replay().size());
+      Assertions.assertEquals(2, blacklistJournal.getRecordCount());
+    }
+    Assertions.assertFalse(Files.exists(journalDirectory.resolve("blacklist.journal.compact")));
+  }
+
+  @Test
+  void rejectsForeignFileTest() throws Exception {
+    Files.write(journalPath, "not a journal".getBytes());
+    Assertions.assertThrows(IOException.class, () -> BlacklistJournal.open(journalPath));
+  }
+
+  private void corruptByte(int position) throws IOException {
+    try (FileChannel fileChannel = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer byteBuffer = ByteBuffer.allocate(1);
+      fileChannel.read(byteBuffer, position);
+      byteBuffer.put(0, (byte) (byteBuffer.get(0) ^ 0xFF));
+      byteBuffer.rewind();
+      fileChannel.write(byteBuffer, position);
+    }
+  }
+}
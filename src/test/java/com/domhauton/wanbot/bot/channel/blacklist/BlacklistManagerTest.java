@@ -7,8 +7,18 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -106,6 +116,18 @@ class BlacklistManagerTest {
         "Should match exact message containing part of blacklisted message");
   }
 
+  @Test
+  void messageBlacklistNormalisedTest() throws Exception {
+    blacklistManager.addToBlacklist("Foo Bar", BlacklistType.MESSAGE);
+    Assertions.assertTrue(blacklistManager.isMessageBlacklisted("FOO BAR"), "Should match ignoring case");
+    Assertions.assertFalse(blacklistManager.isMessageBlacklisted("FooBar"), "Should not ignore spaces");
+    Assertions.assertThrows(BlacklistOperationException.class,
+        () -> blacklistManager.addToBlacklist("foo bar", BlacklistType.MESSAGE));
+    BlacklistEntry removedEntry = blacklistManager.removeFromBlacklist("FOO bar", BlacklistType.MESSAGE);
+    Assertions.assertEquals("Foo Bar", removedEntry.getInput(), "Should remove the stored entry");
+    Assertions.assertFalse(blacklistManager.isMessageBlacklisted("foo bar"), "Should no longer be blacklisted");
+  }
+
   @Test
   void wordBlacklistTest() throws Exception {
     blacklistManager.addToBlacklist(message2.getMessage(), BlacklistType.WORD);
@@ -125,6 +147,20 @@ class BlacklistManagerTest {
         "Everything should be unbanned. Testing for fat finger recourse.");
   }
 
+  @Test
+  void regexBlacklistCompiledPathsTest() throws Exception {
+    blacklistManager.addToBlacklist(".*bit\\.ly.*", BlacklistType.REGEX);
+    blacklistManager.addToBlacklist("(spam)\\1", BlacklistType.REGEX);
+    Assertions.assertEquals(1, blacklistManager.getRegexAutomatonEntryCount(), "Regular entry should be compiled");
+    Assertions.assertEquals(1, blacklistManager.getRegexResidualEntryCount(), "Backreference should fall back");
+    Assertions.assertTrue(blacklistManager.isMessageBlacklisted("go to BIT.LY/foo"));
+    Assertions.assertTrue(blacklistManager.isMessageBlacklisted("spamspam"));
+    Assertions.assertFalse(blacklistManager.isMessageBlacklisted("bitxly spam"));
+    blacklistManager.removeFromBlacklist("(spam)\\1", BlacklistType.REGEX);
+    Assertions.assertEquals(0, blacklistManager.getRegexResidualEntryCount(), "Removal should rebuild matcher");
+    Assertions.assertFalse(blacklistManager.isMessageBlacklisted("spamspam"));
+  }
+
   private void removeFromBlacklistIgnoreException(BlacklistManager blacklistManager, BlacklistEntry blacklistEntry) {
     try {
       blacklistManager.removeFromBlacklist(blacklistEntry);
@@ -177,6 +213,162 @@ class BlacklistManagerTest {
     Assertions.assertTrue(blacklistEntries.isEmpty(), "No items in blacklist. Should be empty");
   }
 
+  @Test
+  void bulkAddPublishesSingleSnapshotTest() throws Exception {
+    long initialGeneration = blacklistManager.getSnapshot().getGeneration();
+    Collection<String> words = IntStream.range(0, 1000).mapToObj(i -> "word" + i).collect(Collectors.toList());
+    Collection<BlacklistEntry> addedEntries = blacklistManager.addAllToBlacklist(words, BlacklistType.WORD);
+    Assertions.assertEquals(1000, addedEntries.size());
+    Assertions.assertEquals(initialGeneration + 1, blacklistManager.getSnapshot().getGeneration(),
+        "Bulk addition should publish exactly one snapshot");
+    Assertions.assertTrue(blacklistManager.isMessageBlacklisted("this has word999 in it"));
+    Assertions.assertTrue(blacklistManager.addAllToBlacklist(words, BlacklistType.WORD).isEmpty(),
+        "Existing entries should be skipped");
+    Assertions.assertEquals(initialGeneration + 1, blacklistManager.getSnapshot().getGeneration(),
+        "No change should not publish a snapshot");
+  }
+
+  @Test
+  void fuzzyRemovalPublishesSingleSnapshotTest() throws Exception {
+    blacklistManager.addAllToBlacklist(Arrays.asList("foo1", "foo2", "foo3"), BlacklistType.MESSAGE);
+    long generation = blacklistManager.getSnapshot().getGeneration();
+    Assertions.assertEquals(3, blacklistManager.removeFromBlacklist("foo").size());
+    Assertions.assertEquals(generation + 1, blacklistManager.getSnapshot().getGeneration(),
+        "Fuzzy removal should publish exactly one snapshot");
+  }
+
+  @Test
+  void failedAddDoesNotPublishSnapshotTest() throws Exception {
+    blacklistManager.addToBlacklist("foo", BlacklistType.WORD);
+    CompiledBlacklist snapshot = blacklistManager.getSnapshot();
+    Assertions.assertThrows(BlacklistOperationException.class,
+        () -> blacklistManager.addToBlacklist("foo", BlacklistType.WORD));
+    Assertions.assertSame(snapshot, blacklistManager.getSnapshot(), "Snapshot should be unchanged");
+  }
+
+  @Test
+  void concurrentReadersAndWritersTest() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      Future<?> writer = pool.submit(() -> IntStream.range(0, 200)
+          .forEach(i -> addToBlacklistUnsafe("word" + i, BlacklistType.WORD)));
+      Future<Long> reader = pool.submit(() -> IntStream.range(0, 20000)
+          .filter(i -> blacklistManager.isMessageBlacklisted("word" + (i % 200)))
+          .count());
+      writer.get(30, TimeUnit.SECONDS);
+      reader.get(30, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdownNow();
+    }
+    Assertions.assertEquals(200, blacklistManager.searchBlacklist("word").size(), "No update should be lost");
+  }
+
+  @Test
+  void regexLargeRepetitionUsesJavaRegexTest() throws Exception {
+    blacklistManager.addToBlacklist("spa{0,20000}m", BlacklistType.REGEX);
+    Assertions.assertEquals(0, blacklistManager.getRegexAutomatonEntryCount(),
+        "Large repetitions should not be expanded into an automaton");
+    Assertions.assertEquals(1, blacklistManager.getRegexResidualEntryCount());
+    Assertions.assertTrue(blacklistManager.isMessageBlacklisted("spaaam"));
+  }
+
+  @Test
+  void bulkAddSkipsNestedQuantifiersTest() throws Exception {
+    Collection<BlacklistEntry> addedEntries = blacklistManager.addAllToBlacklist(
+        Arrays.asList("(\\w+\\s?)+(?=!)", "(\\w+\\s?)+", "(spam)\\1"), BlacklistType.REGEX);
+    Assertions.assertEquals(2, addedEntries.size(), "Bulk addition should apply the same complexity check");
+    Assertions.assertTrue(blacklistManager.searchBlacklist("(?=!)").isEmpty());
+  }
+
+  @Test
+  void regexRejectsNestedQuantifiersTest() throws Exception {
+    Assertions.assertThrows(BlacklistOperationException.class,
+        () -> blacklistManager.addToBlacklist("(\\w+\\s?)+(?=!)", BlacklistType.REGEX));
+    blacklistManager.addToBlacklist("(\\w+\\s?)+", BlacklistType.REGEX);
+    Assertions.assertEquals(1, blacklistManager.getRegexAutomatonEntryCount(),
+        "Nested quantifiers are safe when compiled into the automaton");
+  }
+
+  @Test
+  void regexQuarantinedOverBudgetTest() throws Exception {
+    BlacklistManager budgetedBlacklistManager = new BlacklistManager(new RegexEvaluationGuard(10_000L, 10_000L));
+    BlacklistEntry slowEntry = budgetedBlacklistManager.addToBlacklist("(.*a){12}(?!x)b", BlacklistType.REGEX);
+    long verdictGeneration = budgetedBlacklistManager.getVerdictCache().getGeneration();
+    Assertions.assertFalse(budgetedBlacklistManager.isMessageBlacklisted("aaaaaaaaaaaaaaaaaaaaaaaaac"));
+    Assertions.assertEquals(verdictGeneration + 1, budgetedBlacklistManager.getVerdictCache().getGeneration(),
+        "Quarantine should invalidate cached verdicts");
+    Assertions.assertEquals(Collections.singletonList(slowEntry),
+        new ArrayList<>(budgetedBlacklistManager.getQuarantinedEntries()));
+    Assertions.assertEquals(1L, budgetedBlacklistManager.getRegexEntryCosts().get(slowEntry).getEvaluations());
+
+    budgetedBlacklistManager.removeFromBlacklist(slowEntry);
+    Assertions.assertTrue(budgetedBlacklistManager.getQuarantinedEntries().isEmpty(),
+        "Removed entries should leave quarantine");
+  }
+
+  @Test
+  void verdictCacheTest() throws Exception {
+    blacklistManager.addToBlacklist("foo", BlacklistType.WORD);
+    Assertions.assertTrue(blacklistManager.isMessageBlacklisted("foo bar"));
+    Assertions.assertTrue(blacklistManager.isMessageBlacklisted("foo bar"));
+    Assertions.assertFalse(blacklistManager.isMessageBlacklisted("bar"));
+    Assertions.assertEquals(1L, blacklistManager.getVerdictCache().getHitCount(), "Repeated message should hit");
+
+    blacklistManager.addToBlacklist("bar", BlacklistType.WORD);
+    Assertions.assertTrue(blacklistManager.isMessageBlacklisted("bar"), "Cache should be invalidated on change");
+    blacklistManager.removeFromBlacklist("foo", BlacklistType.WORD);
+    Assertions.assertFalse(blacklistManager.isMessageBlacklisted("foo"), "Cache should be invalidated on removal");
+    Assertions.assertTrue(blacklistManager.getVerdictCacheHitRate() > 0d);
+  }
+
+  @Test
+  void journalReplayTest() throws Exception {
+    Path journalDirectory = Files.createTempDirectory("wanbot-testing");
+    Path journalPath = journalDirectory.resolve("blacklist.journal");
+    try (BlacklistManager journalledBlacklistManager = BlacklistManager.open(journalPath)) {
+      journalledBlacklistManager.addAllToBlacklist(Arrays.asList("foo", "bar", "baz"), BlacklistType.WORD);
+      journalledBlacklistManager.addToBlacklist("Hello World", BlacklistType.MESSAGE);
+      journalledBlacklistManager.addToBlacklist("(spam)\\1", BlacklistType.REGEX);
+      journalledBlacklistManager.removeFromBlacklist("bar", BlacklistType.WORD);
+    }
+    try (BlacklistManager journalledBlacklistManager = BlacklistManager.open(journalPath)) {
+      Assertions.assertEquals(0L, journalledBlacklistManager.getSnapshot().getGeneration(),
+          "Replayed entries should be compiled once");
+      Assertions.assertEquals(4, journalledBlacklistManager.getSnapshot().getEntries().size());
+      Assertions.assertTrue(journalledBlacklistManager.isMessageBlacklisted("x foo x"));
+      Assertions.assertFalse(journalledBlacklistManager.isMessageBlacklisted("x bar x"), "Removal should persist");
+      Assertions.assertTrue(journalledBlacklistManager.isMessageBlacklisted("hello world"));
+      Assertions.assertTrue(journalledBlacklistManager.isMessageBlacklisted("spamspam"));
+      Assertions.assertThrows(BlacklistOperationException.class,
+          () -> journalledBlacklistManager.addToBlacklist("HELLO WORLD", BlacklistType.MESSAGE));
+    } finally {
+      Files.deleteIfExists(journalPath);
+      Files.deleteIfExists(journalDirectory);
+    }
+  }
+
+  @Test
+  void metricsSnapshotTest() throws Exception {
+    BlacklistEntry fooEntry = blacklistManager.addToBlacklist("foo", BlacklistType.WORD);
+    BlacklistEntry deadEntry = blacklistManager.addToBlacklist("never", BlacklistType.WORD);
+    BlacklistEntry regexEntry = blacklistManager.addToBlacklist("(spam)\\1", BlacklistType.REGEX);
+    Stream.of("foo", "a foo", "foo", "spamspam", "clean").forEach(blacklistManager::isMessageBlacklisted);
+
+    BlacklistMetricsSnapshot metricsSnapshot = blacklistManager.getMetricsSnapshot();
+    Assertions.assertEquals(5L, metricsSnapshot.getCheckCount());
+    Assertions.assertEquals(4L, metricsSnapshot.getBlacklistedCount());
+    Assertions.assertEquals(Long.valueOf(3L), metricsSnapshot.getEntryHits().get(fooEntry),
+        "Cached verdicts should count towards hits");
+    Assertions.assertEquals(fooEntry, metricsSnapshot.getEntryHits().keySet().iterator().next(), "Most hit first");
+    Assertions.assertEquals(Collections.singletonList(deadEntry), metricsSnapshot.getDeadEntries());
+    Assertions.assertEquals(Collections.singleton(regexEntry), metricsSnapshot.getSlowestEntries().keySet());
+    Assertions.assertTrue(metricsSnapshot.getMaxNanos() >= metricsSnapshot.getMedianNanos());
+
+    blacklistManager.removeFromBlacklist(fooEntry);
+    Assertions.assertFalse(blacklistManager.getMetricsSnapshot().getEntryHits().containsKey(fooEntry),
+        "Removed entries should be dropped");
+  }
+
   /**
    * Test only addition method for streams.
    */
@@ -0,0 +1,63 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Tests the immutable blacklist snapshot.
+ */
+class CompiledBlacklistTest {
+
+  @Test
+  void emptySnapshotTest() throws Exception {
+    CompiledBlacklist compiledBlacklist = CompiledBlacklist.empty();
+    Assertions.assertEquals(0L, compiledBlacklist.getGeneration());
+    Assertions.assertTrue(compiledBlacklist.getEntries().isEmpty());
+    Assertions.assertFalse(compiledBlacklist.matches("foobar"), "Nothing should match an empty blacklist");
+  }
+
+  @Test
+  void matchesAllTypesTest() throws Exception {
+    CompiledBlacklist compiledBlacklist = CompiledBlacklist.compile(ImmutableList.of(
+        new BlacklistEntry("Hello World", BlacklistType.MESSAGE),
+        new BlacklistEntry("foo", BlacklistType.WORD),
+        new BlacklistEntry(Pattern.compile("ba+r"))), 3L);
+    Assertions.assertEquals(3L, compiledBlacklist.getGeneration());
+    Assertions.assertEquals(3, compiledBlacklist.getEntries().size());
+    Assertions.assertTrue(compiledBlacklist.matches("HELLO WORLD"), "Should match normalised message");
+    Assertions.assertTrue(compiledBlacklist.matches("xx foo xx"), "Should match contained word");
+    Assertions.assertTrue(compiledBlacklist.matches("baaar"), "Should match regex");
+    Assertions.assertFalse(compiledBlacklist.matches("hello"));
+  }
+
+  @Test
+  void containsAndFindTest() throws Exception {
+    BlacklistEntry messageEntry = new BlacklistEntry("Hello World", BlacklistType.MESSAGE);
+    BlacklistEntry wordEntry = new BlacklistEntry("foo", BlacklistType.WORD);
+    CompiledBlacklist compiledBlacklist = CompiledBlacklist.compile(ImmutableList.of(messageEntry, wordEntry), 1L);
+
+    Assertions.assertTrue(compiledBlacklist.contains(new BlacklistEntry("hello world", BlacklistType.MESSAGE)),
+        "MESSAGE entries should be found by normalised message");
+    Assertions.assertSame(messageEntry, compiledBlacklist.find("HELLO WORLD", BlacklistType.MESSAGE));
+    Assertions.assertEquals(wordEntry, compiledBlacklist.find("foo", BlacklistType.WORD));
+    Assertions.assertNull(compiledBlacklist.find("bar", BlacklistType.WORD));
+    Assertions.assertNull(compiledBlacklist.find("[", BlacklistType.REGEX), "Invalid patterns are never present");
+  }
+
+  @Test
+  void findMatchTest() throws Exception {
+    BlacklistEntry messageEntry = new BlacklistEntry("Hello World", BlacklistType.MESSAGE);
+    BlacklistEntry wordEntry = new BlacklistEntry("foo", BlacklistType.WORD);
+    BlacklistEntry regexEntry = new BlacklistEntry(Pattern.compile("ba+r"));
+    CompiledBlacklist compiledBlacklist = CompiledBlacklist.compile(
+        ImmutableList.of(messageEntry, wordEntry, regexEntry), 1L);
+    Assertions.assertEquals(Optional.of(messageEntry), compiledBlacklist.findMatch("hello world"));
+    Assertions.assertEquals(Optional.of(wordEntry), compiledBlacklist.findMatch("xx foo xx"));
+    Assertions.assertEquals(Optional.of(regexEntry), compiledBlacklist.findMatch("baaar"));
+    Assertions.assertEquals(Optional.empty(), compiledBlacklist.findMatch("hello"));
+  }
+}
@@ -0,0 +1,40 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.LongStream;
+
+/**
+ * Tests the power of two latency histogram.
+ */
+class LatencyHistogramTest {
+
+  @Test
+  void emptyHistogramTest() throws Exception {
+    LatencyHistogram latencyHistogram = new LatencyHistogram();
+    Assertions.assertEquals(0L, latencyHistogram.getCount());
+    Assertions.assertEquals(0L, latencyHistogram.getPercentileNanos(0.5d));
+    Assertions.assertEquals(0L, latencyHistogram.getMaxNanos());
+  }
+
+  @Test
+  void percentileWithinFactorOfTwoTest() throws Exception {
+    LatencyHistogram latencyHistogram = new LatencyHistogram();
+    LongStream.rangeClosed(1, 1000).forEach(latencyHistogram::record);
+    Assertions.assertEquals(1000L, latencyHistogram.getCount());
+    Assertions.assertEquals(1000L, latencyHistogram.getMaxNanos());
+    long median = latencyHistogram.getPercentileNanos(0.5d);
+    Assertions.assertTrue(median >= 500L && median < 1000L, "Median bucket should hold 500. Was: " + median);
+    Assertions.assertEquals(1000L, latencyHistogram.getPercentileNanos(0.99d), "Capped at the max");
+  }
+
+  @Test
+  void extremeValuesTest() throws Exception {
+    LatencyHistogram latencyHistogram = new LatencyHistogram();
+    latencyHistogram.record(-5L);
+    latencyHistogram.record(Long.MAX_VALUE);
+    Assertions.assertEquals(0L, latencyHistogram.getPercentileNanos(0.5d), "Negative values count as 0");
+    Assertions.assertEquals(Long.MAX_VALUE, latencyHistogram.getPercentileNanos(1d));
+  }
+}
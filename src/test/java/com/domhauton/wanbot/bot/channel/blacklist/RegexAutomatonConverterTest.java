@@ -0,0 +1,55 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.RegExp;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Checks converted patterns behave the same as java.util.regex for blacklist matching.
+ */
+class RegexAutomatonConverterTest {
+  private static final List<String> messages = Arrays.asList("", "foobar", "FooBar", "foo bar", "foo123",
+      "bit.ly/abc", "a\"quote\"", "x-y_z", "FOO\tBAR", "foo\nbar", "aaaaaaaab", "[brackets]", "#hash@at~");
+
+  @Test
+  void convertsRegularPatternsTest() throws Exception {
+    Stream.of(".*", "foo", "^foobar$", ".*bar", "foo|bar", "(foo|bar)+", "(?:foo)?bar", "fo{1,2}bar",
+        "fo{2,}bar", "fo{2}bar", "[a-f]oo.*", "[^a-z]*", "foo\\d+", "\\w+\\s\\w+", "\\S+", "bit\\.ly/.*",
+        ".*\"quote\".*", "[x\\-y_z]+", "x-y_z", "[-_xyz]+", "foo\\tbar", "a*?b", "a+b", "\\[brackets]",
+        "\\Qbit.ly\\E.*", "#hash@at~", "foo|", "[0-9]+", "[A-Z]+", ".*\\W.*", "")
+        .forEach(this::assertEquivalent);
+  }
+
+  @Test
+  void rejectsIrregularPatternsTest() throws Exception {
+    Stream.of("(a)\\1", "(?=foo).*", "(?i)foo", "\\bfoo\\b", "foo++", "a^b", "a$b", "[a-z&&[^x]]",
+        "\\p{Alpha}", "\\x41", "[A-z]", "[0-Z]", "(?<name>foo)", "a{0,20000}", "a{300,}", "(a{20}b){20}",
+        "((ab){10}c){30}", "a{99999999999}")
+        .forEach(regex -> Assertions.assertFalse(RegexAutomatonConverter.convert(regex).isPresent(),
+            "Should not convert " + regex));
+  }
+
+  @Test
+  void convertsRepetitionsUpToLimitTest() throws Exception {
+    Stream.of("a{0,256}", "a{255,}", "(a{16}b){16}", "(a{200}|b){1}", "a{256}b{256}")
+        .forEach(regex -> Assertions.assertTrue(RegexAutomatonConverter.convert(regex).isPresent(),
+            "Should convert " + regex));
+  }
+
+  private void assertEquivalent(String regex) {
+    Optional<String> converted = RegexAutomatonConverter.convert(regex);
+    Assertions.assertTrue(converted.isPresent(), "Should convert " + regex);
+    CharacterRunAutomaton automaton = new CharacterRunAutomaton(
+        new RegExp(converted.get(), RegExp.NONE).toAutomaton());
+    Pattern pattern = BlacklistType.REGEX.stringToPattern(regex);
+    messages.forEach(message -> Assertions.assertEquals(pattern.matcher(message).matches(), automaton.run(message),
+        "Mismatch for " + regex + " converted to " + converted.get() + " on " + message));
+  }
+}
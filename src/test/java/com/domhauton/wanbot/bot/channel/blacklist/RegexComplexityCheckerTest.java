@@ -0,0 +1,30 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the static check for catastrophically backtracking patterns.
+ */
+class RegexComplexityCheckerTest {
+
+  @Test
+  void safePatternsTest() throws Exception {
+    String[] safePatterns = {"foo", ".*bit\\.ly.*", "(spam)\\1", "(ab)+c", "(a|b)*", "(a{2,5})+", "[(*]+",
+        "\\Q(a+)+\\E", "(a+)?", "x{3,}", "(?:a+b)"};
+    for (String safePattern : safePatterns) {
+      Assertions.assertFalse(RegexComplexityChecker.findHazard(safePattern).isPresent(),
+          "Should be safe: " + safePattern);
+    }
+  }
+
+  @Test
+  void nestedQuantifierPatternsTest() throws Exception {
+    String[] hazardousPatterns = {"(a+)+", "(a*)*b", "(.*x)*", "((ab)+c)+", "(a+){2,}", "(\\w+\\s?)+$",
+        "([a-z]+)*?", "(?:x*y)+"};
+    for (String hazardousPattern : hazardousPatterns) {
+      Assertions.assertTrue(RegexComplexityChecker.findHazard(hazardousPattern).isPresent(),
+          "Should be hazardous: " + hazardousPattern);
+    }
+  }
+}
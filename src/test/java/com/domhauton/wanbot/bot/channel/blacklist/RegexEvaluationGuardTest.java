@@ -0,0 +1,96 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests budgeted evaluation and quarantine of REGEX entries.
+ */
+class RegexEvaluationGuardTest {
+  private static final String BACKTRACKING_MESSAGE = "aaaaaaaaaaaaaaaaaaaaaaaaac";
+
+  @Test
+  void matchesWithinBudgetTest() throws Exception {
+    RegexEvaluationGuard guard = new RegexEvaluationGuard();
+    BlacklistEntry blacklistEntry = new BlacklistEntry("(spam)\\1", BlacklistType.REGEX);
+    Assertions.assertTrue(guard.matches(blacklistEntry, "SPAMspam"));
+    Assertions.assertFalse(guard.matches(blacklistEntry, "spam"));
+    Assertions.assertFalse(guard.isQuarantined(blacklistEntry));
+
+    RegexEvaluationGuard.EntryCost entryCost = guard.getEntryCosts().get(blacklistEntry);
+    Assertions.assertEquals(2L, entryCost.getEvaluations(), "Each evaluation should be recorded");
+    Assertions.assertTrue(entryCost.getTotalSteps() > 0L, "Characters read should be recorded");
+  }
+
+  @Test
+  void quarantinesStepBudgetBreachTest() throws Exception {
+    RegexEvaluationGuard guard = new RegexEvaluationGuard(10_000L, 10_000L);
+    BlacklistEntry blacklistEntry = new BlacklistEntry("(.*a){12}b", BlacklistType.REGEX);
+    Assertions.assertFalse(guard.matches(blacklistEntry, BACKTRACKING_MESSAGE), "Aborted evaluation should not match");
+    Assertions.assertTrue(guard.isQuarantined(blacklistEntry));
+    Assertions.assertFalse(guard.matches(blacklistEntry, "aab"), "Quarantined entries are not evaluated");
+    Assertions.assertEquals(1L, guard.getEntryCosts().get(blacklistEntry).getEvaluations());
+  }
+
+  @Test
+  void quarantinesRepeatedTimeBudgetBreachTest() throws Exception {
+    RegexEvaluationGuard guard = new RegexEvaluationGuard(Long.MAX_VALUE, 1L);
+    BlacklistEntry blacklistEntry = new BlacklistEntry("(.*a){12}b", BlacklistType.REGEX);
+    for (int i = 1; i < RegexEvaluationGuard.QUARANTINE_TIME_OVERRUNS; i++) {
+      Assertions.assertFalse(guard.matches(blacklistEntry, BACKTRACKING_MESSAGE), "Aborted evaluation should not match");
+      Assertions.assertFalse(guard.isQuarantined(blacklistEntry), "A single slow evaluation could be a GC pause");
+    }
+    guard.matches(blacklistEntry, BACKTRACKING_MESSAGE);
+    Assertions.assertTrue(guard.isQuarantined(blacklistEntry), "Repeatedly slow entry should be quarantined");
+    Assertions.assertTrue(guard.getEntryCosts().get(blacklistEntry).getMaxNanos() >= 1_000_000L);
+  }
+
+  @Test
+  void timeOverrunsResetOnSuccessTest() throws Exception {
+    RegexEvaluationGuard guard = new RegexEvaluationGuard(Long.MAX_VALUE, 1L);
+    BlacklistEntry blacklistEntry = new BlacklistEntry("(.*a){12}b", BlacklistType.REGEX);
+    for (int i = 1; i < RegexEvaluationGuard.QUARANTINE_TIME_OVERRUNS; i++) {
+      guard.matches(blacklistEntry, BACKTRACKING_MESSAGE);
+    }
+    Assertions.assertFalse(guard.matches(blacklistEntry, "ab"));
+    Assertions.assertEquals(0, guard.getEntryCosts().get(blacklistEntry).getConsecutiveTimeOverruns(),
+        "Evaluation within budget should reset the overrun count");
+    guard.matches(blacklistEntry, BACKTRACKING_MESSAGE);
+    Assertions.assertFalse(guard.isQuarantined(blacklistEntry), "Only consecutive overruns should quarantine");
+  }
+
+  @Test
+  void setBudgetReleasesQuarantineTest() throws Exception {
+    RegexEvaluationGuard guard = new RegexEvaluationGuard(10_000L, 10_000L);
+    AtomicInteger quarantineChanges = new AtomicInteger();
+    guard.setQuarantineListener(quarantineChanges::incrementAndGet);
+    BlacklistEntry blacklistEntry = new BlacklistEntry("(.*a){12}b", BlacklistType.REGEX);
+    guard.matches(blacklistEntry, BACKTRACKING_MESSAGE);
+    Assertions.assertTrue(guard.isQuarantined(blacklistEntry));
+
+    guard.setBudget(10_000L, 10_000L);
+    Assertions.assertTrue(guard.isQuarantined(blacklistEntry), "An unchanged budget should keep the quarantine");
+    guard.setBudget(RegexEvaluationGuard.DEFAULT_MAX_STEPS, 10_000L);
+    Assertions.assertFalse(guard.isQuarantined(blacklistEntry), "A new budget should release the entry");
+    Assertions.assertEquals(2, quarantineChanges.get(), "Release should notify the listener");
+    guard.matches(blacklistEntry, "ab");
+    Assertions.assertEquals(2L, guard.getEntryCosts().get(blacklistEntry).getEvaluations(),
+        "Released entry should be evaluated again");
+  }
+
+  @Test
+  void retainAllDropsRemovedEntriesTest() throws Exception {
+    RegexEvaluationGuard guard = new RegexEvaluationGuard(10_000L, 10_000L);
+    BlacklistEntry slowEntry = new BlacklistEntry("(.*a){12}b", BlacklistType.REGEX);
+    BlacklistEntry fastEntry = new BlacklistEntry("foo", BlacklistType.REGEX);
+    guard.matches(slowEntry, BACKTRACKING_MESSAGE);
+    guard.matches(fastEntry, "foo");
+    guard.retainAll(ImmutableList.of(fastEntry));
+    Assertions.assertFalse(guard.isQuarantined(slowEntry));
+    Assertions.assertEquals(Collections.singleton(fastEntry), guard.getEntryCosts().keySet());
+  }
+}
@@ -0,0 +1,86 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests the REGEX union automaton and its java.util.regex fallback.
+ */
+class RegexUnionMatcherTest {
+
+  @Test
+  void emptyMatcherTest() throws Exception {
+    RegexUnionMatcher matcher = new RegexUnionMatcher(Collections.emptyList());
+    Assertions.assertFalse(matcher.matches("foobar"));
+    Assertions.assertFalse(matcher.matches(""));
+    Assertions.assertEquals(0, matcher.getAutomatonEntryCount());
+    Assertions.assertEquals(0, matcher.getResidualEntryCount());
+  }
+
+  @Test
+  void splitsAutomatonAndResidualEntriesTest() throws Exception {
+    Collection<BlacklistEntry> entries = Arrays.asList(
+        new BlacklistEntry(".*foo.*", BlacklistType.REGEX),
+        new BlacklistEntry("ba[rz]+", BlacklistType.REGEX),
+        new BlacklistEntry("(a+)\\1", BlacklistType.REGEX),
+        new BlacklistEntry("(?=x).*yz", BlacklistType.REGEX));
+    RegexUnionMatcher matcher = new RegexUnionMatcher(entries);
+    Assertions.assertEquals(2, matcher.getAutomatonEntryCount(), "Regular entries should use the automaton");
+    Assertions.assertEquals(2, matcher.getResidualEntryCount(), "Backreference and lookahead should fall back");
+
+    Assertions.assertTrue(matcher.matches("xxFOOxx"));
+    Assertions.assertTrue(matcher.matches("barzz"));
+    Assertions.assertTrue(matcher.matches("aaaa"), "Residual backreference entry should match");
+    Assertions.assertTrue(matcher.matches("xyz"), "Residual lookahead entry should match");
+    Assertions.assertFalse(matcher.matches("aaa"));
+    Assertions.assertFalse(matcher.matches("bar!"));
+  }
+
+  @Test
+  void manyEntriesTest() throws Exception {
+    List<BlacklistEntry> automatonEntries = IntStream.range(0, 500)
+        .mapToObj(i -> new BlacklistEntry("spam" + i + "[a-z]*", BlacklistType.REGEX))
+        .collect(Collectors.toList());
+    List<BlacklistEntry> residualEntries = IntStream.range(0, 50)
+        .mapToObj(i -> new BlacklistEntry("(egg" + i + ")\\1", BlacklistType.REGEX))
+        .collect(Collectors.toList());
+    List<BlacklistEntry> entries = new ArrayList<>(automatonEntries);
+    entries.addAll(residualEntries);
+    RegexUnionMatcher matcher = new RegexUnionMatcher(entries);
+    Assertions.assertEquals(500, matcher.getAutomatonEntryCount(), "Plain entries should join the automaton");
+    Assertions.assertEquals(50, matcher.getResidualEntryCount(), "Backreferences should stay with java.util.regex");
+
+    Assertions.assertEquals(Optional.of(automatonEntries.get(0)), matcher.findMatch("spam0"));
+    Assertions.assertEquals(Optional.of(automatonEntries.get(250)), matcher.findMatch("SPAM250xyz"));
+    Assertions.assertEquals(Optional.of(automatonEntries.get(499)), matcher.findMatch("spam499abc"));
+    Assertions.assertFalse(matcher.matches("spam500abc"), "Only the added numbers should match");
+    Assertions.assertFalse(matcher.matches("spam12abc1"), "Trailing digits are not letters");
+    Assertions.assertFalse(matcher.matches("xspam1"), "Entries must match the whole message");
+
+    Assertions.assertEquals(Optional.of(residualEntries.get(7)), matcher.findMatch("egg7egg7"));
+    Assertions.assertEquals(Optional.of(residualEntries.get(49)), matcher.findMatch("egg49egg49"));
+    Assertions.assertFalse(matcher.matches("egg7egg8"), "Backreferences should repeat the same group");
+    Assertions.assertFalse(matcher.matches("egg50egg50"));
+  }
+
+  @Test
+  void findMatchReportsEntryTest() throws Exception {
+    BlacklistEntry fooEntry = new BlacklistEntry(".*foo.*", BlacklistType.REGEX);
+    BlacklistEntry barEntry = new BlacklistEntry("ba[rz]+", BlacklistType.REGEX);
+    BlacklistEntry backreferenceEntry = new BlacklistEntry("(a+)\\1", BlacklistType.REGEX);
+    RegexUnionMatcher matcher = new RegexUnionMatcher(Arrays.asList(fooEntry, barEntry, backreferenceEntry));
+    Assertions.assertEquals(Optional.of(barEntry), matcher.findMatch("BARZ"));
+    Assertions.assertEquals(Optional.of(fooEntry), matcher.findMatch("xfoox"));
+    Assertions.assertEquals(Optional.of(backreferenceEntry), matcher.findMatch("aaaa"));
+    Assertions.assertEquals(Optional.empty(), matcher.findMatch("aaa"));
+  }
+}
@@ -0,0 +1,53 @@
+package com.domhauton.wanbot.bot.channel.blacklist;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the blacklist verdict cache.
+ */
+class VerdictCacheTest {
+
+  @Test
+  void capacityRoundedToPowerOfTwoTest() throws Exception {
+    Assertions.assertEquals(1, new VerdictCache(1).capacity());
+    Assertions.assertEquals(64, new VerdictCache(64).capacity());
+    Assertions.assertEquals(128, new VerdictCache(65).capacity());
+  }
+
+  @Test
+  void cachedVerdictTest() throws Exception {
+    VerdictCache verdictCache = new VerdictCache();
+    Assertions.assertNull(verdictCache.get("foo"), "Nothing should be cached");
+    BlacklistEntry blacklistEntry = new BlacklistEntry("foo", BlacklistType.WORD);
+    verdictCache.put("foo", verdictCache.getGeneration(), blacklistEntry);
+    verdictCache.put("bar", verdictCache.getGeneration(), null);
+    Assertions.assertSame(blacklistEntry, verdictCache.get("foo").getMatchedEntry());
+    Assertions.assertFalse(verdictCache.get("bar").isBlacklisted());
+    Assertions.assertNull(verdictCache.get("FOO"), "Lookups should be exact");
+
+    Assertions.assertEquals(2L, verdictCache.getHitCount());
+    Assertions.assertEquals(2L, verdictCache.getMissCount());
+    Assertions.assertEquals(0.5d, verdictCache.getHitRate(), 0.0001d);
+  }
+
+  @Test
+  void invalidateTest() throws Exception {
+    VerdictCache verdictCache = new VerdictCache();
+    long staleGeneration = verdictCache.getGeneration();
+    verdictCache.put("foo", staleGeneration, null);
+    verdictCache.invalidate();
+    Assertions.assertNull(verdictCache.get("foo"), "Verdicts should be dropped on invalidation");
+    verdictCache.put("foo", staleGeneration, null);
+    Assertions.assertNull(verdictCache.get("foo"), "Verdicts computed before invalidation should be ignored");
+  }
+
+  @Test
+  void sizeBoundedEvictionTest() throws Exception {
+    VerdictCache verdictCache = new VerdictCache(1);
+    verdictCache.put("foo", verdictCache.getGeneration(), null);
+    verdictCache.put("bar", verdictCache.getGeneration(), null);
+    Assertions.assertNull(verdictCache.get("foo"), "Older verdict should be evicted");
+    Assertions.assertNotNull(verdictCache.get("bar"));
+  }
+}
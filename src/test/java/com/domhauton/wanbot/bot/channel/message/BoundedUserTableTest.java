@@ -0,0 +1,97 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests frequency aware admission to the bounded user table.
+ */
+class BoundedUserTableTest {
+
+  @Test
+  void admitsUntilFullTest() throws Exception {
+    BoundedUserTable<String, String> boundedUserTable = new BoundedUserTable<>(3);
+    IntStream.range(0, 3).forEach(x -> boundedUserTable.getOrAdmit("user" + x, key -> key + "State"));
+    Assertions.assertEquals(3, boundedUserTable.size());
+    Assertions.assertEquals("user1State", boundedUserTable.get("user1"));
+    Assertions.assertNull(boundedUserTable.get("user3"), "Unknown users should not be created by get");
+  }
+
+  @Test
+  void oneOffUsersDoNotEvictRegularsTest() throws Exception {
+    BoundedUserTable<String, String> boundedUserTable = new BoundedUserTable<>(2);
+    IntStream.range(0, 5).forEach(x -> {
+      boundedUserTable.getOrAdmit("regular1", key -> key);
+      boundedUserTable.getOrAdmit("regular2", key -> key);
+    });
+    IntStream.range(0, 100).forEach(x ->
+        Assertions.assertNull(boundedUserTable.getOrAdmit("oneOff" + x, key -> key), "One-off user admitted"));
+    Assertions.assertEquals("regular1", boundedUserTable.get("regular1"));
+    Assertions.assertEquals("regular2", boundedUserTable.get("regular2"));
+  }
+
+  @Test
+  void frequentNewcomerAdmittedTest() throws Exception {
+    BoundedUserTable<String, String> boundedUserTable = new BoundedUserTable<>(2);
+    boundedUserTable.getOrAdmit("oldUser1", key -> key);
+    boundedUserTable.getOrAdmit("oldUser2", key -> key);
+    Assertions.assertNull(boundedUserTable.getOrAdmit("newUser", key -> key), "First message should not be enough");
+    Assertions.assertEquals("newUser", boundedUserTable.getOrAdmit("newUser", key -> key),
+        "Newcomer seen more often than the oldest user should be admitted");
+    Assertions.assertEquals(2, boundedUserTable.size());
+  }
+
+  @Test
+  void evictionListenerTest() throws Exception {
+    List<String> evictedUsers = new ArrayList<>();
+    BoundedUserTable<String, String> boundedUserTable =
+        new BoundedUserTable<>(1, (key, state) -> evictedUsers.add(key + ":" + state));
+    boundedUserTable.getOrAdmit("oldUser", key -> key + "State");
+    boundedUserTable.getOrAdmit("newUser", key -> key + "State");
+    boundedUserTable.getOrAdmit("newUser", key -> key + "State");
+    Assertions.assertEquals(Collections.singletonList("oldUser:oldUserState"), evictedUsers,
+        "Listener should receive the evicted user and state");
+  }
+
+  @Test
+  void removeFreesPlaceTest() throws Exception {
+    List<String> evictedUsers = new ArrayList<>();
+    BoundedUserTable<String, String> boundedUserTable =
+        new BoundedUserTable<>(1, (key, state) -> evictedUsers.add(key));
+    boundedUserTable.getOrAdmit("oldUser", key -> key + "State");
+    Assertions.assertEquals("oldUserState", boundedUserTable.remove("oldUser"));
+    Assertions.assertNull(boundedUserTable.remove("oldUser"));
+    Assertions.assertEquals(0, boundedUserTable.size());
+    Assertions.assertNotNull(boundedUserTable.getOrAdmit("newUser", key -> key + "State"),
+        "Removed user's place should be free");
+    Assertions.assertEquals(1, boundedUserTable.size());
+    Assertions.assertTrue(evictedUsers.isEmpty(), "Removal should not call the listener");
+  }
+
+  @Test
+  void concurrentAdmissionStaysNearBoundTest() throws Exception {
+    int maximumSize = 1000;
+    BoundedUserTable<String, String> boundedUserTable = new BoundedUserTable<>(maximumSize);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Future<?>> writers = IntStream.range(0, 4)
+        .mapToObj(thread -> pool.submit(() -> IntStream.range(0, 20000)
+            .forEach(x -> boundedUserTable.getOrAdmit("user" + (x % 5000), key -> key))))
+        .collect(Collectors.toList());
+    for (Future<?> writer : writers) {
+      writer.get(10L, TimeUnit.SECONDS);
+    }
+    pool.shutdown();
+    Assertions.assertTrue(boundedUserTable.size() <= maximumSize + 4,
+        "Table should stay bounded. Size: " + boundedUserTable.size());
+  }
+}
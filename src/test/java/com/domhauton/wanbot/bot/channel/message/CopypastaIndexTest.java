@@ -0,0 +1,48 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Tests decayed distinct user counts of fingerprints.
+ */
+class CopypastaIndexTest {
+  private static final long HALF_LIFE_MILLIS = 1_000L;
+  private static final long[] FINGERPRINTS = {11L, 22L, 33L, 44L};
+
+  @Test
+  void distinctUserTest() throws Exception {
+    CopypastaIndex copypastaIndex = new CopypastaIndex(64, HALF_LIFE_MILLIS);
+    IntStream.range(0, 3).forEach(x -> copypastaIndex.add(FINGERPRINTS, 7, 0L));
+    Assertions.assertEquals(1d, copypastaIndex.userCount(11L, 0L), 1e-9, "Users should only be counted once");
+    IntStream.range(0, 4).forEach(userId -> copypastaIndex.add(new long[]{11L, 22L}, userId, 0L));
+    Assertions.assertEquals(5d, copypastaIndex.userCount(22L, 0L), 1e-9);
+    Assertions.assertEquals(0.5d, copypastaIndex.sharedFraction(FINGERPRINTS, 5, 0L), 1e-9);
+    Assertions.assertEquals(0d, copypastaIndex.sharedFraction(new long[0], 1, 0L), 1e-9);
+  }
+
+  @Test
+  void decayTest() throws Exception {
+    CopypastaIndex copypastaIndex = new CopypastaIndex(64, HALF_LIFE_MILLIS);
+    IntStream.range(0, 4).forEach(userId -> copypastaIndex.add(FINGERPRINTS, userId, 0L));
+    Assertions.assertEquals(2d, copypastaIndex.userCount(11L, HALF_LIFE_MILLIS), 1e-9, "Count should halve");
+    Assertions.assertEquals(1d, copypastaIndex.sharedFraction(FINGERPRINTS, 2, HALF_LIFE_MILLIS), 1e-9);
+    Assertions.assertEquals(0d, copypastaIndex.sharedFraction(FINGERPRINTS, 2, HALF_LIFE_MILLIS * 4), 1e-9);
+    copypastaIndex.add(FINGERPRINTS, 0, HALF_LIFE_MILLIS * 4);
+    Assertions.assertEquals(1d, copypastaIndex.userCount(11L, HALF_LIFE_MILLIS * 4), 1e-9,
+        "Decayed users should be forgotten");
+  }
+
+  @Test
+  void boundedMemoryTest() throws Exception {
+    CopypastaIndex copypastaIndex = new CopypastaIndex(64, HALF_LIFE_MILLIS);
+    IntStream.range(0, 6).forEach(userId -> copypastaIndex.add(FINGERPRINTS, userId, 0L));
+    LongStream.range(1_000L, 100_000L).forEach(fingerprint ->
+        copypastaIndex.add(new long[]{fingerprint}, 0, 0L));
+    Assertions.assertEquals(1d, copypastaIndex.sharedFraction(FINGERPRINTS, 6, 0L), 1e-9,
+        "Widely shared fingerprints should outlive one-off fingerprints");
+  }
+}
@@ -0,0 +1,30 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+/**
+ * Tests the count-min frequency estimates.
+ */
+class FrequencySketchTest {
+
+  @Test
+  void estimatesFrequencyTest() throws Exception {
+    FrequencySketch frequencySketch = new FrequencySketch(1024);
+    IntStream.range(0, 5).forEach(x -> frequencySketch.increment("frequent"));
+    frequencySketch.increment("rare");
+    Assertions.assertTrue(frequencySketch.frequency("frequent") >= 5, "Estimate should never be low");
+    Assertions.assertTrue(frequencySketch.frequency("frequent") > frequencySketch.frequency("rare"));
+    Assertions.assertEquals(0, frequencySketch.frequency("unseen"));
+  }
+
+  @Test
+  void frequenciesAgeTest() throws Exception {
+    FrequencySketch frequencySketch = new FrequencySketch(16);
+    IntStream.range(0, 100).forEach(x -> frequencySketch.increment("old"));
+    IntStream.range(0, 1000).forEach(x -> frequencySketch.increment("other" + x));
+    Assertions.assertTrue(frequencySketch.frequency("old") < 100, "Old popularity should fade");
+  }
+}
@@ -0,0 +1,91 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the off-heap message log.
+ */
+class MessageArenaTest {
+  private static final MessageArena.EvictionListener IGNORE_EVICTIONS = sequence -> {
+  };
+
+  @Test
+  void appendAndReadTest() throws Exception {
+    MessageArena messageArena = new MessageArena(1024, 10);
+    long sequence = messageArena.append(3, 7, 1234L, 99L, "foobar", IGNORE_EVICTIONS);
+    Assertions.assertEquals(0L, sequence);
+    MessageArena.Flyweight flyweight = messageArena.newFlyweight();
+    Assertions.assertTrue(flyweight.moveTo(sequence));
+    Assertions.assertEquals(sequence, flyweight.getSequence());
+    Assertions.assertEquals(3, flyweight.getUserId());
+    Assertions.assertEquals(7, flyweight.getChannelId());
+    Assertions.assertEquals(1234L, flyweight.getEpochMillis());
+    Assertions.assertEquals(99L, flyweight.getPayloadHash());
+    Assertions.assertEquals(6, flyweight.getPayloadByteLength());
+    Assertions.assertEquals("foobar", flyweight.getPayload());
+    Assertions.assertFalse(flyweight.moveTo(1L), "Unwritten sequence should not be readable");
+  }
+
+  @Test
+  void utf8RoundTripTest() throws Exception {
+    MessageArena messageArena = new MessageArena(1024, 10);
+    String payload = "a\u00E9\u20AC\uD83D\uDE00z";
+    Assertions.assertEquals(1 + 2 + 3 + 4 + 1, MessageArena.utf8Length(payload));
+    long sequence = messageArena.append(0, 0, 0L, 0L, payload, IGNORE_EVICTIONS);
+    MessageArena.Flyweight flyweight = messageArena.newFlyweight();
+    flyweight.moveTo(sequence);
+    Assertions.assertEquals(payload, flyweight.getPayload(), "Multi-byte characters should survive");
+    char[] payloadChars = new char[flyweight.getPayloadByteLength()];
+    Assertions.assertEquals(payload.length(), flyweight.readPayload(payloadChars));
+  }
+
+  @Test
+  void messageLimitEvictsOldestTest() throws Exception {
+    MessageArena messageArena = new MessageArena(1024, 3);
+    List<Long> evictedSequences = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      messageArena.append(i, 0, i, 0L, "message " + i, evictedSequences::add);
+    }
+    Assertions.assertEquals(Arrays.asList(0L, 1L), evictedSequences);
+    Assertions.assertEquals(3, messageArena.size());
+    Assertions.assertEquals(2L, messageArena.getFirstSequence());
+    Assertions.assertEquals(5L, messageArena.getNextSequence());
+    MessageArena.Flyweight flyweight = messageArena.newFlyweight();
+    Assertions.assertFalse(flyweight.moveTo(1L), "Evicted sequence should not be readable");
+    Assertions.assertTrue(flyweight.moveTo(2L));
+    Assertions.assertEquals("message 2", flyweight.getPayload());
+  }
+
+  @Test
+  void wrapEvictsOverwrittenTest() throws Exception {
+    int recordSize = MessageArena.RECORD_HEADER_SIZE + 3;
+    MessageArena messageArena = new MessageArena(recordSize * 3 + 5, 100);
+    List<Long> evictedSequences = new ArrayList<>();
+    messageArena.append(0, 0, 0L, 0L, "aaa", evictedSequences::add);
+    messageArena.append(0, 0, 0L, 0L, "bbb", evictedSequences::add);
+    messageArena.append(0, 0, 0L, 0L, "ccc", evictedSequences::add);
+    Assertions.assertTrue(evictedSequences.isEmpty());
+    messageArena.append(0, 0, 0L, 0L, "ddd", evictedSequences::add);
+    Assertions.assertEquals(Collections.singletonList(0L), evictedSequences, "Wrapping should overwrite the oldest");
+    MessageArena.Flyweight flyweight = messageArena.newFlyweight();
+    flyweight.moveTo(3L);
+    Assertions.assertEquals("ddd", flyweight.getPayload());
+    flyweight.moveTo(2L);
+    Assertions.assertEquals("ccc", flyweight.getPayload(), "Records after the tail should survive the wrap");
+  }
+
+  @Test
+  void oversizedPayloadTruncatedTest() throws Exception {
+    MessageArena messageArena = new MessageArena(MessageArena.RECORD_HEADER_SIZE + 4, 10);
+    long sequence = messageArena.append(0, 0, 0L, 0L, "ab\u20AC", IGNORE_EVICTIONS);
+    MessageArena.Flyweight flyweight = messageArena.newFlyweight();
+    flyweight.moveTo(sequence);
+    Assertions.assertEquals("ab", flyweight.getPayload(), "Partial characters should not be written");
+  }
+}
@@ -0,0 +1,141 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import com.domhauton.wanbot.bot.channel.SymbolTable;
+import com.domhauton.wanbot.bot.channel.TwitchUser;
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the trigram index of recent channel messages.
+ */
+class MessageHistoryIndexTest {
+  private final static String channel1 = "fooBarChannel1";
+  private final static TwitchUser twitchUser1 = new TwitchUser("fooUser1");
+
+  private MessageHistoryIndex messageHistoryIndex;
+
+  @BeforeEach
+  void setUp() {
+    messageHistoryIndex = new MessageHistoryIndex(4);
+  }
+
+  @Test
+  void findMatchesTest() throws Exception {
+    TwitchMessage fooMessage = message("hello FOOBAR");
+    TwitchMessage barMessage = message("only bar here");
+    messageHistoryIndex.addMessage(fooMessage);
+    messageHistoryIndex.addMessage(barMessage);
+    Assertions.assertEquals(Collections.singletonList(fooMessage), messageHistoryIndex.findMatches("foobar", 10, p -> true),
+        "Should find phrase ignoring case");
+    Assertions.assertEquals(Arrays.asList(fooMessage, barMessage), messageHistoryIndex.findMatches("bar", 10, p -> true),
+        "Matches should be oldest first");
+    Assertions.assertEquals(Collections.singletonList(barMessage),
+        messageHistoryIndex.findMatches("bar", 10, p -> p.startsWith("only")), "Filter should be applied");
+    Assertions.assertTrue(messageHistoryIndex.findMatches("missing", 10, p -> true).isEmpty(),
+        "Unknown trigrams match nothing");
+  }
+
+  @Test
+  void findCandidatesTest() throws Exception {
+    messageHistoryIndex.addMessage(message("hello FOOBAR"));
+    messageHistoryIndex.addMessage(message("only bar here"));
+    Assertions.assertArrayEquals(new long[]{0L}, messageHistoryIndex.findCandidates("foobar", 10));
+    Assertions.assertArrayEquals(new long[]{0L, 1L}, messageHistoryIndex.findCandidates("bar", 10),
+        "Candidates should be oldest first");
+    Assertions.assertEquals(0, messageHistoryIndex.findCandidates("missing", 10).length);
+  }
+
+  @Test
+  void shortPhraseReturnsRecentMessagesTest() throws Exception {
+    TwitchMessage firstMessage = message("first");
+    TwitchMessage secondMessage = message("second");
+    TwitchMessage thirdMessage = message("third");
+    messageHistoryIndex.addMessage(firstMessage);
+    messageHistoryIndex.addMessage(secondMessage);
+    messageHistoryIndex.addMessage(thirdMessage);
+    Assertions.assertEquals(Arrays.asList(secondMessage, thirdMessage), messageHistoryIndex.findMatches("xy", 2, p -> true),
+        "Short phrases should check the most recent messages");
+    Assertions.assertEquals(Arrays.asList(firstMessage, secondMessage, thirdMessage),
+        messageHistoryIndex.findMatches(null, 10, p -> true));
+  }
+
+  @Test
+  void lookBehindLimitsCandidatesTest() throws Exception {
+    TwitchMessage firstMessage = message("foobar 1");
+    TwitchMessage secondMessage = message("foobar 2");
+    TwitchMessage thirdMessage = message("other");
+    messageHistoryIndex.addMessage(firstMessage);
+    messageHistoryIndex.addMessage(secondMessage);
+    messageHistoryIndex.addMessage(thirdMessage);
+    Assertions.assertEquals(Collections.singletonList(secondMessage), messageHistoryIndex.findMatches("foobar", 2, p -> true),
+        "Only the most recent messages should be searched");
+    Assertions.assertTrue(messageHistoryIndex.findMatches("foobar", 1, p -> true).isEmpty());
+  }
+
+  @Test
+  void evictionRemovesPostingsTest() throws Exception {
+    messageHistoryIndex.addMessage(message("evicted"));
+    for (int i = 0; i < 4; i++) {
+      messageHistoryIndex.addMessage(message("foo"));
+    }
+    Assertions.assertEquals(4, messageHistoryIndex.size());
+    Assertions.assertEquals(0, messageHistoryIndex.findCandidates("evicted", 10).length, "Evicted message found");
+    Assertions.assertEquals(1, messageHistoryIndex.trigramCount(), "Evicted trigrams should be dropped");
+    List<TwitchMessage> matches = messageHistoryIndex.findMatches("foo", 10, p -> true);
+    Assertions.assertEquals(4, matches.size());
+  }
+
+  @Test
+  void evictionReleasesSymbolsTest() throws Exception {
+    SymbolTable symbolTable = new SymbolTable();
+    messageHistoryIndex = new MessageHistoryIndex(2, MessageHistoryIndex.DEFAULT_ARENA_BYTES, symbolTable);
+    messageHistoryIndex.addMessage(new TwitchMessage("foo", new TwitchUser("fooUser2"), DateTime.now(), channel1));
+    messageHistoryIndex.addMessage(message("bar"));
+    Assertions.assertEquals(3, symbolTable.size());
+    messageHistoryIndex.addMessage(message("baz"));
+    Assertions.assertEquals(2, symbolTable.size(), "Evicted sender should be released");
+    Assertions.assertEquals(2, messageHistoryIndex.findMatches(null, 10, p -> true).size());
+  }
+
+  @Test
+  void arenaEvictionRemovesPostingsTest() throws Exception {
+    messageHistoryIndex = new MessageHistoryIndex(100, 2 * MessageArena.RECORD_HEADER_SIZE + 6);
+    messageHistoryIndex.addMessage(message("abc"));
+    messageHistoryIndex.addMessage(message("def"));
+    messageHistoryIndex.addMessage(message("ghi"));
+    Assertions.assertEquals(2, messageHistoryIndex.size(), "Full arena should evict the oldest message");
+    Assertions.assertEquals(0, messageHistoryIndex.findCandidates("abc", 10).length);
+    Assertions.assertEquals(2, messageHistoryIndex.trigramCount());
+  }
+
+  @Test
+  void parallelMatchTest() throws Exception {
+    int messageCount = MessageHistoryIndex.PARALLEL_SCAN_THRESHOLD * 2;
+    messageHistoryIndex = new MessageHistoryIndex(messageCount);
+    for (int i = 0; i < messageCount; i++) {
+      messageHistoryIndex.addMessage(message("foobar " + i));
+    }
+    List<TwitchMessage> matches = messageHistoryIndex.findMatches("foobar", messageCount, p -> p.endsWith("7"));
+    Assertions.assertEquals(205, matches.size(), "Messages 7, 17, ... 2047 should match");
+    Assertions.assertEquals("foobar 7", matches.get(0).getMessage(), "Matches should be oldest first");
+    Assertions.assertEquals(twitchUser1, matches.get(0).getTwitchUser());
+    Assertions.assertEquals(channel1, matches.get(0).getTwitchChannel());
+  }
+
+  @Test
+  void trigramsAreDistinctTest() throws Exception {
+    Assertions.assertEquals(1, MessageHistoryIndex.trigrams("aaaAAA").length, "Trigrams should ignore case");
+    Assertions.assertEquals(0, MessageHistoryIndex.trigrams("ab").length);
+    Assertions.assertEquals(3, MessageHistoryIndex.trigrams("abcab").length);
+  }
+
+  private static TwitchMessage message(String payload) {
+    return new TwitchMessage(payload, twitchUser1, DateTime.now(), channel1);
+  }
+}
@@ -1,14 +1,20 @@
 package com.domhauton.wanbot.bot.channel.message;
 
 import com.domhauton.wanbot.bot.channel.TwitchUser;
+import com.domhauton.wanbot.bot.channel.UserState;
+import com.domhauton.wanbot.bot.channel.UserStateTable;
 import org.joda.time.DateTime;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 /**
@@ -97,6 +103,220 @@ class MessageManagerTest {
     Assertions.assertTrue(channelSnapshot.size() == 10, "Channel snapshot should be of size 10.");
   }
 
+  @Test
+  void channelPayloadCountFollowsWindowTest() throws Exception {
+    TwitchMessage obfuscatedMessage = new TwitchMessage("F00 bar1", twitchUser2, DateTime.now(), channel1);
+    IntStream.range(0, 3).forEach(x -> messageManager.addMessage(twitchMessage1User1));
+    messageManager.addMessage(obfuscatedMessage);
+    Assertions.assertEquals(4, messageManager.getChannelPayloadCount(twitchMessage1User1),
+        "Normalised repeats should be counted");
+    IntStream.range(0, 8).forEach(x -> messageManager.addMessage(twitchMessage2User1));
+    Assertions.assertEquals(2, messageManager.getChannelPayloadCount(twitchMessage1User1),
+        "Evicted messages should no longer be counted");
+    Assertions.assertEquals(8, messageManager.getChannelPayloadCount(twitchMessage2User1));
+  }
+
+  @Test
+  void channelPayloadCountFollowsTimeTest() throws Exception {
+    DateTime startTime = new DateTime(1_000_000L);
+    IntStream.range(0, 3).forEach(x -> messageManager.addMessage(
+        new TwitchMessage("gg", twitchUser1, startTime.plusSeconds(x), channel1)));
+    TwitchMessage laterMessage = new TwitchMessage("gg", twitchUser2, startTime
+        .plusMillis((int) MessageManager.DEFAULT_REPETITION_WINDOW_MILLIS + 1_500), channel1);
+    messageManager.addMessage(laterMessage);
+    Assertions.assertEquals(2, messageManager.getChannelPayloadCount(laterMessage),
+        "Repeats older than the repetition window should not be counted");
+    Assertions.assertEquals(2, messageManager.getChannelNearDuplicateCount(laterMessage, 0));
+    Assertions.assertEquals(4, messageManager.getChannelSnapshot().size(), "The channel window keeps old messages");
+  }
+
+  @Test
+  void channelNearDuplicateCountTest() throws Exception {
+    String spamPayload = "buy cheap followers at follower shop dot com";
+    IntStream.range(0, 4).forEach(x -> messageManager.addMessage(
+        new TwitchMessage(spamPayload + " " + (char) ('a' + x), twitchUser2, DateTime.now(), channel1)));
+    TwitchMessage nextSpamMessage = new TwitchMessage(spamPayload + " z", twitchUser1, DateTime.now(), channel1);
+    Assertions.assertEquals(0, messageManager.getChannelPayloadCount(nextSpamMessage),
+        "No exact repeats were sent");
+    Assertions.assertEquals(4, messageManager.getChannelNearDuplicateCount(nextSpamMessage, 7),
+        "Messages differing by one character should be counted");
+    IntStream.range(0, 10).forEach(x -> messageManager.addMessage(twitchMessage1User1));
+    Assertions.assertEquals(0, messageManager.getChannelNearDuplicateCount(nextSpamMessage, 7),
+        "Evicted messages should no longer be counted");
+  }
+
+  @Test
+  void channelCopypastaShareTest() throws Exception {
+    String copypasta = "this is a copypasta block that gets pasted by everyone in the raid";
+    DateTime raidDateTime = DateTime.now();
+    IntStream.range(0, 5).forEach(x -> messageManager.addMessage(new TwitchMessage("raider" + x + " " + copypasta,
+        new TwitchUser("raider" + x), raidDateTime.plusSeconds(x), channel1)));
+    TwitchMessage copypastaMessage = new TwitchMessage("hey chat " + copypasta + " lol", twitchUser1,
+        raidDateTime.plusSeconds(5), channel1);
+    Assertions.assertTrue(messageManager.getChannelCopypastaShare(copypastaMessage, 5) > 0.75,
+        "Most of the message should have been posted by every raider");
+    Assertions.assertEquals(0d, messageManager.getChannelCopypastaShare(copypastaMessage, 6), 1e-9);
+    Assertions.assertEquals(0d, messageManager.getChannelCopypastaShare(new TwitchMessage(
+        "completely unrelated chatter about the build", twitchUser1, raidDateTime, channel1), 1), 1e-9);
+  }
+
+  @Test
+  void userMessageRateTest() throws Exception {
+    DateTime startDateTime = DateTime.now();
+    IntStream.range(0, 3).forEach(x -> messageManager.addMessage(
+        new TwitchMessage("foobar", twitchUser1, startDateTime.plusMillis(x * 250), channel1)));
+    Assertions.assertEquals(6d, messageManager.getUserMessageRate(twitchUser1), 0.001d,
+        "Three messages in half a second should be 6 per second");
+    Assertions.assertEquals(0d, messageManager.getUserMessageRate(twitchUser2), "Unknown users have no rate");
+  }
+
+  @Test
+  void channelSnapshotTimeRangeTest() throws Exception {
+    DateTime startDateTime = new DateTime(1_000_000L);
+    IntStream.range(0, 6).forEach(x -> messageManager.addMessage(
+        new TwitchMessage("foobar" + x, x % 2 == 0 ? twitchUser1 : twitchUser2, startDateTime.plusSeconds(x), channel1)));
+    Assertions.assertEquals(3, messageManager.getChannelSnapshotSince(startDateTime.plusSeconds(3)).size(),
+        "Messages from the time onwards should be returned");
+    ImmutableTwitchMessageList betweenSnapshot = messageManager
+        .getChannelSnapshotBetween(startDateTime.plusSeconds(1), startDateTime.plusSeconds(3));
+    Assertions.assertEquals(2, betweenSnapshot.size());
+    Assertions.assertEquals(1, betweenSnapshot.containsSimplePayload("foobar1"));
+    Assertions.assertEquals(1, betweenSnapshot.containsSimplePayload("foobar2"));
+  }
+
+  @Test
+  void userSnapshotSinceTest() throws Exception {
+    DateTime startDateTime = new DateTime(1_000_000L);
+    IntStream.range(0, 4).forEach(x -> messageManager.addMessage(
+        new TwitchMessage("foobar" + x, twitchUser1, startDateTime.plusSeconds(x), channel1)));
+    ImmutableTwitchMessageList userSnapshot = messageManager.getUserSnapshotSince(twitchUser1, startDateTime.plusSeconds(2));
+    Assertions.assertEquals(2, userSnapshot.size());
+    Assertions.assertEquals(1, userSnapshot.containsSimplePayload("foobar3"));
+    Assertions.assertEquals(0, messageManager.getUserSnapshotSince(twitchUser2, startDateTime).size(),
+        "Unknown users have no messages");
+  }
+
+  @Test
+  void concurrentAddTest() throws Exception {
+    MessageManager concurrentMessageManager = new MessageManager(4, 1_000);
+    int threadCount = 4;
+    int messagesPerThread = 250;
+    TwitchMessage repeatedMessage = new TwitchMessage("same message", twitchUser1, DateTime.now(), channel1);
+    List<Thread> threads = new ArrayList<>();
+    AtomicInteger readFailures = new AtomicInteger();
+    for (int i = 0; i < threadCount; i++) {
+      TwitchUser twitchUser = new TwitchUser("concurrentUser" + i);
+      threads.add(new Thread(() -> {
+        for (int message = 0; message < messagesPerThread; message++) {
+          concurrentMessageManager.addMessage(
+              new TwitchMessage("same message", twitchUser, DateTime.now(), channel1));
+          int payloadCount = concurrentMessageManager.getChannelPayloadCount(repeatedMessage);
+          if (payloadCount < 0 || payloadCount > threadCount * messagesPerThread) {
+            readFailures.incrementAndGet();
+          }
+          concurrentMessageManager.getChannelNearDuplicateCount(repeatedMessage, 7);
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assertions.assertEquals(0, readFailures.get(), "Concurrent reads should stay within the window");
+    Assertions.assertEquals(threadCount * messagesPerThread,
+        concurrentMessageManager.getChannelPayloadCount(repeatedMessage), "Every message should reach the channel window once writers finish");
+    Assertions.assertEquals(threadCount * messagesPerThread, concurrentMessageManager.getChannelSnapshot().size());
+    Assertions.assertEquals(1, concurrentMessageManager.findRecentMessages("same", 1, x -> true).size());
+  }
+
+  @Test
+  void concurrentQueriesWhileWritingTest() throws Exception {
+    MessageManager concurrentMessageManager = new MessageManager(4, 500);
+    int writerCount = 4;
+    int messagesPerWriter = 1_000;
+    String copypasta = "this is a copypasta block that gets pasted by everyone in the raid";
+    TwitchMessage queryMessage = new TwitchMessage(copypasta, twitchUser1, DateTime.now(), channel1);
+    AtomicBoolean writing = new AtomicBoolean(true);
+    AtomicInteger readFailures = new AtomicInteger();
+    AtomicInteger searches = new AtomicInteger();
+    List<Thread> writers = new ArrayList<>();
+    for (int i = 0; i < writerCount; i++) {
+      TwitchUser twitchUser = new TwitchUser("writer" + i);
+      writers.add(new Thread(() -> IntStream.range(0, messagesPerWriter).forEach(message ->
+          concurrentMessageManager.addMessage(new TwitchMessage(copypasta + " " + message, twitchUser,
+              DateTime.now(), channel1)))));
+    }
+    List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      readers.add(new Thread(() -> {
+        do {
+          try {
+            int payloadCount = concurrentMessageManager.getChannelPayloadCount(queryMessage);
+            int nearDuplicateCount = concurrentMessageManager.getChannelNearDuplicateCount(queryMessage, 7);
+            double copypastaShare = concurrentMessageManager.getChannelCopypastaShare(queryMessage, 2);
+            List<TwitchMessage> matches = concurrentMessageManager.findRecentMessages("copypasta", 100,
+                payload -> payload.endsWith("7"));
+            boolean matchesValid = matches.size() <= 100
+                && matches.stream().allMatch(match -> match.getMessage().endsWith("7"));
+            if (payloadCount < 0 || nearDuplicateCount < 0 || nearDuplicateCount > writerCount * messagesPerWriter
+                || copypastaShare < 0d || copypastaShare > 1d || !matchesValid) {
+              readFailures.incrementAndGet();
+            }
+            searches.incrementAndGet();
+          } catch (RuntimeException e) {
+            readFailures.incrementAndGet();
+          }
+        } while (writing.get());
+      }));
+    }
+    readers.forEach(Thread::start);
+    writers.forEach(Thread::start);
+    for (Thread writer : writers) {
+      writer.join(10_000L);
+    }
+    writing.set(false);
+    for (Thread reader : readers) {
+      reader.join(10_000L);
+    }
+    Assertions.assertEquals(0, readFailures.get(), "Queries during writes should be consistent and never throw");
+    Assertions.assertTrue(searches.get() > 0, "Readers should have run their queries");
+    Assertions.assertEquals(writerCount * messagesPerWriter, concurrentMessageManager.findRecentMessages("copypasta",
+        writerCount * messagesPerWriter, payload -> true).size(), "Every write should be searchable once writers finish");
+  }
+
+  @Test
+  void refusedUserKeepsPayloadHashesTest() throws Exception {
+    UserStateTable userStateTable = new UserStateTable();
+    messageManager = new MessageManager(userStateTable, 4, 10, 10, 1);
+    messageManager.addMessage(twitchMessage1User1);
+    messageManager.addMessage(twitchMessage1User1);
+    messageManager.addMessage(new TwitchMessage(twitchMessage1User1.getMessage(), twitchUser2, DateTime.now(), channel1));
+    UserState userState2 = userStateTable.find(twitchUser2.getUsername());
+    Assertions.assertNull(userState2.getMessageHistory(), "Less frequent user should be refused a history");
+    Assertions.assertEquals(1, userState2.countPayloadHash(twitchMessage1User1.getFeatures().getPayloadHash()),
+        "Refused user should still have their payload recorded");
+  }
+
+  @Test
+  void userEvictionFollowsHistoryTest() throws Exception {
+    UserStateTable userStateTable = new UserStateTable();
+    messageManager = new MessageManager(userStateTable, 4, 10, 10, 1);
+    messageManager.addMessage(twitchMessage1User1);
+    messageManager.addMessage(twitchMessage1User2);
+    messageManager.addMessage(twitchMessage2User2);
+    Assertions.assertNull(userStateTable.find(twitchUser1.getUsername()),
+        "User should be evicted with their history");
+    Assertions.assertEquals(1, messageManager.getUserSnapshot(twitchUser2).size(), "Admitted on second message");
+    UserState userState2 = userStateTable.find(twitchUser2.getUsername());
+    Assertions.assertTrue(userStateTable.evict(userState2));
+    Assertions.assertNull(userState2.getMessageHistory(), "History should be dropped with the user");
+    messageManager.addMessage(twitchMessage2User1);
+    Assertions.assertEquals(1, messageManager.getUserSnapshot(twitchUser1).size(),
+        "Evicted user's place in the history table should be free");
+    Assertions.assertEquals(4, messageManager.findRecentMessages("foobar", 10, x -> true).size(),
+        "Channel history should still resolve evicted users");
+  }
+
   private void putAllMessagesIntoMessageManager() {
     messageManager.addMessage(twitchMessage1User1);
     messageManager.addMessage(twitchMessage2User1);
@@ -0,0 +1,94 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the table driven message normalisation.
+ */
+class MessageNormaliserTest {
+
+  @Test
+  void simplifyStripsInvisibleCharsTest() throws Exception {
+    String[] payloads = MessageNormaliser.simplifyAndNormalise("Fo\u200Bo B\u0301ar\u00A0!");
+    Assertions.assertEquals("foobar!", payloads[0], "Spaces, zero-width and combining chars should be removed");
+    Assertions.assertEquals("foobari", payloads[1]);
+  }
+
+  @Test
+  void normaliseFoldsLeetspeakTest() throws Exception {
+    Assertions.assertEquals("ieetspeak", MessageNormaliser.normalise("1337 5P3@K"));
+    Assertions.assertEquals("5", MessageNormaliser.simplifyAndNormalise("5")[0], "Simple payload keeps digits");
+  }
+
+  @Test
+  void normaliseFoldsConfusablesTest() throws Exception {
+    Assertions.assertEquals("paypal", MessageNormaliser.normalise("\u0420\u0430\u0443\u0440\u0430\u04CF"),
+        "Cyrillic look-alikes should fold to latin");
+    Assertions.assertEquals("cafe", MessageNormaliser.normalise("Caf\u00E9"), "Accents should be removed");
+    Assertions.assertEquals("foo", MessageNormaliser.normalise("\uFF26\uFF4F\uFF4F"), "Full width should fold");
+  }
+
+  @Test
+  void foldWordsKeepsSeparatorsTest() throws Exception {
+    Assertions.assertEquals("ban a zit", MessageNormaliser.foldWords("B@n  a\tZ1t"),
+        "Spaces should collapse to one separator");
+    Assertions.assertEquals("nazi", MessageNormaliser.foldWords("n\u200Ba\u0301z1"), "Invisible chars should be removed");
+    Assertions.assertEquals("that. cool", MessageNormaliser.foldWords(" that.\u00A0Cool"));
+  }
+
+  @Test
+  void foldWordsKeepsNumbersTest() throws Exception {
+    Assertions.assertEquals("scored 455 at 12:30", MessageNormaliser.foldWords("Scored 455 at 12:30"),
+        "Words without a letter should not be read as leetspeak");
+    Assertions.assertEquals("$50 ass", MessageNormaliser.foldWords("$50 4SS"));
+  }
+
+  @Test
+  void unchangedPayloadSharedTest() throws Exception {
+    String[] payloads = MessageNormaliser.simplifyAndNormalise("Hello World");
+    Assertions.assertEquals("helloworld", payloads[0]);
+    Assertions.assertSame(payloads[0], payloads[1], "Unfolded payloads should not be copied");
+  }
+
+  @Test
+  void extractFeaturesTest() throws Exception {
+    MessageFeatures messageFeatures = MessageNormaliser.extractFeatures("HEllo \u2588\u2588 W0rld!");
+    Assertions.assertEquals("hello\u2588\u2588w0rld!", messageFeatures.getSimplePayload());
+    Assertions.assertEquals("hello\u2588\u2588worldi", messageFeatures.getNormalisedPayload());
+    Assertions.assertEquals(15, messageFeatures.getLength());
+    Assertions.assertEquals(11d / 13d, messageFeatures.getLegalCharRatio(), 1e-9);
+    Assertions.assertEquals(3d / 13d, messageFeatures.getSymbolRatio(), 1e-9);
+    Assertions.assertEquals(3d / 9d, messageFeatures.getCapitalRatio(), 1e-9);
+    Assertions.assertEquals(2d / 15d, messageFeatures.getNonAsciiRatio(), 1e-9);
+  }
+
+  @Test
+  void payloadHashTest() throws Exception {
+    MessageFeatures messageFeatures = MessageNormaliser.extractFeatures("P4yl0@d f00");
+    Assertions.assertEquals(MessageNormaliser.hash(messageFeatures.getNormalisedPayload()),
+        messageFeatures.getPayloadHash(), "Hash should match the hash of the normalised payload");
+    Assertions.assertEquals(messageFeatures.getPayloadHash(),
+        MessageNormaliser.extractFeatures("payload foo").getPayloadHash());
+    Assertions.assertNotEquals(messageFeatures.getPayloadHash(),
+        MessageNormaliser.extractFeatures("payload bar").getPayloadHash());
+  }
+
+  @Test
+  void emptyFeaturesTest() throws Exception {
+    MessageFeatures messageFeatures = MessageNormaliser.extractFeatures(" \u200B ");
+    Assertions.assertEquals("", messageFeatures.getSimplePayload());
+    Assertions.assertEquals(1d, messageFeatures.getLegalCharRatio(), "Nothing left is not ASCII art");
+    Assertions.assertEquals(0d, messageFeatures.getSymbolRatio());
+    Assertions.assertEquals(0d, messageFeatures.getCapitalRatio());
+    Assertions.assertNotEquals(0L, messageFeatures.getPayloadHash());
+  }
+
+  @Test
+  void longMessageTest() throws Exception {
+    String longMessage = new String(new char[2_000]).replace('\0', 'A');
+    Assertions.assertEquals(longMessage.toLowerCase(), MessageNormaliser.extractFeatures(longMessage).getSimplePayload(),
+        "Scratch space should grow for long messages");
+    Assertions.assertEquals("short", MessageNormaliser.extractFeatures("Short").getSimplePayload());
+  }
+}
@@ -0,0 +1,42 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the per user message rate ring.
+ */
+class MessageRateTrackerTest {
+
+  @Test
+  void tooFewMessagesTest() throws Exception {
+    MessageRateTracker messageRateTracker = new MessageRateTracker(4);
+    messageRateTracker.record(1000L);
+    messageRateTracker.record(1001L);
+    Assertions.assertEquals(0d, messageRateTracker.getMessagesPerSecond(), "Two messages are not a rate");
+    Assertions.assertEquals(1L, messageRateTracker.getWindowMillis());
+  }
+
+  @Test
+  void subSecondBurstTest() throws Exception {
+    MessageRateTracker messageRateTracker = new MessageRateTracker(4);
+    messageRateTracker.record(1000L);
+    messageRateTracker.record(1100L);
+    messageRateTracker.record(1200L);
+    Assertions.assertEquals(15d, messageRateTracker.getMessagesPerSecond(), 0.001d,
+        "Sub-second bursts should give a rate");
+    messageRateTracker.record(1200L);
+    messageRateTracker.record(1200L);
+    Assertions.assertEquals(4, messageRateTracker.getMessageCount(), "Window should be bounded");
+    Assertions.assertEquals(100L, messageRateTracker.getWindowMillis(), "Oldest message should be evicted");
+  }
+
+  @Test
+  void sameMillisecondBurstTest() throws Exception {
+    MessageRateTracker messageRateTracker = new MessageRateTracker(4);
+    messageRateTracker.record(5000L);
+    messageRateTracker.record(5000L);
+    messageRateTracker.record(5000L);
+    Assertions.assertEquals(3000d, messageRateTracker.getMessagesPerSecond(), 0.001d);
+  }
+}
@@ -0,0 +1,69 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Tests near duplicate counting over the LSH window.
+ */
+class NearDuplicateIndexTest {
+
+  @Test
+  void countWithinDistanceTest() throws Exception {
+    NearDuplicateIndex nearDuplicateIndex = new NearDuplicateIndex(16);
+    long simHash = 0x0123456789ABCDEFL;
+    nearDuplicateIndex.add(simHash);
+    nearDuplicateIndex.add(simHash ^ 0x1L);
+    nearDuplicateIndex.add(simHash ^ 0x0101010101010101L);
+    nearDuplicateIndex.add(~simHash);
+    Assertions.assertEquals(1, nearDuplicateIndex.countSimilar(simHash, 0));
+    Assertions.assertEquals(2, nearDuplicateIndex.countSimilar(simHash, 1));
+    Assertions.assertEquals(2, nearDuplicateIndex.countSimilar(simHash, 7),
+        "Hashes differing in every band are not candidates");
+    Assertions.assertEquals(1, nearDuplicateIndex.countSimilar(~simHash, 7));
+  }
+
+  @Test
+  void removeOldestTest() throws Exception {
+    NearDuplicateIndex nearDuplicateIndex = new NearDuplicateIndex(4);
+    long simHash = 0x0123456789ABCDEFL;
+    nearDuplicateIndex.add(simHash);
+    nearDuplicateIndex.add(~simHash);
+    nearDuplicateIndex.add(simHash);
+    nearDuplicateIndex.removeOldest();
+    Assertions.assertEquals(2, nearDuplicateIndex.size());
+    Assertions.assertEquals(1, nearDuplicateIndex.countSimilar(simHash, 0), "The oldest hash should be removed");
+    IntStream.range(0, 4).forEach(x -> nearDuplicateIndex.add(~simHash));
+    Assertions.assertEquals(4, nearDuplicateIndex.size());
+    Assertions.assertEquals(0, nearDuplicateIndex.countSimilar(simHash, 0), "Full windows should evict the oldest");
+    IntStream.range(0, 5).forEach(x -> nearDuplicateIndex.removeOldest());
+    Assertions.assertEquals(0, nearDuplicateIndex.size(), "Removing from an empty window does nothing");
+  }
+
+  @Test
+  void matchesBruteForceTest() throws Exception {
+    int windowSize = 200;
+    Random random = new Random(17L);
+    long target = random.nextLong();
+    long[] simHashes = IntStream.range(0, windowSize * 5)
+        .mapToLong(x -> x % 3 == 0 ? target ^ (1L << random.nextInt(64)) ^ (1L << random.nextInt(64)) : random.nextLong())
+        .toArray();
+    NearDuplicateIndex nearDuplicateIndex = new NearDuplicateIndex(windowSize);
+    for (int i = 0; i < simHashes.length; i++) {
+      nearDuplicateIndex.add(simHashes[i]);
+      int windowStart = Math.max(0, i + 1 - windowSize);
+      for (int maxDistance = 0; maxDistance <= 7; maxDistance += 7) {
+        int finalMaxDistance = maxDistance;
+        long expected = IntStream.rangeClosed(windowStart, i)
+            .filter(x -> SimHash.distance(simHashes[x], target) <= finalMaxDistance)
+            .count();
+        Assertions.assertEquals(expected, nearDuplicateIndex.countSimilar(target, maxDistance),
+            "Index should agree with a full scan after " + (i + 1) + " hashes");
+      }
+    }
+    Assertions.assertEquals(windowSize, nearDuplicateIndex.size());
+  }
+}
@@ -0,0 +1,44 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+/**
+ * Tests counting of normalised payloads.
+ */
+class PayloadFrequencyCounterTest {
+
+  @Test
+  void addAndRemoveTest() throws Exception {
+    PayloadFrequencyCounter payloadFrequencyCounter = new PayloadFrequencyCounter(4);
+    payloadFrequencyCounter.add("foo");
+    payloadFrequencyCounter.add("foo");
+    payloadFrequencyCounter.add("bar");
+    Assertions.assertEquals(2, payloadFrequencyCounter.count("foo"));
+    Assertions.assertEquals(1, payloadFrequencyCounter.count("bar"));
+    Assertions.assertEquals(0, payloadFrequencyCounter.count("baz"), "Unseen payloads should not be counted");
+    payloadFrequencyCounter.remove("foo");
+    payloadFrequencyCounter.remove("bar");
+    Assertions.assertEquals(1, payloadFrequencyCounter.count("foo"));
+    Assertions.assertEquals(0, payloadFrequencyCounter.count("bar"));
+    Assertions.assertEquals(1, payloadFrequencyCounter.getDistinctPayloads());
+  }
+
+  @Test
+  void slidingWindowTest() throws Exception {
+    int windowSize = 100;
+    PayloadFrequencyCounter payloadFrequencyCounter = new PayloadFrequencyCounter(windowSize);
+    IntStream.range(0, windowSize).forEach(x -> payloadFrequencyCounter.add("payload" + x));
+    IntStream.range(windowSize, windowSize * 50).forEach(x -> {
+      payloadFrequencyCounter.remove("payload" + (x - windowSize));
+      payloadFrequencyCounter.add("payload" + x);
+    });
+    Assertions.assertEquals(windowSize, payloadFrequencyCounter.getDistinctPayloads(),
+        "Deletions should not leave stale payloads");
+    IntStream.range(windowSize * 49, windowSize * 50).forEach(x ->
+        Assertions.assertEquals(1, payloadFrequencyCounter.count("payload" + x), "Payload lost: " + x));
+    Assertions.assertEquals(0, payloadFrequencyCounter.count("payload0"));
+  }
+}
@@ -0,0 +1,46 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that repeats are only counted within the time window and message cap.
+ */
+class RepetitionWindowTest {
+  private static final long startMillis = 1_000_000L;
+  private static final long payloadHash = 42L;
+  private static final long simHash = 0x0123456789ABCDEFL;
+
+  @Test
+  void ageOutTest() throws Exception {
+    RepetitionWindow repetitionWindow = new RepetitionWindow(100, 10_000L);
+    repetitionWindow.add(payloadHash, simHash, startMillis);
+    repetitionWindow.add(payloadHash, simHash, startMillis + 5_000L);
+    Assertions.assertEquals(2, repetitionWindow.countPayload(payloadHash));
+    repetitionWindow.add(7L, ~simHash, startMillis + 12_000L);
+    Assertions.assertEquals(1, repetitionWindow.countPayload(payloadHash), "Old messages should age out");
+    Assertions.assertEquals(1, repetitionWindow.countSimilar(simHash, 0));
+    Assertions.assertEquals(2, repetitionWindow.size());
+  }
+
+  @Test
+  void messageCapTest() throws Exception {
+    RepetitionWindow repetitionWindow = new RepetitionWindow(3, 10_000L);
+    repetitionWindow.add(payloadHash, simHash, startMillis);
+    for (int i = 0; i < 3; i++) {
+      repetitionWindow.add(7L, ~simHash, startMillis);
+    }
+    Assertions.assertEquals(0, repetitionWindow.countPayload(payloadHash), "The oldest message should be evicted");
+    Assertions.assertEquals(0, repetitionWindow.countSimilar(simHash, 0));
+    Assertions.assertEquals(3, repetitionWindow.countPayload(7L));
+  }
+
+  @Test
+  void clockBackwardsTest() throws Exception {
+    RepetitionWindow repetitionWindow = new RepetitionWindow(100, 10_000L);
+    repetitionWindow.add(payloadHash, simHash, startMillis + 20_000L);
+    repetitionWindow.add(payloadHash, simHash, startMillis);
+    Assertions.assertEquals(2, repetitionWindow.countPayload(payloadHash),
+        "Out of order messages should not age out newer ones");
+  }
+}
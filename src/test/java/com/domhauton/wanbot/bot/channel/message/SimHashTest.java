@@ -0,0 +1,36 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests SimHash distances of similar and unrelated payloads.
+ */
+class SimHashTest {
+  private static final String SPAM_PAYLOAD = "buycheapfollowersatfollowershopdotcomtoday";
+
+  @Test
+  void identicalPayloadTest() throws Exception {
+    Assertions.assertEquals(SimHash.of(SPAM_PAYLOAD), SimHash.of(new StringBuilder(SPAM_PAYLOAD)),
+        "Hash should only depend on the characters");
+    Assertions.assertEquals(0L, SimHash.of(""));
+  }
+
+  @Test
+  void appendedCharacterTest() throws Exception {
+    long simHash = SimHash.of(SPAM_PAYLOAD);
+    int maxDistance = NearDuplicateIndex.BANDS - 1;
+    for (char suffix = 'a'; suffix <= 'z'; suffix++) {
+      Assertions.assertTrue(SimHash.distance(simHash, SimHash.of(SPAM_PAYLOAD + suffix)) <= maxDistance,
+          "Appending one character should change few bits: " + suffix);
+    }
+  }
+
+  @Test
+  void unrelatedPayloadTest() throws Exception {
+    long simHash = SimHash.of(SPAM_PAYLOAD);
+    Assertions.assertTrue(SimHash.distance(simHash, SimHash.of("whatgpuislinususinginthisbuild")) > 12,
+        "Unrelated payloads should differ in many bits");
+    Assertions.assertNotEquals(SimHash.of("ab"), SimHash.of("ba"), "Short payloads should be hashed whole");
+  }
+}
@@ -0,0 +1,250 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import com.domhauton.wanbot.bot.channel.TwitchUser;
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Created by Dominic Hauton on 20/03/2016.
+ * <p>
+ * Testing the effectiveness of the async MESSAGE ring buffer.
+ */
+class TwitchMessageRingBufferTest {
+
+  private TwitchMessageRingBuffer twitchMessageRingBuffer;
+  private Semaphore semaphore;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    semaphore = new Semaphore(0);
+    twitchMessageRingBuffer = new TwitchMessageRingBuffer(5);
+  }
+
+  @Test
+  void testMessageAddition() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(5);
+    addMessagesAndWait(0, 3, pool);
+    Assertions.assertEquals(3, twitchMessageRingBuffer.getMessageSnapshot().size(), "Assert no collisions");
+    addMessagesAndWait(3, 5, pool);
+    Assertions.assertEquals(5, twitchMessageRingBuffer.getMessageSnapshot().size(),
+        "Assert can go up to max size");
+    addMessagesAndWait(5, 20, pool);
+    Assertions.assertEquals(5, twitchMessageRingBuffer.getMessageSnapshot().size(),
+        "Assert no overflow");
+  }
+
+  @Test
+  void snapshotIsBoundedBySequenceTest() throws Exception {
+    Collection<TwitchMessage> firstMessageBatch = generateTwitchMessages(0, 3);
+    firstMessageBatch.forEach(twitchMessageRingBuffer::addMessage);
+    ImmutableTwitchMessageList messageSnapshot = twitchMessageRingBuffer.getMessageSnapshot();
+    twitchMessageRingBuffer.addMessage(generateTwitchMessages(3, 4).iterator().next());
+    Assertions.assertEquals(firstMessageBatch, messageSnapshot.stream().collect(Collectors.toList()),
+        "Later messages should not appear in an earlier snapshot");
+  }
+
+  @Test
+  void timeRangeSnapshotTest() throws Exception {
+    DateTime startTime = new DateTime(1_000_000L);
+    List<TwitchMessage> twitchMessages = IntStream.range(0, 5)
+        .mapToObj(x -> new TwitchMessage("message" + x, new TwitchUser("user"), startTime.plusSeconds(x), "channel"))
+        .collect(Collectors.toList());
+    twitchMessages.forEach(twitchMessageRingBuffer::addMessage);
+    long startMillis = startTime.getMillis();
+    Assertions.assertEquals(twitchMessages.subList(2, 4),
+        twitchMessageRingBuffer.getMessageSnapshot(startMillis + 2000L, startMillis + 4000L).stream().collect(Collectors.toList()),
+        "Range should include the start and exclude the end");
+    Assertions.assertEquals(twitchMessages.subList(3, 5),
+        twitchMessageRingBuffer.getMessageSnapshot(startMillis + 2500L, Long.MAX_VALUE).stream().collect(Collectors.toList()));
+    Assertions.assertEquals(5, twitchMessageRingBuffer.getMessageSnapshot(0L, Long.MAX_VALUE).size());
+    Assertions.assertEquals(0, twitchMessageRingBuffer.getMessageSnapshot(startMillis + 9000L, Long.MAX_VALUE).size());
+    Assertions.assertEquals(0, twitchMessageRingBuffer.getMessageSnapshot(startMillis + 4000L, startMillis).size(),
+        "Reversed range should be empty");
+  }
+
+  @Test
+  void timeRangeOnlyCoversWindowTest() throws Exception {
+    DateTime startTime = new DateTime(1_000_000L);
+    IntStream.range(0, 8).forEach(x -> twitchMessageRingBuffer.addMessage(
+        new TwitchMessage("message" + x, new TwitchUser("user"), startTime.plusSeconds(x), "channel")));
+    ImmutableTwitchMessageList messageSnapshot = twitchMessageRingBuffer.getMessageSnapshot(0L, Long.MAX_VALUE);
+    Assertions.assertEquals(5, messageSnapshot.size(), "Evicted messages should not be returned");
+    Assertions.assertEquals("message3", messageSnapshot.stream().findFirst().get().getMessage());
+  }
+
+  @Test
+  void timeRangeClampsOutOfOrderTimesTest() throws Exception {
+    DateTime startTime = new DateTime(1_000_000L);
+    TwitchUser twitchUser = new TwitchUser("user");
+    twitchMessageRingBuffer.addMessage(new TwitchMessage("first", twitchUser, startTime.plusSeconds(10), "channel"));
+    twitchMessageRingBuffer.addMessage(new TwitchMessage("late", twitchUser, startTime, "channel"));
+    Assertions.assertEquals(2,
+        twitchMessageRingBuffer.getMessageSnapshot(startTime.plusSeconds(10).getMillis(), Long.MAX_VALUE).size(),
+        "Out of order messages should count as arriving with the previous message");
+  }
+
+  @Test
+  void snapshotSurvivesOverwriteTest() throws Exception {
+    Collection<TwitchMessage> firstMessageBatch = generateTwitchMessages(0, 5);
+    firstMessageBatch.forEach(twitchMessageRingBuffer::addMessage);
+    ImmutableTwitchMessageList messageSnapshot = twitchMessageRingBuffer.getMessageSnapshot();
+    generateTwitchMessages(5, 20).forEach(twitchMessageRingBuffer::addMessage);
+    Assertions.assertEquals(firstMessageBatch, messageSnapshot.stream().collect(Collectors.toList()),
+        "Snapshots should not change once taken");
+  }
+
+  @Test
+  void countNormalisedPayloadTest() throws Exception {
+    TwitchUser twitchUser = new TwitchUser("user");
+    twitchMessageRingBuffer.addMessage(new TwitchMessage("Hello", twitchUser, DateTime.now(), "channel"));
+    twitchMessageRingBuffer.addMessage(new TwitchMessage("h e l l o", twitchUser, DateTime.now(), "channel"));
+    twitchMessageRingBuffer.addMessage(new TwitchMessage("bye", twitchUser, DateTime.now(), "channel"));
+    Assertions.assertEquals(2, twitchMessageRingBuffer.countNormalisedPayload("hello"));
+    Assertions.assertEquals(0, twitchMessageRingBuffer.countNormalisedPayload("other"));
+  }
+
+  @Test
+  void concurrentReadersTest() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    AtomicBoolean writing = new AtomicBoolean(true);
+    List<Future<Integer>> readers = IntStream.range(0, 3)
+        .mapToObj(x -> pool.submit(() -> readWhileWriting(writing)))
+        .collect(Collectors.toList());
+    generateTwitchMessages(0, 10000).forEach(twitchMessageRingBuffer::addMessage);
+    writing.set(false);
+    for (Future<Integer> reader : readers) {
+      Assertions.assertTrue(reader.get(5L, TimeUnit.SECONDS) > 0, "Readers should have read snapshots");
+    }
+    pool.shutdown();
+  }
+
+  /**
+   * Reads snapshots until writing stops, checking each is a run of consecutive messages.
+   *
+   * @return number of snapshots read.
+   */
+  private int readWhileWriting(AtomicBoolean writing) {
+    int snapshotCount = 0;
+    do {
+      List<Integer> messageNumbers = twitchMessageRingBuffer.getMessageSnapshot().stream()
+          .map(message -> Integer.valueOf(message.getMessage().substring("Message Number ".length())))
+          .collect(Collectors.toList());
+      for (int i = 1; i < messageNumbers.size(); i++) {
+        Assertions.assertEquals(messageNumbers.get(i - 1) + 1, (int) messageNumbers.get(i), "Snapshots should be in order");
+      }
+      snapshotCount++;
+    } while (writing.get());
+    return snapshotCount;
+  }
+
+  @Test
+  void testMessageRemoval() throws Exception {
+    Collection<TwitchMessage> firstMessageBatch = generateTwitchMessages(0, 3);
+
+    firstMessageBatch.stream().forEachOrdered(message -> twitchMessageRingBuffer.addMessage(message));
+
+    Collection<TwitchMessage> actualFirstMessageBatch = twitchMessageRingBuffer
+        .getMessageSnapshot()
+        .stream()
+        .collect(Collectors.toList());
+
+    Assertions.assertEquals(firstMessageBatch, actualFirstMessageBatch,
+        "Ensure 3 messages added correctly.");
+
+    Collection<TwitchMessage> secondMessageBatch = generateTwitchMessages(4, 9);
+
+    secondMessageBatch.stream().forEachOrdered(message -> twitchMessageRingBuffer.addMessage(message));
+
+    Collection<TwitchMessage> actualSecondMessageBatch = twitchMessageRingBuffer
+        .getMessageSnapshot()
+        .stream()
+        .collect(Collectors.toList());
+
+    Assertions.assertEquals(secondMessageBatch, actualSecondMessageBatch,
+        "Assert messages replace on another correctly.");
+  }
+
+  @Test
+  void getMostRecentMessageSimpleTest() throws Exception {
+    Collection<TwitchMessage> twitchMessages = generateTwitchMessages(0, 10);
+    TwitchMessage expectedTwitchMessage = new TwitchMessage("foo", new TwitchUser("foo"), DateTime.now(), "foo");
+    twitchMessages.forEach(twitchMessage -> twitchMessageRingBuffer.addMessage(twitchMessage));
+    twitchMessageRingBuffer.addMessage(expectedTwitchMessage);
+    TwitchMessage actualTwitchMessage = twitchMessageRingBuffer.getMostRecentMessage().orElse(null);
+    Assertions.assertEquals(expectedTwitchMessage, actualTwitchMessage);
+  }
+
+  @Test
+  void getMostRecentMessageEmptyTest() throws Exception {
+    Optional<TwitchMessage> actualTwitchMessage = twitchMessageRingBuffer.getMostRecentMessage();
+    Assertions.assertFalse(actualTwitchMessage.isPresent());
+  }
+
+  /**
+   * Sends a TwitchMessage for 1 semaphore permit
+   *
+   * @param twitchMessage TwitchMessage to send
+   * @return whether or not adding was successful
+   */
+  private boolean sendMessageOnSemaphore(TwitchMessage twitchMessage, CountDownLatch latch) {
+    try {
+      semaphore.acquire();
+      boolean success;
+      // The ring buffer has a single writer.
+      synchronized (twitchMessageRingBuffer) {
+        success = twitchMessageRingBuffer.addMessage(twitchMessage);
+      }
+      latch.countDown();
+      return success;
+    } catch (InterruptedException e) {
+      Assertions.fail("Interrupted before able to send TwitchMessage.");
+      return false;
+    }
+  }
+
+  /**
+   * Creates all of the MESSAGE actions, then releases them to execute as asyncronously as possible.
+   *
+   * @param twitchMessages Messages to send.
+   * @param pool           ThreadPool that will send messages.
+   * @param latch          Latch that MESSAGE addition should trigger.
+   */
+  private void addMessagesToPoolAndRelease(Collection<TwitchMessage> twitchMessages, ExecutorService pool, CountDownLatch latch) {
+    twitchMessages.stream()
+        .map(message -> CompletableFuture.supplyAsync(() -> sendMessageOnSemaphore(message, latch), pool))
+        .collect(Collectors.toList()); // Force evaluation.
+    semaphore.release(twitchMessages.size());
+  }
+
+  /**
+   * Generate a series of TwitchMessages
+   *
+   * @param startMessage id of first MESSAGE
+   * @param endMessage   Exclusive id of last MESSAGE.
+   * @return Collection of generated messages
+   */
+  private Collection<TwitchMessage> generateTwitchMessages(int startMessage, int endMessage) {
+    return IntStream.range(startMessage, endMessage)
+        .mapToObj(String::valueOf)
+        .map(message -> "Message Number " + message)
+        .map(message -> new TwitchMessage(message, new TwitchUser("foobar"), DateTime.now(), "#foochannel"))
+        .collect(Collectors.toList());
+  }
+
+  private void addMessagesAndWait(int startMessage, int endMessage, ExecutorService pool) throws Exception {
+    Collection<TwitchMessage> twitchMessagesTest1 = generateTwitchMessages(startMessage, endMessage);
+    CountDownLatch latchTest1 = new CountDownLatch(twitchMessagesTest1.size());
+    addMessagesToPoolAndRelease(twitchMessagesTest1, pool, latchTest1);
+    latchTest1.await(1L, TimeUnit.SECONDS);
+  }
+}
\ No newline at end of file
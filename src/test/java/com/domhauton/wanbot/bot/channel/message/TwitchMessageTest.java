@@ -69,6 +69,14 @@ class TwitchMessageTest {
         0.05d);
   }
 
+  @Test
+  void getFeaturesTest() throws Exception {
+    MessageFeatures messageFeatures = twitchMessagePayload1User1_1.getFeatures();
+    Assertions.assertSame(messageFeatures, twitchMessagePayload1User1_1.getFeatures(), "Features should be extracted once");
+    Assertions.assertEquals(twitchMessagePayload1User1_1.getSimpleMessagePayload(), messageFeatures.getSimplePayload());
+    Assertions.assertEquals(payload1.length(), messageFeatures.getLength());
+  }
+
   @Test
   void equalsSimplePayload() throws Exception {
     Assertions.assertTrue(twitchMessagePayload1User1_1.equalsSimplePayload(payload1Simple));
@@ -77,6 +85,17 @@ class TwitchMessageTest {
     Assertions.assertFalse(twitchMessagePayload1User1_1.equalsSimplePayload(payload2Simple));
   }
 
+  @Test
+  void equalsSimplePayloadObfuscatedTest() throws Exception {
+    TwitchMessage obfuscatedMessage = new TwitchMessage("P1yl0@d f00b@r 1!", new TwitchUser(twitchUsername),
+        baseDateTime, sourceChannel);
+    Assertions.assertTrue(twitchMessagePayload1User1_1.equalsSimplePayload(obfuscatedMessage),
+        "Leetspeak copies should be equal once normalised");
+    Assertions.assertFalse(twitchMessagePayload1User1_1.equalsSimplePayload(twitchMessagePayload2User1));
+    Assertions.assertEquals("p1yl0@df00b@r1!", obfuscatedMessage.getSimpleMessagePayload(),
+        "Simple payload should not fold leetspeak");
+  }
+
   @Test
   void containsStringTest() throws Exception {
     Assertions.assertTrue(twitchMessagePayload1User1_1.containsString(payload1.substring(5, 9)),
@@ -0,0 +1,54 @@
+package com.domhauton.wanbot.bot.channel.message;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Tests winnowed fingerprints of payloads sharing substrings.
+ */
+class WinnowingTest {
+  private static final String COPYPASTA = "thisisacopypastablockthatgetspastedbyeveryoneintheraid";
+
+  @Test
+  void shortPayloadTest() throws Exception {
+    Assertions.assertEquals(0, Winnowing.fingerprints("tooshort").length, "Shorter than a k-gram");
+    Assertions.assertEquals(1, Winnowing.fingerprints("exactlyten").length, "One k-gram is one window");
+  }
+
+  @Test
+  void deterministicTest() throws Exception {
+    Assertions.assertArrayEquals(Winnowing.fingerprints(COPYPASTA), Winnowing.fingerprints(new StringBuilder(COPYPASTA)));
+    Assertions.assertTrue(Winnowing.fingerprints(COPYPASTA).length >= COPYPASTA.length() / (Winnowing.WINDOW_SIZE + 1),
+        "Fingerprints should cover the payload");
+  }
+
+  @Test
+  void sharedSubstringTest() throws Exception {
+    Set<Long> copypastaFingerprints = toSet(Winnowing.fingerprints(COPYPASTA));
+    Set<Long> wrappedFingerprints = toSet(Winnowing.fingerprints("hey chat" + COPYPASTA + "lolol"));
+    long sharedCount = copypastaFingerprints.stream().filter(wrappedFingerprints::contains).count();
+    Assertions.assertTrue(sharedCount >= copypastaFingerprints.size() - 2,
+        "A prefix or suffix should only change fingerprints near the ends");
+    Set<Long> unrelatedFingerprints = toSet(Winnowing.fingerprints("whatgpuislinususinginthisbuildtoday"));
+    Assertions.assertTrue(copypastaFingerprints.stream().noneMatch(unrelatedFingerprints::contains));
+  }
+
+  @Test
+  void guaranteedMatchTest() throws Exception {
+    int guaranteedLength = Winnowing.KGRAM_LENGTH + Winnowing.WINDOW_SIZE - 1;
+    for (int offset = 0; offset + guaranteedLength <= COPYPASTA.length(); offset++) {
+      String substring = COPYPASTA.substring(offset, offset + guaranteedLength);
+      Set<Long> substringFingerprints = toSet(Winnowing.fingerprints("xyz" + substring + "zyx"));
+      Assertions.assertTrue(Arrays.stream(Winnowing.fingerprints(COPYPASTA)).anyMatch(substringFingerprints::contains),
+          "Shared substring should share a fingerprint: " + substring);
+    }
+  }
+
+  private static Set<Long> toSet(long[] fingerprints) {
+    return Arrays.stream(fingerprints).boxed().collect(Collectors.toSet());
+  }
+}
@@ -1,5 +1,6 @@
 package com.domhauton.wanbot.bot.channel.settings;
 
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingBoolean;
 import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingDouble;
 import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingInteger;
 import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingString;
@@ -68,6 +69,15 @@ public abstract class ChannelSettingSupplierTest {
     Assertions.assertEquals(newValue, actualValue, "Should return 50. Has just been set.");
   }
 
+  @Test
+  void simpleInsertRetrieveBooleanTest() throws Exception {
+    Assertions.assertFalse(channelSettingDao.getSettingOrDefault(channelName1, ChannelSettingBoolean.MODERATION_TIMEOUTS),
+        "Moderation timeouts should be off by default");
+    channelSettingDao.setSetting(channelName1, ChannelSettingBoolean.MODERATION_TIMEOUTS, true);
+    Boolean actualValue = channelSettingDao.getSetting(channelName1, ChannelSettingBoolean.MODERATION_TIMEOUTS);
+    Assertions.assertTrue(actualValue, "Should return true. Has just been set.");
+  }
+
   @Test
   void retrieveBeforeInsertTest() throws Exception {
     Assertions.assertThrows(ChannelSettingDAOException.class,
@@ -0,0 +1,149 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.ChannelManager;
+import com.domhauton.wanbot.bot.channel.TwitchUser;
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import com.domhauton.wanbot.bot.channel.settings.enums.ChannelSettingInteger;
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests rule ordering, short circuiting, cost limits and the time budget of the moderation engine.
+ */
+class ModerationEngineTest {
+  private static final String channelName = "#testChannel";
+
+  private ModerationContext moderationContext;
+  private List<String> evaluatedRules;
+  private AtomicLong clockNanos;
+
+  @BeforeEach
+  void setUp() {
+    ChannelManager channelManager = new ChannelManager(channelName);
+    TwitchMessage twitchMessage = new TwitchMessage("foobar", new TwitchUser("testUser"), DateTime.now(), channelName);
+    moderationContext = new ModerationContext(twitchMessage, channelManager);
+    evaluatedRules = new ArrayList<>();
+    clockNanos = new AtomicLong();
+  }
+
+  @Test
+  void cheapestFirstTest() throws Exception {
+    ModerationEngine moderationEngine = new ModerationEngine(ImmutableList.of(
+        new TestRule("expensive", 10, ModerationVerdict.NONE),
+        new TestRule("cheap", 1, ModerationVerdict.NONE),
+        new TestRule("medium", 5, ModerationVerdict.NONE)), clockNanos::get);
+    Assertions.assertEquals(ModerationVerdict.NONE, moderationEngine.moderate(moderationContext));
+    Assertions.assertEquals(ImmutableList.of("cheap", "medium", "expensive"), evaluatedRules);
+  }
+
+  @Test
+  void firstVerdictWinsTest() throws Exception {
+    ModerationEngine moderationEngine = new ModerationEngine(ImmutableList.of(
+        new TestRule("rate", 2, ModerationVerdict.timeout(TimeoutReason.MESSAGE_RATE)),
+        new TestRule("blacklist", 10, ModerationVerdict.timeout(TimeoutReason.BLACKLISTED_WORD)),
+        new TestRule("none", 1, ModerationVerdict.NONE)), clockNanos::get);
+    Assertions.assertEquals(ModerationVerdict.timeout(TimeoutReason.MESSAGE_RATE),
+        moderationEngine.moderate(moderationContext), "Only one timeout should be given");
+    Assertions.assertEquals(ImmutableList.of("none", "rate"), evaluatedRules, "Later rules should be skipped");
+    Assertions.assertEquals(1L, moderationEngine.getRuleTimings().get("rate").getVerdicts());
+    Assertions.assertEquals(0L, moderationEngine.getRuleTimings().get("blacklist").getEvaluations());
+  }
+
+  @Test
+  void undeclaredActionIgnoredTest() throws Exception {
+    ModerationEngine moderationEngine = new ModerationEngine(ImmutableList.of(
+        new TestRule("permitOnly", 1, ImmutableSet.of(ModerationAction.PERMIT),
+            ModerationVerdict.timeout(TimeoutReason.MESSAGE_RATE)),
+        new TestRule("failing", 2, ModerationVerdict.NONE) {
+          @Override
+          public ModerationVerdict evaluate(ModerationContext moderationContext) {
+            throw new IllegalStateException("Rule failure");
+          }
+        },
+        new TestRule("permit", 3, ModerationVerdict.PERMIT)), clockNanos::get);
+    Assertions.assertEquals(ModerationVerdict.PERMIT, moderationEngine.moderate(moderationContext),
+        "Undeclared actions and failing rules should not give verdicts");
+  }
+
+  @Test
+  void maxCostTest() throws Exception {
+    ModerationEngine moderationEngine = new ModerationEngine(ImmutableList.of(
+        new TestRule("cheap", 1, ModerationVerdict.NONE),
+        new TestRule("medium", 3, ModerationVerdict.NONE),
+        new TestRule("expensive", 10, ModerationVerdict.timeout(TimeoutReason.BLACKLISTED_WORD))), clockNanos::get);
+    Assertions.assertEquals(ModerationVerdict.NONE, moderationEngine.moderate(moderationContext, 3),
+        "Rules above the cost limit should be skipped");
+    Assertions.assertEquals(ImmutableList.of("cheap", "medium"), evaluatedRules);
+  }
+
+  @Test
+  void timeBudgetTest() throws Exception {
+    long ruleNanos = TimeUnit.MICROSECONDS.toNanos(ChannelSettingInteger.MODERATION_BUDGET_MICROS.getDefault()) / 2 + 1;
+    List<ModerationRule> rules = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      rules.add(new TestRule("slow" + i, i, ModerationVerdict.NONE) {
+        @Override
+        public ModerationVerdict evaluate(ModerationContext moderationContext) {
+          clockNanos.addAndGet(ruleNanos);
+          return super.evaluate(moderationContext);
+        }
+      });
+    }
+    ModerationEngine moderationEngine = new ModerationEngine(rules, clockNanos::get);
+    Assertions.assertEquals(ModerationVerdict.NONE, moderationEngine.moderate(moderationContext));
+    Assertions.assertEquals(ImmutableList.of("slow0", "slow1"), evaluatedRules,
+        "Rules after the budget is spent should be skipped");
+    Assertions.assertEquals(1L, moderationEngine.getBudgetOverruns());
+    Assertions.assertEquals(ruleNanos, moderationEngine.getRuleTimings().get("slow0").getMeanNanos());
+    Assertions.assertEquals(ruleNanos, moderationEngine.getRuleTimings().get("slow1").getMaxNanos());
+  }
+
+  private class TestRule implements ModerationRule {
+    private final String name;
+    private final int cost;
+    private final ImmutableSet<ModerationAction> actions;
+    private final ModerationVerdict verdict;
+
+    TestRule(String name, int cost, ModerationVerdict verdict) {
+      this(name, cost, ImmutableSet.copyOf(ModerationAction.values()), verdict);
+    }
+
+    TestRule(String name, int cost, ImmutableSet<ModerationAction> actions, ModerationVerdict verdict) {
+      this.name = name;
+      this.cost = cost;
+      this.actions = actions;
+      this.verdict = verdict;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public int getCost() {
+      return cost;
+    }
+
+    @Override
+    public ImmutableSet<ModerationAction> getActions() {
+      return actions;
+    }
+
+    @Override
+    public ModerationVerdict evaluate(ModerationContext moderationContext) {
+      evaluatedRules.add(name);
+      return verdict;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests per-user ordering and draining of the sharded executor.
+ */
+class ModerationExecutorTest {
+  private static final String channelName = "#testChannel";
+
+  @Test
+  void perUserOrderTest() throws Exception {
+    int userCount = 50;
+    int messagesPerUser = 2_000;
+    Map<String, List<Integer>> processedMessages = new ConcurrentHashMap<>();
+    Map<String, Thread> processingThreads = new ConcurrentHashMap<>();
+    AtomicInteger threadChanges = new AtomicInteger();
+    ModerationExecutor moderationExecutor = new ModerationExecutor(inboundTwitchMessage -> {
+      String username = inboundTwitchMessage.getUsername();
+      if (processingThreads.put(username, Thread.currentThread()) != null
+          && processingThreads.get(username) != Thread.currentThread()) {
+        threadChanges.incrementAndGet();
+      }
+      // Unsynchronised on purpose. Only the user's shard touches the user's list.
+      processedMessages.computeIfAbsent(username, key -> new ArrayList<>())
+          .add(Integer.parseInt(inboundTwitchMessage.getMessage()));
+    }, 4);
+    for (int message = 0; message < messagesPerUser; message++) {
+      for (int user = 0; user < userCount; user++) {
+        moderationExecutor.accept(new InboundTwitchMessage(channelName, "user" + user, Integer.toString(message)));
+      }
+    }
+    moderationExecutor.close();
+    List<Integer> expectedMessages = IntStream.range(0, messagesPerUser).boxed().collect(Collectors.toList());
+    Assertions.assertEquals(userCount, processedMessages.size());
+    processedMessages.forEach((username, messages) ->
+        Assertions.assertEquals(expectedMessages, messages, "Messages out of order for " + username));
+    Assertions.assertEquals(0, threadChanges.get(), "Each user should stay on one shard");
+  }
+
+  @Test
+  void closeDropsLateMessagesTest() throws Exception {
+    AtomicInteger processedCount = new AtomicInteger();
+    ModerationExecutor moderationExecutor = new ModerationExecutor(x -> processedCount.incrementAndGet(), 2);
+    IntStream.range(0, 100).forEach(x -> moderationExecutor.accept(new InboundTwitchMessage(channelName, "user", "foo")));
+    moderationExecutor.close();
+    Assertions.assertEquals(100, processedCount.get(), "Queued messages should be processed before closing");
+    moderationExecutor.accept(new InboundTwitchMessage(channelName, "user", "late"));
+    Assertions.assertEquals(1L, moderationExecutor.getDroppedMessages());
+    Assertions.assertEquals(100, processedCount.get());
+  }
+
+  @Test
+  void failingMessageTest() throws Exception {
+    List<String> processedMessages = new ArrayList<>();
+    ModerationExecutor moderationExecutor = new ModerationExecutor(inboundTwitchMessage -> {
+      if (inboundTwitchMessage.getMessage().equals("fail")) {
+        throw new IllegalStateException("Processing failure");
+      }
+      processedMessages.add(inboundTwitchMessage.getMessage());
+    }, 1);
+    moderationExecutor.accept(new InboundTwitchMessage(channelName, "user", "fail"));
+    moderationExecutor.accept(new InboundTwitchMessage(channelName, "user", "next"));
+    moderationExecutor.close();
+    Assertions.assertEquals(1, processedMessages.size(), "A failing message should not stop the shard");
+  }
+
+  @Test
+  void degradedOnSameShardTest() throws Exception {
+    List<String> processedMessages = new ArrayList<>();
+    Set<Thread> processingThreads = ConcurrentHashMap.newKeySet();
+    ModerationExecutor moderationExecutor = new ModerationExecutor(inboundTwitchMessage -> {
+      processingThreads.add(Thread.currentThread());
+      processedMessages.add(inboundTwitchMessage.getMessage());
+    }, inboundTwitchMessage -> {
+      processingThreads.add(Thread.currentThread());
+      processedMessages.add("degraded " + inboundTwitchMessage.getMessage());
+    }, 4);
+    moderationExecutor.accept(new InboundTwitchMessage(channelName, "user", "first"));
+    moderationExecutor.acceptDegraded(new InboundTwitchMessage(channelName, "user", "second"));
+    moderationExecutor.accept(new InboundTwitchMessage(channelName, "user", "third"));
+    moderationExecutor.close();
+    Assertions.assertEquals(Arrays.asList("first", "degraded second", "third"), processedMessages,
+        "Degraded messages should keep their place in the user's queue");
+    Assertions.assertEquals(1, processingThreads.size(), "Degraded messages should run on the user's shard");
+  }
+
+  @Test
+  void degradedBoundTest() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> degradedMessages = new CopyOnWriteArrayList<>();
+    ModerationExecutor moderationExecutor = new ModerationExecutor(inboundTwitchMessage -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, inboundTwitchMessage -> degradedMessages.add(inboundTwitchMessage.getMessage()), 1, 2);
+    moderationExecutor.accept(new InboundTwitchMessage(channelName, "user", "blocking"));
+    IntStream.range(0, 5).forEach(x ->
+        moderationExecutor.acceptDegraded(new InboundTwitchMessage(channelName, "user" + x, "message" + x)));
+    Assertions.assertEquals(3, moderationExecutor.getQueueDepth(), "Queue depth should count queued messages");
+    Assertions.assertEquals(3L, moderationExecutor.getDroppedMessages(), "Degraded messages past the bound should drop");
+    release.countDown();
+    moderationExecutor.close();
+    Assertions.assertEquals(Arrays.asList("message0", "message1"), degradedMessages);
+    Assertions.assertEquals(0, moderationExecutor.getQueueDepth());
+  }
+
+  @Test
+  void shardSpreadTest() throws Exception {
+    ModerationExecutor moderationExecutor = new ModerationExecutor(x -> {
+    }, 8);
+    Set<Integer> usedShards = IntStream.range(0, 1_000)
+        .mapToObj(x -> moderationExecutor.shardFor("viewer" + x))
+        .collect(Collectors.toSet());
+    moderationExecutor.close();
+    Assertions.assertEquals(moderationExecutor.getShardCount(), usedShards.size(), "Users should spread over every shard");
+    Assertions.assertEquals(moderationExecutor.shardFor("viewer1"), moderationExecutor.shardFor("viewer1"));
+  }
+}
@@ -0,0 +1,98 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.bot.channel.ChannelManager;
+import com.domhauton.wanbot.bot.channel.TwitchUser;
+import com.domhauton.wanbot.bot.channel.blacklist.BlacklistManager;
+import com.domhauton.wanbot.bot.channel.blacklist.BlacklistType;
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import com.domhauton.wanbot.bot.channel.permissions.UserPermission;
+import com.domhauton.wanbot.bot.channel.timeouts.TimeoutReason;
+import com.google.common.collect.ImmutableList;
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the built in moderation rules against a real channel.
+ */
+class ModerationRulesTest {
+  private static final String channelName = "#testChannel";
+  private static final TwitchUser twitchUser = new TwitchUser("testUser");
+
+  private ChannelManager channelManager;
+  private ModerationEngine moderationEngine;
+  private DateTime messageDateTime;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    BlacklistManager blacklistManager = new BlacklistManager();
+    blacklistManager.addToBlacklist("badword", BlacklistType.WORD);
+    channelManager = new ChannelManager(channelName, blacklistManager);
+    // Frozen clock, so a slow first run never exceeds the time budget.
+    moderationEngine = new ModerationEngine(ModerationRules.defaults(ImmutableList.of("!help")), () -> 0L);
+    messageDateTime = new DateTime(1_000_000L);
+  }
+
+  @Test
+  void cleanMessageTest() throws Exception {
+    Assertions.assertEquals(ModerationVerdict.NONE, moderate(twitchUser, "hello chat, how is everyone?"));
+  }
+
+  @Test
+  void blacklistTest() throws Exception {
+    Assertions.assertEquals(ModerationVerdict.timeout(TimeoutReason.BLACKLISTED_WORD),
+        moderate(twitchUser, "this has a b4dw0rd in it"));
+  }
+
+  @Test
+  void blacklistDegradedTest() throws Exception {
+    TwitchMessage twitchMessage = new TwitchMessage("this has a badword in it", twitchUser, messageDateTime,
+        channelName);
+    channelManager.recordChannelMessage(twitchMessage);
+    Assertions.assertEquals(ModerationVerdict.timeout(TimeoutReason.BLACKLISTED_WORD),
+        moderationEngine.moderate(new ModerationContext(twitchMessage, channelManager), 3),
+        "The blacklist should still apply when only cheap rules run");
+  }
+
+  @Test
+  void asciiArtTest() throws Exception {
+    Assertions.assertEquals(ModerationVerdict.timeout(TimeoutReason.EXCESSIVE_SYMBOLS),
+        moderate(twitchUser, "\u2588\u2588\u2588\u2588\u2588\u2588\u2588\u2588"));
+  }
+
+  @Test
+  void userRepetitionTest() throws Exception {
+    Assertions.assertEquals(ModerationVerdict.NONE, moderate(twitchUser, "buy my stuff"));
+    messageDateTime = messageDateTime.plusSeconds(10);
+    Assertions.assertEquals(ModerationVerdict.timeout(TimeoutReason.MESSAGE_REPETITION),
+        moderate(twitchUser, "buy my stuff"));
+    messageDateTime = messageDateTime.plusSeconds(10);
+    Assertions.assertEquals(ModerationVerdict.NONE, moderate(twitchUser, "!help"), "Commands may be repeated");
+    messageDateTime = messageDateTime.plusSeconds(10);
+    Assertions.assertEquals(ModerationVerdict.NONE, moderate(twitchUser, "!help"), "Commands may be repeated");
+  }
+
+  @Test
+  void messageRateTest() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      moderate(twitchUser, "message number " + i);
+    }
+    Assertions.assertEquals(ModerationVerdict.timeout(TimeoutReason.MESSAGE_RATE),
+        moderate(twitchUser, "one message too many"));
+  }
+
+  @Test
+  void moderatorPermittedTest() throws Exception {
+    TwitchUser moderator = new TwitchUser("moderator");
+    channelManager.setPermission(moderator, UserPermission.ChannelModerator);
+    Assertions.assertEquals(ModerationVerdict.PERMIT, moderate(moderator, "badword"),
+        "Moderators should be permitted before costlier rules run");
+  }
+
+  private ModerationVerdict moderate(TwitchUser sender, String message) throws Exception {
+    TwitchMessage twitchMessage = new TwitchMessage(message, sender, messageDateTime, channelName);
+    channelManager.recordChannelMessage(twitchMessage);
+    return moderationEngine.moderate(new ModerationContext(twitchMessage, channelManager));
+  }
+}
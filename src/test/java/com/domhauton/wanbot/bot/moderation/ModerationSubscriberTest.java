@@ -0,0 +1,70 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
+import com.domhauton.wanbot.chat.listener.BackpressuredMessagePublisher;
+import com.domhauton.wanbot.chat.listener.OverflowPolicy;
+import com.domhauton.wanbot.chat.listener.TwitchMessageSupplier;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Tests that the moderation subscriber bounds the messages in flight and drains on completion.
+ */
+class ModerationSubscriberTest {
+  private static final String channelName = "#testChannel";
+
+  @Test
+  void maxInFlightTest() throws Exception {
+    CountDownLatch releaseLatch = new CountDownLatch(1);
+    AtomicInteger processedCount = new AtomicInteger();
+    TestSupplier testSupplier = new TestSupplier();
+    BackpressuredMessagePublisher messagePublisher = new BackpressuredMessagePublisher(testSupplier);
+    ModerationSubscriber moderationSubscriber = new ModerationSubscriber(inboundTwitchMessage -> {
+      try {
+        releaseLatch.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      processedCount.incrementAndGet();
+    }, 2, 3);
+    messagePublisher.subscribe(moderationSubscriber, OverflowPolicy.dropOldest(100));
+    IntStream.range(0, 10).forEach(x -> testSupplier.send("user" + x));
+    Assertions.assertEquals(3, moderationSubscriber.getQueueDepth(), "Only the in flight limit should be requested");
+    Assertions.assertEquals(10, messagePublisher.getQueueDepth(), "Queue depth should include the shard backlog");
+    releaseLatch.countDown();
+    messagePublisher.close();
+    long deadline = System.currentTimeMillis() + 5_000L;
+    while (processedCount.get() < 10 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    Assertions.assertEquals(10, processedCount.get(), "Buffered messages should be processed before completing");
+    Assertions.assertEquals(0, messagePublisher.getQueueDepth());
+    moderationSubscriber.close();
+  }
+
+  private static class TestSupplier implements TwitchMessageSupplier {
+    private final List<Consumer<InboundTwitchMessage>> outputs = new ArrayList<>();
+
+    @Override
+    public void listen() {
+    }
+
+    @Override
+    public void addOutput(Consumer<InboundTwitchMessage> twitchMessageConsumer) {
+      outputs.add(twitchMessageConsumer);
+    }
+
+    void send(String username) {
+      InboundTwitchMessage inboundTwitchMessage = new InboundTwitchMessage(channelName, username, "foobar");
+      outputs.forEach(output -> output.accept(inboundTwitchMessage));
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.domhauton.wanbot.bot.moderation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests ordering of the lock-free queue under concurrent producers.
+ */
+class MpscQueueTest {
+
+  @Test
+  void fifoTest() throws Exception {
+    MpscQueue<String> mpscQueue = new MpscQueue<>();
+    Assertions.assertTrue(mpscQueue.isEmpty());
+    Assertions.assertNull(mpscQueue.poll());
+    mpscQueue.offer("foo");
+    mpscQueue.offer("bar");
+    Assertions.assertFalse(mpscQueue.isEmpty());
+    Assertions.assertEquals("foo", mpscQueue.poll());
+    Assertions.assertEquals("bar", mpscQueue.poll());
+    Assertions.assertNull(mpscQueue.poll());
+  }
+
+  @Test
+  void concurrentProducersTest() throws Exception {
+    int producerCount = 4;
+    int itemsPerProducer = 50_000;
+    MpscQueue<long[]> mpscQueue = new MpscQueue<>();
+    CountDownLatch startLatch = new CountDownLatch(1);
+    List<Thread> producers = new ArrayList<>();
+    for (int producer = 0; producer < producerCount; producer++) {
+      long producerId = producer;
+      Thread thread = new Thread(() -> {
+        try {
+          startLatch.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (long item = 0; item < itemsPerProducer; item++) {
+          mpscQueue.offer(new long[]{producerId, item});
+        }
+      });
+      thread.start();
+      producers.add(thread);
+    }
+    startLatch.countDown();
+    long[] nextExpected = new long[producerCount];
+    int received = 0;
+    while (received < producerCount * itemsPerProducer) {
+      long[] item = mpscQueue.poll();
+      if (item != null) {
+        Assertions.assertEquals(nextExpected[(int) item[0]]++, item[1], "Each producer's items should stay in order");
+        received++;
+      }
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    Assertions.assertNull(mpscQueue.poll(), "Nothing should be left over");
+  }
+}
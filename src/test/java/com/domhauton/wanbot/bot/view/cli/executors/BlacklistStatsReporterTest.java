@@ -0,0 +1,59 @@
+package com.domhauton.wanbot.bot.view.cli.executors;
+
+import com.domhauton.wanbot.bot.channel.ChannelManager;
+import com.domhauton.wanbot.bot.channel.TwitchUser;
+import com.domhauton.wanbot.bot.channel.blacklist.BlacklistType;
+import com.domhauton.wanbot.bot.channel.message.TwitchMessage;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the blacklist stats command output.
+ */
+class BlacklistStatsReporterTest {
+  private static final String CHANNEL_NAME = "foobarChannel";
+  private static final TwitchUser CHANNEL_USER_1 = new TwitchUser("userFoo1");
+
+  private ChannelManager channelManager;
+  private BlacklistStatsReporter blacklistStatsReporter;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    blacklistStatsReporter = new BlacklistStatsReporter();
+    channelManager = new ChannelManager(CHANNEL_NAME);
+    channelManager.blacklistItem("foobar", BlacklistType.WORD, 0);
+    channelManager.blacklistItem("unused", BlacklistType.WORD, 0);
+    channelManager.addChannelMessage(new TwitchMessage("a foobar", CHANNEL_USER_1, DateTime.now(), CHANNEL_NAME));
+  }
+
+  @Test
+  void summaryTest() throws Exception {
+    BotCommandResult botCommandResult = blacklistStatsReporter
+        .executeCommand(ImmutableSet.of(), ImmutableList.of(), channelManager);
+    String report = botCommandResult.getcommandExecutionMessage();
+    Assertions.assertTrue(report.contains("checked 1 messages, blocked 1"), report);
+    Assertions.assertTrue(report.contains("Top entries: ^.*\\Qfoobar\\E.*$ (1)"), report);
+    Assertions.assertTrue(botCommandResult.getOutboundTwitchMessages().isEmpty(), "Nothing sent to chat");
+  }
+
+  @Test
+  void deadEntriesTest() throws Exception {
+    String report = blacklistStatsReporter
+        .executeCommand(ImmutableSet.of('d'), ImmutableList.of(), channelManager)
+        .getcommandExecutionMessage();
+    Assertions.assertTrue(report.contains("unused"), report);
+    Assertions.assertFalse(report.contains("foobar"), report);
+  }
+
+  @Test
+  void slowestEntriesTest() throws Exception {
+    String report = blacklistStatsReporter
+        .executeCommand(ImmutableSet.of('s'), ImmutableList.of(), channelManager)
+        .getcommandExecutionMessage();
+    Assertions.assertEquals("No slow blacklist entries.", report, "No entries use java.util.regex");
+  }
+}
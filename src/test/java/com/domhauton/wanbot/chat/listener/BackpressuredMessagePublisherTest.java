@@ -0,0 +1,187 @@
+package com.domhauton.wanbot.chat.listener;
+
+import com.domhauton.wanbot.chat.data.InboundTwitchMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests demand, overflow policies and completion of the backpressured publisher.
+ */
+class BackpressuredMessagePublisherTest {
+  private static final String channelName = "#testChannel";
+
+  private TestSupplier testSupplier;
+  private BackpressuredMessagePublisher messagePublisher;
+  private TestSubscriber testSubscriber;
+
+  @BeforeEach
+  void setUp() {
+    testSupplier = new TestSupplier();
+    messagePublisher = new BackpressuredMessagePublisher(testSupplier);
+    testSubscriber = new TestSubscriber();
+  }
+
+  @Test
+  void demandTest() throws Exception {
+    messagePublisher.subscribe(testSubscriber, OverflowPolicy.dropOldest(10));
+    IntStream.range(0, 5).forEach(x -> testSupplier.send("user" + x, "message" + x));
+    Assertions.assertTrue(testSubscriber.received.isEmpty(), "Nothing should be sent before demand");
+    Assertions.assertEquals(5, messagePublisher.getQueueDepth());
+    testSubscriber.subscription.request(3);
+    Assertions.assertEquals(messages(0, 3), testSubscriber.received);
+    testSubscriber.subscription.request(10);
+    testSupplier.send("user5", "message5");
+    Assertions.assertEquals(messages(0, 6), testSubscriber.received);
+    Assertions.assertEquals(0, messagePublisher.getQueueDepth());
+    Assertions.assertEquals(0L, messagePublisher.getDroppedMessages());
+  }
+
+  @Test
+  void dropOldestTest() throws Exception {
+    messagePublisher.subscribe(testSubscriber, OverflowPolicy.dropOldest(3));
+    IntStream.range(0, 5).forEach(x -> testSupplier.send("user" + x, "message" + x));
+    Assertions.assertEquals(3, messagePublisher.getQueueDepth(), "Buffer should be bounded");
+    Assertions.assertEquals(2L, messagePublisher.getDroppedMessages());
+    testSubscriber.subscription.request(Long.MAX_VALUE);
+    Assertions.assertEquals(messages(2, 5), testSubscriber.received);
+  }
+
+  @Test
+  void sampleByUserTest() throws Exception {
+    messagePublisher.subscribe(testSubscriber, OverflowPolicy.sampleByUser(3));
+    testSupplier.send("chatty", "message0");
+    testSupplier.send("chatty", "message1");
+    testSupplier.send("quiet", "message2");
+    testSupplier.send("chatty", "message3");
+    testSupplier.send("other", "message4");
+    Assertions.assertEquals(2L, messagePublisher.getDroppedMessages());
+    testSubscriber.subscription.request(Long.MAX_VALUE);
+    Assertions.assertEquals(Arrays.asList("message1", "message2", "message4"), testSubscriber.received,
+        "Buffered users should be shed before new users");
+  }
+
+  @Test
+  void degradeTest() throws Exception {
+    List<String> degradedMessages = new ArrayList<>();
+    messagePublisher.subscribe(testSubscriber, OverflowPolicy.degradeTo(2,
+        inboundTwitchMessage -> degradedMessages.add(inboundTwitchMessage.getMessage())));
+    IntStream.range(0, 4).forEach(x -> testSupplier.send("user" + x, "message" + x));
+    Assertions.assertEquals(messages(0, 2), degradedMessages, "The oldest overflow should get the cheap path");
+    Assertions.assertEquals(2L, messagePublisher.getDegradedMessages());
+    Assertions.assertEquals(0L, messagePublisher.getDroppedMessages());
+    testSubscriber.subscription.request(2);
+    Assertions.assertEquals(messages(2, 4), testSubscriber.received);
+  }
+
+  @Test
+  void degradeKeepsUserOrderTest() throws Exception {
+    List<String> handledMessages = new ArrayList<>();
+    messagePublisher.subscribe(testSubscriber, OverflowPolicy.degradeTo(2,
+        inboundTwitchMessage -> handledMessages.add(inboundTwitchMessage.getMessage())));
+    IntStream.range(0, 4).forEach(x -> testSupplier.send("user", "message" + x));
+    testSubscriber.subscription.request(2);
+    handledMessages.addAll(testSubscriber.received);
+    Assertions.assertEquals(messages(0, 4), handledMessages, "A user's messages should be handled in order");
+  }
+
+  @Test
+  void queueDepthIncludesSubscriberTest() throws Exception {
+    messagePublisher.subscribe(testSubscriber, OverflowPolicy.dropOldest(10));
+    testSupplier.send("user", "message0");
+    testSubscriber.queueDepth = 3;
+    Assertions.assertEquals(4, messagePublisher.getQueueDepth(), "Subscriber backlog should count as queued");
+  }
+
+  @Test
+  void invalidRequestTest() throws Exception {
+    messagePublisher.subscribe(testSubscriber, OverflowPolicy.dropOldest(10));
+    testSubscriber.subscription.request(0);
+    Assertions.assertTrue(testSubscriber.error instanceof IllegalArgumentException);
+    testSupplier.send("user", "message");
+    Assertions.assertEquals(0, messagePublisher.getQueueDepth(), "Failed subscriptions should not buffer");
+  }
+
+  @Test
+  void completeAfterDrainTest() throws Exception {
+    messagePublisher.subscribe(testSubscriber, OverflowPolicy.dropOldest(10));
+    testSupplier.send("user", "message0");
+    messagePublisher.close();
+    Assertions.assertFalse(testSubscriber.completed, "Buffered messages should be delivered first");
+    testSubscriber.subscription.request(1);
+    Assertions.assertEquals(messages(0, 1), testSubscriber.received);
+    Assertions.assertTrue(testSubscriber.completed);
+    testSupplier.send("user", "late");
+    Assertions.assertEquals(1L, messagePublisher.getDroppedMessages());
+  }
+
+  @Test
+  void addOutputTest() throws Exception {
+    List<String> receivedMessages = new ArrayList<>();
+    messagePublisher.addOutput(inboundTwitchMessage -> receivedMessages.add(inboundTwitchMessage.getMessage()));
+    IntStream.range(0, 3).forEach(x -> testSupplier.send("user", "message" + x));
+    Assertions.assertEquals(messages(0, 3), receivedMessages, "Plain outputs should get everything");
+  }
+
+  private static List<String> messages(int from, int to) {
+    return IntStream.range(from, to).mapToObj(x -> "message" + x).collect(Collectors.toList());
+  }
+
+  private static class TestSupplier implements TwitchMessageSupplier {
+    private final List<Consumer<InboundTwitchMessage>> outputs = new ArrayList<>();
+
+    @Override
+    public void listen() {
+    }
+
+    @Override
+    public void addOutput(Consumer<InboundTwitchMessage> twitchMessageConsumer) {
+      outputs.add(twitchMessageConsumer);
+    }
+
+    void send(String username, String message) {
+      InboundTwitchMessage inboundTwitchMessage = new InboundTwitchMessage(channelName, username, message);
+      outputs.forEach(output -> output.accept(inboundTwitchMessage));
+    }
+  }
+
+  private static class TestSubscriber implements TwitchMessageSubscriber {
+    private final List<String> received = new ArrayList<>();
+    private TwitchMessageSubscription subscription;
+    private Throwable error;
+    private boolean completed;
+    private int queueDepth;
+
+    @Override
+    public void onSubscribe(TwitchMessageSubscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(InboundTwitchMessage inboundTwitchMessage) {
+      received.add(inboundTwitchMessage.getMessage());
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+
+    @Override
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+  }
+}